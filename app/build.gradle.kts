@@ -106,6 +106,7 @@ dependencies {
   implementation(libs.androidx.appcompat)
   implementation(libs.androidx.lifecycle.runtime.ktx)
   implementation(libs.androidx.work.runtime.ktx)
+  implementation(libs.androidx.tracing)
   implementation(libs.androidx.hilt.work)
   implementation(libs.androidx.activity.compose)
   implementation(libs.androidx.ui)
@@ -3,11 +3,14 @@ package org.fdroid.download
 import android.content.Context
 import androidx.test.core.app.ApplicationProvider
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import java.io.File
 import java.net.InetAddress
 import kotlin.test.assertEquals
 import kotlin.test.assertNotNull
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
 import org.fdroid.settings.SettingsManager
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -17,6 +20,8 @@ class DnsCacheTest {
 
   private val context = ApplicationProvider.getApplicationContext<Context>()
   private val settings = SettingsManager(context)
+  private val scope = CoroutineScope(Dispatchers.IO)
+  private val cacheFile = File(context.cacheDir, "dns_cache_test.bin").apply { delete() }
 
   private val url1 = "locaihost"
   private val url2 = "fdroid.org"
@@ -41,7 +46,7 @@ class DnsCacheTest {
   fun basicCacheTest() {
     // test setup
     settings.useDnsCache = true
-    val testObject = DnsCache(settings)
+    val testObject = DnsCache(settings, cacheFile, scope)
 
     // populate cache
     testObject.insert(url1, list1)
@@ -84,8 +89,8 @@ class DnsCacheTest {
   fun preloadCacheTest() {
     // test setup
     settings.useDnsCache = true
-    val testCache = DnsCache(settings)
-    val testObject = DnsWithCache(settings, testCache)
+    val testCache = DnsCache(settings, cacheFile, scope)
+    val testObject = DnsWithCache(settings, testCache, scope)
 
     val ipv4Strings = listOf(ip1String, ip2String)
     val ipv6Strings = listOf(ip3String, ip4String)
@@ -106,8 +111,8 @@ class DnsCacheTest {
   fun dnsRetryTest() {
     // test setup
     settings.useDnsCache = true
-    val testCache = DnsCache(settings)
-    val testObject = DnsWithCache(settings, testCache)
+    val testCache = DnsCache(settings, cacheFile, scope)
+    val testObject = DnsWithCache(settings, testCache, scope)
 
     // insert dummy value into cache
     testCache.insert(url2, list2)
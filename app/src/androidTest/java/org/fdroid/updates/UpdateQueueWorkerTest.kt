@@ -0,0 +1,112 @@
+package org.fdroid.updates
+
+import android.content.Context
+import android.content.pm.PackageInfo
+import android.os.Build.VERSION.SDK_INT
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.work.ListenableWorker
+import androidx.work.WorkerParameters
+import io.mockk.coEvery
+import io.mockk.coVerify
+import io.mockk.every
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.runs
+import io.mockk.verify
+import kotlin.test.assertEquals
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.test.runTest
+import org.fdroid.NotificationManager
+import org.fdroid.database.UpdateQueueItem
+import org.fdroid.database.UpdateStage
+import org.fdroid.install.AppInstallManager
+import org.fdroid.install.InstallNotificationState
+import org.fdroid.install.InstalledAppsCache
+import org.fdroid.ui.apps.AppUpdateItem
+import org.fdroid.ui.utils.canStartForegroundService
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+internal class UpdateQueueWorkerTest {
+
+  private lateinit var context: Context
+  private val workerParams: WorkerParameters = mockk(relaxed = true)
+  private val notificationManager: NotificationManager = mockk(relaxed = true)
+  private val updateQueue: UpdateQueue = mockk(relaxed = true)
+  private val updateInstaller: UpdateInstaller = mockk()
+  private val updatesManager: UpdatesManager = mockk()
+  private val installedAppsCache: InstalledAppsCache = mockk()
+  private val appInstallManager: AppInstallManager = mockk(relaxed = true)
+
+  @Before
+  fun setUp() {
+    // MockKAgentException: Mocking static is supported starting from Android P
+    assumeTrue(SDK_INT >= 28)
+
+    context = ApplicationProvider.getApplicationContext()
+    mockkStatic("org.fdroid.ui.utils.UiUtilsKt")
+    every { canStartForegroundService(any()) } returns false
+    every { updateInstaller.isUpdating } returns false
+    every { appInstallManager.installNotificationState } returns InstallNotificationState()
+  }
+
+  @Test
+  fun doWorkResumesAppWithFailedDownload() = runTest {
+    val installedApps = mapOf("a" to PackageInfo(), "b" to PackageInfo())
+    every { installedAppsCache.installedApps } returns MutableStateFlow(installedApps)
+    // the download of a failed and b got installed in the meantime
+    every { updateQueue.getItems() } returns
+      listOf(getQueueItem("a", UpdateStage.QUEUED, 512), getQueueItem("b", UpdateStage.QUEUED, 0))
+    val update: AppUpdateItem = mockk { every { packageName } returns "a" }
+    every { updatesManager.loadUpdates(installedApps) } returns Job().apply { complete() }
+    every { updatesManager.updates } returns MutableStateFlow(listOf(update))
+    coEvery { updateInstaller.updateAll(listOf(update), false) } just runs
+
+    val result = createWorker().doWork()
+
+    assertEquals(ListenableWorker.Result.success(), result)
+    coVerify(exactly = 1) { updateInstaller.updateAll(listOf(update), false) }
+    verify(exactly = 0) { updateQueue.remove("a") }
+    verify(exactly = 1) { updateQueue.remove("b") }
+  }
+
+  @Test
+  fun doWorkRetriesWhileStillUpdating() = runTest {
+    every { updateInstaller.isUpdating } returns true
+
+    val result = createWorker().doWork()
+
+    assertEquals(ListenableWorker.Result.retry(), result)
+    verify(exactly = 0) { updateQueue.getItems() }
+  }
+
+  private fun createWorker() =
+    UpdateQueueWorker(
+      appContext = context,
+      workerParams = workerParams,
+      nm = notificationManager,
+      updateQueue = updateQueue,
+      updateInstaller = updateInstaller,
+      updatesManager = updatesManager,
+      installedAppsCache = installedAppsCache,
+      appInstallManager = appInstallManager,
+    )
+
+  private fun getQueueItem(packageName: String, stage: UpdateStage, bytesDone: Long) =
+    UpdateQueueItem(
+      packageName = packageName,
+      repoId = 1L,
+      versionCode = 2L,
+      sha256 = "${packageName}42",
+      size = 1024L,
+      bytesDone = bytesDone,
+      stage = stage,
+      added = 0L,
+    )
+}
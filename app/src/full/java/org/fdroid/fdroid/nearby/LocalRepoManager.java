@@ -16,6 +16,7 @@ import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Apk;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.SanitizedFile;
+import org.fdroid.index.IndexCreatorCache;
 import org.fdroid.index.v1.AppV1;
 import org.fdroid.index.v1.IndexV1;
 import org.fdroid.index.v1.IndexV1Creator;
@@ -72,6 +73,7 @@ public final class LocalRepoManager {
     private final SanitizedFile fdroidDirCaps;
     private final SanitizedFile repoDir;
     private final SanitizedFile repoDirCaps;
+    private final IndexCreatorCache indexCreatorCache;
 
     @Nullable
     private static LocalRepoManager localRepoManager;
@@ -98,6 +100,8 @@ public final class LocalRepoManager {
         repoDirCaps = new SanitizedFile(fdroidDirCaps, "REPO");
         indexJar = new SanitizedFile(repoDir, IndexV1UpdaterKt.SIGNED_FILE_NAME);
         indexJarUnsigned = new SanitizedFile(repoDir, "index-v1.unsigned.jar");
+        // survives deleteRepo(), so unchanged APKs don't get hashed and their icons rendered again
+        indexCreatorCache = new IndexCreatorCache(new File(c.getCacheDir(), "swap-repo"));
 
         if (!fdroidDir.exists() && !fdroidDir.mkdir()) {
             Log.e(TAG, "Unable to create empty base: " + fdroidDir);
@@ -257,7 +261,8 @@ public final class LocalRepoManager {
         RepoV1 repo = new RepoV1(System.currentTimeMillis(), 20001, 7, name, "swap-icon.png",
                 address, description, Collections.emptyList());
         Set<String> apps = new HashSet<>(Arrays.asList(selectedApps));
-        IndexV1Creator creator = new IndexV1Creator(context.getPackageManager(), repoDir, apps, repo);
+        IndexV1Creator creator = new IndexV1Creator(context.getPackageManager(), repoDir, apps, repo,
+                indexCreatorCache);
         IndexV1 indexV1 = creator.createRepo();
         cacheApps(indexV1);
         writeIndexPage(repoUri);
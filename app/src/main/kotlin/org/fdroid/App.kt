@@ -20,6 +20,8 @@ import coil3.util.DebugLogger
 import coil3.util.Logger
 import dagger.hilt.android.HiltAndroidApp
 import javax.inject.Inject
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
 import org.acra.ACRA
 import org.acra.ReportField
 import org.acra.config.dialog
@@ -29,9 +31,12 @@ import org.acra.ktx.initAcra
 import org.fdroid.AppFull
 import org.fdroid.BuildConfig.APPLICATION_ID
 import org.fdroid.BuildConfig.VERSION_NAME
+import org.fdroid.Tracing
+import org.fdroid.db.DatabaseModule
+import org.fdroid.db.DbRepairWorker
+import org.fdroid.db.InitialData
 import org.fdroid.download.DownloadRequest
 import org.fdroid.download.LocalIconFetcher
-import org.fdroid.download.PackageName
 import org.fdroid.download.coil.DownloadRequestFetcher
 import org.fdroid.repo.RepoUpdateWorker
 import org.fdroid.settings.SettingsManager
@@ -40,6 +45,8 @@ import org.fdroid.ui.crash.NoRetryPolicy
 import org.fdroid.ui.utils.applyNewTheme
 import org.fdroid.updates.AppUpdateWorker
 import org.fdroid.updates.SelfUpdateReceiver
+import org.fdroid.utils.AndroidTracer
+import org.fdroid.utils.IoDispatcher
 
 @HiltAndroidApp
 class App : Application(), Configuration.Provider, SingletonImageLoader.Factory {
@@ -54,6 +61,12 @@ class App : Application(), Configuration.Provider, SingletonImageLoader.Factory
 
   @Inject lateinit var downloadRequestFetcherFactory: DownloadRequestFetcher.Factory
 
+  @Inject lateinit var localIconFetcherFactory: LocalIconFetcher.Factory
+
+  @Inject lateinit var initialData: InitialData
+
+  @Inject @field:IoDispatcher lateinit var ioScope: CoroutineScope
+
   override val workManagerConfiguration: Configuration
     get() = Configuration.Builder().setWorkerFactory(workerFactory).build()
 
@@ -102,11 +115,18 @@ class App : Application(), Configuration.Provider, SingletonImageLoader.Factory
     // bail out here if we are the ACRA process to not initialize anything in crash process
     if (isAcraProces()) return
 
+    // trace sections of our libraries, so repo updates and installs can be profiled
+    Tracing.tracer = AndroidTracer
+
+    // open the database in the background, so the first screen doesn't need to wait for it
+    ioScope.launch { DatabaseModule.openFDroidDatabase(applicationContext, initialData) }
+
     // don't show self-update notification unless we enable it first
     SelfUpdateReceiver.disable(this)
 
     RepoUpdateWorker.scheduleOrCancel(applicationContext, settingsManager.repoUpdates)
     AppUpdateWorker.scheduleOrCancel(applicationContext, settingsManager.autoUpdateApps)
+    DbRepairWorker.schedule(applicationContext)
 
     AppFull.onCreate(applicationContext)
   }
@@ -129,9 +149,8 @@ class App : Application(), Configuration.Provider, SingletonImageLoader.Factory
         add(downloadRequestKeyer)
         add(downloadRequestFetcherFactory)
 
-        val packageNameKeyer = Keyer<PackageName> { data, _ -> data.packageName }
-        add(packageNameKeyer)
-        add(LocalIconFetcher.Factory(context, downloadRequestFetcherFactory))
+        add(localIconFetcherFactory.keyer)
+        add(localIconFetcherFactory)
       }
       .memoryCache { MemoryCache.Builder().maxSizePercent(context, 0.25).build() }
       .diskCache {
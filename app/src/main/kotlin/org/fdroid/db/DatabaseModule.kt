@@ -11,6 +11,13 @@ import org.fdroid.BuildConfig
 import org.fdroid.database.FDroidDatabase
 import org.fdroid.database.FDroidDatabaseHolder
 
+/**
+ * The fraction of database queries whose latency gets recorded in release builds, so users can
+ * export those statistics when reporting that the app is slow.
+ */
+private const val QUERY_METRICS_SAMPLE_RATE = 0.05
+private const val DB_NAME = "fdroid_db"
+
 @Module
 @InstallIn(SingletonComponent::class)
 object DatabaseModule {
@@ -20,11 +27,27 @@ object DatabaseModule {
     @ApplicationContext context: Context,
     initialData: InitialData,
   ): FDroidDatabase {
+    // returns right away, if openFDroidDatabase() was done already
     return FDroidDatabaseHolder.getDb(
       context,
-      "fdroid_db",
+      DB_NAME,
+      initialData,
+      logSlowQueries = BuildConfig.DEBUG,
+      queryMetricsSampleRate = if (BuildConfig.DEBUG) 1.0 else QUERY_METRICS_SAMPLE_RATE,
+    )
+  }
+
+  /**
+   * Opens the database without blocking, so this can be called at app start to have the database
+   * ready before the first screen needs it.
+   */
+  suspend fun openFDroidDatabase(context: Context, initialData: InitialData): FDroidDatabase {
+    return FDroidDatabaseHolder.openDb(
+      context,
+      DB_NAME,
       initialData,
       logSlowQueries = BuildConfig.DEBUG,
+      queryMetricsSampleRate = if (BuildConfig.DEBUG) 1.0 else QUERY_METRICS_SAMPLE_RATE,
     )
   }
 }
@@ -0,0 +1,56 @@
+package org.fdroid.db
+
+import android.content.Context
+import androidx.hilt.work.HiltWorker
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy.KEEP
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+import java.util.concurrent.TimeUnit.DAYS
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import mu.KotlinLogging
+import org.fdroid.database.FDroidDatabase
+
+/**
+ * Checks the FTS index of the database and repairs it, if needed. This only runs while the device
+ * is idle and charging, so it doesn't compete with the UI for database access.
+ */
+@HiltWorker
+class DbRepairWorker
+@AssistedInject
+constructor(
+  @Assisted appContext: Context,
+  @Assisted workerParams: WorkerParameters,
+  private val db: FDroidDatabase,
+) : CoroutineWorker(appContext, workerParams) {
+
+  private val log = KotlinLogging.logger {}
+
+  companion object {
+    private const val UNIQUE_WORK_NAME_DB_REPAIR = "dbRepair"
+
+    fun schedule(context: Context) {
+      val constraints =
+        Constraints.Builder().setRequiresDeviceIdle(true).setRequiresCharging(true).build()
+      val workRequest =
+        PeriodicWorkRequestBuilder<DbRepairWorker>(1, DAYS).setConstraints(constraints).build()
+      WorkManager.getInstance(context)
+        .enqueueUniquePeriodicWork(UNIQUE_WORK_NAME_DB_REPAIR, KEEP, workRequest)
+    }
+  }
+
+  override suspend fun doWork(): Result {
+    return try {
+      withContext(Dispatchers.IO) { db.repairFtsIfNeeded() }
+      Result.success()
+    } catch (e: Exception) {
+      log.error(e) { "Error running Fts repair or check: " }
+      Result.failure()
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package org.fdroid.db
+
+import androidx.annotation.VisibleForTesting
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.seconds
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.emptyFlow
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import mu.KotlinLogging
+import org.fdroid.utils.IoDispatcher
+
+/**
+ * Coalesces the invalidations Room sends to observed queries while a batch of database writes is
+ * in progress, e.g. a repository update.
+ *
+ * Every write to the app tables invalidates all observed app queries, so updating many repos
+ * would re-run heavy list queries many times. Flows passed through [coalesce] stop observing the
+ * database while a batch is open and re-run their query once when it ends. If a batch takes
+ * longer than [maxBatchDuration], they get refreshed once in between, so the UI doesn't look
+ * stale during very long updates.
+ */
+@Singleton
+class InvalidationBatcher
+@VisibleForTesting
+internal constructor(
+  private val scope: CoroutineScope,
+  private val maxBatchDuration: Duration,
+) {
+
+  @Inject
+  constructor(@IoDispatcher scope: CoroutineScope) : this(scope, MAX_BATCH_DURATION)
+
+  companion object {
+    private val MAX_BATCH_DURATION = 30.seconds
+  }
+
+  private val log = KotlinLogging.logger {}
+  private val lock = Any()
+  private var openBatches = 0
+  private var refreshJob: Job? = null
+
+  /** Null while no batch is open, otherwise the number of refreshes during the open batch. */
+  private val batchState = MutableStateFlow<Int?>(null)
+
+  /** Opens a batch. Each call must be followed by a call to [end]. Batches can be nested. */
+  fun begin() {
+    synchronized(lock) {
+      if (openBatches++ > 0) return
+      log.debug { "Starting to coalesce invalidations" }
+      batchState.value = 0
+      refreshJob = scope.launch {
+        while (true) {
+          delay(maxBatchDuration)
+          batchState.update { it?.plus(1) }
+        }
+      }
+    }
+  }
+
+  /** Closes a batch opened with [begin] which refreshes all coalesced flows once. */
+  fun end() {
+    synchronized(lock) {
+      check(openBatches > 0) { "No open batch" }
+      if (--openBatches > 0) return
+      log.debug { "Stopping to coalesce invalidations" }
+      refreshJob?.cancel()
+      refreshJob = null
+      batchState.value = null
+    }
+  }
+
+  /** Runs the given [block] in a batch. */
+  inline fun <T> batch(block: () -> T): T {
+    begin()
+    try {
+      return block()
+    } finally {
+      end()
+    }
+  }
+
+  /**
+   * Returns a flow that emits the values of the given database [flow], but stops observing the
+   * database while a batch is open. It still emits one value, if it didn't emit any before.
+   */
+  @OptIn(ExperimentalCoroutinesApi::class)
+  fun <T> coalesce(flow: Flow<T>): Flow<T> = flow {
+    var hasValue = false
+    val coalescedFlow =
+      batchState.flatMapLatest { refreshes ->
+        when {
+          refreshes == null -> flow
+          refreshes == 0 && hasValue -> emptyFlow()
+          else -> flow.take(1)
+        }
+      }
+    emitAll(coalescedFlow.onEach { hasValue = true })
+  }
+}
@@ -0,0 +1,23 @@
+package org.fdroid.db
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import mu.KotlinLogging
+
+/**
+ * Updates the localized app metadata in the database when the system locales change, even while
+ * our app isn't running.
+ */
+class LocaleChangedReceiver : BroadcastReceiver() {
+
+  private val log = KotlinLogging.logger {}
+
+  override fun onReceive(context: Context, intent: Intent) {
+    if (intent.action != Intent.ACTION_LOCALE_CHANGED) {
+      log.warn { "Unknown action: ${intent.action}" }
+      return
+    }
+    LocaleUpdateWorker.updateNow(context)
+  }
+}
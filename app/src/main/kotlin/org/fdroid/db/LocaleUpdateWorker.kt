@@ -0,0 +1,66 @@
+package org.fdroid.db
+
+import android.content.Context
+import android.content.res.Resources
+import androidx.core.os.ConfigurationCompat.getLocales
+import androidx.hilt.work.HiltWorker
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy.REPLACE
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import mu.KotlinLogging
+import org.fdroid.database.FDroidDatabase
+
+/**
+ * Re-resolves the cached localized names and summaries of all apps after the system locales have
+ * changed. This happens in small chunks, so the database stays usable while this is running.
+ */
+@HiltWorker
+class LocaleUpdateWorker
+@AssistedInject
+constructor(
+  @Assisted appContext: Context,
+  @Assisted workerParams: WorkerParameters,
+  private val db: FDroidDatabase,
+) : CoroutineWorker(appContext, workerParams) {
+
+  private val log = KotlinLogging.logger {}
+
+  companion object {
+    private const val UNIQUE_WORK_NAME_LOCALE_UPDATE = "localeUpdate"
+    const val PROGRESS_DONE = "done"
+    const val PROGRESS_TOTAL = "total"
+
+    /** Starts updating, replacing an update for previous locales that may still be running. */
+    fun updateNow(context: Context) {
+      val request =
+        OneTimeWorkRequestBuilder<LocaleUpdateWorker>()
+          .setExpedited(RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+          .build()
+      WorkManager.getInstance(context)
+        .enqueueUniqueWork(UNIQUE_WORK_NAME_LOCALE_UPDATE, REPLACE, request)
+    }
+  }
+
+  override suspend fun doWork(): Result {
+    val locales = getLocales(Resources.getSystem().configuration)
+    log.info { "Updating localized app metadata for $locales" }
+    withContext(Dispatchers.IO) {
+      db.updateLocalizedAppMetadata(locales) { done, total ->
+        // the next locale change replaces this work, so stop between chunks
+        if (isStopped) throw CancellationException("Stopped at $done/$total")
+        setProgressAsync(workDataOf(PROGRESS_DONE to done, PROGRESS_TOTAL to total))
+      }
+    }
+    log.info { "Updated localized app metadata for $locales" }
+    return Result.success()
+  }
+}
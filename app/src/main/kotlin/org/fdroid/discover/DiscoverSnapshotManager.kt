@@ -0,0 +1,153 @@
+package org.fdroid.discover
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import androidx.core.os.LocaleListCompat
+import androidx.lifecycle.asFlow
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
+import java.io.FileNotFoundException
+import java.text.Collator
+import java.util.Locale
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.time.measureTimedValue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.decodeFromStream
+import kotlinx.serialization.json.encodeToStream
+import mu.KotlinLogging
+import org.fdroid.database.AppOverviewItem
+import org.fdroid.database.FDroidDatabase
+import org.fdroid.index.v2.FileV2
+import org.fdroid.utils.IoDispatcher
+
+private const val SNAPSHOT_FILE = "discover_snapshot.json"
+
+/**
+ * What the Discover screen showed after the last repository update, with names already resolved
+ * for the [localeTags] it was taken with.
+ */
+@Serializable
+data class DiscoverSnapshot(
+  val localeTags: String,
+  val newApps: List<SnapshotApp>,
+  val recentlyUpdatedApps: List<SnapshotApp>,
+  val mostDownloadedApps: List<SnapshotApp>,
+  val categories: List<SnapshotCategory>,
+)
+
+@Serializable
+data class SnapshotApp(
+  val repoId: Long,
+  val packageName: String,
+  val name: String,
+  val lastUpdated: Long,
+  val icon: FileV2? = null,
+)
+
+@Serializable data class SnapshotCategory(val id: String, val name: String)
+
+/**
+ * Keeps a [DiscoverSnapshot] in a small file, so the Discover screen can show its carousels right
+ * away on a cold start, without waiting for the database and its queries.
+ */
+@Singleton
+class DiscoverSnapshotManager
+@VisibleForTesting
+internal constructor(
+  private val file: File,
+  private val db: FDroidDatabase,
+  private val mostDownloadedApps: MostDownloadedApps,
+  private val coroutineScope: CoroutineScope,
+) {
+  private val log = KotlinLogging.logger {}
+
+  @Inject
+  constructor(
+    @ApplicationContext context: Context,
+    db: FDroidDatabase,
+    mostDownloadedApps: MostDownloadedApps,
+    @IoDispatcher coroutineScope: CoroutineScope,
+  ) : this(File(context.filesDir, SNAPSHOT_FILE), db, mostDownloadedApps, coroutineScope)
+
+  /**
+   * Returns the last snapshot or null, if there is none or it was taken for different locales, so
+   * its names would be wrong.
+   */
+  @Synchronized
+  @WorkerThread
+  @OptIn(ExperimentalSerializationApi::class)
+  fun read(localeList: LocaleListCompat = LocaleListCompat.getDefault()): DiscoverSnapshot? {
+    val (snapshot, duration) =
+      measureTimedValue {
+        try {
+          file.inputStream().use { Json.decodeFromStream<DiscoverSnapshot>(it) }
+        } catch (e: Exception) {
+          if (e !is FileNotFoundException) {
+            log.error(e) { "Error reading discover snapshot: " }
+            file.delete()
+          }
+          null
+        }
+      }
+    log.debug { "Reading discover snapshot took $duration" }
+    return snapshot?.takeIf { it.localeTags == localeList.toLanguageTags() }
+  }
+
+  /** Takes a new snapshot from the database, should be called after repositories got updated. */
+  fun update(localeList: LocaleListCompat = LocaleListCompat.getDefault()) =
+    coroutineScope.launch {
+      try {
+        val appDao = db.getAppDao()
+        val categories = db.getRepositoryDao().getLiveCategories().asFlow().first()
+        val collator = Collator.getInstance(Locale.getDefault())
+        val snapshot =
+          DiscoverSnapshot(
+            localeTags = localeList.toLanguageTags(),
+            newApps = appDao.getNewApps().map { it.toSnapshotApp(localeList) },
+            recentlyUpdatedApps =
+              appDao.getRecentlyUpdatedApps().map { it.toSnapshotApp(localeList) },
+            mostDownloadedApps =
+              appDao.getApps(mostDownloadedApps.packageNames).map { it.toSnapshotApp(localeList) },
+            categories =
+              categories
+                .map { category ->
+                  SnapshotCategory(category.id, category.getName(localeList) ?: "Unknown Category")
+                }
+                .sortedWith { c1, c2 -> collator.compare(c1.name, c2.name) },
+          )
+        write(snapshot)
+      } catch (e: Exception) {
+        log.error(e) { "Error updating discover snapshot: " }
+      }
+    }
+
+  @VisibleForTesting
+  @Synchronized
+  @WorkerThread
+  @OptIn(ExperimentalSerializationApi::class)
+  internal fun write(snapshot: DiscoverSnapshot) {
+    // write to a temporary file first, so a crash never leaves a half-written snapshot behind
+    val tmpFile = File(file.parentFile, "${file.name}.tmp")
+    tmpFile.outputStream().use { Json.encodeToStream(snapshot, it) }
+    if (!tmpFile.renameTo(file)) {
+      log.error { "Could not rename $tmpFile" }
+      tmpFile.delete()
+    }
+  }
+
+  private fun AppOverviewItem.toSnapshotApp(localeList: LocaleListCompat) =
+    SnapshotApp(
+      repoId = repoId,
+      packageName = packageName,
+      name = getName(localeList) ?: "Unknown App",
+      lastUpdated = lastUpdated,
+      icon = getIcon(localeList),
+    )
+}
@@ -0,0 +1,31 @@
+package org.fdroid.discover
+
+import android.content.Context
+import dagger.hilt.android.qualifiers.ApplicationContext
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.decodeFromStream
+import mu.KotlinLogging
+
+private const val MOST_DOWNLOADED_APPS_FILE = "most_downloaded_apps.json"
+
+/** The package names of the most downloaded apps shipped in our assets, parsed only once. */
+@Singleton
+class MostDownloadedApps @Inject constructor(@ApplicationContext private val context: Context) {
+  private val log = KotlinLogging.logger {}
+
+  /** Parses the assets on first access, so this should not be called on the UiThread. */
+  val packageNames: List<String> by lazy {
+    try {
+      context.assets.open(MOST_DOWNLOADED_APPS_FILE).use { inputStream ->
+        @OptIn(ExperimentalSerializationApi::class)
+        Json.decodeFromStream<List<String>>(inputStream)
+      }
+    } catch (e: Exception) {
+      log.error(e) { "Error loading most downloaded apps: " }
+      emptyList()
+    }
+  }
+}
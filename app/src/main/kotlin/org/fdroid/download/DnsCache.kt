@@ -1,84 +1,202 @@
 package org.fdroid.download
 
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
 import java.net.InetAddress
 import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit.HOURS
+import java.util.concurrent.TimeUnit.MINUTES
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
 import javax.inject.Singleton
-import kotlin.concurrent.atomics.AtomicBoolean
-import kotlin.concurrent.atomics.ExperimentalAtomicApi
-import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import mu.KotlinLogging
+import org.fdroid.settings.SettingsConstants.PREF_DNS_CACHE_DEFAULT
 import org.fdroid.settings.SettingsManager
+import org.fdroid.utils.IoDispatcher
 
-@OptIn(ExperimentalAtomicApi::class)
+private const val DNS_CACHE_FILE = "dns_cache.bin"
+private const val FILE_MAGIC = 0x444e5301 // "DNS" + version 1
+
+/**
+ * How long a successful lookup stays valid. Android's resolver does not expose the TTLs of the DNS
+ * records, so we use a fixed value. Expired entries still get used as a fallback when the resolver
+ * fails, see [DnsWithCache].
+ */
+@VisibleForTesting internal val POSITIVE_TTL_MILLIS = HOURS.toMillis(1)
+
+/** How long a failed lookup is remembered, so parallel downloads don't all hit the resolver. */
+@VisibleForTesting internal val NEGATIVE_TTL_MILLIS = SECONDS.toMillis(30)
+
+/** Entries this close to expiry get refreshed in the background while still being served. */
+@VisibleForTesting internal val REFRESH_WINDOW_MILLIS = MINUTES.toMillis(10)
+
+/** Changes are written to disk in batches, at most once per this delay. */
+@VisibleForTesting internal val WRITE_DELAY_MILLIS = SECONDS.toMillis(5)
+
+/**
+ * A cached DNS result. An empty [addresses] list represents a failed lookup (negative caching).
+ */
+data class DnsCacheEntry(val addresses: List<InetAddress>, val expiresAt: Long) {
+  val isNegative: Boolean
+    get() = addresses.isEmpty()
+
+  fun isExpired(now: Long): Boolean = now >= expiresAt
+
+  fun needsRefresh(now: Long): Boolean = !isNegative && now >= expiresAt - REFRESH_WINDOW_MILLIS
+}
+
+/**
+ * A thread-safe DNS cache with per-entry expiry.
+ *
+ * Successful lookups are persisted to a compact binary [cacheFile]. Writes are batched, so many
+ * inserts in short succession only cause a single write. Negative entries are only kept in memory.
+ */
 @Singleton
-class DnsCache @Inject constructor(private val settingsManager: SettingsManager) {
+class DnsCache(
+  private val settingsManager: SettingsManager,
+  private val cacheFile: File,
+  private val scope: CoroutineScope,
+  private val currentTimeMillis: () -> Long = System::currentTimeMillis,
+) {
+
+  @Inject
+  constructor(
+    @ApplicationContext context: Context,
+    settingsManager: SettingsManager,
+    @IoDispatcher scope: CoroutineScope,
+  ) : this(settingsManager, File(context.filesDir, DNS_CACHE_FILE), scope)
 
   private val log = KotlinLogging.logger {}
 
-  private var cache: MutableMap<String, List<InetAddress>>
-  private var writeScheduled: AtomicBoolean = AtomicBoolean(false)
+  private val cache: ConcurrentHashMap<String, DnsCacheEntry> by lazy { load() }
+  private val writeScheduled = AtomicBoolean(false)
 
-  init {
-    cache = stringToIpMap(settingsManager.dnsCache).toMutableMap()
-  }
+  fun now(): Long = currentTimeMillis()
 
   fun insert(hostname: String, ipList: List<InetAddress>) {
-    cache[hostname] = ipList
-    cacheWrite()
+    if (ipList.isEmpty()) return
+    cache[hostname] = DnsCacheEntry(ipList, now() + POSITIVE_TTL_MILLIS)
+    scheduleWrite()
+  }
+
+  /** Remembers that looking up [hostname] failed just now. */
+  fun insertNegative(hostname: String) {
+    cache[hostname] = DnsCacheEntry(emptyList(), now() + NEGATIVE_TTL_MILLIS)
   }
 
   fun remove(hostname: String) {
-    val ipList = cache.remove(hostname)
-    if (ipList != null) {
-      cacheWrite()
+    val entry = cache.remove(hostname)
+    if (entry != null && !entry.isNegative) {
+      scheduleWrite()
     }
   }
 
+  /**
+   * Returns the cached addresses for [hostname], even if they already expired, or null if there
+   * are none or the cache is disabled.
+   */
   fun lookup(hostname: String): List<InetAddress>? {
     return if (settingsManager.useDnsCache) {
-      cache[hostname]
+      cache[hostname]?.takeIf { !it.isNegative }?.addresses
     } else {
       null
     }
   }
 
+  /** Returns the raw cache entry for [hostname] including its expiry information. */
+  fun getEntry(hostname: String): DnsCacheEntry? = cache[hostname]
+
   fun keys(): Set<String> {
-    return cache.keys
+    return cache.filterValues { !it.isNegative }.keys
   }
 
-  private fun cacheWrite() {
-    if (writeScheduled.compareAndSet(expectedValue = false, newValue = true)) {
-      MainScope().launch {
-        delay(1000L)
-        settingsManager.dnsCache = ipMapToString(cache)
-        writeScheduled.store(false)
+  private fun scheduleWrite() {
+    if (writeScheduled.compareAndSet(false, true)) {
+      scope.launch {
+        delay(WRITE_DELAY_MILLIS)
+        writeScheduled.set(false)
+        flush()
       }
     }
   }
 
-  private fun ipMapToString(ipMap: Map<String, List<InetAddress>>): String {
+  /** Writes all positive entries to [cacheFile] right away. */
+  @Synchronized
+  fun flush() {
+    val tmpFile = File(cacheFile.parentFile, "${cacheFile.name}.tmp")
     try {
-      var output = ""
-      ipMap.forEach { (key, addresses) ->
-        if (!output.isEmpty()) {
-          output += "\n"
-        }
-        output += key
-        for (item in addresses) {
-          if (!output.isEmpty()) {
-            output += " "
+      val entries = cache.filterValues { !it.isNegative }
+      DataOutputStream(tmpFile.outputStream().buffered()).use { out ->
+        out.writeInt(FILE_MAGIC)
+        out.writeInt(entries.size)
+        entries.forEach { (hostname, entry) ->
+          out.writeUTF(hostname)
+          out.writeLong(entry.expiresAt)
+          out.writeByte(entry.addresses.size)
+          entry.addresses.forEach { address ->
+            val bytes = address.address
+            out.writeByte(bytes.size)
+            out.write(bytes)
           }
-          output += item.hostAddress
         }
       }
-      return output
+      if (!tmpFile.renameTo(cacheFile)) throw IOException("Could not rename $tmpFile")
     } catch (e: Exception) {
-      log.error(e) { "Error converting IP map to string, returning empty string: " }
-      return ""
+      log.error(e) { "Error writing DNS cache: " }
+      tmpFile.delete()
+    }
+  }
+
+  private fun load(): ConcurrentHashMap<String, DnsCacheEntry> {
+    val map = ConcurrentHashMap<String, DnsCacheEntry>()
+    if (!cacheFile.isFile) {
+      migrateFromSettings(map)
+      return map
+    }
+    try {
+      DataInputStream(cacheFile.inputStream().buffered()).use { input ->
+        if (input.readInt() != FILE_MAGIC) throw IOException("Unknown file format")
+        repeat(input.readInt()) {
+          val hostname = input.readUTF()
+          val expiresAt = input.readLong()
+          val addresses =
+            List(input.readUnsignedByte()) {
+              val bytes = ByteArray(input.readUnsignedByte())
+              input.readFully(bytes)
+              InetAddress.getByAddress(hostname, bytes)
+            }
+          if (addresses.isNotEmpty()) map[hostname] = DnsCacheEntry(addresses, expiresAt)
+        }
+      }
+    } catch (e: Exception) {
+      log.error(e) { "Error reading DNS cache, starting empty: " }
+      map.clear()
+    }
+    return map
+  }
+
+  /**
+   * Older versions stored the cache as a string in the settings. We import those once and treat
+   * them as expired, so they get refreshed on first use, but can still act as a fallback.
+   */
+  private fun migrateFromSettings(map: MutableMap<String, DnsCacheEntry>) {
+    val oldCache = settingsManager.dnsCache
+    if (oldCache == PREF_DNS_CACHE_DEFAULT) return
+    stringToIpMap(oldCache).forEach { (hostname, addresses) ->
+      if (addresses.isNotEmpty()) map[hostname] = DnsCacheEntry(addresses, 0)
     }
+    settingsManager.dnsCache = PREF_DNS_CACHE_DEFAULT
+    scheduleWrite()
   }
 
   private fun stringToIpMap(string: String): Map<String, List<InetAddress>> {
@@ -1,28 +1,107 @@
 package org.fdroid.download
 
+import androidx.annotation.VisibleForTesting
 import java.net.InetAddress
 import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
 import mu.KotlinLogging
 import okhttp3.Dns
 import org.fdroid.settings.SettingsManager
+import org.fdroid.utils.IoDispatcher
 
+/**
+ * A [Dns] that answers from [DnsCache] when enabled.
+ *
+ * This gets called concurrently from many HTTP threads. Concurrent lookups of the same host share a
+ * single call to the [resolver]. Entries close to expiry get refreshed in the background, expired
+ * entries serve as a fallback when the [resolver] fails.
+ */
 @Singleton
 class DnsWithCache
-@Inject
-constructor(private val settingsManager: SettingsManager, private val cache: DnsCache) : Dns {
+@VisibleForTesting
+internal constructor(
+  private val settingsManager: SettingsManager,
+  private val cache: DnsCache,
+  private val scope: CoroutineScope,
+  private val resolver: Dns,
+) : Dns {
+
+  @Inject
+  constructor(
+    settingsManager: SettingsManager,
+    cache: DnsCache,
+    @IoDispatcher scope: CoroutineScope,
+  ) : this(settingsManager, cache, scope, Dns.SYSTEM)
+
+  private val log = KotlinLogging.logger {}
+  private val inFlight = ConcurrentHashMap<String, FutureTask<List<InetAddress>>>()
 
   override fun lookup(hostname: String): List<InetAddress> {
     if (!settingsManager.useDnsCache) {
-      return Dns.SYSTEM.lookup(hostname)
+      return resolver.lookup(hostname)
+    }
+    val now = cache.now()
+    val entry = cache.getEntry(hostname)
+    if (entry != null && !entry.isExpired(now)) {
+      if (entry.isNegative) throw UnknownHostException("$hostname (cached failure)")
+      if (entry.needsRefresh(now)) refreshInBackground(hostname)
+      return entry.addresses
+    }
+    return resolve(hostname)
+  }
+
+  private fun refreshInBackground(hostname: String) {
+    if (inFlight.containsKey(hostname)) return
+    scope.launch {
+      try {
+        resolve(hostname)
+      } catch (e: UnknownHostException) {
+        log.warn(e) { "Could not refresh $hostname: " }
+      }
+    }
+  }
+
+  /** Resolves [hostname], joining a lookup of the same host that is already in progress. */
+  private fun resolve(hostname: String): List<InetAddress> {
+    val newTask = FutureTask { resolveAndCache(hostname) }
+    val task = inFlight.putIfAbsent(hostname, newTask)
+    if (task == null) {
+      try {
+        newTask.run()
+      } finally {
+        inFlight.remove(hostname, newTask)
+      }
+    }
+    return try {
+      (task ?: newTask).get()
+    } catch (e: ExecutionException) {
+      throw e.cause ?: e
     }
-    var ipList = cache.lookup(hostname)
-    if (ipList.isNullOrEmpty()) {
-      ipList = Dns.SYSTEM.lookup(hostname)
-      cache.insert(hostname, ipList)
+  }
+
+  private fun resolveAndCache(hostname: String): List<InetAddress> {
+    // another thread may have finished resolving this host since we checked the cache
+    val entry = cache.getEntry(hostname)
+    if (entry != null && !entry.isNegative && !entry.needsRefresh(cache.now())) {
+      return entry.addresses
+    }
+    return try {
+      resolver.lookup(hostname).also { cache.insert(hostname, it) }
+    } catch (e: UnknownHostException) {
+      val staleList = cache.lookup(hostname)
+      if (!staleList.isNullOrEmpty()) {
+        log.warn { "Lookup of $hostname failed, using expired cache entry." }
+        return staleList
+      }
+      cache.insertNegative(hostname)
+      throw e
     }
-    return ipList
   }
 
   /**
@@ -83,7 +162,7 @@ constructor(private val settingsManager: SettingsManager, private val cache: Dns
     // if no cached result was found, a cached result didn't cause the failure
     val ipList = cache.lookup(hostname) ?: return false
     try {
-      val dnsList = Dns.SYSTEM.lookup(hostname)
+      val dnsList = resolver.lookup(hostname)
       for (address in dnsList) {
         if (!ipList.contains(address)) {
           // the cached result doesn't match the current dns result,
@@ -17,6 +17,7 @@ constructor(
   @param:ApplicationContext private val context: Context,
   private val settingsManager: SettingsManager,
   private val dnsWithCache: DnsWithCache,
+  private val mirrorStatsStore: MirrorStatsStore,
 ) : MirrorParameterManager {
 
   override fun cacheMirrorIpAddresses(
@@ -31,10 +32,25 @@ constructor(
     return dnsWithCache.shouldRetryRequest(mirrorUrl)
   }
 
-  // TODO overhaul default MirrorChooser
-  override fun incrementMirrorErrorCount(mirrorUrl: String) {}
+  override fun incrementMirrorErrorCount(mirrorUrl: String) {
+    mirrorStatsStore.recordFailure(mirrorUrl)
+  }
+
+  override fun getMirrorErrorCount(mirrorUrl: String): Int {
+    return mirrorStatsStore.getConsecutiveFailures(mirrorUrl)
+  }
+
+  override fun reportMirrorLatency(mirrorUrl: String, timeToFirstByteMillis: Long) {
+    mirrorStatsStore.recordLatency(mirrorUrl, timeToFirstByteMillis)
+  }
+
+  override fun reportMirrorThroughput(mirrorUrl: String, bytes: Long, durationMillis: Long) {
+    mirrorStatsStore.recordThroughput(mirrorUrl, bytes, durationMillis)
+  }
 
-  override fun getMirrorErrorCount(mirrorUrl: String): Int = 0
+  override fun getMirrorScore(mirrorUrl: String): Double? {
+    return mirrorStatsStore.getScore(mirrorUrl)
+  }
 
   override fun preferForeignMirrors(): Boolean {
     return settingsManager.mirrorChooser == SettingsConstants.MirrorChooserValues.PreferForeign
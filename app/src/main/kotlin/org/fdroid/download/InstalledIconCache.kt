@@ -0,0 +1,138 @@
+package org.fdroid.download
+
+import android.content.Context
+import android.content.pm.PackageInfo
+import android.graphics.Bitmap
+import androidx.core.content.pm.PackageInfoCompat.getLongVersionCode
+import coil3.disk.DiskCache
+import coil3.disk.directory
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
+import mu.KotlinLogging
+import okio.FileSystem
+import org.fdroid.install.InstalledAppsCache
+import org.fdroid.utils.IoDispatcher
+
+private const val MAX_SIZE_BYTES = 20L * 1024 * 1024
+
+/**
+ * A dedicated [DiskCache] for the icons of installed apps, rasterized at the size they get shown,
+ * so we don't need to ask the [android.content.pm.PackageManager] for them on each cold scroll.
+ *
+ * Entries are keyed by package name, version code, last update time, density and size, so an
+ * updated app never gets its old icon. When [InstalledAppsCache] learns that an app got updated or
+ * removed, the entries we know of get removed right away. Entries of apps that changed while we
+ * weren't running just don't get used anymore and get evicted eventually.
+ */
+@Singleton
+class InstalledIconCache
+internal constructor(
+  private val installedAppsCache: InstalledAppsCache,
+  diskCache: Lazy<DiskCache>,
+  ioScope: CoroutineScope,
+) {
+
+  @Inject
+  constructor(
+    @ApplicationContext context: Context,
+    installedAppsCache: InstalledAppsCache,
+    @IoDispatcher ioScope: CoroutineScope,
+  ) : this(
+    installedAppsCache = installedAppsCache,
+    diskCache =
+      lazy {
+        DiskCache.Builder()
+          .directory(context.cacheDir.resolve("installed_icons"))
+          .maxSizeBytes(MAX_SIZE_BYTES)
+          .build()
+      },
+    ioScope = ioScope,
+  )
+
+  private val log = KotlinLogging.logger {}
+  private val diskCache by diskCache
+
+  /** The disk cache keys we've seen per package name, so we can remove them on changes. */
+  private val keys = ConcurrentHashMap<String, MutableSet<String>>()
+
+  val fileSystem: FileSystem
+    get() = diskCache.fileSystem
+
+  init {
+    ioScope.launch {
+      var lastApps = installedAppsCache.installedApps.value
+      installedAppsCache.installedApps.collect { apps ->
+        lastApps.forEach { (packageName, oldInfo) ->
+          val newInfo = apps[packageName]
+          if (newInfo == null || newInfo.versionKey != oldInfo.versionKey) invalidate(packageName)
+        }
+        lastApps = apps
+      }
+    }
+  }
+
+  /**
+   * Returns the key for the memory cache which changes when the app gets updated or just the
+   * [packageName], if we don't know the app (yet).
+   */
+  fun getMemoryCacheKey(packageName: String): String {
+    val packageInfo = installedAppsCache.installedApps.value[packageName] ?: return packageName
+    return "$packageName:${packageInfo.versionKey}"
+  }
+
+  /**
+   * Returns the disk cache key for the icon of the given [packageName] rasterized for [densityDpi]
+   * at [width] and [height] or null, if we don't know the app (yet) and thus can't cache it.
+   */
+  fun getDiskCacheKey(packageName: String, densityDpi: Int, width: Int, height: Int): String? {
+    val packageInfo = installedAppsCache.installedApps.value[packageName] ?: return null
+    return "$packageName:${packageInfo.versionKey}:$densityDpi:${width}x$height"
+  }
+
+  fun read(packageName: String, key: String): DiskCache.Snapshot? {
+    return diskCache.openSnapshot(key)?.also { rememberKey(packageName, key) }
+  }
+
+  /** Writes the given [bitmap] as PNG and returns true, if that was successful. */
+  fun write(packageName: String, key: String, bitmap: Bitmap): Boolean {
+    val editor = diskCache.openEditor(key) ?: return false
+    return try {
+      val compressed =
+        fileSystem.write(editor.data) {
+          bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream())
+        }
+      if (compressed) {
+        editor.commit()
+        rememberKey(packageName, key)
+      } else {
+        editor.abort()
+      }
+      compressed
+    } catch (e: Exception) {
+      log.error(e) { "Error writing icon of $packageName to disk cache: " }
+      try {
+        editor.abort()
+      } catch (_: Exception) {
+        // ignore
+      }
+      false
+    }
+  }
+
+  private fun rememberKey(packageName: String, key: String) {
+    keys.getOrPut(packageName) { ConcurrentHashMap.newKeySet() }.add(key)
+  }
+
+  private fun invalidate(packageName: String) {
+    val packageKeys = keys.remove(packageName) ?: return
+    log.info { "Removing ${packageKeys.size} cached icons of $packageName" }
+    packageKeys.forEach { key -> diskCache.remove(key) }
+  }
+
+  private val PackageInfo.versionKey: String
+    get() = "${getLongVersionCode(this)}:$lastUpdateTime"
+}
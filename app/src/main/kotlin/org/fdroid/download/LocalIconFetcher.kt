@@ -3,13 +3,20 @@ package org.fdroid.download
 import android.content.Context
 import android.content.pm.PackageManager
 import android.os.Build.VERSION.SDK_INT
+import androidx.core.graphics.drawable.toBitmap
 import coil3.ImageLoader
 import coil3.asImage
 import coil3.decode.DataSource
+import coil3.decode.ImageSource
 import coil3.fetch.FetchResult
 import coil3.fetch.Fetcher
 import coil3.fetch.ImageFetchResult
+import coil3.fetch.SourceFetchResult
+import coil3.key.Keyer
 import coil3.request.Options
+import coil3.size.pxOrElse
+import dagger.Lazy
+import dagger.hilt.android.qualifiers.ApplicationContext
 import javax.inject.Inject
 import mu.KotlinLogging
 import org.fdroid.download.coil.DownloadRequestFetcher
@@ -23,12 +30,35 @@ data class PackageName(
 class LocalIconFetcher(
   private val packageManager: PackageManager,
   private val data: PackageName,
+  private val options: Options,
+  private val iconCache: InstalledIconCache,
   private val downloadRequestFetcher: Fetcher?,
 ) : Fetcher {
 
   private val log = KotlinLogging.logger {}
 
   override suspend fun fetch(): FetchResult? {
+    val densityDpi = options.context.resources.displayMetrics.densityDpi
+    val width = options.size.width.pxOrElse { 0 }
+    val height = options.size.height.pxOrElse { 0 }
+    val diskCacheKey = iconCache.getDiskCacheKey(data.packageName, densityDpi, width, height)
+    if (diskCacheKey != null && options.diskCachePolicy.readEnabled) {
+      val snapshot = iconCache.read(data.packageName, diskCacheKey)
+      if (snapshot != null) {
+        return SourceFetchResult(
+          source =
+            ImageSource(
+              file = snapshot.data,
+              fileSystem = iconCache.fileSystem,
+              diskCacheKey = diskCacheKey,
+              closeable = snapshot,
+            ),
+          mimeType = "image/png",
+          dataSource = DataSource.DISK,
+        )
+      }
+    }
+
     val drawable =
       try {
         val info = packageManager.getApplicationInfo(data.packageName, 0)
@@ -42,9 +72,23 @@ class LocalIconFetcher(
       log.warn { "Could not extract image for ${data.packageName}" }
       return downloadRequestFetcher?.fetch()
     }
+    if (diskCacheKey == null || !options.diskCachePolicy.writeEnabled) {
+      return ImageFetchResult(
+        image = drawable.asImage(),
+        isSampled = false,
+        dataSource = DataSource.DISK,
+      )
+    }
+    // rasterize once at the requested size, so we can serve it from disk next time
+    val bitmap =
+      drawable.toBitmap(
+        width = if (width > 0) width else drawable.intrinsicWidth,
+        height = if (height > 0) height else drawable.intrinsicHeight,
+      )
+    iconCache.write(data.packageName, diskCacheKey, bitmap)
     return ImageFetchResult(
-      image = drawable.asImage(),
-      isSampled = false,
+      image = bitmap.asImage(),
+      isSampled = width > 0 || height > 0,
       dataSource = DataSource.DISK,
     )
   }
@@ -52,13 +96,22 @@ class LocalIconFetcher(
   class Factory
   @Inject
   constructor(
-    private val context: Context,
+    @param:ApplicationContext private val context: Context,
     private val downloadRequestFetcherFactory: DownloadRequestFetcher.Factory,
+    private val iconCache: Lazy<InstalledIconCache>,
   ) : Fetcher.Factory<PackageName> {
+
+    /** Makes the memory cache key change when the app gets updated. */
+    val keyer = Keyer<PackageName> { data, _ ->
+      iconCache.get().getMemoryCacheKey(data.packageName)
+    }
+
     override fun create(data: PackageName, options: Options, imageLoader: ImageLoader): Fetcher =
       LocalIconFetcher(
         packageManager = context.packageManager,
         data = data,
+        options = options,
+        iconCache = iconCache.get(),
         downloadRequestFetcher =
           data.iconDownloadRequest?.let {
             downloadRequestFetcherFactory.create(it, options, imageLoader)
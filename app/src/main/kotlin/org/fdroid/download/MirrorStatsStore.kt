@@ -0,0 +1,190 @@
+package org.fdroid.download
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit.DAYS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicBoolean
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.pow
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.decodeFromStream
+import kotlinx.serialization.json.encodeToStream
+import mu.KotlinLogging
+import org.fdroid.utils.IoDispatcher
+
+private const val MIRROR_STATS_FILE = "mirror_stats.json"
+
+/** The weight of a new sample in the exponentially weighted moving averages. */
+@VisibleForTesting internal const val EWMA_ALPHA = 0.3
+
+/** After this time, statistics have only half of their original influence on the score. */
+@VisibleForTesting internal val STATS_HALF_LIFE_MILLIS = DAYS.toMillis(1)
+
+/** The score of a mirror we know nothing about anymore, roughly an average mirror. */
+@VisibleForTesting internal const val NEUTRAL_SCORE = 2_000.0
+
+/** What a failed request costs us, roughly a connection timeout. */
+private const val FAILURE_PENALTY_MILLIS = 30_000.0
+
+/** The score is the expected time in milliseconds to download a file of this size. */
+private const val TYPICAL_DOWNLOAD_BYTES = 1024.0 * 1024.0
+
+/** Transfers smaller than this are dominated by latency and say little about throughput. */
+@VisibleForTesting internal const val MIN_THROUGHPUT_BYTES = 64 * 1024L
+
+private val WRITE_DELAY_MILLIS = SECONDS.toMillis(10)
+
+@Serializable
+data class MirrorStats(
+  /** Moving average of the time to first byte. */
+  val timeToFirstByteMillis: Double? = null,
+  /** Moving average of the throughput in bytes per millisecond. */
+  val bytesPerMilli: Double? = null,
+  /** Moving average of failures (1) and successes (0). */
+  val failureRate: Double = 0.0,
+  val consecutiveFailures: Int = 0,
+  val lastUpdated: Long = 0,
+) {
+  /** The influence the statistics still have at the given time, from 1 (fresh) down to 0. */
+  internal fun weight(now: Long): Double {
+    val age = (now - lastUpdated).coerceAtLeast(0)
+    return 0.5.pow(age.toDouble() / STATS_HALF_LIFE_MILLIS)
+  }
+
+  /**
+   * The expected time in milliseconds to download a typical file from this mirror, including the
+   * expected cost of failures. Old statistics converge towards [NEUTRAL_SCORE].
+   */
+  internal fun score(now: Long): Double {
+    val latency = timeToFirstByteMillis ?: NEUTRAL_SCORE
+    val transfer = bytesPerMilli?.let { TYPICAL_DOWNLOAD_BYTES / it } ?: 0.0
+    val measured = latency + transfer + failureRate * FAILURE_PENALTY_MILLIS
+    val weight = weight(now)
+    return measured * weight + NEUTRAL_SCORE * (1 - weight)
+  }
+}
+
+/**
+ * Keeps persistent per-mirror statistics (time to first byte, throughput and failure rate) as
+ * exponentially weighted moving averages, so the [MirrorChooser] can try fast and healthy mirrors
+ * first.
+ */
+@Singleton
+class MirrorStatsStore(
+  private val statsFile: File,
+  private val scope: CoroutineScope,
+  private val currentTimeMillis: () -> Long = System::currentTimeMillis,
+) {
+
+  @Inject
+  constructor(
+    @ApplicationContext context: Context,
+    @IoDispatcher scope: CoroutineScope,
+  ) : this(File(context.filesDir, MIRROR_STATS_FILE), scope)
+
+  private val log = KotlinLogging.logger {}
+  private val stats: ConcurrentHashMap<String, MirrorStats> by lazy { load() }
+  private val writeScheduled = AtomicBoolean(false)
+
+  fun getStats(mirrorUrl: String): MirrorStats? = stats[mirrorUrl]
+
+  fun recordLatency(mirrorUrl: String, timeToFirstByteMillis: Long) {
+    update(mirrorUrl) {
+      it.copy(
+        timeToFirstByteMillis = it.timeToFirstByteMillis.ewma(timeToFirstByteMillis.toDouble()),
+        failureRate = it.failureRate.ewma(0.0),
+        consecutiveFailures = 0,
+      )
+    }
+  }
+
+  fun recordThroughput(mirrorUrl: String, bytes: Long, durationMillis: Long) {
+    if (bytes < MIN_THROUGHPUT_BYTES) return
+    val bytesPerMilli = bytes.toDouble() / durationMillis.coerceAtLeast(1)
+    update(mirrorUrl) { it.copy(bytesPerMilli = it.bytesPerMilli.ewma(bytesPerMilli)) }
+  }
+
+  fun recordFailure(mirrorUrl: String) {
+    update(mirrorUrl) {
+      it.copy(
+        failureRate = it.failureRate.ewma(1.0),
+        consecutiveFailures = it.consecutiveFailures + 1,
+      )
+    }
+  }
+
+  /** Returns the score of the given mirror (lower is better) or null, if it is unknown. */
+  fun getScore(mirrorUrl: String): Double? = stats[mirrorUrl]?.score(currentTimeMillis())
+
+  /** Returns the number of failures in a row, forgotten after a while, so mirrors can recover. */
+  fun getConsecutiveFailures(mirrorUrl: String): Int {
+    val mirrorStats = stats[mirrorUrl] ?: return 0
+    val age = currentTimeMillis() - mirrorStats.lastUpdated
+    return if (age < STATS_HALF_LIFE_MILLIS) mirrorStats.consecutiveFailures else 0
+  }
+
+  private fun update(mirrorUrl: String, block: (MirrorStats) -> MirrorStats) {
+    val now = currentTimeMillis()
+    stats.compute(mirrorUrl) { _, oldStats ->
+      val decayed = oldStats?.decay(now) ?: MirrorStats()
+      block(decayed).copy(lastUpdated = now)
+    }
+    scheduleWrite()
+  }
+
+  /** Fades out the failure rate of old statistics, so a mirror that was down can recover. */
+  private fun MirrorStats.decay(now: Long): MirrorStats {
+    return copy(failureRate = failureRate * weight(now))
+  }
+
+  private fun Double?.ewma(sample: Double): Double {
+    return if (this == null) sample else EWMA_ALPHA * sample + (1 - EWMA_ALPHA) * this
+  }
+
+  private fun scheduleWrite() {
+    if (writeScheduled.compareAndSet(false, true)) {
+      scope.launch {
+        delay(WRITE_DELAY_MILLIS)
+        writeScheduled.set(false)
+        flush()
+      }
+    }
+  }
+
+  @Synchronized
+  @OptIn(ExperimentalSerializationApi::class)
+  fun flush() {
+    val tmpFile = File(statsFile.parentFile, "${statsFile.name}.tmp")
+    try {
+      tmpFile.outputStream().use { Json.encodeToStream(HashMap(stats), it) }
+      if (!tmpFile.renameTo(statsFile)) throw IOException("Could not rename $tmpFile")
+    } catch (e: Exception) {
+      log.error(e) { "Error writing mirror stats: " }
+      tmpFile.delete()
+    }
+  }
+
+  @OptIn(ExperimentalSerializationApi::class)
+  private fun load(): ConcurrentHashMap<String, MirrorStats> {
+    if (!statsFile.isFile) return ConcurrentHashMap()
+    return try {
+      val map: Map<String, MirrorStats> =
+        statsFile.inputStream().use { Json.decodeFromStream(it) }
+      ConcurrentHashMap(map)
+    } catch (e: Exception) {
+      log.error(e) { "Error reading mirror stats, starting empty: " }
+      ConcurrentHashMap()
+    }
+  }
+}
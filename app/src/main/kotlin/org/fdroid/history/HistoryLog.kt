@@ -0,0 +1,313 @@
+package org.fdroid.history
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.zip.CRC32
+import mu.KotlinLogging
+
+private const val MAGIC = 0x46444849 // FDHI
+private const val FORMAT = 1
+
+/** Magic, format and the offset of the first live record. */
+private const val HEADER_SIZE = 16L
+private const val START_OFFSET_POSITION = 8L
+
+/** Length and CRC32 of the payload. */
+private const val RECORD_HEADER_SIZE = 8
+
+/** We only compact the file when dropped records take up more than this and the live ones. */
+private const val MIN_COMPACT_BYTES = 64 * 1024L
+
+private const val TYPE_INSTALL = 1
+private const val TYPE_UNINSTALL = 2
+
+/**
+ * An append-only log of [HistoryEvent]s stored as length-prefixed binary records in [file].
+ *
+ * The offsets of all records are kept in memory after the file was scanned once, so the newest
+ * events can be paged through and the events of one package looked up without decoding the entire
+ * log. [truncate] only moves the start offset in the header and leaves the surviving records where
+ * they are. The space of dropped records gets reclaimed once it exceeds the live records.
+ *
+ * Each record has a CRC32, so a record torn by a crash while appending gets detected and cut off.
+ *
+ * This class is not thread-safe.
+ */
+internal class HistoryLog(private val file: File) {
+
+  private val log = KotlinLogging.logger {}
+
+  private var raf: RandomAccessFile? = null
+  private var startOffset = HEADER_SIZE
+  private var endOffset = HEADER_SIZE
+
+  /** The offsets of all live records from oldest to newest. */
+  private val offsets = ArrayList<Long>()
+  private val offsetsByPackage = HashMap<String, ArrayDeque<Long>>()
+
+  val size: Int
+    get() {
+      open()
+      return offsets.size
+    }
+
+  /** Returns all events from oldest to newest. */
+  fun getEvents(): List<HistoryEvent> {
+    open()
+    return readRange(0, offsets.size)
+  }
+
+  /** Returns up to [limit] events starting with the newest, but skipping the [offset] newest. */
+  fun getLatestEvents(offset: Int, limit: Int): List<HistoryEvent> {
+    open()
+    val toIndex = (offsets.size - offset).coerceAtLeast(0)
+    val fromIndex = (toIndex - limit).coerceAtLeast(0)
+    return readRange(fromIndex, toIndex).asReversed()
+  }
+
+  /** Returns all events of the given [packageName] from oldest to newest. */
+  fun getEvents(packageName: String): List<HistoryEvent> {
+    val f = open()
+    val packageOffsets = offsetsByPackage[packageName] ?: return emptyList()
+    return packageOffsets.mapNotNull { offset ->
+      f.seek(offset)
+      val header = ByteArray(RECORD_HEADER_SIZE)
+      f.readFully(header)
+      val payloadSize = DataInputStream(ByteArrayInputStream(header)).readInt()
+      val bytes = ByteArray(RECORD_HEADER_SIZE + payloadSize)
+      header.copyInto(bytes)
+      f.readFully(bytes, RECORD_HEADER_SIZE, payloadSize)
+      readRecord(bytes, 0, bytes.size)?.first
+    }
+  }
+
+  fun append(event: HistoryEvent) {
+    appendAll(listOf(event))
+  }
+
+  /** Appends all given [events] with a single write. */
+  fun appendAll(events: List<HistoryEvent>) {
+    val f = open()
+    val bytes = ByteArrayOutputStream()
+    val recordOffsets = ArrayList<Long>(events.size)
+    DataOutputStream(bytes).use { output ->
+      events.forEach { event ->
+        recordOffsets.add(endOffset + bytes.size())
+        val payload = encode(event)
+        val crc = CRC32().apply { update(payload) }
+        output.writeInt(payload.size)
+        output.writeInt(crc.value.toInt())
+        output.write(payload)
+      }
+    }
+    f.seek(endOffset)
+    f.write(bytes.toByteArray())
+    events.forEachIndexed { i, event -> addToIndex(recordOffsets[i], event.packageName) }
+    endOffset += bytes.size()
+  }
+
+  /** Drops the oldest events, so that only the newest [maxNumEvents] remain. */
+  fun truncate(maxNumEvents: Int) {
+    val f = open()
+    val numDropped = offsets.size - maxNumEvents
+    if (numDropped <= 0) return
+    val newStartOffset = if (maxNumEvents > 0) offsets[numDropped] else endOffset
+    f.seek(START_OFFSET_POSITION)
+    f.writeLong(newStartOffset)
+    startOffset = newStartOffset
+    offsets.subList(0, numDropped).clear()
+    val iterator = offsetsByPackage.values.iterator()
+    while (iterator.hasNext()) {
+      val packageOffsets = iterator.next()
+      while (packageOffsets.firstOrNull()?.let { it < newStartOffset } == true) {
+        packageOffsets.removeFirst()
+      }
+      if (packageOffsets.isEmpty()) iterator.remove()
+    }
+    val droppedBytes = startOffset - HEADER_SIZE
+    if (droppedBytes > MIN_COMPACT_BYTES && droppedBytes > endOffset - startOffset) compact(f)
+  }
+
+  /** Removes all events. */
+  fun clear() {
+    reset(open())
+  }
+
+  fun close() {
+    raf?.close()
+    raf = null
+  }
+
+  private fun open(): RandomAccessFile {
+    raf?.let {
+      return it
+    }
+    val f = RandomAccessFile(file, "rw")
+    raf = f
+    if (f.length() < HEADER_SIZE || f.readInt() != MAGIC || f.readInt() != FORMAT) {
+      if (f.length() > 0) log.warn { "Unknown history format, starting over." }
+      reset(f)
+      return f
+    }
+    startOffset = f.readLong().coerceIn(HEADER_SIZE, f.length())
+    scan(f)
+    return f
+  }
+
+  /** Reads all live records once to index them and cuts off a torn record at the end. */
+  private fun scan(f: RandomAccessFile) {
+    offsets.clear()
+    offsetsByPackage.clear()
+    val length = f.length()
+    val bytes = ByteArray((length - startOffset).toInt())
+    f.seek(startOffset)
+    f.readFully(bytes)
+    var position = 0
+    while (position < bytes.size) {
+      val (event, recordSize) = readRecord(bytes, position, bytes.size) ?: break
+      addToIndex(startOffset + position, event.packageName)
+      position += recordSize
+    }
+    endOffset = startOffset + position
+    if (endOffset < length) {
+      log.warn { "Cutting off ${length - endOffset} bytes of torn history records." }
+      f.setLength(endOffset)
+    }
+  }
+
+  private fun readRange(fromIndex: Int, toIndex: Int): List<HistoryEvent> {
+    if (fromIndex >= toIndex) return emptyList()
+    val f = raf ?: error("Not open")
+    val from = offsets[fromIndex]
+    val to = if (toIndex < offsets.size) offsets[toIndex] else endOffset
+    val bytes = ByteArray((to - from).toInt())
+    f.seek(from)
+    f.readFully(bytes)
+    val events = ArrayList<HistoryEvent>(toIndex - fromIndex)
+    var position = 0
+    while (position < bytes.size) {
+      val (event, recordSize) = readRecord(bytes, position, bytes.size) ?: break
+      events.add(event)
+      position += recordSize
+    }
+    return events
+  }
+
+  /**
+   * Returns the event of the record at [position] and the size of the record or null, if the record
+   * is incomplete or corrupt.
+   */
+  private fun readRecord(bytes: ByteArray, position: Int, end: Int): Pair<HistoryEvent, Int>? {
+    if (end - position < RECORD_HEADER_SIZE) return null
+    val input = DataInputStream(ByteArrayInputStream(bytes, position, RECORD_HEADER_SIZE))
+    val payloadSize = input.readInt()
+    val crc = input.readInt()
+    val payloadStart = position + RECORD_HEADER_SIZE
+    if (payloadSize < 0 || end - payloadStart < payloadSize) return null
+    val actualCrc = CRC32().apply { update(bytes, payloadStart, payloadSize) }
+    if (actualCrc.value.toInt() != crc) return null
+    return try {
+      decode(bytes, payloadStart, payloadSize) to RECORD_HEADER_SIZE + payloadSize
+    } catch (e: IOException) {
+      log.error(e) { "Error decoding history record: " }
+      null
+    }
+  }
+
+  private fun addToIndex(offset: Long, packageName: String) {
+    offsets.add(offset)
+    offsetsByPackage.getOrPut(packageName) { ArrayDeque() }.add(offset)
+  }
+
+  private fun reset(f: RandomAccessFile) {
+    f.setLength(0)
+    f.seek(0)
+    f.writeInt(MAGIC)
+    f.writeInt(FORMAT)
+    f.writeLong(HEADER_SIZE)
+    startOffset = HEADER_SIZE
+    endOffset = HEADER_SIZE
+    offsets.clear()
+    offsetsByPackage.clear()
+  }
+
+  /** Moves the live records to the start of a new file to reclaim the space of dropped ones. */
+  private fun compact(f: RandomAccessFile) {
+    log.info { "Compacting history, dropping ${startOffset - HEADER_SIZE} bytes." }
+    val tmpFile = File(file.parentFile, "${file.name}.tmp")
+    val bytes = ByteArray((endOffset - startOffset).toInt())
+    f.seek(startOffset)
+    f.readFully(bytes)
+    DataOutputStream(tmpFile.outputStream().buffered()).use { output ->
+      output.writeInt(MAGIC)
+      output.writeInt(FORMAT)
+      output.writeLong(HEADER_SIZE)
+      output.write(bytes)
+    }
+    close()
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete()
+      throw IOException("Could not rename $tmpFile")
+    }
+    open()
+  }
+
+  private fun encode(event: HistoryEvent): ByteArray {
+    val bytes = ByteArrayOutputStream()
+    DataOutputStream(bytes).use { output ->
+      when (event) {
+        is InstallEvent -> {
+          output.writeByte(TYPE_INSTALL)
+          output.writeCommon(event)
+          output.writeUTF(event.versionName)
+          output.writeNullableUTF(event.oldVersionName)
+        }
+        is UninstallEvent -> {
+          output.writeByte(TYPE_UNINSTALL)
+          output.writeCommon(event)
+        }
+      }
+    }
+    return bytes.toByteArray()
+  }
+
+  private fun decode(bytes: ByteArray, offset: Int, length: Int): HistoryEvent {
+    val input = DataInputStream(ByteArrayInputStream(bytes, offset, length))
+    val type = input.readByte().toInt()
+    val time = input.readLong()
+    val packageName = input.readUTF()
+    val name = input.readNullableUTF()
+    return when (type) {
+      TYPE_INSTALL ->
+        InstallEvent(
+          time = time,
+          packageName = packageName,
+          name = name ?: throw IOException("Install event without name"),
+          versionName = input.readUTF(),
+          oldVersionName = input.readNullableUTF(),
+        )
+      TYPE_UNINSTALL -> UninstallEvent(time = time, packageName = packageName, name = name)
+      else -> throw IOException("Unknown event type: $type")
+    }
+  }
+
+  private fun DataOutputStream.writeCommon(event: HistoryEvent) {
+    writeLong(event.time)
+    writeUTF(event.packageName)
+    writeNullableUTF(event.name)
+  }
+
+  private fun DataOutputStream.writeNullableUTF(value: String?) {
+    writeBoolean(value != null)
+    if (value != null) writeUTF(value)
+  }
+
+  private fun DataInputStream.readNullableUTF(): String? {
+    return if (readBoolean()) readUTF() else null
+  }
+}
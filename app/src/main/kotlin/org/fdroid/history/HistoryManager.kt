@@ -1,19 +1,18 @@
 package org.fdroid.history
 
 import android.content.Context
-import android.content.Context.MODE_APPEND
-import android.content.Context.MODE_PRIVATE
 import androidx.annotation.WorkerThread
 import dagger.hilt.android.qualifiers.ApplicationContext
-import java.io.FileNotFoundException
+import java.io.File
 import javax.inject.Inject
 import javax.inject.Singleton
-import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.json.Json
 import mu.KotlinLogging
 import org.fdroid.settings.SettingsManager
 
-private const val HISTORY_FILE = "install_history.json"
+/** The old history format with JSON objects separated by commas, only used for migration. */
+private const val HISTORY_JSON_FILE = "install_history.json"
+private const val HISTORY_FILE = "install_history.log"
 private const val MAX_EVENTS = 999
 
 @Singleton
@@ -29,24 +28,27 @@ class HistoryManager(
   ) : this(context, settingsManager, MAX_EVENTS)
 
   private val log = KotlinLogging.logger {}
+  private var historyLog: HistoryLog? = null
 
+  /** Returns all events from oldest to newest. */
   @Synchronized
   @WorkerThread
-  @OptIn(ExperimentalSerializationApi::class)
   fun getEvents(): List<HistoryEvent> {
-    return try {
-      context.openFileInput(HISTORY_FILE).use { inputStream ->
-        // history shouldn't become too large to fit into memory, hopefully...
-        val s = inputStream.readBytes().decodeToString().trimEnd(',')
-        Json.decodeFromString("[$s]")
-      }
-    } catch (e: Exception) {
-      if (e !is FileNotFoundException) {
-        log.error(e) { "Error getting events: " }
-        clearAll()
-      }
-      emptyList()
-    }
+    return readEvents { getEvents() }
+  }
+
+  /** Returns up to [limit] events starting with the newest, but skipping the [offset] newest. */
+  @Synchronized
+  @WorkerThread
+  fun getLatestEvents(offset: Int, limit: Int): List<HistoryEvent> {
+    return readEvents { getLatestEvents(offset, limit) }
+  }
+
+  /** Returns all events of the given [packageName] from oldest to newest. */
+  @Synchronized
+  @WorkerThread
+  fun getEvents(packageName: String): List<HistoryEvent> {
+    return readEvents { getEvents(packageName) }
   }
 
   @Synchronized
@@ -54,11 +56,7 @@ class HistoryManager(
   fun append(event: HistoryEvent) {
     if (!settingsManager.useInstallHistory) return
     try {
-      context.openFileOutput(HISTORY_FILE, MODE_APPEND).use { outputStream ->
-        val s = Json.encodeToString(event)
-        outputStream.write(s.toByteArray())
-        outputStream.write(",".toByteArray())
-      }
+      getHistoryLog().append(event)
     } catch (e: Exception) {
       log.error(e) { "Error appending $event: " }
     }
@@ -68,9 +66,12 @@ class HistoryManager(
   @WorkerThread
   fun clearAll() {
     try {
-      context.deleteFile(HISTORY_FILE)
+      getHistoryLog().clear()
     } catch (e: Exception) {
-      log.error(e) { "Error deleting file: " }
+      log.error(e) { "Error clearing history: " }
+      historyLog?.close()
+      historyLog = null
+      File(context.filesDir, HISTORY_FILE).delete()
     }
   }
 
@@ -79,19 +80,49 @@ class HistoryManager(
   fun pruneEvents() {
     // only run if enabled and we have more events than we should have
     if (!settingsManager.useInstallHistory) return
-    val events = getEvents()
-    val overhead = events.size - maxNumEvents
-    if (overhead <= 0) return
-
     try {
-      val truncatedEvents = events.drop(overhead)
-      val serializedEvents = Json.encodeToString(truncatedEvents).trimStart('[').trimEnd(']')
-      context.openFileOutput(HISTORY_FILE, MODE_PRIVATE).use { outputStream ->
-        outputStream.write(serializedEvents.toByteArray())
-        outputStream.write(",".toByteArray())
-      }
+      // this only drops the oldest records and doesn't rewrite the others
+      getHistoryLog().truncate(maxNumEvents)
+    } catch (e: Exception) {
+      log.error(e) { "Error pruning events: " }
+    }
+  }
+
+  private fun readEvents(block: HistoryLog.() -> List<HistoryEvent>): List<HistoryEvent> {
+    return try {
+      getHistoryLog().block()
     } catch (e: Exception) {
-      log.error(e) { "Error pruning $overhead events: " }
+      log.error(e) { "Error getting events: " }
+      clearAll()
+      emptyList()
+    }
+  }
+
+  private fun getHistoryLog(): HistoryLog {
+    historyLog?.let {
+      return it
     }
+    val newLog = HistoryLog(File(context.filesDir, HISTORY_FILE))
+    migrateJsonHistory(newLog)
+    historyLog = newLog
+    return newLog
+  }
+
+  /** Moves the events of the old JSON file into the given [historyLog] and deletes the file. */
+  private fun migrateJsonHistory(historyLog: HistoryLog) {
+    val jsonFile = File(context.filesDir, HISTORY_JSON_FILE)
+    if (!jsonFile.isFile) return
+    val events =
+      try {
+        val s = jsonFile.readBytes().decodeToString().trimEnd(',')
+        Json.decodeFromString<List<HistoryEvent>>("[$s]")
+      } catch (e: Exception) {
+        log.error(e) { "Error reading JSON history: " }
+        emptyList()
+      }
+    // if we crashed after migrating, but before deleting, don't add events twice
+    if (historyLog.size == 0) historyLog.appendAll(events)
+    log.info { "Migrated ${events.size} events from JSON history." }
+    jsonFile.delete()
   }
 }
@@ -21,23 +21,22 @@ import kotlinx.coroutines.async
 import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.asStateFlow
-import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.flow.update
-import kotlinx.coroutines.flow.updateAndGet
+import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.launch
 import mu.KotlinLogging
 import org.fdroid.LocaleChooser.getBestLocale
 import org.fdroid.NotificationManager
 import org.fdroid.database.AppMetadata
 import org.fdroid.database.Repository
+import org.fdroid.download.Downloader
 import org.fdroid.download.DownloaderFactory
+import org.fdroid.download.StreamingDownloader
 import org.fdroid.download.getUri
 import org.fdroid.history.HistoryManager
 import org.fdroid.history.InstallEvent
 import org.fdroid.history.UninstallEvent
 import org.fdroid.index.v2.PackageVersion
+import org.fdroid.traceAsync
 import org.fdroid.utils.IoDispatcher
 
 @Singleton
@@ -54,16 +53,16 @@ constructor(
 ) {
 
   private val log = KotlinLogging.logger {}
-  private val apps = MutableStateFlow<Map<String, InstallState>>(emptyMap())
+  private val apps = InstallStateStore(scope)
   private val jobs = ConcurrentHashMap<String, Job>()
-  val appInstallStates = apps.asStateFlow()
+  val appInstallStates: StateFlow<Map<String, InstallState>> = apps.states
   val installNotificationState: InstallNotificationState
     get() {
       val appStates = mutableListOf<AppState>()
       var numBytesDownloaded = 0L
       var numTotalBytes = 0L
       // go through all apps that have active state
-      apps.value.toMap().forEach { (packageName, state) ->
+      apps.snapshot().forEach { (packageName, state) ->
         // assign a category to each in progress state
         val appStateCategory =
           when (state) {
@@ -102,7 +101,7 @@ constructor(
     }
 
   fun getAppFlow(packageName: String): Flow<InstallState> {
-    return apps.map { it[packageName] ?: InstallState.Unknown }
+    return apps.getFlow(packageName)
   }
 
   /**
@@ -112,6 +111,9 @@ constructor(
    *   currently in the foreground. Reasoning: The system will swallow the second or third dialog we
    *   pop up before the user could respond to the first. Also, we are not allowed anymore to start
    *   other activities while in the background.
+   * @param stages controls when the app gets downloaded and installed, if given. The APK then gets
+   *   downloaded to a file instead of streaming it into the install session, so the download
+   *   doesn't need to wait until the app may get installed.
    */
   @UiThread
   suspend fun install(
@@ -122,6 +124,7 @@ constructor(
     repo: Repository?,
     iconModel: Any?,
     canAskPreApprovalNow: Boolean,
+    stages: InstallStages? = null,
   ): InstallState {
     if (appMetadata == null || repo == null) {
       log.error { "Can't install app without metadata for $packageName" }
@@ -139,7 +142,7 @@ constructor(
       updateAppState(packageName, error)
       return error
     }
-    val currentState = apps.value[packageName]
+    val currentState = apps[packageName]
     if (currentState?.showProgress == true && currentState !is InstallState.Waiting) {
       log.warn { "Attempted to install $packageName with install in progress: $currentState" }
       return currentState
@@ -153,6 +156,7 @@ constructor(
         repo = repo,
         iconModel = iconModel,
         canAskPreApprovalNow = canAskPreApprovalNow,
+        stages = stages,
       )
     }
     // keep track of this job, in case we want to cancel it
@@ -169,7 +173,7 @@ constructor(
         InstallState.UserAborted
       } catch (e: Exception) {
         log.error(e) { "Unexpected install job failure for $packageName" }
-        val currentState = apps.value[packageName]
+        val currentState = apps[packageName]
         if (currentState is InstallStateWithInfo) {
           InstallState.Error(msg = "${e::class.java.simpleName} ${e.message}", s = currentState)
         } else {
@@ -215,6 +219,7 @@ constructor(
     repo: Repository,
     iconModel: Any?,
     canAskPreApprovalNow: Boolean,
+    stages: InstallStages?,
   ): InstallState {
     val startingState =
       InstallState.Starting(
@@ -261,6 +266,7 @@ constructor(
           currentVersionName = currentVersionName,
           repo = repo,
           iconModel = iconModel,
+          stages = stages,
         )
       }
       is PreApprovalResult.UserConfirmationRequired -> {
@@ -283,7 +289,7 @@ constructor(
     packageName: String,
     installState: InstallState.PreApprovalConfirmationNeeded,
   ): InstallState? {
-    val state = apps.value[packageName] ?: error("No state for $packageName $installState")
+    val state = apps[packageName] ?: error("No state for $packageName $installState")
     if (state !is InstallState.PreApprovalConfirmationNeeded) {
       log.error { "Unexpected state: $state" }
       return null
@@ -323,32 +329,31 @@ constructor(
     currentVersionName: String?,
     repo: Repository,
     iconModel: Any?,
+    stages: InstallStages? = null,
   ): InstallState {
-    val sessionId = (state.result as? PreApprovalResult.Success)?.sessionId
-    val coroutineContext = currentCoroutineContext()
-    coroutineContext.ensureActive()
-    // download file
+    var sessionId = (state.result as? PreApprovalResult.Success)?.sessionId
+    currentCoroutineContext().ensureActive()
     val file = File(context.cacheDir, version.file.sha256)
-    val uri = getUri(repo.address, version.file)
-    val downloader = downloaderFactory.create(repo, uri, version.file, file)
-    val now = System.currentTimeMillis()
-    downloader.setListener { bytesRead, totalBytes ->
-      coroutineContext.ensureActive()
-      updateAndGetAppState(packageName) {
-        InstallState.Downloading(
-          name = it.name,
-          versionName = it.versionName,
-          currentVersionName = it.currentVersionName,
-          lastUpdated = it.lastUpdated,
-          iconModel = it.iconModel,
-          downloadedBytes = bytesRead,
-          totalBytes = totalBytes,
-          startMillis = now,
-        )
-      }
+    val size = version.file.size
+    var downloader = createDownloader(packageName, version, repo, file)
+    // Stream the APK right into the install session, so it doesn't get written to flash twice.
+    // If we have a partial download already, we resume it instead.
+    if (stages == null && downloader is StreamingDownloader && size != null && !file.exists()) {
+      val result = streamAndInstall(sessionId, packageName, state, size, downloader)
+      val preApprovalFailed =
+        result is InstallState.PreApproved && result.result is PreApprovalResult.Error
+      if (result != null && !preApprovalFailed) return result
+      // Pre-approval or verification failed or the download broke off. The pre-approved session
+      // got abandoned then, so try again without it.
+      sessionId = null
+      // downloaders can only be used once
+      downloader = createDownloader(packageName, version, repo, file)
     }
+    // download file
     try {
-      downloader.download()
+      traceAsync("AppInstallManager.downloadApk", "packageName" to packageName) {
+        if (stages == null) downloader.download() else stages.download { downloader.download() }
+      }
       log.debug { "Download completed" }
     } catch (e: Exception) {
       if (e is CancellationException) throw e
@@ -364,16 +369,16 @@ constructor(
       )
     }
     currentCoroutineContext().ensureActive()
-    val newState =
-      updateAndGetAppState(packageName) {
-        InstallState.Installing(
-          name = it.name,
-          versionName = it.versionName,
-          currentVersionName = it.currentVersionName,
-          lastUpdated = it.lastUpdated,
-          iconModel = it.iconModel,
-        )
-      }
+    return if (stages == null) {
+      installFile(sessionId, packageName, file)
+    } else {
+      stages.install { installFile(sessionId, packageName, file) }
+    }
+  }
+
+  @WorkerThread
+  private suspend fun installFile(sessionId: Int?, packageName: String, file: File): InstallState {
+    val newState = updateToInstallingState(packageName)
     val result = sessionInstallManager.install(sessionId, packageName, newState, file)
     log.debug { "Install result: $result" }
     return if (result is InstallState.PreApproved && result.result is PreApprovalResult.Error) {
@@ -385,13 +390,89 @@ constructor(
     }
   }
 
+  /**
+   * Downloads the APK straight into an install session and installs it.
+   *
+   * @return the result of the installation or null, if the download failed and should be retried
+   *   with a file that can be resumed later.
+   */
+  @WorkerThread
+  private suspend fun streamAndInstall(
+    sessionId: Int?,
+    packageName: String,
+    state: InstallState.PreApproved,
+    size: Long,
+    downloader: StreamingDownloader,
+  ): InstallState? {
+    var downloadError: Exception? = null
+    val result =
+      traceAsync("AppInstallManager.streamAndInstall", "packageName" to packageName) {
+        sessionInstallManager.installStreaming(sessionId, packageName, state, size) {
+          outputStream ->
+          try {
+            downloader.downloadToStream(outputStream)
+          } catch (e: Exception) {
+            downloadError = e
+            throw e
+          }
+          log.debug { "Download completed" }
+          updateToInstallingState(packageName)
+        }
+      }
+    log.debug { "Install result: $result" }
+    val e = downloadError ?: return result
+    if (e is CancellationException) throw e
+    log.warn(e) { "Error streaming $packageName, falling back to resumable download: " }
+    return null
+  }
+
+  private suspend fun createDownloader(
+    packageName: String,
+    version: PackageVersion,
+    repo: Repository,
+    file: File,
+  ): Downloader {
+    val coroutineContext = currentCoroutineContext()
+    val uri = getUri(repo.address, version.file)
+    val downloader = downloaderFactory.create(repo, uri, version.file, file)
+    val now = System.currentTimeMillis()
+    downloader.setListener { bytesRead, totalBytes ->
+      coroutineContext.ensureActive()
+      updateProgress(packageName, isComplete = totalBytes > 0 && bytesRead >= totalBytes) {
+        InstallState.Downloading(
+          name = it.name,
+          versionName = it.versionName,
+          currentVersionName = it.currentVersionName,
+          lastUpdated = it.lastUpdated,
+          iconModel = it.iconModel,
+          downloadedBytes = bytesRead,
+          totalBytes = totalBytes,
+          startMillis = now,
+        )
+      }
+    }
+    return downloader
+  }
+
+  private fun updateToInstallingState(packageName: String): InstallStateWithInfo {
+    return updateAndGetAppState(packageName) {
+      InstallState.Installing(
+        name = it.name,
+        versionName = it.versionName,
+        currentVersionName = it.currentVersionName,
+        lastUpdated = it.lastUpdated,
+        iconModel = it.iconModel,
+      )
+    }
+  }
+
   /** Request user confirmation for installation and suspend until we get a result. */
   @UiThread
   suspend fun requestUserConfirmation(
     packageName: String,
     installState: InstallState.UserConfirmationNeeded,
   ): InstallState? {
-    val state = apps.value[packageName] ?: error("No state for $packageName $installState")
+    val state = apps[packageName] ?: error("No state for $packageName $installState")
     if (state !is InstallState.UserConfirmationNeeded) {
       log.error { "Unexpected state: $state" }
       return null
@@ -417,7 +498,7 @@ constructor(
     installState: InstallState.UserConfirmationNeeded,
   ) {
     val state =
-      apps.value[packageName]
+      apps[packageName]
         ?: run {
           // We run this method with some delay, so there's the unlikely,
           // but possible scenario that state got cleaned up already when this code runs.
@@ -456,7 +537,7 @@ constructor(
     log.debug { "Canceling job for $packageName $job" }
     if (job != null) {
       job.cancel()
-    } else if (apps.value[packageName] is InstallState.Waiting) {
+    } else if (apps[packageName] is InstallState.Waiting) {
       // No job was created for Waiting state (it's a deferred install placeholder).
       // Clear it directly so the app doesn't get stuck and AppInstallService can stop.
       log.info { "Clearing Waiting state for $packageName" }
@@ -485,7 +566,7 @@ constructor(
       }
     val code = activityResult.data?.getIntExtra("android.intent.extra.INSTALL_RESULT", -1)
     log.info { "Uninstall result received: ${activityResult.resultCode} => $result ($code)" }
-    apps.updateApp(packageName) { result }
+    apps.update(packageName) { result }
     // not running onStatesUpdated() because we only track installs there
     if (result == InstallState.Uninstalled) {
       val event =
@@ -497,28 +578,20 @@ constructor(
 
   @UiThread
   fun clearInstallingApps() {
-    apps.update { oldApps ->
-      oldApps.toMutableMap().apply {
-        val iterator = entries.iterator()
-        while (iterator.hasNext()) {
-          val app = iterator.next()
-          if (!app.value.showProgress) {
-            val packageName = app.key
-            jobs.remove(packageName)?.cancel()
-            iterator.remove()
-          }
-        }
-      }
+    apps.removeIf { packageName, state ->
+      if (state.showProgress) return@removeIf false
+      jobs.remove(packageName)?.cancel()
+      true
     }
   }
 
   @UiThread
   fun cleanUp(packageName: String) {
-    val state = apps.value[packageName] ?: return
+    val state = apps[packageName] ?: return
     if (!state.showProgress) {
       log.info { "Cleaning up state for $packageName $state" }
       jobs.remove(packageName)?.cancel()
-      apps.update { oldApps -> oldApps.toMutableMap().apply { remove(packageName) } }
+      apps.remove(packageName)
       onStatesUpdated()
     }
   }
@@ -548,7 +621,7 @@ constructor(
   }
 
   private fun updateAppState(packageName: String, state: InstallState) {
-    apps.updateApp(packageName) { state }
+    apps.update(packageName) { state }
     onStatesUpdated()
   }
 
@@ -556,31 +629,18 @@ constructor(
     packageName: String,
     function: (InstallStateWithInfo) -> InstallStateWithInfo,
   ): InstallStateWithInfo {
-    val state = apps.checkAndUpdateApp(packageName, function)
+    val state = apps.checkAndUpdate(packageName, function)
     onStatesUpdated()
     return state
   }
 
-  private fun MutableStateFlow<Map<String, InstallState>>.updateApp(
-    packageName: String,
-    function: (InstallState) -> InstallState,
-  ) = update { oldMap ->
-    val newMap = oldMap.toMutableMap()
-    newMap[packageName] = function(newMap[packageName] ?: InstallState.Unknown)
-    newMap
-  }
-
-  private fun MutableStateFlow<Map<String, InstallState>>.checkAndUpdateApp(
+  /** Like [updateAndGetAppState], but drops progress that comes in too quickly. */
+  private fun updateProgress(
     packageName: String,
+    isComplete: Boolean,
     function: (InstallStateWithInfo) -> InstallStateWithInfo,
-  ): InstallStateWithInfo {
-    return updateAndGet { oldMap ->
-      val oldState = oldMap[packageName]
-      check(oldState is InstallStateWithInfo) { "State for $packageName was $oldState" }
-      val newMap = oldMap.toMutableMap()
-      newMap[packageName] = function(oldState)
-      newMap
-    }[packageName]
-      as InstallStateWithInfo
+  ) {
+    apps.checkAndUpdateProgress(packageName, isComplete, function) ?: return
+    onStatesUpdated()
   }
 }
@@ -17,12 +17,17 @@ class CacheCleaner @Inject constructor(@param:ApplicationContext private val con
   private val log = KotlinLogging.logger {}
   private val shaRegex = "^[a-zA-Z0-9]{64}$".toRegex()
 
+  /**
+   * Deletes old cached APKs, but keeps the ones whose SHA-256 hash is in [keep], e.g. partial
+   * downloads of a queued update that will get resumed.
+   */
   @WorkerThread
-  fun clean(now: Long = System.currentTimeMillis()) {
+  fun clean(now: Long = System.currentTimeMillis(), keep: Set<String> = emptySet()) {
     log.info { "Cleaning up old files..." }
     try {
       context.cacheDir.listFiles()?.forEach { file ->
-        if (file.isFile && shaRegex.matches(file.name) && file.isTooOld(now)) {
+        val isOld = file.isFile && shaRegex.matches(file.name) && file.isTooOld(now)
+        if (isOld && file.name !in keep) {
           log.debug { "Deleting ${file.name}..." }
           file.delete()
         }
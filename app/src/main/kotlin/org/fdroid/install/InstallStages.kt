@@ -0,0 +1,13 @@
+package org.fdroid.install
+
+/**
+ * Lets the caller of [AppInstallManager.install] decide when an app may get downloaded and when it
+ * may get installed, e.g. to download one app while another one gets installed.
+ */
+interface InstallStages {
+  /** Runs the given [block] downloading the APK once the app may get downloaded. */
+  suspend fun <T> download(block: suspend () -> T): T
+
+  /** Runs the given [block] installing the APK once the app may get installed. */
+  suspend fun <T> install(block: suspend () -> T): T
+}
@@ -0,0 +1,121 @@
+package org.fdroid.install
+
+import java.util.concurrent.ConcurrentHashMap
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.stateIn
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.flow.updateAndGet
+
+/** Download progress of one app is published at most this often. */
+const val PROGRESS_INTERVAL_MILLIS = 250L
+
+/**
+ * Keeps the [InstallState] of each app in its own [StateFlow], so a progress update of one app
+ * neither copies the states of all other apps nor wakes up collectors of other apps.
+ *
+ * [states] provides all states at once, but is only re-computed when somebody collects it and
+ * skips intermediate changes while its collectors are busy.
+ */
+class InstallStateStore(
+  scope: CoroutineScope,
+  private val currentTimeMillis: () -> Long = System::currentTimeMillis,
+) {
+
+  private class Entry {
+    val flow = MutableStateFlow<InstallState>(InstallState.Unknown)
+    @Volatile var lastProgressMillis: Long? = null
+  }
+
+  private val entries = ConcurrentHashMap<String, Entry>()
+
+  /** Counts changes, so [states] knows when to re-compute. A [StateFlow] conflates by itself. */
+  private val changes = MutableStateFlow(0L)
+
+  val states: StateFlow<Map<String, InstallState>> =
+    changes.map { snapshot() }.stateIn(scope, SharingStarted.WhileSubscribed(), emptyMap())
+
+  /** Returns the current state of the given [packageName] or null, if there is none. */
+  operator fun get(packageName: String): InstallState? {
+    return entries[packageName]?.flow?.value?.takeIf { it != InstallState.Unknown }
+  }
+
+  fun getFlow(packageName: String): StateFlow<InstallState> {
+    return getEntry(packageName).flow.asStateFlow()
+  }
+
+  /** Returns the states of all apps that have one. */
+  fun snapshot(): Map<String, InstallState> = buildMap {
+    entries.forEach { (packageName, entry) ->
+      val state = entry.flow.value
+      if (state != InstallState.Unknown) put(packageName, state)
+    }
+  }
+
+  fun update(packageName: String, function: (InstallState) -> InstallState) {
+    getEntry(packageName).flow.update(function)
+    onChanged()
+  }
+
+  /** Updates the state of [packageName] which must be an [InstallStateWithInfo] already. */
+  fun checkAndUpdate(
+    packageName: String,
+    function: (InstallStateWithInfo) -> InstallStateWithInfo,
+  ): InstallStateWithInfo {
+    val state =
+      getEntry(packageName).flow.updateAndGet { oldState ->
+        check(oldState is InstallStateWithInfo) { "State for $packageName was $oldState" }
+        function(oldState)
+      }
+    onChanged()
+    return state as InstallStateWithInfo
+  }
+
+  /**
+   * Like [checkAndUpdate], but for download progress which is dropped if the last progress of this
+   * app was published less than [PROGRESS_INTERVAL_MILLIS] ago, unless [isComplete].
+   *
+   * @return the new state or null, if this progress was dropped.
+   */
+  fun checkAndUpdateProgress(
+    packageName: String,
+    isComplete: Boolean,
+    function: (InstallStateWithInfo) -> InstallStateWithInfo,
+  ): InstallStateWithInfo? {
+    val entry = getEntry(packageName)
+    val now = currentTimeMillis()
+    val last = entry.lastProgressMillis
+    if (!isComplete && last != null && now - last < PROGRESS_INTERVAL_MILLIS) return null
+    entry.lastProgressMillis = now
+    return checkAndUpdate(packageName, function)
+  }
+
+  fun remove(packageName: String) {
+    // collectors may still hold the flow, so we keep it, but reset it
+    entries[packageName]?.let { entry ->
+      entry.flow.value = InstallState.Unknown
+      entry.lastProgressMillis = null
+      onChanged()
+    }
+  }
+
+  /** Removes the states of all apps for which [predicate] returns true. */
+  fun removeIf(predicate: (String, InstallState) -> Boolean) {
+    entries.forEach { (packageName, entry) ->
+      val state = entry.flow.value
+      if (state != InstallState.Unknown && predicate(packageName, state)) remove(packageName)
+    }
+  }
+
+  private fun getEntry(packageName: String): Entry {
+    return entries.getOrPut(packageName) { Entry() }
+  }
+
+  private fun onChanged() {
+    changes.update { it + 1 }
+  }
+}
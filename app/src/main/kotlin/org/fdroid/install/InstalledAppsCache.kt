@@ -10,11 +10,14 @@ import android.content.pm.PackageInfo
 import android.content.pm.PackageManager
 import android.content.pm.PackageManager.GET_SIGNATURES
 import android.os.Build.VERSION.SDK_INT
+import android.os.SystemClock
 import androidx.core.content.ContextCompat.RECEIVER_NOT_EXPORTED
 import androidx.core.content.ContextCompat.registerReceiver
 import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlin.math.abs
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -23,14 +26,30 @@ import kotlinx.coroutines.launch
 import mu.KotlinLogging
 import org.fdroid.utils.IoDispatcher
 
+/** If the boot time we calculate differs more than this, the device rebooted in between. */
+private const val BOOT_TIME_TOLERANCE_MILLIS = 10_000L
+
 @Singleton
 class InstalledAppsCache
-@Inject
-constructor(
-  @param:ApplicationContext private val context: Context,
-  @param:IoDispatcher private val ioScope: CoroutineScope,
+internal constructor(
+  context: Context,
+  ioScope: CoroutineScope,
+  private val snapshot: InstalledPackagesSnapshot,
+  private val getBootTimeMillis: () -> Long = {
+    System.currentTimeMillis() - SystemClock.elapsedRealtime()
+  },
 ) : BroadcastReceiver() {
 
+  @Inject
+  constructor(
+    @ApplicationContext context: Context,
+    @IoDispatcher ioScope: CoroutineScope,
+  ) : this(
+    context = context,
+    ioScope = ioScope,
+    snapshot = InstalledPackagesSnapshot(File(context.filesDir, "installed_packages.bin")),
+  )
+
   private val log = KotlinLogging.logger {}
   private val packageManager = context.packageManager
   private val _installedApps = MutableStateFlow<Map<String, PackageInfo>>(emptyMap())
@@ -45,10 +64,62 @@ constructor(
       }
     registerReceiver(context, this, intentFilter, RECEIVER_NOT_EXPORTED)
     ioScope.launch {
-      log.info { "Loading installed apps..." }
+      // serve the persisted snapshot right away, so we don't need to wait for the PackageManager
+      val lastSnapshot = snapshot.read()
+      if (lastSnapshot != null) {
+        log.info { "Loaded ${lastSnapshot.packages.size} installed apps from snapshot" }
+        // broadcasts received in the meantime are newer than the snapshot, so they take precedence
+        _installedApps.update { apps -> lastSnapshot.packages + apps }
+      }
+      reconcile(lastSnapshot)
+    }
+  }
+
+  /**
+   * Brings the installed apps up-to-date with the [PackageManager] and persists them. If we know
+   * which packages changed since the [lastSnapshot] (only on Android 8 and later within the same
+   * boot), we only load those. Otherwise, we load all installed apps.
+   */
+  private fun reconcile(lastSnapshot: InstalledPackagesSnapshot.Snapshot?) {
+    val bootTimeMillis = getBootTimeMillis()
+    // sequence numbers get reset on boot, so we can only use them from the same boot
+    val lastSequenceNumber =
+      lastSnapshot?.sequenceNumber?.takeIf {
+        abs(lastSnapshot.bootTimeMillis - bootTimeMillis) < BOOT_TIME_TOLERANCE_MILLIS
+      }
+    val sequenceNumber =
+      if (SDK_INT >= 26 && lastSequenceNumber != null) {
+        val changedPackages = packageManager.getChangedPackages(lastSequenceNumber)
+        if (changedPackages == null) {
+          log.info { "No installed apps changed since last snapshot" }
+          return
+        }
+        log.info { "Loading ${changedPackages.packageNames.size} changed apps..." }
+        changedPackages.packageNames.forEach { packageName -> updatePackageInfo(packageName) }
+        changedPackages.sequenceNumber
+      } else {
+        // get the sequence number before loading, so we don't miss changes while loading
+        val sequenceNumber =
+          if (SDK_INT >= 26) packageManager.getChangedPackages(0)?.sequenceNumber ?: 0 else 0
+        log.info { "Loading installed apps..." }
+        @Suppress("DEPRECATION") // we'll use this as long as it works, new one was broken
+        val installedPackages = packageManager.getInstalledPackages(GET_SIGNATURES)
+        _installedApps.update { installedPackages.associateBy { it.packageName } }
+        sequenceNumber
+      }
+    snapshot.write(
+      InstalledPackagesSnapshot.Snapshot(bootTimeMillis, sequenceNumber, _installedApps.value)
+    )
+  }
+
+  /** Loads the [PackageInfo] for [packageName] or removes it, if it isn't installed anymore. */
+  private fun updatePackageInfo(packageName: String) {
+    try {
       @Suppress("DEPRECATION") // we'll use this as long as it works, new one was broken
-      val installedPackages = packageManager.getInstalledPackages(GET_SIGNATURES)
-      _installedApps.update { installedPackages.associateBy { it.packageName } }
+      val packageInfo = packageManager.getPackageInfo(packageName, GET_SIGNATURES)
+      _installedApps.update { it.toMutableMap().apply { put(packageName, packageInfo) } }
+    } catch (_: PackageManager.NameNotFoundException) {
+      _installedApps.update { apps -> apps.toMutableMap().apply { remove(packageName) } }
     }
   }
 
@@ -0,0 +1,135 @@
+package org.fdroid.install
+
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.Signature
+import android.os.Build.VERSION.SDK_INT
+import androidx.core.content.pm.PackageInfoCompat.getLongVersionCode
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import mu.KotlinLogging
+
+/** Bump this when changing what gets written, so old snapshots get ignored. */
+private const val SNAPSHOT_FORMAT = 1
+
+/**
+ * Persists a compact copy of the installed packages to [file], so we know them right at start
+ * without asking the [PackageManager] for all packages which is a big binder transaction.
+ *
+ * Only the parts of [PackageInfo] we use get persisted: version, install times, the signatures we
+ * get the signer from as well as flags, label and path of the [ApplicationInfo].
+ */
+class InstalledPackagesSnapshot(private val file: File) {
+
+  private val log = KotlinLogging.logger {}
+
+  /**
+   * @param bootTimeMillis when the device booted, because the [sequenceNumber] of
+   *   [PackageManager.getChangedPackages] gets reset on boot.
+   * @param sequenceNumber the sequence number of the last change included in [packages].
+   */
+  data class Snapshot(
+    val bootTimeMillis: Long,
+    val sequenceNumber: Int,
+    val packages: Map<String, PackageInfo>,
+  )
+
+  /** Returns the persisted snapshot or null, if there is none or it can't be read. */
+  fun read(): Snapshot? {
+    if (!file.isFile) return null
+    return try {
+      DataInputStream(file.inputStream().buffered()).use { input ->
+        if (input.readInt() != SNAPSHOT_FORMAT) return null
+        val bootTimeMillis = input.readLong()
+        val sequenceNumber = input.readInt()
+        val size = input.readInt()
+        val packages = HashMap<String, PackageInfo>(size)
+        repeat(size) {
+          val packageInfo = input.readPackageInfo()
+          packages[packageInfo.packageName] = packageInfo
+        }
+        Snapshot(bootTimeMillis, sequenceNumber, packages)
+      }
+    } catch (e: IOException) {
+      log.warn(e) { "Could not read installed packages snapshot: " }
+      null
+    }
+  }
+
+  fun write(snapshot: Snapshot) {
+    // write to a temporary file first, so we never leave a half-written snapshot behind
+    val tmpFile = File(file.parentFile, "${file.name}.tmp")
+    try {
+      DataOutputStream(tmpFile.outputStream().buffered()).use { output ->
+        output.writeInt(SNAPSHOT_FORMAT)
+        output.writeLong(snapshot.bootTimeMillis)
+        output.writeInt(snapshot.sequenceNumber)
+        output.writeInt(snapshot.packages.size)
+        snapshot.packages.values.forEach { output.writePackageInfo(it) }
+      }
+      if (!tmpFile.renameTo(file)) throw IOException("Could not rename $tmpFile")
+    } catch (e: IOException) {
+      log.warn(e) { "Could not write installed packages snapshot: " }
+      tmpFile.delete()
+    }
+  }
+
+  @Suppress("DEPRECATION") // we still use the old signatures, see InstalledAppsCache
+  private fun DataOutputStream.writePackageInfo(packageInfo: PackageInfo) {
+    writeUTF(packageInfo.packageName)
+    writeNullableUTF(packageInfo.versionName)
+    writeLong(getLongVersionCode(packageInfo))
+    writeLong(packageInfo.firstInstallTime)
+    writeLong(packageInfo.lastUpdateTime)
+    val applicationInfo = packageInfo.applicationInfo
+    writeInt(applicationInfo?.flags ?: 0)
+    writeInt(applicationInfo?.labelRes ?: 0)
+    writeNullableUTF(applicationInfo?.sourceDir)
+    val signatures = packageInfo.signatures ?: emptyArray()
+    writeInt(signatures.size)
+    signatures.forEach { signature ->
+      val bytes = signature.toByteArray()
+      writeInt(bytes.size)
+      write(bytes)
+    }
+  }
+
+  @Suppress("DEPRECATION")
+  private fun DataInputStream.readPackageInfo(): PackageInfo {
+    val packageInfo = PackageInfo()
+    packageInfo.packageName = readUTF()
+    packageInfo.versionName = readNullableUTF()
+    val versionCode = readLong()
+    if (SDK_INT >= 28) packageInfo.longVersionCode = versionCode
+    else packageInfo.versionCode = versionCode.toInt()
+    packageInfo.firstInstallTime = readLong()
+    packageInfo.lastUpdateTime = readLong()
+    packageInfo.applicationInfo =
+      ApplicationInfo().apply {
+        packageName = packageInfo.packageName
+        flags = readInt()
+        labelRes = readInt()
+        sourceDir = readNullableUTF()
+        publicSourceDir = sourceDir
+      }
+    val numSignatures = readInt()
+    packageInfo.signatures =
+      if (numSignatures == 0) null
+      else {
+        Array(numSignatures) { Signature(ByteArray(readInt()).also { bytes -> readFully(bytes) }) }
+      }
+    return packageInfo
+  }
+
+  private fun DataOutputStream.writeNullableUTF(value: String?) {
+    writeBoolean(value != null)
+    if (value != null) writeUTF(value)
+  }
+
+  private fun DataInputStream.readNullableUTF(): String? {
+    return if (readBoolean()) readUTF() else null
+  }
+}
@@ -32,6 +32,7 @@ import androidx.core.content.FileProvider
 import androidx.core.os.LocaleListCompat
 import dagger.hilt.android.qualifiers.ApplicationContext
 import java.io.File
+import java.io.OutputStream
 import java.util.Locale
 import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
@@ -46,6 +47,7 @@ import mu.KotlinLogging
 import org.fdroid.LocaleChooser.getBestLocale
 import org.fdroid.database.AppMetadata
 import org.fdroid.index.v2.PackageVersion
+import org.fdroid.trace
 import org.fdroid.ui.utils.isAppInForeground
 import org.fdroid.utils.IoDispatcher
 import org.fdroid.utils.isChina
@@ -236,16 +238,50 @@ constructor(
   }
 
   @WorkerThread
-  @SuppressLint("RequestInstallPackagesPolicy")
   suspend fun install(
     sessionId: Int?,
     packageName: String,
     state: InstallStateWithInfo,
     apkFile: File,
-  ): InstallState = safeSuspendCoroutine { cont ->
+  ): InstallState {
     val size = apkFile.length()
     log.info { "Installing ${apkFile.name} with size $size bytes" }
+    return installInSession(sessionId, packageName, state, size, apkFile) { outputStream ->
+      apkFile.inputStream().use { inputStream -> inputStream.copyTo(outputStream) }
+    }
+  }
 
+  /**
+   * Installs an APK with the given [size] that [writer] writes straight into the install session,
+   * e.g. while downloading it, so it never needs to be stored in a file first. If [writer] throws,
+   * e.g. because the hash didn't match, the session gets abandoned and an [InstallState.Error]
+   * returned.
+   *
+   * As there's no file we could fall back to, a failed verification is reported as
+   * [InstallState.PreApproved] with [PreApprovalResult.Error] like a failed pre-approval, so the
+   * caller can try again with a file and a new session.
+   */
+  @WorkerThread
+  suspend fun installStreaming(
+    sessionId: Int?,
+    packageName: String,
+    state: InstallStateWithInfo,
+    size: Long,
+    writer: (OutputStream) -> Unit,
+  ): InstallState {
+    log.info { "Installing $packageName from stream with size $size bytes" }
+    return installInSession(sessionId, packageName, state, size, null, writer)
+  }
+
+  @SuppressLint("RequestInstallPackagesPolicy")
+  private suspend fun installInSession(
+    sessionId: Int?,
+    packageName: String,
+    state: InstallStateWithInfo,
+    size: Long,
+    apkFile: File?,
+    writer: (OutputStream) -> Unit,
+  ): InstallState = safeSuspendCoroutine { cont ->
     val sessionId =
       try {
         if (sessionId == null) {
@@ -297,12 +333,28 @@ constructor(
             )
           }
           PackageInstaller.STATUS_FAILURE_ABORTED -> {
-            if (msg != null && msg.contains("INSTALL_FAILED_VERIFICATION_FAILURE")) {
-              // This is useful for users with Google Advanced Protection
-              // who can use this to circumvent install restrictions (see #3201)
-              installLegacy(apkFile)
+            val verificationFailed =
+              msg != null && msg.contains("INSTALL_FAILED_VERIFICATION_FAILURE")
+            if (verificationFailed && apkFile == null) {
+              // we streamed the APK, so let the caller try again with a file and a new session
+              val newState =
+                InstallState.PreApproved(
+                  name = state.name,
+                  versionName = state.versionName,
+                  currentVersionName = state.currentVersionName,
+                  lastUpdated = state.lastUpdated,
+                  iconModel = state.iconModel,
+                  result = PreApprovalResult.Error(msg),
+                )
+              cont.resume(newState)
+            } else {
+              if (verificationFailed && apkFile != null) {
+                // This is useful for users with Google Advanced Protection
+                // who can use this to circumvent install restrictions (see #3201)
+                installLegacy(apkFile)
+              }
+              cont.resume(InstallState.UserAborted)
             }
-            cont.resume(InstallState.UserAborted)
           }
           PackageInstaller.STATUS_FAILURE -> {
             if (msg != null && msg.contains("PreapprovalDetails")) {
@@ -327,29 +379,29 @@ constructor(
     cont.invokeOnCancellation {
       log.info { "App installation was cancelled, unregistering broadcast receiver..." }
       unregisterReceiver(receiver)
-      try {
-        installer.abandonSession(sessionId)
-      } catch (e: SecurityException) {
-        // this can happen if the cancellation came too late and session already concluded
-        log.warn(e) { "Error while abandoning session: " }
-      }
+      abandonSession(sessionId)
     }
     // do the actual installation
     try {
       installer.openSession(sessionId).use { session ->
-        apkFile.inputStream().use { inputStream ->
+        trace("SessionInstallManager.writeSession", "packageName" to packageName) {
           session.openWrite(packageName, 0, size).use { outputStream ->
-            inputStream.copyTo(outputStream)
+            writer(outputStream)
             session.fsync(outputStream)
           }
         }
         val sender = getInstallIntentSender(sessionId, packageName)
         log.info { "Committing session..." }
-        session.commit(sender)
+        trace("SessionInstallManager.commit", "packageName" to packageName) {
+          session.commit(sender)
+        }
       }
     } catch (e: Exception) {
       log.error(e) { "Error during install session: " }
       cont.resume(InstallState.Error("${e::class.java.simpleName} ${e.message}", state))
+      // we won't get a result for this session anymore, so clean up
+      unregisterReceiver(receiver)
+      abandonSession(sessionId)
     }
   }
 
@@ -492,6 +544,15 @@ constructor(
     return pendingIntent.intentSender
   }
 
+  private fun abandonSession(sessionId: Int) {
+    try {
+      installer.abandonSession(sessionId)
+    } catch (e: SecurityException) {
+      // this can happen if the cancellation came too late and session already concluded
+      log.warn(e) { "Error while abandoning session: " }
+    }
+  }
+
   private fun unregisterReceiver(receiver: InstallBroadcastReceiver) {
     try {
       context.unregisterReceiver(receiver)
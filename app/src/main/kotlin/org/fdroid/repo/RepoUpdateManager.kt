@@ -19,12 +19,15 @@ import org.fdroid.NotificationManager
 import org.fdroid.R
 import org.fdroid.database.FDroidDatabase
 import org.fdroid.database.Repository
+import org.fdroid.db.InvalidationBatcher
+import org.fdroid.discover.DiscoverSnapshotManager
 import org.fdroid.download.DownloaderFactory
 import org.fdroid.index.IndexUpdateResult
 import org.fdroid.index.RepoManager
 import org.fdroid.index.RepoUpdater
 import org.fdroid.settings.SettingsConstants
 import org.fdroid.settings.SettingsManager
+import org.fdroid.trace
 import org.fdroid.updates.UpdatesManager
 
 private const val MIN_UPDATE_INTERVAL_MILLIS = 15_000
@@ -41,6 +44,8 @@ internal constructor(
   private val settingsManager: SettingsManager,
   private val downloaderFactory: DownloaderFactory,
   private val notificationManager: NotificationManager,
+  private val invalidationBatcher: InvalidationBatcher,
+  private val discoverSnapshotManager: DiscoverSnapshotManager,
   // Defaults keep the testing constructor lightweight while still mirroring production wiring.
   private val compatibilityChecker: CompatibilityChecker =
     CompatibilityCheckerImpl(packageManager = context.packageManager, forceTouchApps = false),
@@ -65,6 +70,8 @@ internal constructor(
     settingsManager: SettingsManager,
     downloaderFactory: DownloaderFactory,
     notificationManager: NotificationManager,
+    invalidationBatcher: InvalidationBatcher,
+    discoverSnapshotManager: DiscoverSnapshotManager,
   ) : this(
     context = context,
     db = db,
@@ -73,6 +80,8 @@ internal constructor(
     settingsManager = settingsManager,
     downloaderFactory = downloaderFactory,
     notificationManager = notificationManager,
+    invalidationBatcher = invalidationBatcher,
+    discoverSnapshotManager = discoverSnapshotManager,
   )
 
   private val log = KotlinLogging.logger {}
@@ -116,23 +125,31 @@ internal constructor(
     try {
       currentCoroutineContext().ensureActive()
       var anyReposProcessed = false
-      // Always get repos fresh from DB, because:
-      // * when an update is requested early at app start, the repos might not be available yet
-      // * when an update is requested when adding a new repo, it might not be in the list yet
-      db.getRepositoryDao().getRepositories().forEach { repository ->
-        if (!repository.enabled) return@forEach // don't update disabled repos
-
-        currentCoroutineContext().ensureActive()
-        val result = updateRepositoryInternal(repository)
-        if (result is IndexUpdateResult.Processed) {
-          anyReposProcessed = true
+      // Observed queries get refreshed only once after all repos got updated,
+      // not after each repo and each of its compatibility and preference updates.
+      invalidationBatcher.begin()
+      try {
+        // Always get repos fresh from DB, because:
+        // * when an update is requested early at app start, the repos might not be available yet
+        // * when an update is requested when adding a new repo, it might not be in the list yet
+        db.getRepositoryDao().getRepositories().forEach { repository ->
+          if (!repository.enabled) return@forEach // don't update disabled repos
+
+          currentCoroutineContext().ensureActive()
+          val result = updateRepositoryInternal(repository)
+          if (result is IndexUpdateResult.Processed) {
+            anyReposProcessed = true
+          }
         }
+      } finally {
+        invalidationBatcher.end()
       }
 
-      db.getRepositoryDao().walCheckpoint()
+      trace("RepoUpdateManager.walCheckpoint") { db.getRepositoryDao().walCheckpoint() }
       updateLastCheckTimestamp(anyReposProcessed)
 
       if (anyReposProcessed) {
+        discoverSnapshotManager.update()
         checkAndNotifyAppUpdates()
       }
     } finally {
@@ -153,15 +170,16 @@ internal constructor(
     val repository = repoManager.getRepository(repoId) ?: return IndexUpdateResult.NotFound
     _isUpdating.value = true
     return try {
-      val result = updateRepositoryInternal(repository)
+      val result = invalidationBatcher.batch { updateRepositoryInternal(repository) }
       if (result is IndexUpdateResult.Processed) {
+        discoverSnapshotManager.update()
         updatesManager.loadUpdates()
       }
       result
     } finally {
       notificationManager.cancelUpdateRepoNotification()
       _isUpdating.value = false
-      db.getRepositoryDao().walCheckpoint()
+      trace("RepoUpdateManager.walCheckpoint") { db.getRepositoryDao().walCheckpoint() }
     }
   }
 
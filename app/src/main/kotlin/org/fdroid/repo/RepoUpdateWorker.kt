@@ -34,6 +34,8 @@ import org.fdroid.history.HistoryManager
 import org.fdroid.install.CacheCleaner
 import org.fdroid.settings.SettingsConstants.AutoUpdateValues
 import org.fdroid.ui.utils.canStartForegroundService
+import org.fdroid.updates.UpdateQueue
+import org.fdroid.updates.UpdatesManager
 
 private val TAG = RepoUpdateWorker::class.java.simpleName
 
@@ -45,6 +47,8 @@ constructor(
   @Assisted workerParams: WorkerParameters,
   private val repoUpdateManager: RepoUpdateManager,
   private val cacheCleaner: CacheCleaner,
+  private val updateQueue: UpdateQueue,
+  private val updatesManager: UpdatesManager,
   private val historyManager: HistoryManager,
   private val nm: NotificationManager,
 ) : CoroutineWorker(appContext, workerParams) {
@@ -135,8 +139,9 @@ constructor(
     return try {
       currentCoroutineContext().ensureActive()
       if (repoId >= 0) repoUpdateManager.updateRepo(repoId) else repoUpdateManager.updateRepos()
-      // use opportunity to clean up cached APKs
-      cacheCleaner.clean()
+      // use opportunity to clean up cached APKs, but keep the ones of queued or prefetched updates
+      val keep = updateQueue.getQueuedHashes() + updatesManager.getPrefetchedHashes()
+      cacheCleaner.clean(keep = keep)
       historyManager.pruneEvents()
       // return result
       Result.success()
@@ -3,8 +3,10 @@ package org.fdroid.search
 import android.database.sqlite.SQLiteException
 import androidx.core.os.LocaleListCompat
 import androidx.lifecycle.asFlow
+import io.ktor.client.engine.ProxyConfig
 import java.text.Collator
 import java.util.Locale
+import java.util.concurrent.atomic.AtomicReference
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.time.measureTimedValue
@@ -12,15 +14,19 @@ import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import mu.KotlinLogging
 import org.fdroid.LocaleChooser.getBestLocale
+import org.fdroid.database.AppSearchItem
 import org.fdroid.database.FDroidDatabase
 import org.fdroid.database.SearchQueryRewriter
 import org.fdroid.download.DownloadRequest
@@ -35,6 +41,11 @@ import org.fdroid.ui.lists.AppListItem
 import org.fdroid.ui.search.SearchResults
 import org.fdroid.utils.IoDispatcher
 
+/**
+ * Narrowing down results in memory is only faster than the FTS index up to this many candidates.
+ */
+private const val MAX_CANDIDATES_TO_REFINE = 5000
+
 @Singleton
 class SearchManager
 @Inject
@@ -53,6 +64,8 @@ constructor(
   private val _searchResults = MutableStateFlow<SearchResults?>(null)
   private val _savedSearches = MutableStateFlow<List<SavedSearch>?>(null)
   private var searchJob: SearchJob? = null
+  private val currentSearch = AtomicReference<Job?>()
+  @Volatile private var lastCandidates: SearchCandidates? = null
 
   val categories =
     db.getRepositoryDao().getLiveCategories().asFlow().map { categories ->
@@ -78,6 +91,9 @@ constructor(
 
   suspend fun search(term: String) {
     withContext(ioDispatcher) {
+      // cancel a search that is still running for a previous term, because we don't need its
+      // results anymore, so it doesn't compete with this one for DB connections
+      currentSearch.getAndSet(coroutineContext.job)?.cancel()
       // we need a way to make the app crash for testing, e.g. the crash reporter
       if (term == "CrashMe") error("BOOOOOOOOM!!!")
 
@@ -86,29 +102,9 @@ constructor(
       log.info { "Searching for: $query" }
       val timedApps = measureTimedValue {
         try {
-          val proxyConfig = settingsManager.proxyConfig
-          db.getAppDao().getAppSearchItems(query).sortedDescending().mapNotNull {
-            val repository = repoManager.getRepository(it.repoId) ?: return@mapNotNull null
-            val iconModel =
-              it.getIcon(localeList)?.getImageModel(repository, proxyConfig) as? DownloadRequest
-            val isInstalled = installedAppsCache.isInstalled(it.packageName)
-            AppListItem(
-              repoId = it.repoId,
-              packageName = it.packageName,
-              name = it.name.getBestLocale(localeList) ?: "Unknown",
-              summary = it.summary.getBestLocale(localeList) ?: "",
-              lastUpdated = it.lastUpdated,
-              isInstalled = isInstalled,
-              isCompatible = true, // doesn't matter here, as we don't filter
-              iconModel =
-                if (isInstalled) {
-                  PackageName(it.packageName, iconModel)
-                } else {
-                  iconModel
-                },
-              categoryIds = it.categories?.toSet(),
-            )
-          }
+          getCandidates(sanitized, query)
+            .sortedWith(compareByDescending { it.item })
+            .map { it.listItem }
         } catch (e: SQLiteException) {
           log.error(e) { "Error searching for $query: " }
           emptyList()
@@ -122,6 +118,7 @@ constructor(
             (it.description?.normalize()?.contains(normalized, ignoreCase = true) ?: false)
         }
       }
+      ensureActive()
       _searchResults.value = SearchResults(timedApps.value, timedCategories.value)
       log.debug {
         val numResults = _searchResults.value?.apps?.size ?: 0
@@ -143,7 +140,59 @@ constructor(
     }
   }
 
+  /**
+   * Returns the apps matching the given [query]. If the user only kept typing the same word, we
+   * narrow down the candidates of the last search instead of querying the DB again.
+   */
+  private suspend fun getCandidates(term: String, query: String): List<SearchCandidate> {
+    val last = lastCandidates
+    val candidates =
+      if (
+        last != null &&
+          last.candidates.size <= MAX_CANDIDATES_TO_REFINE &&
+          SearchQueryRewriter.isRefinement(last.term, term)
+      ) {
+        last.candidates.mapNotNull { candidate ->
+          candidate.item.refine(term)?.let { item -> SearchCandidate(item, candidate.listItem) }
+        }
+      } else {
+        val proxyConfig = settingsManager.proxyConfig
+        val items = db.getAppDao().getAppSearchItems(query)
+        currentCoroutineContext().ensureActive()
+        items.mapNotNull { item ->
+          val listItem = item.toAppListItem(proxyConfig) ?: return@mapNotNull null
+          SearchCandidate(item, listItem)
+        }
+      }
+    currentCoroutineContext().ensureActive()
+    lastCandidates = SearchCandidates(term, candidates)
+    return candidates
+  }
+
+  private fun AppSearchItem.toAppListItem(proxyConfig: ProxyConfig?): AppListItem? {
+    val repository = repoManager.getRepository(repoId) ?: return null
+    val iconModel = getIcon(localeList)?.getImageModel(repository, proxyConfig) as? DownloadRequest
+    val isInstalled = installedAppsCache.isInstalled(packageName)
+    return AppListItem(
+      repoId = repoId,
+      packageName = packageName,
+      name = name.getBestLocale(localeList) ?: "Unknown",
+      summary = summary.getBestLocale(localeList) ?: "",
+      lastUpdated = lastUpdated,
+      isInstalled = isInstalled,
+      isCompatible = true, // doesn't matter here, as we don't filter
+      iconModel =
+        if (isInstalled) {
+          PackageName(packageName, iconModel)
+        } else {
+          iconModel
+        },
+      categoryIds = categories?.toSet(),
+    )
+  }
+
   fun onSearchCleared() {
+    lastCandidates = null
     _searchResults.value = null
   }
 
@@ -155,3 +204,8 @@ constructor(
 }
 
 class SearchJob(val job: Job, val query: String)
+
+/** A search result from the DB with the item we show for it. */
+private class SearchCandidate(val item: AppSearchItem, val listItem: AppListItem)
+
+private class SearchCandidates(val term: String, val candidates: List<SearchCandidate>)
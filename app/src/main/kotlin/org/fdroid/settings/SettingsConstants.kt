@@ -30,6 +30,9 @@ object SettingsConstants {
   const val PREF_KEY_AUTO_UPDATES = "appAutoUpdates"
   val PREF_DEFAULT_AUTO_UPDATES = AutoUpdateValues.OnlyWifi.name
 
+  const val PREF_KEY_PREFETCH_UPDATES = "prefetchUpdates"
+  const val PREF_DEFAULT_PREFETCH_UPDATES = false
+
   enum class MirrorChooserValues {
     Random {
       override val res = R.string.pref_mirror_chooser_summary_random
@@ -87,9 +90,6 @@ object SettingsConstants {
 
   const val PREF_KEY_INSTALL_HISTORY = "keepInstallHistory"
   const val PREF_DEFAULT_INSTALL_HISTORY = false
-
-  const val PREF_KEY_LAST_DB_REPAIR_CHECK = "lastDbRepairCheck"
-  const val PREF_DEFAULT_LAST_DB_REPAIR_CHECK = -1L
 }
 
 fun String?.toAutoUpdateValue() =
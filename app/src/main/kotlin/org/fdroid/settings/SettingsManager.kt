@@ -25,10 +25,10 @@ import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_APP_LIST_SORT_ORDER
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_AUTO_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_DYNAMIC_COLORS
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_INSTALL_HISTORY
-import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_LAST_DB_REPAIR_CHECK
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_LAST_UPDATE_CHECK
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_MIRROR_CHOOSER
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_MY_APPS_SORT_ORDER
+import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_PREFETCH_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_PREVENT_SCREENSHOTS
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_PROXY
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_REPO_UPDATES
@@ -43,10 +43,10 @@ import org.fdroid.settings.SettingsConstants.PREF_KEY_AUTO_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_KEY_DYNAMIC_COLORS
 import org.fdroid.settings.SettingsConstants.PREF_KEY_IGNORED_APP_ISSUES
 import org.fdroid.settings.SettingsConstants.PREF_KEY_INSTALL_HISTORY
-import org.fdroid.settings.SettingsConstants.PREF_KEY_LAST_DB_REPAIR_CHECK
 import org.fdroid.settings.SettingsConstants.PREF_KEY_LAST_UPDATE_CHECK
 import org.fdroid.settings.SettingsConstants.PREF_KEY_MIRROR_CHOOSER
 import org.fdroid.settings.SettingsConstants.PREF_KEY_MY_APPS_SORT_ORDER
+import org.fdroid.settings.SettingsConstants.PREF_KEY_PREFETCH_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_KEY_PREVENT_SCREENSHOTS
 import org.fdroid.settings.SettingsConstants.PREF_KEY_PROXY
 import org.fdroid.settings.SettingsConstants.PREF_KEY_REPO_UPDATES
@@ -99,6 +99,16 @@ class SettingsManager @Inject constructor(@param:ApplicationContext private val
         .map { it.get<String>(PREF_KEY_AUTO_UPDATES).toAutoUpdateValue() }
         .distinctUntilChanged()
 
+  /** Whether APKs of available updates should get downloaded in advance on unmetered networks. */
+  val prefetchUpdates
+    get() = prefs.getBoolean(PREF_KEY_PREFETCH_UPDATES, PREF_DEFAULT_PREFETCH_UPDATES)
+
+  val prefetchUpdatesFlow
+    get() =
+      prefsFlow
+        .map { it.get<Boolean>(PREF_KEY_PREFETCH_UPDATES) ?: PREF_DEFAULT_PREFETCH_UPDATES }
+        .distinctUntilChanged()
+
   var lastRepoUpdate: Long
     get() =
       try {
@@ -115,12 +125,6 @@ class SettingsManager @Inject constructor(@param:ApplicationContext private val
       _lastRepoUpdateFlow.update { value }
     }
 
-  var lastDbRepairCheck: Long
-    get() = prefs.getLong(PREF_KEY_LAST_DB_REPAIR_CHECK, PREF_DEFAULT_LAST_DB_REPAIR_CHECK)
-    set(value) {
-      prefs.edit { putLong(PREF_KEY_LAST_DB_REPAIR_CHECK, value) }
-    }
-
   var useInstallHistory: Boolean
     get() = prefs.getBoolean(PREF_KEY_INSTALL_HISTORY, PREF_DEFAULT_INSTALL_HISTORY)
     set(value) {
@@ -183,6 +187,7 @@ class SettingsManager @Inject constructor(@param:ApplicationContext private val
       return prefs.edit { putBoolean(PREF_USE_DNS_CACHE, value) }
     }
 
+  /** The DNS cache of older versions, only kept to migrate it into [org.fdroid.download.DnsCache]. */
   var dnsCache: String
     get() {
       return prefs.getString(PREF_DNS_CACHE, null) ?: PREF_DNS_CACHE_DEFAULT
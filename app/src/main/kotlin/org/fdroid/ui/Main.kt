@@ -107,6 +107,10 @@ fun Main(onListeningForIntent: () -> Unit = {}) {
           viewModel.onSaveLogcat(it)
           navigator.goBack()
         },
+        onSaveDbStats = {
+          viewModel.onSaveDbStats(it)
+          navigator.goBack()
+        },
         onBackClicked = { navigator.goBack() },
       )
     }
@@ -117,6 +121,7 @@ fun Main(onListeningForIntent: () -> Unit = {}) {
         enabled = viewModel.useInstallHistory.collectAsStateWithLifecycle(null).value,
         onEnabled = viewModel::useInstallHistory,
         onDeleteAll = viewModel::deleteHistory,
+        onEndReached = viewModel::onEndReached,
         onBackClicked = { navigator.goBack() },
       )
     }
@@ -29,6 +29,7 @@ import mu.KotlinLogging
 import org.fdroid.R
 import org.fdroid.database.AppListSortOrder
 import org.fdroid.database.FDroidDatabase
+import org.fdroid.db.InvalidationBatcher
 import org.fdroid.download.DownloadRequest
 import org.fdroid.download.NetworkMonitor
 import org.fdroid.download.PackageName
@@ -60,6 +61,7 @@ constructor(
   private val networkMonitor: NetworkMonitor,
   private val updatesManager: UpdatesManager,
   private val repoManager: RepoManager,
+  invalidationBatcher: InvalidationBatcher,
 ) : AndroidViewModel(app), MyAppsActions {
 
   private val log = KotlinLogging.logger {}
@@ -73,7 +75,8 @@ constructor(
   private val installedAppItems =
     installedAppsCache.installedApps.flatMapLatest { installedApps ->
       val proxyConfig = settingsManager.proxyConfig
-      db.getAppDao().getInstalledAppListItems(installedApps).map { list ->
+      val appsFlow = db.getAppDao().getInstalledAppListItems(installedApps)
+      invalidationBatcher.coalesce(appsFlow).map { list ->
         list.map { app ->
           val backupModel =
             repoManager.getRepository(app.repoId)?.let { repo ->
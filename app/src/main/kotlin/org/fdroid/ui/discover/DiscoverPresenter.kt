@@ -9,6 +9,8 @@ import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.StateFlow
 import org.fdroid.database.AppOverviewItem
 import org.fdroid.database.Repository
+import org.fdroid.discover.DiscoverSnapshot
+import org.fdroid.discover.SnapshotApp
 import org.fdroid.download.DownloadRequest
 import org.fdroid.download.NetworkState
 import org.fdroid.download.PackageName
@@ -24,6 +26,7 @@ fun DiscoverPresenter(
   recentlyUpdatedAppsFlow: Flow<List<AppOverviewItem>>,
   mostDownloadedAppsFlow: Flow<List<AppOverviewItem>>,
   categoriesFlow: Flow<List<CategoryItem>>,
+  snapshotFlow: Flow<DiscoverSnapshot?>,
   installedAppsFlow: StateFlow<Map<String, PackageInfo>>,
   isFirstStart: Boolean,
   networkState: NetworkState,
@@ -34,16 +37,22 @@ fun DiscoverPresenter(
 ): DiscoverModel {
   val localeList = LocaleListCompat.getDefault()
   val installedApps = installedAppsFlow.collectAsState().value
+  // a non-blocking snapshot, so we never wait for repositories to load from the DB
+  val repositories = repoManager.repositoriesState.collectAsState().value
+  val repositoriesById = repositories?.associateBy { it.repoId } ?: emptyMap()
+  // what we showed after the last repo update, used for each list until its query returned
+  val snapshot = snapshotFlow.collectAsState(null).value
 
-  fun AppOverviewItem.toAppDiscoverItem(
-    repository: Repository,
-    proxyConfig: ProxyConfig?,
+  fun getAppDiscoverItem(
+    packageName: String,
+    name: String,
+    lastUpdated: Long,
+    imageModel: Any?,
   ): AppDiscoverItem {
     val isInstalled = installedApps.contains(packageName)
-    val imageModel = getIcon(localeList)?.getImageModel(repository, proxyConfig)
     return AppDiscoverItem(
       packageName = packageName,
-      name = getName(localeList) ?: "Unknown App",
+      name = name,
       lastUpdated = lastUpdated,
       isInstalled = isInstalled,
       imageModel =
@@ -55,25 +64,50 @@ fun DiscoverPresenter(
     )
   }
 
+  fun AppOverviewItem.toAppDiscoverItem(
+    repository: Repository,
+    proxyConfig: ProxyConfig?,
+  ): AppDiscoverItem =
+    getAppDiscoverItem(
+      packageName = packageName,
+      name = getName(localeList) ?: "Unknown App",
+      lastUpdated = lastUpdated,
+      imageModel = getIcon(localeList)?.getImageModel(repository, proxyConfig),
+    )
+
+  fun List<SnapshotApp>.toAppDiscoverItems(proxyConfig: ProxyConfig?): List<AppDiscoverItem> =
+    mapNotNull {
+      // while repositories are still loading, we show snapshot apps without icon
+      val repository = repositoriesById[it.repoId]
+      if (repositories != null && repository == null) return@mapNotNull null
+      getAppDiscoverItem(
+        packageName = it.packageName,
+        name = it.name,
+        lastUpdated = it.lastUpdated,
+        imageModel = it.icon?.getImageModel(repository, proxyConfig),
+      )
+    }
+
   val proxyConfig = settingsManager.proxyConfig
   // load carousel content in reverse order because that looked best with AnimatedVisibility
   val mostDownloadedApps =
     mostDownloadedAppsFlow.collectAsState(null).value?.mapNotNull {
-      val repository = repoManager.getRepository(it.repoId) ?: return@mapNotNull null
+      val repository = repositoriesById[it.repoId] ?: return@mapNotNull null
       it.toAppDiscoverItem(repository, proxyConfig)
-    }
+    } ?: snapshot?.mostDownloadedApps?.toAppDiscoverItems(proxyConfig)
   val recentlyUpdatedApps =
     recentlyUpdatedAppsFlow.collectAsState(null).value?.mapNotNull {
-      val repository = repoManager.getRepository(it.repoId) ?: return@mapNotNull null
+      val repository = repositoriesById[it.repoId] ?: return@mapNotNull null
       it.toAppDiscoverItem(repository, proxyConfig)
-    }
+    } ?: snapshot?.recentlyUpdatedApps?.toAppDiscoverItems(proxyConfig)
   val newApps =
     newAppsFlow.collectAsState(null).value?.mapNotNull {
-      val repository = repoManager.getRepository(it.repoId) ?: return@mapNotNull null
+      val repository = repositoriesById[it.repoId] ?: return@mapNotNull null
       it.toAppDiscoverItem(repository, proxyConfig)
-    }
-  val categories = categoriesFlow.collectAsState(null).value
-  val repositoriesFlow = repoManager.repositoriesState
+    } ?: snapshot?.newApps?.toAppDiscoverItems(proxyConfig)
+  val categories =
+    categoriesFlow.collectAsState(null).value
+      ?: snapshot?.categories?.map { CategoryItem(id = it.id, name = it.name) }
 
   return if (
     !mostDownloadedApps.isNullOrEmpty() ||
@@ -93,7 +127,6 @@ fun DiscoverPresenter(
     )
   } else {
     // everything is still null or empty, so figure out why
-    val repositories = repositoriesFlow.collectAsState().value
     if (repositories?.all { !it.enabled } == true) {
       NoEnabledReposDiscoverModel
     } else if (isFirstStart || recentlyUpdatedApps?.size == 0) {
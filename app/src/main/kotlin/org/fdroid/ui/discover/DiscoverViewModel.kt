@@ -28,11 +28,11 @@ import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.update
-import kotlinx.serialization.ExperimentalSerializationApi
-import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.decodeFromStream
 import mu.KotlinLogging
 import org.fdroid.database.FDroidDatabase
+import org.fdroid.db.InvalidationBatcher
+import org.fdroid.discover.DiscoverSnapshotManager
+import org.fdroid.discover.MostDownloadedApps
 import org.fdroid.download.NetworkMonitor
 import org.fdroid.index.RepoManager
 import org.fdroid.install.InstalledAppsCache
@@ -52,6 +52,9 @@ constructor(
   private val repoManager: RepoManager,
   private val repoUpdateManager: RepoUpdateManager,
   private val installedAppsCache: InstalledAppsCache,
+  invalidationBatcher: InvalidationBatcher,
+  discoverSnapshotManager: DiscoverSnapshotManager,
+  mostDownloadedApps: MostDownloadedApps,
 ) : AndroidViewModel(app) {
 
   private val log = KotlinLogging.logger {}
@@ -59,24 +62,22 @@ constructor(
     CoroutineScope(viewModelScope.coroutineContext + AndroidUiDispatcher.Main)
 
   private val localeListFlow = MutableStateFlow(LocaleListCompat.getDefault())
-  private val newAppsFlow = db.getAppDao().getNewAppsFlow()
-  private val recentlyUpdatedAppsFlow = db.getAppDao().getRecentlyUpdatedAppsFlow()
-  private val mostDownloadedApps =
+  // the app queries are heavy, so we don't re-run them after each repo of a repo update
+  private val newAppsFlow = invalidationBatcher.coalesce(db.getAppDao().getNewAppsFlow())
+  private val recentlyUpdatedAppsFlow =
+    invalidationBatcher.coalesce(db.getAppDao().getRecentlyUpdatedAppsFlow())
+  private val mostDownloadedAppsFlow =
     flow {
-        val packageNames =
-          try {
-            app.assets.open("most_downloaded_apps.json").use { inputStream ->
-              @OptIn(ExperimentalSerializationApi::class)
-              Json.decodeFromStream<List<String>>(inputStream)
-            }
-          } catch (e: Exception) {
-            log.error(e) { "Error loading most downloaded apps: " }
-            return@flow
-          }
-        db.getAppDao().getAppsFlow(packageNames).collect { apps -> emit(apps) }
+        val packageNames = mostDownloadedApps.packageNames
+        if (packageNames.isEmpty()) return@flow
+        val appsFlow = invalidationBatcher.coalesce(db.getAppDao().getAppsFlow(packageNames))
+        appsFlow.collect { apps -> emit(apps) }
       }
       .flowOn(Dispatchers.IO)
-  private val dbCategories = db.getRepositoryDao().getLiveCategories().asFlow()
+  // shown until the queries above return, so a cold start doesn't need to wait for the DB
+  private val snapshotFlow = flow { emit(discoverSnapshotManager.read()) }.flowOn(Dispatchers.IO)
+  private val dbCategories =
+    invalidationBatcher.coalesce(db.getRepositoryDao().getLiveCategories().asFlow())
   private val categories =
     combine(localeListFlow, dbCategories) { localeList, categories ->
       val collator = Collator.getInstance(Locale.getDefault())
@@ -98,8 +99,9 @@ constructor(
         DiscoverPresenter(
           newAppsFlow = newAppsFlow,
           recentlyUpdatedAppsFlow = recentlyUpdatedAppsFlow,
-          mostDownloadedAppsFlow = mostDownloadedApps,
+          mostDownloadedAppsFlow = mostDownloadedAppsFlow,
           categoriesFlow = categories,
+          snapshotFlow = snapshotFlow,
           installedAppsFlow = installedAppsCache.installedApps,
           isFirstStart = settingsManager.isFirstStart,
           // not observing the flow, but just taking the current value,
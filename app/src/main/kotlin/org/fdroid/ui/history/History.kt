@@ -34,6 +34,7 @@ fun History(
   enabled: Boolean?,
   onEnabled: (Boolean) -> Unit,
   onDeleteAll: () -> Unit,
+  onEndReached: () -> Unit,
   onBackClicked: (() -> Unit)?,
 ) {
   var deleteAllDialogShown by remember { mutableStateOf(false) }
@@ -57,7 +58,7 @@ fun History(
     modifier = Modifier.nestedScroll(scrollBehavior.nestedScrollConnection),
   ) { paddingValues ->
     if (items == null) BigLoadingIndicator(modifier = Modifier.padding(paddingValues))
-    else HistoryList(items, enabled, onEnabled, paddingValues)
+    else HistoryList(items, enabled, onEnabled, onEndReached, paddingValues)
     val onDismiss = { deleteAllDialogShown = false }
     if (deleteAllDialogShown)
       AlertDialog(
@@ -83,17 +84,17 @@ fun History(
 @Preview
 @Composable
 private fun PreviewLoading() {
-  FDroidContent { History(null, true, {}, {}) {} }
+  FDroidContent { History(null, true, {}, {}, {}) {} }
 }
 
 @Preview
 @Composable
 private fun PreviewEmpty() {
-  FDroidContent { History(emptyList(), true, {}, {}) {} }
+  FDroidContent { History(emptyList(), true, {}, {}, {}) {} }
 }
 
 @Preview
 @Composable
 private fun PreviewEmptyDisabled() {
-  FDroidContent { History(emptyList(), false, {}, {}) {} }
+  FDroidContent { History(emptyList(), false, {}, {}, {}) {} }
 }
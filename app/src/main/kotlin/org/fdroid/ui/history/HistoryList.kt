@@ -20,6 +20,7 @@ import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Switch
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.alpha
@@ -43,6 +44,7 @@ fun HistoryList(
   items: List<HistoryItem>,
   enabled: Boolean?,
   onEnabled: (Boolean) -> Unit,
+  onEndReached: () -> Unit,
   paddingValues: PaddingValues,
 ) {
   LazyColumn(contentPadding = paddingValues) {
@@ -126,5 +128,8 @@ fun HistoryList(
           modifier = if (enabled == false) Modifier.alpha(0.5f) else Modifier,
         )
       }
+    // only gets composed when scrolled to the end of the list
+    if (items.isNotEmpty())
+      item(contentType = "end") { LaunchedEffect(items.size) { onEndReached() } }
   }
 }
@@ -10,15 +10,20 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import org.fdroid.database.FDroidDatabase
 import org.fdroid.download.DownloadRequest
 import org.fdroid.download.PackageName
 import org.fdroid.download.getImageModel
+import org.fdroid.history.HistoryEvent
 import org.fdroid.history.HistoryManager
 import org.fdroid.index.RepoManager
 import org.fdroid.settings.SettingsManager
 import org.fdroid.utils.IoDispatcher
 
+private const val PAGE_SIZE = 50
+
 @HiltViewModel
 class HistoryViewModel
 @Inject
@@ -35,42 +40,63 @@ constructor(
   val items = _items.asStateFlow()
   val useInstallHistory = settingsManager.useInstallHistoryFlow
 
+  private val loadMutex = Mutex()
+  private var hasMoreEvents = true
+  private var nextOffset = 0
+
   init {
-    scope.launch { load() }
+    scope.launch { loadNextPage() }
+  }
+
+  /** Loads the next [PAGE_SIZE] older events, called when the end of the list becomes visible. */
+  fun onEndReached() {
+    if (hasMoreEvents) scope.launch { loadNextPage() }
   }
 
   @WorkerThread
-  private suspend fun load() {
-    val packageNames = mutableSetOf<String>()
-    val items =
-      historyManager
-        .getEvents()
-        .map { event ->
-          packageNames.add(event.packageName)
-          HistoryItem(event = event, iconModel = PackageName(event.packageName, null))
-        }
-        .sortedByDescending { it.event.time }
-    _items.value = items
-    // second pass to also load icons
-    if (packageNames.isNotEmpty()) {
-      val proxyConfig = settingsManager.proxyConfig
-      val locales = LocaleListCompat.getDefault()
-      val apps = db.getAppDao().getApps(packageNames.toList()).associateBy { it.packageName }
-      val items =
-        historyManager
-          .getEvents()
-          .map { event ->
-            val iconRequest = run {
-              val app = apps[event.packageName] ?: return@run null
-              val repository = repoManager.getRepository(app.repoId) ?: return@run null
-              val icon = app.getIcon(locales)
-              icon?.getImageModel(repository, proxyConfig) as? DownloadRequest
-            }
-            HistoryItem(event = event, iconModel = PackageName(event.packageName, iconRequest))
+  private suspend fun loadNextPage() =
+    loadMutex.withLock {
+      if (!hasMoreEvents) return@withLock
+      val loadedItems = _items.value ?: emptyList()
+      // events added since the last page shift the offset, so we may get known events again
+      val loadedEvents = loadedItems.mapTo(HashSet()) { it.event }
+      var events: List<HistoryEvent>
+      // keep loading if a page had only known events, as the list won't ask again otherwise
+      do {
+        val page = historyManager.getLatestEvents(nextOffset, PAGE_SIZE)
+        nextOffset += page.size
+        hasMoreEvents = page.size == PAGE_SIZE
+        events = page.filterNot { it in loadedEvents }
+      } while (events.isEmpty() && hasMoreEvents)
+      _items.value =
+        loadedItems +
+          events.map { event ->
+            HistoryItem(event = event, iconModel = PackageName(event.packageName, null))
           }
-          .sortedByDescending { it.event.time }
-      _items.value = items
+      // second pass to also load icons
+      if (events.isNotEmpty()) {
+        val iconRequests = getIconRequests(events.mapTo(HashSet()) { it.packageName })
+        _items.value =
+          loadedItems +
+            events.map { event ->
+              val iconRequest = iconRequests[event.packageName]
+              HistoryItem(event = event, iconModel = PackageName(event.packageName, iconRequest))
+            }
+      }
     }
+
+  private suspend fun getIconRequests(packageNames: Set<String>): Map<String, DownloadRequest> {
+    val proxyConfig = settingsManager.proxyConfig
+    val locales = LocaleListCompat.getDefault()
+    val apps = db.getAppDao().getApps(packageNames.toList())
+    return apps
+      .mapNotNull { app ->
+        val repository = repoManager.getRepository(app.repoId) ?: return@mapNotNull null
+        val icon = app.getIcon(locales)
+        val iconRequest = icon?.getImageModel(repository, proxyConfig) as? DownloadRequest
+        iconRequest?.let { app.packageName to it }
+      }
+      .toMap()
   }
 
   fun useInstallHistory(use: Boolean) {
@@ -79,8 +105,12 @@ constructor(
 
   fun deleteHistory() {
     scope.launch {
-      historyManager.clearAll()
-      load()
+      loadMutex.withLock {
+        historyManager.clearAll()
+        hasMoreEvents = false
+        nextOffset = 0
+        _items.value = emptyList()
+      }
     }
   }
 }
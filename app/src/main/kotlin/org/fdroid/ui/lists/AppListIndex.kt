@@ -0,0 +1,105 @@
+package org.fdroid.ui.lists
+
+import androidx.annotation.WorkerThread
+import java.text.Collator
+import java.util.BitSet
+import java.util.Locale
+import org.fdroid.database.AppListSortOrder
+import org.fdroid.search.SearchHelper.normalize
+
+/**
+ * An immutable index of [apps] that gets built once per load of an app list, so that filtering
+ * while the user types doesn't need to normalize strings, intersect sets or sort again.
+ *
+ * Names and summaries get normalized and lower-cased up-front. Categories, anti-features, repos
+ * and compatibility are kept as [BitSet]s over the positions in [apps], so filters become bitwise
+ * operations. Both sort orders are pre-computed, names are compared by their
+ * [java.text.CollationKey].
+ */
+class AppListIndex @WorkerThread constructor(val apps: List<AppListItem>, locale: Locale) {
+
+  private val names = Array(apps.size) { apps[it].name.normalize().lowercase(Locale.ROOT) }
+  private val summaries = Array(apps.size) { apps[it].summary.normalize().lowercase(Locale.ROOT) }
+  private val packageNames = Array(apps.size) { apps[it].packageName.lowercase(Locale.ROOT) }
+  private val compatible = BitSet(apps.size)
+  private val categories = HashMap<String, BitSet>()
+  private val antiFeatures = HashMap<String, BitSet>()
+  private val repos = HashMap<Long, BitSet>()
+
+  /** The positions of [apps] sorted by name. */
+  private val byName: IntArray
+  /** The positions of [apps] sorted by last update, newest first. */
+  private val byLastUpdated: IntArray
+
+  val categoryIds: Set<String>
+    get() = categories.keys
+
+  val antiFeatureIds: Set<String>
+    get() = antiFeatures.keys
+
+  val repoIds: Set<Long>
+    get() = repos.keys
+
+  init {
+    apps.forEachIndexed { i, app ->
+      if (app.isCompatible) compatible.set(i)
+      app.categoryIds?.forEach { categories.getOrPut(it) { BitSet(apps.size) }.set(i) }
+      app.antiFeatureIds.forEach { antiFeatures.getOrPut(it) { BitSet(apps.size) }.set(i) }
+      repos.getOrPut(app.repoId) { BitSet(apps.size) }.set(i)
+    }
+    val collator = Collator.getInstance(locale)
+    val nameKeys = Array(apps.size) { collator.getCollationKey(apps[it].name.lowercase(locale)) }
+    // sortedWith is stable, so apps with equal keys keep their order
+    byName =
+      apps.indices.sortedWith { i1, i2 -> nameKeys[i1].compareTo(nameKeys[i2]) }.toIntArray()
+    byLastUpdated = apps.indices.sortedByDescending { apps[it].lastUpdated }.toIntArray()
+  }
+
+  /**
+   * Returns the [apps] matching all given filters sorted by [sortBy].
+   *
+   * @param query an already fixed search query, see [org.fdroid.search.SearchHelper.fixQuery].
+   * @param categoryIds apps need to be in at least one of those, if not empty.
+   * @param antiFeatureIds apps must not have any of those.
+   * @param repoIds apps need to be in one of those, if not empty.
+   */
+  fun filter(
+    query: String,
+    categoryIds: Set<String>,
+    antiFeatureIds: Set<String>,
+    repoIds: Set<Long>,
+    filterIncompatible: Boolean,
+    sortBy: AppListSortOrder,
+  ): List<AppListItem> {
+    val matches = if (filterIncompatible) compatible.clone() as BitSet else allApps()
+    if (categoryIds.isNotEmpty()) matches.and(union(categories, categoryIds))
+    antiFeatureIds.forEach { id -> antiFeatures[id]?.let { matches.andNot(it) } }
+    if (repoIds.isNotEmpty()) matches.and(union(repos, repoIds))
+    if (query.isNotEmpty()) {
+      val lowerCaseQuery = query.lowercase(Locale.ROOT)
+      var i = matches.nextSetBit(0)
+      while (i >= 0) {
+        if (
+          !names[i].contains(lowerCaseQuery) &&
+            !summaries[i].contains(lowerCaseQuery) &&
+            !packageNames[i].contains(lowerCaseQuery)
+        ) {
+          matches.clear(i)
+        }
+        i = matches.nextSetBit(i + 1)
+      }
+    }
+    val order = if (sortBy == AppListSortOrder.NAME) byName else byLastUpdated
+    val result = ArrayList<AppListItem>(matches.cardinality())
+    order.forEach { i -> if (matches[i]) result.add(apps[i]) }
+    return result
+  }
+
+  private fun allApps() = BitSet(apps.size).apply { set(0, apps.size) }
+
+  private fun <T> union(bitSets: Map<T, BitSet>, ids: Set<T>): BitSet {
+    val union = BitSet(apps.size)
+    ids.forEach { id -> bitSets[id]?.let { union.or(it) } }
+    return union
+  }
+}
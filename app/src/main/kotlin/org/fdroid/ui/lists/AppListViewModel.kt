@@ -25,11 +25,9 @@ import kotlinx.coroutines.flow.drop
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
-import kotlinx.serialization.ExperimentalSerializationApi
-import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.decodeFromStream
 import org.fdroid.database.AppListSortOrder
 import org.fdroid.database.FDroidDatabase
+import org.fdroid.discover.MostDownloadedApps
 import org.fdroid.download.DownloadRequest
 import org.fdroid.download.PackageName
 import org.fdroid.download.getImageModel
@@ -44,7 +42,7 @@ import org.fdroid.ui.repositories.RepositoryItem
 class AppListViewModel
 @AssistedInject
 constructor(
-  private val app: Application,
+  app: Application,
   @Assisted val type: AppListType,
   savedStateHandle: SavedStateHandle,
   private val db: FDroidDatabase,
@@ -52,13 +50,14 @@ constructor(
   private val settingsManager: SettingsManager,
   private val onboardingManager: OnboardingManager,
   private val installedAppsCache: InstalledAppsCache,
+  private val mostDownloadedApps: MostDownloadedApps,
 ) : AndroidViewModel(app), AppListActions {
 
   private val moleculeScope =
     CoroutineScope(viewModelScope.coroutineContext + AndroidUiDispatcher.Main)
 
   private val localeList = LocaleListCompat.getDefault()
-  private val apps = MutableStateFlow<List<AppListItem>?>(null)
+  private val appListIndex = MutableStateFlow<AppListIndex?>(null)
   private val categories =
     db.getRepositoryDao().getLiveCategories().asFlow().map { categories ->
       val collator = Collator.getInstance(Locale.getDefault())
@@ -107,7 +106,7 @@ constructor(
       moleculeScope.launchMolecule(mode = ContextClock) {
         AppListPresenter(
           type = type,
-          appsFlow = apps,
+          indexFlow = appListIndex,
           sortByFlow = sortBy,
           filterIncompatibleFlow = filterIncompatible,
           categoriesFlow = categories,
@@ -123,9 +122,11 @@ constructor(
 
   init {
     viewModelScope.launch(Dispatchers.IO) {
-      apps.value = loadApps(type)
+      appListIndex.value = AppListIndex(loadApps(type), Locale.getDefault())
       // reload apps when installed apps change, but drop first we get right away
-      installedAppsCache.installedApps.drop(1).collect { apps.value = loadApps(type) }
+      installedAppsCache.installedApps.drop(1).collect {
+        appListIndex.value = AppListIndex(loadApps(type), Locale.getDefault())
+      }
     }
   }
 
@@ -138,14 +139,7 @@ constructor(
       is AppListType.Category -> appDao.getAppsByCategory(type.categoryId)
       is AppListType.New -> appDao.getNewApps()
       is AppListType.RecentlyUpdated -> appDao.getRecentlyUpdatedApps()
-      is AppListType.MostDownloaded -> {
-        val packageNames =
-          app.assets.open("most_downloaded_apps.json").use { inputStream ->
-            @OptIn(ExperimentalSerializationApi::class)
-            Json.decodeFromStream<List<String>>(inputStream)
-          }
-        appDao.getApps(packageNames)
-      }
+      is AppListType.MostDownloaded -> appDao.getApps(mostDownloadedApps.packageNames)
       is AppListType.All -> appDao.getAllApps()
       is AppListType.Repository -> appDao.getAppsByRepository(type.repoId)
     }.mapNotNull {
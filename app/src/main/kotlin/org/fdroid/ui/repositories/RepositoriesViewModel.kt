@@ -111,8 +111,8 @@ constructor(
 
   fun onRepositoriesFinishedMoving(fromRepoId: Long, toRepoId: Long) {
     log.info { "onRepositoriesFinishedMoving($fromRepoId, $toRepoId)" }
-    val fromRepo = repoManager.getRepository(fromRepoId) ?: error("No repo for repoId $fromRepoId")
-    val toRepo = repoManager.getRepository(toRepoId) ?: error("No repo for repoId $toRepoId")
+    val fromRepo = repoManager.peekRepository(fromRepoId) ?: error("No repo for repoId $fromRepoId")
+    val toRepo = repoManager.peekRepository(toRepoId) ?: error("No repo for repoId $toRepoId")
     log.info { "  ${fromRepo.address} => ${toRepo.address}" }
     repoManager.reorderRepositories(fromRepo, toRepo)
   }
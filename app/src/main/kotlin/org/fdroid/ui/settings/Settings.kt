@@ -18,9 +18,11 @@ import androidx.compose.material.icons.filled.BrightnessMedium
 import androidx.compose.material.icons.filled.BugReport
 import androidx.compose.material.icons.filled.ColorLens
 import androidx.compose.material.icons.filled.Dns
+import androidx.compose.material.icons.filled.Download
 import androidx.compose.material.icons.filled.Lan
 import androidx.compose.material.icons.filled.Notifications
 import androidx.compose.material.icons.filled.Screenshot
+import androidx.compose.material.icons.filled.Storage
 import androidx.compose.material.icons.filled.SystemSecurityUpdate
 import androidx.compose.material.icons.filled.SystemSecurityUpdateWarning
 import androidx.compose.material.icons.filled.Translate
@@ -65,6 +67,7 @@ import org.fdroid.settings.SettingsConstants.MirrorChooserValues
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_AUTO_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_DYNAMIC_COLORS
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_MIRROR_CHOOSER
+import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_PREFETCH_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_PREVENT_SCREENSHOTS
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_PROXY
 import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_REPO_UPDATES
@@ -72,6 +75,7 @@ import org.fdroid.settings.SettingsConstants.PREF_DEFAULT_THEME
 import org.fdroid.settings.SettingsConstants.PREF_KEY_AUTO_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_KEY_DYNAMIC_COLORS
 import org.fdroid.settings.SettingsConstants.PREF_KEY_MIRROR_CHOOSER
+import org.fdroid.settings.SettingsConstants.PREF_KEY_PREFETCH_UPDATES
 import org.fdroid.settings.SettingsConstants.PREF_KEY_PREVENT_SCREENSHOTS
 import org.fdroid.settings.SettingsConstants.PREF_KEY_PROXY
 import org.fdroid.settings.SettingsConstants.PREF_KEY_REPO_UPDATES
@@ -89,7 +93,12 @@ import org.fdroid.utils.getLogName
 
 @Composable
 @OptIn(ExperimentalMaterial3Api::class)
-fun Settings(model: SettingsModel, onSaveLogcat: (Uri?) -> Unit, onBackClicked: () -> Unit) {
+fun Settings(
+  model: SettingsModel,
+  onSaveLogcat: (Uri?) -> Unit,
+  onSaveDbStats: (Uri?) -> Unit,
+  onBackClicked: () -> Unit,
+) {
   Scaffold(
     topBar = {
       TopAppBar(
@@ -100,6 +109,8 @@ fun Settings(model: SettingsModel, onSaveLogcat: (Uri?) -> Unit, onBackClicked:
   ) { paddingValues ->
     val launcher =
       rememberLauncherForActivityResult(CreateDocument("text/plain")) { onSaveLogcat(it) }
+    val dbStatsLauncher =
+      rememberLauncherForActivityResult(CreateDocument("application/json")) { onSaveDbStats(it) }
     val context = LocalContext.current
     val res = LocalResources.current
     ProvidePreferenceLocals(model.prefsFlow) {
@@ -315,6 +326,19 @@ fun Settings(model: SettingsModel, onSaveLogcat: (Uri?) -> Unit, onBackClicked:
             )
           },
         )
+        switchPreference(
+          key = PREF_KEY_PREFETCH_UPDATES,
+          defaultValue = PREF_DEFAULT_PREFETCH_UPDATES,
+          title = { Text(stringResource(R.string.pref_prefetch_updates_title)) },
+          icon = {
+            Icon(
+              imageVector = Icons.Default.Download,
+              contentDescription = null,
+              modifier = Modifier.semantics { hideFromAccessibility() },
+            )
+          },
+          summary = { Text(text = stringResource(R.string.pref_prefetch_updates_summary)) },
+        )
         preferenceCategory(
           key = "pref_category_network",
           title = { Text(stringResource(R.string.pref_category_network)) },
@@ -391,6 +415,23 @@ fun Settings(model: SettingsModel, onSaveLogcat: (Uri?) -> Unit, onBackClicked:
             }
           },
         )
+        preference(
+          key = "dbStats",
+          icon = {
+            Icon(
+              imageVector = Icons.Default.Storage,
+              contentDescription = null,
+              modifier = Modifier.semantics { hideFromAccessibility() },
+            )
+          },
+          title = { Text(stringResource(R.string.pref_export_db_stats_title)) },
+          summary = { Text(stringResource(R.string.pref_export_db_stats_summary)) },
+          onClick = {
+            if (!dbStatsLauncher.launchSafe("${getLogName(context)}-db.json")) {
+              Toast.makeText(context, R.string.no_handler_app_generic, LENGTH_SHORT).show()
+            }
+          },
+        )
       }
     }
   }
@@ -406,6 +447,6 @@ fun SettingsPreview() {
         nextRepoUpdateFlow = MutableStateFlow(Long.MAX_VALUE),
         nextAppUpdateFlow = MutableStateFlow(currentTimeMillis() - HOURS.toMillis(12)),
       )
-    Settings(model, {}, {})
+    Settings(model, {}, {}, {})
   }
 }
@@ -21,10 +21,12 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import mu.KotlinLogging
 import org.fdroid.R
+import org.fdroid.database.FDroidDatabaseHolder
 import org.fdroid.repo.RepoUpdateWorker
 import org.fdroid.settings.SettingsManager
 import org.fdroid.ui.utils.applyNewTheme
 import org.fdroid.updates.AppUpdateWorker
+import org.fdroid.updates.UpdatePrefetchWorker
 import org.fdroid.updates.UpdatesManager
 
 @HiltViewModel
@@ -32,7 +34,7 @@ class SettingsViewModel
 @Inject
 constructor(
   app: Application,
-  updatesManager: UpdatesManager,
+  private val updatesManager: UpdatesManager,
   private val settingsManager: SettingsManager,
 ) : AndroidViewModel(app) {
 
@@ -62,6 +64,16 @@ constructor(
         AppUpdateWorker.scheduleOrCancel(application, value)
       }
     }
+    viewModelScope.launch {
+      // react to prefetching updates getting enabled or disabled
+      settingsManager.prefetchUpdatesFlow.drop(1).collect { enabled ->
+        if (!enabled) {
+          UpdatePrefetchWorker.cancel(application)
+        } else if (updatesManager.numUpdates.value > 0) {
+          UpdatePrefetchWorker.schedule(application)
+        }
+      }
+    }
   }
 
   fun onSaveLogcat(uri: Uri?) =
@@ -93,6 +105,23 @@ constructor(
       }
     }
 
+  fun onSaveDbStats(uri: Uri?) =
+    viewModelScope.launch(Dispatchers.IO) {
+      if (uri == null) {
+        sendToast(R.string.export_db_stats_error)
+        return@launch
+      }
+      try {
+        application.contentResolver.openOutputStream(uri, "wt")?.use { outputStream ->
+          FDroidDatabaseHolder.queryMetrics.writeJson(outputStream)
+        } ?: throw IOException("OutputStream was null")
+        sendToast(R.string.export_db_stats_success)
+      } catch (e: Exception) {
+        log.error(e) { "Error saving database statistics " }
+        sendToast(R.string.export_db_stats_error)
+      }
+    }
+
   private suspend fun sendToast(@StringRes s: Int, duration: Int = LENGTH_SHORT) {
     withContext(Dispatchers.Main) { Toast.makeText(application, s, duration).show() }
   }
@@ -1,24 +1,31 @@
 package org.fdroid.updates
 
 import android.content.Context
+import android.net.ConnectivityManager
 import androidx.core.os.LocaleListCompat
 import dagger.hilt.android.qualifiers.ApplicationContext
+import java.net.URI
+import java.net.URISyntaxException
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.min
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.sync.Semaphore
-import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
 import mu.KotlinLogging
 import org.fdroid.LocaleChooser.getBestLocale
 import org.fdroid.database.AppVersion
 import org.fdroid.database.FDroidDatabase
+import org.fdroid.database.Repository
 import org.fdroid.index.RepoManager
 import org.fdroid.install.AppInstallManager
+import org.fdroid.install.InstallStages
+import org.fdroid.install.InstallState
 import org.fdroid.ui.apps.AppUpdateItem
 import org.fdroid.ui.utils.isAppInForeground
 import org.fdroid.utils.IoDispatcher
@@ -28,7 +35,8 @@ import org.fdroid.utils.IoDispatcher
  *
  * Responsibilities:
  * * decide pre-approval behavior for batch updates
- * * update other apps in parallel with bounded concurrency
+ * * update other apps in a [UpdatePipeline], so downloads overlap with installs
+ * * persist the apps in the [UpdateQueue], so the run can get resumed if our process dies
  * * defer updating the client app itself until the end
  */
 @Singleton
@@ -39,15 +47,24 @@ constructor(
   private val db: FDroidDatabase,
   private val repoManager: RepoManager,
   private val appInstallManager: AppInstallManager,
+  private val updateQueue: UpdateQueue,
   @param:IoDispatcher private val coroutineScope: CoroutineScope,
 ) {
   private val log = KotlinLogging.logger {}
 
   companion object {
     private const val UNKNOWN_APP_NAME = "Unknown"
-    private const val MAX_CONCURRENT_UPDATES = 8
+    private const val MAX_CONCURRENT_DOWNLOADS = 8
+    private const val MAX_CONCURRENT_DOWNLOADS_METERED = 2
+    private const val MAX_CONCURRENT_DOWNLOADS_PER_HOST = 4
   }
 
+  private val runs = AtomicInteger(0)
+
+  /** True while [updateAll] is updating apps in this process. */
+  val isUpdating: Boolean
+    get() = runs.get() > 0
+
   /**
    * Applies all provided updates.
    *
@@ -66,7 +83,11 @@ constructor(
     val ownApp = ownAppList.firstOrNull()
     if (ownApp != null) setOwnAppWaitingState(ownApp)
 
+    runs.incrementAndGet()
     try {
+      updateQueue.enqueue(appsToUpdate)
+      updateQueue.scheduleResume()
+
       // Update all non-self apps first, then our own package at the end.
       updateAppsInParallel(otherApps, canRequestPreApproval)
 
@@ -83,7 +104,11 @@ constructor(
       // If the coroutine was canceled or an exception occurred before install() was called for
       // our own app, ensure the Waiting state is cleared so the app doesn't get stuck.
       // cancel() is a no-op if own app completed installed and is no longer in Waiting.
-      if (ownApp != null) appInstallManager.cancel(ownApp.packageName)
+      if (ownApp != null) {
+        appInstallManager.cancel(ownApp.packageName)
+        withContext(NonCancellable) { updateQueue.remove(ownApp.packageName) }
+      }
+      runs.decrementAndGet()
     }
   }
 
@@ -91,24 +116,32 @@ constructor(
     apps: List<AppUpdateItem>,
     canRequestPreApproval: Boolean,
   ) {
-    val concurrencyLimit = min(Runtime.getRuntime().availableProcessors(), MAX_CONCURRENT_UPDATES)
-    val semaphore = Semaphore(concurrencyLimit)
-    var num = 0
-    log.info { "Updating ${apps.size} apps with concurrency limit $concurrencyLimit" }
+    val maxDownloads =
+      if (isNetworkMetered()) {
+        MAX_CONCURRENT_DOWNLOADS_METERED
+      } else {
+        min(Runtime.getRuntime().availableProcessors(), MAX_CONCURRENT_DOWNLOADS)
+      }
+    val pipeline = UpdatePipeline(maxDownloads, MAX_CONCURRENT_DOWNLOADS_PER_HOST)
+    log.info { "Updating ${apps.size} apps with at most $maxDownloads concurrent downloads" }
     apps
       .map { update ->
         coroutineScope.launch {
-          // acquire a permit for the update, so we don't run too many in parallel
-          // FIXME a job is considered completed when we need to ask for user approval,
-          //  so as the user approves updates one by one, more updates will start,
-          //  which may lead to too many concurrent updates.
-          //  In practice, no adverse effects were observed even with ~50 updates,
-          //  so maybe not high priority.
-          semaphore.withPermit {
-            num += 1
-            log.info { "Starting update for ${update.packageName} (${num}/${apps.size})" }
-            currentCoroutineContext().ensureActive()
-            updateApp(update, canRequestPreApproval)
+          currentCoroutineContext().ensureActive()
+          val repo = repoManager.getRepository(update.repoId)
+          // updates with unknown size go last
+          val stages = pipeline.getStages(repo.getHost(), update.update.size ?: Long.MAX_VALUE)
+          val file = update.update.file
+          val queueStages = updateQueue.wrap(update.packageName, file.sha256, file.size, stages)
+          // if we get cancelled or fail unexpectedly, the UpdateQueueWorker resumes the app
+          var isDone = false
+          try {
+            val result = updateApp(update, canRequestPreApproval, queueStages)
+            // a failed download stays queued, so the worker resumes it when the network is back
+            isDone = result !is InstallState.Error || !queueStages.downloadFailed
+          } finally {
+            // the app is done, if it got installed, cancelled by the user or failed to install
+            if (isDone) withContext(NonCancellable) { updateQueue.remove(update.packageName) }
           }
         }
       }
@@ -117,6 +150,21 @@ constructor(
     currentCoroutineContext().ensureActive()
   }
 
+  private fun isNetworkMetered(): Boolean {
+    val connectivityManager =
+      context.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+    return connectivityManager?.isActiveNetworkMetered ?: true
+  }
+
+  private fun Repository?.getHost(): String {
+    if (this == null) return ""
+    return try {
+      URI(address).host ?: address
+    } catch (_: URISyntaxException) {
+      address
+    }
+  }
+
   private fun setOwnAppWaitingState(update: AppUpdateItem) {
     val app = db.getAppDao().getApp(update.repoId, update.packageName)
     appInstallManager.setWaitingState(
@@ -128,9 +176,13 @@ constructor(
     )
   }
 
-  private suspend fun updateApp(update: AppUpdateItem, canAskPreApprovalNow: Boolean) {
+  private suspend fun updateApp(
+    update: AppUpdateItem,
+    canAskPreApprovalNow: Boolean,
+    stages: InstallStages? = null,
+  ): InstallState {
     val app = db.getAppDao().getApp(update.repoId, update.packageName)
-    appInstallManager.install(
+    return appInstallManager.install(
       packageName = update.packageName,
       appMetadata = app?.metadata,
       version = update.update as AppVersion,
@@ -138,6 +190,7 @@ constructor(
       repo = repoManager.getRepository(update.repoId),
       iconModel = update.iconModel,
       canAskPreApprovalNow = canAskPreApprovalNow,
+      stages = stages,
     )
   }
 }
@@ -0,0 +1,94 @@
+package org.fdroid.updates
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.fdroid.install.InstallStages
+
+/**
+ * Schedules the download and install stages of several app updates, so that later apps get
+ * downloaded while earlier ones get installed.
+ *
+ * At most [maxDownloads] apps get downloaded at the same time and at most [maxDownloadsPerHost]
+ * from the same host. Waiting downloads get started shortest-job-first by APK size, so users see
+ * completed updates sooner. Installs happen one after the other, because the system commits
+ * install sessions serially anyway.
+ */
+class UpdatePipeline(private val maxDownloads: Int, private val maxDownloadsPerHost: Int) {
+
+  private class Waiter(val host: String, val size: Long, val seq: Long) {
+    val started = CompletableDeferred<Unit>()
+  }
+
+  private val lock = Any()
+  private val waiters = ArrayList<Waiter>()
+  private val downloadsPerHost = HashMap<String, Int>()
+  private var downloads = 0
+  private var seq = 0L
+  private val installMutex = Mutex()
+
+  /**
+   * Returns the [InstallStages] for an app with an APK of the given [size] in bytes which gets
+   * downloaded from the given [host].
+   */
+  fun getStages(host: String, size: Long): InstallStages =
+    object : InstallStages {
+      override suspend fun <T> download(block: suspend () -> T): T {
+        startDownload(host, size)
+        return try {
+          block()
+        } finally {
+          finishDownload(host)
+        }
+      }
+
+      override suspend fun <T> install(block: suspend () -> T): T {
+        return installMutex.withLock { block() }
+      }
+    }
+
+  private suspend fun startDownload(host: String, size: Long) {
+    val waiter =
+      synchronized(lock) {
+        Waiter(host, size, seq++).also {
+          waiters.add(it)
+          startWaitingDownloads()
+        }
+      }
+    try {
+      waiter.started.await()
+    } catch (e: CancellationException) {
+      synchronized(lock) {
+        // if we were started already, give our slot to the next one
+        if (!waiters.remove(waiter)) finishDownload(host)
+      }
+      throw e
+    }
+  }
+
+  private fun finishDownload(host: String) {
+    synchronized(lock) {
+      downloads--
+      val remaining = downloadsPerHost.getValue(host) - 1
+      if (remaining == 0) downloadsPerHost.remove(host) else downloadsPerHost[host] = remaining
+      startWaitingDownloads()
+    }
+  }
+
+  /** Starts the smallest waiting downloads as long as the limits allow it. Needs [lock]. */
+  private fun startWaitingDownloads() {
+    if (downloads >= maxDownloads || waiters.isEmpty()) return
+    waiters.sortWith(compareBy({ it.size }, { it.seq }))
+    val iterator = waiters.iterator()
+    while (iterator.hasNext() && downloads < maxDownloads) {
+      val waiter = iterator.next()
+      val hostDownloads = downloadsPerHost[waiter.host] ?: 0
+      if (hostDownloads >= maxDownloadsPerHost) continue
+      iterator.remove()
+      downloads++
+      downloadsPerHost[waiter.host] = hostDownloads + 1
+      waiter.started.complete(Unit)
+    }
+  }
+}
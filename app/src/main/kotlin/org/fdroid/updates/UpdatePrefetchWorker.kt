@@ -0,0 +1,70 @@
+package org.fdroid.updates
+
+import android.content.Context
+import androidx.hilt.work.HiltWorker
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import mu.KotlinLogging
+import org.fdroid.settings.SettingsManager
+
+/**
+ * Downloads the APKs of available updates with the [UpdatePrefetcher] while the device is
+ * charging on an unmetered network, if the user opted into this. It gets scheduled whenever
+ * [UpdatesManager] found updates.
+ */
+@HiltWorker
+class UpdatePrefetchWorker
+@AssistedInject
+constructor(
+  @Assisted appContext: Context,
+  @Assisted workerParams: WorkerParameters,
+  private val settingsManager: SettingsManager,
+  private val updatesManager: UpdatesManager,
+  private val updatePrefetcher: UpdatePrefetcher,
+) : CoroutineWorker(appContext, workerParams) {
+
+  companion object {
+    private const val UNIQUE_WORK_NAME_PREFETCH = "updatePrefetch"
+
+    fun schedule(context: Context) {
+      val constraints =
+        Constraints.Builder()
+          .setRequiresCharging(true)
+          .setRequiresStorageNotLow(true)
+          .setRequiredNetworkType(NetworkType.UNMETERED)
+          .build()
+      val request = OneTimeWorkRequestBuilder<UpdatePrefetchWorker>().setConstraints(constraints)
+      // a scheduled or running worker uses the latest updates anyway
+      WorkManager.getInstance(context)
+        .enqueueUniqueWork(UNIQUE_WORK_NAME_PREFETCH, ExistingWorkPolicy.KEEP, request.build())
+    }
+
+    fun cancel(context: Context) {
+      WorkManager.getInstance(context).cancelUniqueWork(UNIQUE_WORK_NAME_PREFETCH)
+    }
+  }
+
+  private val log = KotlinLogging.logger {}
+
+  override suspend fun doWork(): Result {
+    if (!settingsManager.prefetchUpdates) return Result.success()
+    return try {
+      val updates = updatesManager.updates.filterNotNull().first()
+      val prefetched = updatePrefetcher.prefetch(updates)
+      log.info { "Prefetched $prefetched of ${updates.size} updates" }
+      Result.success()
+    } catch (e: Exception) {
+      log.error(e) { "Error prefetching updates: " }
+      Result.retry()
+    }
+  }
+}
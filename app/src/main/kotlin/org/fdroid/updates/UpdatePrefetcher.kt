@@ -0,0 +1,98 @@
+package org.fdroid.updates
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import mu.KotlinLogging
+import org.fdroid.download.DownloaderFactory
+import org.fdroid.download.getUri
+import org.fdroid.index.RepoManager
+import org.fdroid.ui.apps.AppUpdateItem
+import org.fdroid.utils.sha256
+
+/**
+ * Downloads the APKs of available updates in advance, so a later "update all" only needs to
+ * install them. The APKs end up in the cache directory named after their SHA-256 hash where
+ * [org.fdroid.install.AppInstallManager] finds them instead of downloading them again.
+ */
+@Singleton
+class UpdatePrefetcher
+@Inject
+constructor(
+  @param:ApplicationContext private val context: Context,
+  private val repoManager: RepoManager,
+  private val downloaderFactory: DownloaderFactory,
+) {
+  private val log = KotlinLogging.logger {}
+
+  companion object {
+    /** The maximum number of bytes all prefetched APKs together may take up. */
+    internal const val MAX_PREFETCH_BYTES = 512L * 1024 * 1024
+  }
+
+  /**
+   * Downloads and verifies the APKs of the given [updates] that fit into [budget] bytes.
+   *
+   * @return the number of APKs that are ready to get installed.
+   */
+  @WorkerThread
+  suspend fun prefetch(updates: List<AppUpdateItem>, budget: Long = MAX_PREFETCH_BYTES): Int {
+    val selected = selectUpdates(updates, budget)
+    log.info { "Prefetching ${selected.size} of ${updates.size} updates" }
+    var prefetched = 0
+    selected.forEach { update ->
+      currentCoroutineContext().ensureActive()
+      if (prefetch(update)) prefetched++
+    }
+    return prefetched
+  }
+
+  /**
+   * Returns the updates with a known size, smallest first, as long as they fit into [budget] bytes
+   * together. Preferring small APKs gets the most updates ready for a given budget.
+   */
+  @VisibleForTesting
+  internal fun selectUpdates(updates: List<AppUpdateItem>, budget: Long): List<AppUpdateItem> {
+    var total = 0L
+    return updates
+      .filter { it.update.file.size != null }
+      .sortedBy { it.update.file.size }
+      .takeWhile { update ->
+        total += update.update.file.size!!
+        total <= budget
+      }
+  }
+
+  private fun prefetch(update: AppUpdateItem): Boolean {
+    val indexFile = update.update.file
+    val file = File(context.cacheDir, indexFile.sha256)
+    return try {
+      if (file.length() != indexFile.size) {
+        val repo = repoManager.getRepository(update.repoId) ?: return false
+        val uri = getUri(repo.address, indexFile)
+        // resumes partial downloads from earlier runs
+        downloaderFactory.create(repo, uri, indexFile, file).download()
+      }
+      if (sha256(file) != indexFile.sha256) {
+        log.warn { "Hash mismatch for prefetched ${update.packageName}, deleting..." }
+        file.delete()
+        false
+      } else {
+        // keep the file from looking old to the CacheCleaner while the update is pending
+        file.setLastModified(System.currentTimeMillis())
+        true
+      }
+    } catch (e: Exception) {
+      if (e is CancellationException) throw e
+      log.error(e) { "Error prefetching ${update.packageName}: " }
+      false
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package org.fdroid.updates
+
+import android.content.Context
+import androidx.annotation.WorkerThread
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CancellationException
+import mu.KotlinLogging
+import org.fdroid.database.FDroidDatabase
+import org.fdroid.database.UpdateQueueItem
+import org.fdroid.database.UpdateStage
+import org.fdroid.install.InstallStages
+import org.fdroid.ui.apps.AppUpdateItem
+
+/**
+ * Persists the apps of an "update all" run together with the stage they are in, so an
+ * [UpdateQueueWorker] can pick up the run where it stopped, if our process gets killed.
+ *
+ * Partial downloads are kept in the cache directory named after the APK's SHA-256 hash, so they
+ * get resumed by the downloader with a ranged request.
+ */
+@Singleton
+class UpdateQueue
+@Inject
+constructor(
+  @param:ApplicationContext private val context: Context,
+  private val db: FDroidDatabase,
+) {
+  private val log = KotlinLogging.logger {}
+  private val dao
+    get() = db.getUpdateQueueDao()
+
+  @WorkerThread fun getItems(): List<UpdateQueueItem> = dao.getItems()
+
+  /** The SHA-256 hashes of all queued APKs whose (partial) downloads must be kept. */
+  @WorkerThread fun getQueuedHashes(): Set<String> = dao.getItems().mapTo(HashSet()) { it.sha256 }
+
+  @WorkerThread
+  fun enqueue(apps: List<AppUpdateItem>, now: Long = System.currentTimeMillis()) {
+    val items = apps.map { app ->
+      UpdateQueueItem(
+        packageName = app.packageName,
+        repoId = app.repoId,
+        versionCode = app.update.versionCode,
+        sha256 = app.update.file.sha256,
+        size = app.update.file.size,
+        added = now,
+      )
+    }
+    dao.insertOrReplace(items)
+  }
+
+  @WorkerThread fun remove(packageName: String) = dao.delete(packageName)
+
+  /** Schedules the [UpdateQueueWorker] which resumes the queue, if our process dies. */
+  fun scheduleResume() = UpdateQueueWorker.schedule(context)
+
+  /** Returns [InstallStages] that persist the stage of the given app before delegating. */
+  fun wrap(packageName: String, sha256: String, size: Long?, stages: InstallStages) =
+    QueueStages(packageName, sha256, size, stages)
+
+  inner class QueueStages
+  internal constructor(
+    private val packageName: String,
+    private val sha256: String,
+    private val size: Long?,
+    private val stages: InstallStages,
+  ) : InstallStages {
+
+    /** True if the download failed, so the app should stay queued for resuming it later. */
+    @Volatile
+    var downloadFailed: Boolean = false
+      private set
+
+    override suspend fun <T> download(block: suspend () -> T): T =
+      stages.download {
+        setStage(packageName, UpdateStage.DOWNLOADING, getBytesDone(sha256))
+        try {
+          block().also {
+            setStage(packageName, UpdateStage.DOWNLOADED, size ?: getBytesDone(sha256))
+          }
+        } catch (e: Exception) {
+          // remember how far we got, the partial download gets resumed next time
+          downloadFailed = true
+          setStage(packageName, UpdateStage.QUEUED, getBytesDone(sha256))
+          throw e
+        }
+      }
+
+    override suspend fun <T> install(block: suspend () -> T): T =
+      stages.install {
+        setStage(packageName, UpdateStage.INSTALLING, size ?: getBytesDone(sha256))
+        block()
+      }
+  }
+
+  private fun getBytesDone(sha256: String): Long = File(context.cacheDir, sha256).length()
+
+  private fun setStage(packageName: String, stage: UpdateStage, bytesDone: Long) {
+    try {
+      dao.updateStage(packageName, stage, bytesDone)
+    } catch (e: Exception) {
+      if (e is CancellationException) throw e
+      log.error(e) { "Error persisting $stage for $packageName: " }
+    }
+  }
+}
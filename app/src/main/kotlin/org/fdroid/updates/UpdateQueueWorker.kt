@@ -0,0 +1,120 @@
+package org.fdroid.updates
+
+import android.content.Context
+import android.content.pm.ServiceInfo.FOREGROUND_SERVICE_TYPE_MANIFEST
+import android.os.Build.VERSION.SDK_INT
+import androidx.hilt.work.HiltWorker
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.ForegroundInfo
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+import java.util.concurrent.TimeUnit
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.first
+import mu.KotlinLogging
+import org.fdroid.NotificationManager
+import org.fdroid.NotificationManager.Companion.NOTIFICATION_ID_APP_INSTALLS
+import org.fdroid.install.AppInstallManager
+import org.fdroid.install.InstallNotificationState
+import org.fdroid.install.InstalledAppsCache
+import org.fdroid.ui.utils.canStartForegroundService
+
+/**
+ * Resumes an "update all" run persisted in the [UpdateQueue] after our process got killed in the
+ * middle of it. It gets scheduled whenever such a run starts and does nothing if the run is still
+ * alive or has finished already.
+ */
+@HiltWorker
+class UpdateQueueWorker
+@AssistedInject
+constructor(
+  @Assisted appContext: Context,
+  @Assisted workerParams: WorkerParameters,
+  private val nm: NotificationManager,
+  private val updateQueue: UpdateQueue,
+  private val updateInstaller: UpdateInstaller,
+  private val updatesManager: UpdatesManager,
+  private val installedAppsCache: InstalledAppsCache,
+  private val appInstallManager: AppInstallManager,
+) : CoroutineWorker(appContext, workerParams) {
+
+  companion object {
+    private const val UNIQUE_WORK_NAME_UPDATE_QUEUE = "updateQueue"
+    private const val DELAY_MINUTES = 10L
+
+    fun schedule(context: Context) {
+      val constraints =
+        Constraints.Builder()
+          .setRequiresStorageNotLow(true)
+          .setRequiredNetworkType(NetworkType.CONNECTED)
+          .build()
+      val request =
+        OneTimeWorkRequestBuilder<UpdateQueueWorker>()
+          .setInitialDelay(DELAY_MINUTES, TimeUnit.MINUTES)
+          .setBackoffCriteria(BackoffPolicy.LINEAR, DELAY_MINUTES, TimeUnit.MINUTES)
+          .setConstraints(constraints)
+          .build()
+      // keep a scheduled or running worker, it checks the queue when it runs anyway
+      WorkManager.getInstance(context)
+        .enqueueUniqueWork(UNIQUE_WORK_NAME_UPDATE_QUEUE, ExistingWorkPolicy.KEEP, request)
+    }
+  }
+
+  private val log = KotlinLogging.logger {}
+
+  override suspend fun doWork(): Result {
+    log.info { "doWork $this runAttemptCount: $runAttemptCount" }
+    // the run is still going on in this process, so check back later
+    if (updateInstaller.isUpdating) return Result.retry()
+
+    val items = updateQueue.getItems()
+    if (items.isEmpty()) return Result.success()
+    log.info { "Resuming update of ${items.size} apps: ${items.map { it.packageName }}" }
+    try {
+      if (canStartForegroundService(applicationContext)) setForeground(getForegroundInfo())
+    } catch (e: Exception) {
+      log.error(e) { "Error while running setForeground: " }
+    }
+    return try {
+      // wait for the installed apps to be known and check for updates again,
+      // because the repositories may have changed since the queue was persisted
+      val installedApps = installedAppsCache.installedApps.first { it.isNotEmpty() }
+      updatesManager.loadUpdates(installedApps).join()
+      currentCoroutineContext().ensureActive()
+
+      val queuedPackageNames = items.mapTo(HashSet()) { it.packageName }
+      val updates =
+        updatesManager.updates.value.orEmpty().filter { it.packageName in queuedPackageNames }
+      // apps without update got installed already or aren't available anymore
+      val updatePackageNames = updates.mapTo(HashSet()) { it.packageName }
+      items.forEach { item ->
+        if (item.packageName !in updatePackageNames) updateQueue.remove(item.packageName)
+      }
+      updateInstaller.updateAll(updates, canAskPreApprovalNow = false)
+      val notificationState = appInstallManager.installNotificationState
+      if (notificationState.numInstalled > 0) {
+        nm.showInstallSuccessNotification(notificationState)
+      }
+      Result.success()
+    } catch (e: Exception) {
+      log.error(e) { "Error resuming app updates: " }
+      Result.retry()
+    }
+  }
+
+  override suspend fun getForegroundInfo(): ForegroundInfo {
+    return ForegroundInfo(
+      NOTIFICATION_ID_APP_INSTALLS,
+      nm.getAppInstallNotification(InstallNotificationState()).build(),
+      if (SDK_INT >= 29) FOREGROUND_SERVICE_TYPE_MANIFEST else 0,
+    )
+  }
+}
@@ -113,6 +113,18 @@ constructor(
     _updates.value = updateItems
     _numUpdates.value = updateItems.size
     updateNotificationIfShowing(updateItems)
+    if (updateItems.isNotEmpty() && settingsManager.prefetchUpdates) {
+      UpdatePrefetchWorker.schedule(context)
+    }
+  }
+
+  /**
+   * Returns the SHA-256 hashes of the APKs of all available updates, if they may have been
+   * prefetched by the [UpdatePrefetchWorker], so their files don't get cleaned up.
+   */
+  fun getPrefetchedHashes(): Set<String> {
+    if (!settingsManager.prefetchUpdates) return emptySet()
+    return updates.value.orEmpty().mapTo(HashSet()) { it.update.file.sha256 }
   }
 
   private fun updateNotificationIfShowing(updates: List<AppUpdateItem>) {
@@ -0,0 +1,18 @@
+package org.fdroid.utils
+
+import androidx.tracing.Trace
+import org.fdroid.Tracer
+
+/** Forwards the trace sections of our libraries to the platform, so they show up in Perfetto. */
+object AndroidTracer : Tracer {
+  override val isEnabled: Boolean
+    get() = Trace.isEnabled()
+
+  override fun beginSection(name: String) = Trace.beginSection(name)
+
+  override fun endSection() = Trace.endSection()
+
+  override fun beginAsyncSection(name: String, cookie: Int) = Trace.beginAsyncSection(name, cookie)
+
+  override fun endAsyncSection(name: String, cookie: Int) = Trace.endAsyncSection(name, cookie)
+}
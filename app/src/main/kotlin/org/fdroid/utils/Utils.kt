@@ -3,6 +3,7 @@ package org.fdroid.utils
 import android.content.Context
 import android.telephony.TelephonyManager
 import androidx.core.os.LocaleListCompat
+import java.io.File
 import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
 import java.text.SimpleDateFormat
@@ -23,6 +24,25 @@ fun sha256(bytes: ByteArray): String {
   return messageDigest.digest().toHexString()
 }
 
+@OptIn(ExperimentalStdlibApi::class)
+fun sha256(file: File): String {
+  val messageDigest: MessageDigest =
+    try {
+      MessageDigest.getInstance("SHA-256")
+    } catch (e: NoSuchAlgorithmException) {
+      throw AssertionError(e)
+    }
+  file.inputStream().use { inputStream ->
+    val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+    var bytes = inputStream.read(buffer)
+    while (bytes >= 0) {
+      messageDigest.update(buffer, 0, bytes)
+      bytes = inputStream.read(buffer)
+    }
+  }
+  return messageDigest.digest().toHexString()
+}
+
 fun getLogName(context: Context): String {
   val sdf =
     SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US).apply {
@@ -0,0 +1,135 @@
+package org.fdroid.db
+
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.time.Duration.Companion.seconds
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+internal class InvalidationBatcherTest {
+
+  /** Stands in for a table that gets written to. */
+  private val table = MutableStateFlow(0)
+
+  /** The number of times the fake query ran. */
+  private var queries = 0
+
+  /** Mimics a Room flow that runs its query once initially and after each invalidation. */
+  private val dbFlow: Flow<Int> = flow {
+    table.collect {
+      queries++
+      emit(it)
+    }
+  }
+
+  @Test
+  fun testPassesValuesThroughWithoutBatch() = runTest {
+    val batcher = InvalidationBatcher(backgroundScope, 30.seconds)
+    val values = collect(batcher)
+
+    table.value = 1
+    runCurrent()
+    table.value = 2
+    runCurrent()
+    assertEquals(listOf(0, 1, 2), values)
+  }
+
+  @Test
+  fun testCoalescesWritesDuringBatch() = runTest {
+    val batcher = InvalidationBatcher(backgroundScope, 30.seconds)
+    val values = collect(batcher)
+    assertEquals(1, queries)
+
+    batcher.batch {
+      repeat(12) {
+        table.value++
+        runCurrent()
+      }
+    }
+    runCurrent()
+    // one query after the batch has ended with the latest value
+    assertEquals(listOf(0, 12), values)
+    assertEquals(2, queries)
+
+    // observing again after the batch
+    table.value = 13
+    runCurrent()
+    assertEquals(listOf(0, 12, 13), values)
+  }
+
+  @Test
+  fun testEmitsOnceWhenCollectionStartsDuringBatch() = runTest {
+    val batcher = InvalidationBatcher(backgroundScope, 30.seconds)
+    batcher.begin()
+    val values = collect(batcher)
+    table.value = 1
+    runCurrent()
+    // the UI doesn't stay empty until the batch ends
+    assertEquals(listOf(0), values)
+
+    batcher.end()
+    runCurrent()
+    assertEquals(listOf(0, 1), values)
+  }
+
+  @Test
+  fun testRefreshesDuringLongBatch() = runTest {
+    val batcher = InvalidationBatcher(backgroundScope, 30.seconds)
+    val values = collect(batcher)
+
+    batcher.begin()
+    table.value = 1
+    advanceTimeBy(29.seconds)
+    runCurrent()
+    assertEquals(listOf(0), values)
+
+    advanceTimeBy(2.seconds)
+    runCurrent()
+    assertEquals(listOf(0, 1), values)
+
+    table.value = 2
+    advanceTimeBy(30.seconds)
+    runCurrent()
+    assertEquals(listOf(0, 1, 2), values)
+
+    batcher.end()
+    runCurrent()
+    assertEquals(listOf(0, 1, 2, 2), values)
+  }
+
+  @Test
+  fun testNestedBatches() = runTest {
+    val batcher = InvalidationBatcher(backgroundScope, 30.seconds)
+    val values = collect(batcher)
+
+    batcher.begin()
+    batcher.begin()
+    table.value = 1
+    runCurrent()
+    batcher.end()
+    runCurrent()
+    // the outer batch is still open
+    assertEquals(listOf(0), values)
+
+    batcher.end()
+    runCurrent()
+    assertEquals(listOf(0, 1), values)
+    assertFailsWith<IllegalStateException> { batcher.end() }
+  }
+
+  private fun TestScope.collect(batcher: InvalidationBatcher): List<Int> {
+    val values = mutableListOf<Int>()
+    backgroundScope.launch { batcher.coalesce(dbFlow).collect { values.add(it) } }
+    runCurrent()
+    return values
+  }
+}
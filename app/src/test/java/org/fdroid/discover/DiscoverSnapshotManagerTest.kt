@@ -0,0 +1,157 @@
+package org.fdroid.discover
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule
+import androidx.core.os.LocaleListCompat
+import androidx.lifecycle.MutableLiveData
+import io.mockk.coEvery
+import io.mockk.every
+import io.mockk.mockk
+import java.io.File
+import java.util.Locale
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.test.setMain
+import org.fdroid.database.AppDao
+import org.fdroid.database.AppOverviewItem
+import org.fdroid.database.Category
+import org.fdroid.database.FDroidDatabase
+import org.fdroid.database.RepositoryDao
+import org.fdroid.index.v2.FileV2
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+@OptIn(ExperimentalCoroutinesApi::class)
+internal class DiscoverSnapshotManagerTest {
+
+  @get:Rule val instantTaskExecutorRule = InstantTaskExecutorRule()
+  @get:Rule val tmpFolder = TemporaryFolder()
+
+  private val db: FDroidDatabase = mockk()
+  private val appDao: AppDao = mockk()
+  private val repositoryDao: RepositoryDao = mockk()
+  private val mostDownloadedApps: MostDownloadedApps = mockk()
+  private val categoriesLiveData = MutableLiveData<List<Category>>(emptyList())
+  private val localeList = LocaleListCompat.create(Locale.US)
+  private lateinit var file: File
+
+  init {
+    Dispatchers.setMain(Dispatchers.Unconfined)
+
+    every { db.getAppDao() } returns appDao
+    every { db.getRepositoryDao() } returns repositoryDao
+    every { repositoryDao.getLiveCategories() } returns categoriesLiveData
+    every { mostDownloadedApps.packageNames } returns listOf("c")
+  }
+
+  @Before
+  fun setUp() {
+    file = File(tmpFolder.root, "discover_snapshot.json")
+  }
+
+  @Test
+  fun testUpdateAndRead() = runTest {
+    coEvery { appDao.getNewApps() } returns listOf(makeApp("a"))
+    coEvery { appDao.getRecentlyUpdatedApps() } returns listOf(makeApp("b"), makeApp("a"))
+    coEvery { appDao.getApps(listOf("c")) } returns listOf(makeApp("c"))
+    categoriesLiveData.value =
+      listOf(
+        Category(repoId = 1, id = "Zebra", name = mapOf("en-US" to "Zebra")),
+        Category(repoId = 1, id = "Apple", name = mapOf("en-US" to "Apple")),
+      )
+    val manager = DiscoverSnapshotManager(file, db, mostDownloadedApps, this)
+
+    manager.update(localeList).join()
+
+    val snapshot = assertNotNull(manager.read(localeList))
+    assertEquals(listOf("a"), snapshot.newApps.map { it.packageName })
+    assertEquals(listOf("b", "a"), snapshot.recentlyUpdatedApps.map { it.packageName })
+    assertEquals(listOf(makeSnapshotApp("c")), snapshot.mostDownloadedApps)
+    // categories are already sorted by name
+    assertEquals(listOf("Apple", "Zebra"), snapshot.categories.map { it.name })
+  }
+
+  @Test
+  fun testIgnoresSnapshotForOtherLocales() = runTest {
+    val manager = DiscoverSnapshotManager(file, db, mostDownloadedApps, this)
+    manager.write(makeSnapshot(LocaleListCompat.create(Locale.GERMANY), 1))
+
+    assertNull(manager.read(localeList))
+    assertNotNull(manager.read(LocaleListCompat.create(Locale.GERMANY)))
+  }
+
+  @Test
+  fun testCorruptSnapshotGetsDeleted() = runTest {
+    val manager = DiscoverSnapshotManager(file, db, mostDownloadedApps, this)
+    assertNull(manager.read(localeList))
+
+    file.writeText("{\"localeTags\": \"en-US\", \"newApps\": [")
+    assertNull(manager.read(localeList))
+    assertFalse(file.exists())
+  }
+
+  @Test
+  fun testFailedUpdateKeepsOldSnapshot() = runTest {
+    coEvery { appDao.getNewApps() } throws IllegalStateException()
+    val manager = DiscoverSnapshotManager(file, db, mostDownloadedApps, this)
+    val snapshot = makeSnapshot(localeList, 1)
+    manager.write(snapshot)
+
+    manager.update(localeList).join()
+    assertEquals(snapshot, manager.read(localeList))
+  }
+
+  @Test
+  fun testFailedRenameDeletesTemporaryFile() = runTest {
+    // a non-empty directory in place of the snapshot file makes renaming fail
+    File(file, "child").apply { parentFile?.mkdirs() }.writeText("")
+    val manager = DiscoverSnapshotManager(file, db, mostDownloadedApps, this)
+
+    manager.write(makeSnapshot(localeList, 1))
+    assertFalse(File(tmpFolder.root, "${file.name}.tmp").exists())
+  }
+
+  /** A snapshot with more apps than we show in the carousels survives writing and reading. */
+  @Test
+  fun testLargeSnapshotRoundTrips() = runTest {
+    val manager = DiscoverSnapshotManager(file, db, mostDownloadedApps, this)
+    val snapshot = makeSnapshot(localeList, 600)
+    manager.write(snapshot)
+
+    assertEquals(snapshot, manager.read(localeList))
+  }
+
+  private fun makeApp(packageName: String): AppOverviewItem = mockk {
+    every { repoId } returns 1L
+    every { this@mockk.packageName } returns packageName
+    every { lastUpdated } returns 23L
+    every { getName(any()) } returns "name $packageName"
+    every { getIcon(any()) } returns FileV2("/$packageName.png")
+  }
+
+  private fun makeSnapshotApp(packageName: String) =
+    SnapshotApp(
+      repoId = 1L,
+      packageName = packageName,
+      name = "name $packageName",
+      lastUpdated = 23L,
+      icon = FileV2("/$packageName.png"),
+    )
+
+  private fun makeSnapshot(localeList: LocaleListCompat, numApps: Int): DiscoverSnapshot {
+    val apps = List(numApps) { makeSnapshotApp("org.example.app$it") }
+    return DiscoverSnapshot(
+      localeTags = localeList.toLanguageTags(),
+      newApps = apps,
+      recentlyUpdatedApps = apps.reversed(),
+      mostDownloadedApps = apps,
+      categories = List(numApps / 10) { SnapshotCategory("id$it", "Category $it") },
+    )
+  }
+}
@@ -0,0 +1,214 @@
+package org.fdroid.download
+
+import io.mockk.every
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.runs
+import java.io.File
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import okhttp3.Dns
+import org.fdroid.settings.SettingsConstants.PREF_DNS_CACHE_DEFAULT
+import org.fdroid.settings.SettingsManager
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+@OptIn(ExperimentalCoroutinesApi::class)
+internal class DnsWithCacheTest {
+
+  @get:Rule val tempFolder = TemporaryFolder()
+
+  private val settingsManager: SettingsManager = mockk()
+  private val testScope = TestScope()
+  private val scope = CoroutineScope(UnconfinedTestDispatcher(testScope.testScheduler))
+  private val resolver = FakeResolver()
+  private var now = 1_000_000L
+
+  private lateinit var cacheFile: File
+  private lateinit var cache: DnsCache
+  private lateinit var dns: DnsWithCache
+
+  private val ip1 = InetAddress.getByName("127.0.0.1")
+  private val ip2 = InetAddress.getByName("1a00:2b00::1")
+
+  @Before
+  fun setUp() {
+    every { settingsManager.useDnsCache } returns true
+    every { settingsManager.dnsCache } returns PREF_DNS_CACHE_DEFAULT
+    cacheFile = File(tempFolder.root, "dns_cache.bin")
+    cache = DnsCache(settingsManager, cacheFile, scope) { now }
+    dns = DnsWithCache(settingsManager, cache, scope, resolver)
+  }
+
+  @Test
+  fun testConcurrentLookupsShareOneResolution() {
+    val threads = 32
+    resolver.result = listOf(ip1, ip2)
+    resolver.gate = CountDownLatch(1)
+    val executor = Executors.newFixedThreadPool(threads)
+    val start = CountDownLatch(threads)
+    val futures =
+      List(threads) {
+        executor.submit<List<InetAddress>> {
+          start.countDown()
+          dns.lookup("example.org")
+        }
+      }
+    // let all threads start their lookup, then release the resolver.
+    // Threads arriving late get served from the cache.
+    assertTrue(start.await(5, SECONDS))
+    resolver.gate?.countDown()
+
+    futures.forEach { assertEquals(listOf(ip1, ip2), it.get(5, SECONDS)) }
+    executor.shutdown()
+    assertEquals(1, resolver.calls.get())
+    assertEquals(listOf(ip1, ip2), cache.lookup("example.org"))
+  }
+
+  @Test
+  fun testConcurrentLookupsOfDifferentHosts() {
+    val executor = Executors.newFixedThreadPool(8)
+    val futures =
+      List(100) { i -> executor.submit<List<InetAddress>> { dns.lookup("host${i % 10}") } }
+    futures.forEach { assertEquals(resolver.result, it.get(5, SECONDS)) }
+    executor.shutdown()
+    // once resolved, all further lookups of a host are served from the cache
+    assertEquals(10, resolver.calls.get())
+    assertEquals(10, cache.keys().size)
+  }
+
+  @Test
+  fun testFreshEntryIsServedFromCache() {
+    dns.lookup("example.org")
+    now += POSITIVE_TTL_MILLIS - REFRESH_WINDOW_MILLIS - 1
+    dns.lookup("example.org")
+    assertEquals(1, resolver.calls.get())
+  }
+
+  @Test
+  fun testEntryCloseToExpiryIsRefreshedInBackground() {
+    resolver.result = listOf(ip1)
+    dns.lookup("example.org")
+    now += POSITIVE_TTL_MILLIS - REFRESH_WINDOW_MILLIS
+
+    resolver.result = listOf(ip2)
+    // still answers with the cached result, but refreshes it
+    assertEquals(listOf(ip1), dns.lookup("example.org"))
+    assertEquals(2, resolver.calls.get())
+    assertEquals(listOf(ip2), dns.lookup("example.org"))
+    val entry = assertNotNull(cache.getEntry("example.org"))
+    assertEquals(now + POSITIVE_TTL_MILLIS, entry.expiresAt)
+  }
+
+  @Test
+  fun testFailedLookupsAreCachedNegatively() {
+    resolver.fail = true
+    assertFailsWith<UnknownHostException> { dns.lookup("example.org") }
+    assertFailsWith<UnknownHostException> { dns.lookup("example.org") }
+    assertEquals(1, resolver.calls.get())
+    assertFalse(cache.keys().contains("example.org"))
+
+    // after the negative TTL, the resolver gets asked again
+    now += NEGATIVE_TTL_MILLIS
+    resolver.fail = false
+    assertEquals(resolver.result, dns.lookup("example.org"))
+    assertEquals(2, resolver.calls.get())
+  }
+
+  @Test
+  fun testExpiredEntryIsUsedWhenResolverFails() {
+    resolver.result = listOf(ip1)
+    dns.lookup("example.org")
+    now += POSITIVE_TTL_MILLIS
+
+    resolver.fail = true
+    assertEquals(listOf(ip1), dns.lookup("example.org"))
+    assertEquals(2, resolver.calls.get())
+  }
+
+  @Test
+  fun testDisabledCacheAlwaysResolves() {
+    every { settingsManager.useDnsCache } returns false
+    dns.lookup("example.org")
+    dns.lookup("example.org")
+    assertEquals(2, resolver.calls.get())
+    assertTrue(cache.keys().isEmpty())
+  }
+
+  @Test
+  fun testWritesAreBatched() {
+    val dispatcher = StandardTestDispatcher(testScope.testScheduler)
+    val cache = DnsCache(settingsManager, cacheFile, CoroutineScope(dispatcher)) { now }
+    repeat(50) { i -> cache.insert("host$i", listOf(ip1, ip2)) }
+    assertFalse(cacheFile.exists())
+
+    testScope.testScheduler.advanceTimeBy(WRITE_DELAY_MILLIS + 1)
+    assertTrue(cacheFile.exists())
+
+    // a new instance reads everything back from disk
+    val loadedCache = DnsCache(settingsManager, cacheFile, scope) { now }
+    assertEquals(50, loadedCache.keys().size)
+    repeat(50) { i ->
+      assertEquals(listOf(ip1, ip2), loadedCache.lookup("host$i"))
+      assertEquals(now + POSITIVE_TTL_MILLIS, loadedCache.getEntry("host$i")?.expiresAt)
+    }
+  }
+
+  @Test
+  fun testNegativeEntriesAreNotPersisted() {
+    cache.insert("good.example.org", listOf(ip1))
+    cache.insertNegative("bad.example.org")
+    cache.flush()
+
+    val loadedCache = DnsCache(settingsManager, cacheFile, scope) { now }
+    assertEquals(setOf("good.example.org"), loadedCache.keys())
+    assertEquals(null, loadedCache.getEntry("bad.example.org"))
+  }
+
+  @Test
+  fun testMigrationFromSettings() {
+    every { settingsManager.dnsCache } returns "example.org 127.0.0.1 1a00:2b00::1"
+    every { settingsManager.dnsCache = any() } just runs
+    val cache = DnsCache(settingsManager, cacheFile, scope) { now }
+
+    assertEquals(listOf(ip1, ip2), cache.lookup("example.org"))
+    // migrated entries are expired, so they get refreshed, but still used as fallback
+    assertTrue(cache.getEntry("example.org")!!.isExpired(now))
+  }
+
+  @Test
+  fun testCorruptFileIsIgnored() {
+    cacheFile.writeBytes(byteArrayOf(1, 2, 3))
+    assertTrue(cache.keys().isEmpty())
+  }
+
+  private class FakeResolver : Dns {
+    val calls = AtomicInteger(0)
+    @Volatile var result: List<InetAddress> = listOf(InetAddress.getByName("127.0.0.2"))
+    @Volatile var fail = false
+    @Volatile var gate: CountDownLatch? = null
+
+    override fun lookup(hostname: String): List<InetAddress> {
+      calls.incrementAndGet()
+      gate?.await(5, SECONDS)
+      if (fail) throw UnknownHostException(hostname)
+      return result
+    }
+  }
+}
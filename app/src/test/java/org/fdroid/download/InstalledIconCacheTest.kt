@@ -0,0 +1,109 @@
+package org.fdroid.download
+
+import android.content.pm.PackageInfo
+import android.graphics.Bitmap
+import coil3.disk.DiskCache
+import coil3.disk.directory
+import io.mockk.every
+import io.mockk.mockk
+import java.io.OutputStream
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
+import org.fdroid.install.InstalledAppsCache
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+@Suppress("DEPRECATION")
+internal class InstalledIconCacheTest {
+
+  @get:Rule val tmpFolder = TemporaryFolder()
+
+  private val installedApps = MutableStateFlow<Map<String, PackageInfo>>(emptyMap())
+  private val installedAppsCache: InstalledAppsCache = mockk {
+    every { installedApps } returns this@InstalledIconCacheTest.installedApps
+  }
+  private val diskCache by lazy {
+    DiskCache.Builder().directory(tmpFolder.root).maxSizeBytes(1024 * 1024).build()
+  }
+  private val iconCache by lazy {
+    val ioScope = CoroutineScope(Dispatchers.Unconfined)
+    InstalledIconCache(installedAppsCache, lazy { diskCache }, ioScope)
+  }
+  private val bitmap: Bitmap = mockk {
+    every { compress(Bitmap.CompressFormat.PNG, 100, any()) } answers
+      {
+        thirdArg<OutputStream>().write(byteArrayOf(1, 2, 3))
+        true
+      }
+  }
+
+  @Test
+  fun testKeysDependOnVersion() {
+    assertEquals("org.example", iconCache.getMemoryCacheKey("org.example"))
+    assertNull(iconCache.getDiskCacheKey("org.example", 480, 96, 96))
+
+    installedApps.value = mapOf("org.example" to packageInfo("org.example", 1, 23))
+    val memoryKey = iconCache.getMemoryCacheKey("org.example")
+    val diskKey = iconCache.getDiskCacheKey("org.example", 480, 96, 96)
+    assertNotNull(diskKey)
+    assertNotEquals(diskKey, iconCache.getDiskCacheKey("org.example", 320, 96, 96))
+    assertNotEquals(diskKey, iconCache.getDiskCacheKey("org.example", 480, 48, 48))
+
+    installedApps.value = mapOf("org.example" to packageInfo("org.example", 2, 42))
+    assertNotEquals(memoryKey, iconCache.getMemoryCacheKey("org.example"))
+    assertNotEquals(diskKey, iconCache.getDiskCacheKey("org.example", 480, 96, 96))
+  }
+
+  @Test
+  fun testWriteAndRead() {
+    installedApps.value = mapOf("org.example" to packageInfo("org.example", 1, 23))
+    val key = assertNotNull(iconCache.getDiskCacheKey("org.example", 480, 96, 96))
+    assertNull(iconCache.read("org.example", key))
+
+    assertTrue(iconCache.write("org.example", key, bitmap))
+    iconCache.read("org.example", key).use { snapshot ->
+      assertNotNull(snapshot)
+      assertEquals(3L, iconCache.fileSystem.metadata(snapshot.data).size)
+    }
+  }
+
+  @Test
+  fun testUpdatedAndRemovedAppsGetInvalidated() {
+    installedApps.value =
+      mapOf(
+        "org.example.a" to packageInfo("org.example.a", 1, 23),
+        "org.example.b" to packageInfo("org.example.b", 1, 23),
+        "org.example.c" to packageInfo("org.example.c", 1, 23),
+      )
+    val keys =
+      listOf("org.example.a", "org.example.b", "org.example.c").associateWith { packageName ->
+        val key = assertNotNull(iconCache.getDiskCacheKey(packageName, 480, 96, 96))
+        assertTrue(iconCache.write(packageName, key, bitmap))
+        key
+      }
+
+    // a gets updated, b gets removed and c stays the same
+    installedApps.value =
+      mapOf(
+        "org.example.a" to packageInfo("org.example.a", 2, 42),
+        "org.example.c" to packageInfo("org.example.c", 1, 23),
+      )
+    assertNull(diskCache.openSnapshot(keys.getValue("org.example.a")))
+    assertNull(diskCache.openSnapshot(keys.getValue("org.example.b")))
+    diskCache.openSnapshot(keys.getValue("org.example.c")).use { assertNotNull(it) }
+  }
+
+  private fun packageInfo(packageName: String, versionCode: Int, lastUpdateTime: Long) =
+    PackageInfo().apply {
+      this.packageName = packageName
+      this.versionCode = versionCode
+      this.lastUpdateTime = lastUpdateTime
+    }
+}
@@ -0,0 +1,113 @@
+package org.fdroid.download
+
+import java.io.File
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+@OptIn(ExperimentalCoroutinesApi::class)
+internal class MirrorStatsStoreTest {
+
+  @get:Rule val tempFolder = TemporaryFolder()
+
+  private val testScope = TestScope()
+  private val scope = CoroutineScope(UnconfinedTestDispatcher(testScope.testScheduler))
+  private var now = 1_000_000L
+
+  private val statsFile by lazy { File(tempFolder.root, "mirror_stats.json") }
+  private val store by lazy { MirrorStatsStore(statsFile, scope) { now } }
+
+  @Test
+  fun testUnknownMirrorHasNoScore() {
+    assertNull(store.getScore("https://example.org"))
+    assertEquals(0, store.getConsecutiveFailures("https://example.org"))
+  }
+
+  @Test
+  fun testFastMirrorScoresBetterThanSlowMirror() {
+    store.recordLatency("fast", 50)
+    store.recordThroughput("fast", 10_000_000, 1_000)
+    store.recordLatency("slow", 800)
+    store.recordThroughput("slow", 10_000_000, 20_000)
+
+    val fastScore = assertNotNull(store.getScore("fast"))
+    val slowScore = assertNotNull(store.getScore("slow"))
+    assertTrue(fastScore < slowScore)
+  }
+
+  @Test
+  fun testFailingMirrorScoresWorse() {
+    store.recordLatency("healthy", 200)
+    store.recordLatency("flaky", 100)
+    store.recordFailure("flaky")
+    store.recordFailure("flaky")
+
+    assertTrue(store.getScore("healthy")!! < store.getScore("flaky")!!)
+    assertEquals(2, store.getConsecutiveFailures("flaky"))
+
+    // a success resets the consecutive failures
+    store.recordLatency("flaky", 100)
+    assertEquals(0, store.getConsecutiveFailures("flaky"))
+  }
+
+  @Test
+  fun testMovingAverage() {
+    store.recordLatency("mirror", 100)
+    assertEquals(100.0, store.getStats("mirror")?.timeToFirstByteMillis)
+    store.recordLatency("mirror", 200)
+    assertEquals(100 + EWMA_ALPHA * 100, store.getStats("mirror")!!.timeToFirstByteMillis!!, 0.001)
+  }
+
+  @Test
+  fun testSmallTransfersAreIgnoredForThroughput() {
+    store.recordThroughput("mirror", MIN_THROUGHPUT_BYTES - 1, 1)
+    assertNull(store.getStats("mirror"))
+    store.recordThroughput("mirror", MIN_THROUGHPUT_BYTES, 1_000)
+    assertEquals(MIN_THROUGHPUT_BYTES / 1_000.0, store.getStats("mirror")?.bytesPerMilli)
+  }
+
+  @Test
+  fun testStatsDecayOverTime() {
+    store.recordLatency("slow", 10_000)
+    store.recordFailure("down")
+    store.recordFailure("down")
+    val slowScore = store.getScore("slow")!!
+    val downScore = store.getScore("down")!!
+
+    now += STATS_HALF_LIFE_MILLIS
+    // scores move towards the neutral score and failures get forgotten
+    assertTrue(store.getScore("slow")!! in NEUTRAL_SCORE..slowScore)
+    assertTrue(store.getScore("down")!! in NEUTRAL_SCORE..downScore)
+    assertEquals(0, store.getConsecutiveFailures("down"))
+
+    now += STATS_HALF_LIFE_MILLIS * 20
+    assertEquals(NEUTRAL_SCORE, store.getScore("slow")!!, 1.0)
+  }
+
+  @Test
+  fun testPersistence() {
+    store.recordLatency("mirror", 123)
+    store.recordFailure("other")
+    store.flush()
+
+    val loadedStore = MirrorStatsStore(statsFile, scope) { now }
+    assertEquals(store.getStats("mirror"), loadedStore.getStats("mirror"))
+    assertEquals(store.getStats("other"), loadedStore.getStats("other"))
+  }
+
+  @Test
+  fun testCorruptFileIsIgnored() {
+    statsFile.writeText("{ not json")
+    assertNull(store.getStats("mirror"))
+    store.recordLatency("mirror", 1)
+    assertNotNull(store.getStats("mirror"))
+  }
+}
@@ -0,0 +1,170 @@
+package org.fdroid.history
+
+import java.io.File
+import java.io.RandomAccessFile
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlinx.serialization.json.Json
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+private const val NUM_MANY_EVENTS = 10_000
+private const val PAGE_SIZE = 50
+
+internal class HistoryLogTest {
+
+  @get:Rule val tempFolder = TemporaryFolder()
+
+  private val file by lazy { File(tempFolder.root, "history.log") }
+
+  @Test
+  fun testAppendAndReopen() {
+    val events = List(5) { getEvent(it) }
+    HistoryLog(file).apply {
+      events.forEach { append(it) }
+      assertEquals(events, getEvents())
+      close()
+    }
+    val historyLog = HistoryLog(file)
+    assertEquals(5, historyLog.size)
+    assertEquals(events, historyLog.getEvents())
+  }
+
+  @Test
+  fun testReversePaging() {
+    val events = List(10) { getEvent(it) }
+    val historyLog = HistoryLog(file).apply { appendAll(events) }
+
+    assertEquals(events.takeLast(3).reversed(), historyLog.getLatestEvents(0, 3))
+    assertEquals(events.subList(4, 7).reversed(), historyLog.getLatestEvents(3, 3))
+    assertEquals(events.take(2).reversed(), historyLog.getLatestEvents(8, 3))
+    assertEquals(emptyList(), historyLog.getLatestEvents(10, 3))
+  }
+
+  @Test
+  fun testGetEventsOfPackage() {
+    val events = List(10) { getEvent(it) }
+    val historyLog = HistoryLog(file).apply { appendAll(events) }
+
+    val packageEvents = events.filter { it.packageName == "org.example.1" }
+    assertEquals(packageEvents, historyLog.getEvents("org.example.1"))
+    historyLog.truncate(4)
+    assertEquals(listOf(events[7]), historyLog.getEvents("org.example.1"))
+    assertEquals(emptyList(), historyLog.getEvents("org.example.missing"))
+  }
+
+  @Test
+  fun testTornLastRecordIsCutOff() {
+    val events = List(3) { getEvent(it) }
+    HistoryLog(file).apply {
+      appendAll(events)
+      close()
+    }
+    // simulate a crash in the middle of writing the last record
+    RandomAccessFile(file, "rw").use { it.setLength(it.length() - 5) }
+
+    val historyLog = HistoryLog(file)
+    assertEquals(events.take(2), historyLog.getEvents())
+    // new records get appended right after the last intact one
+    historyLog.append(events[2])
+    historyLog.close()
+    assertEquals(events, HistoryLog(file).getEvents())
+  }
+
+  @Test
+  fun testCorruptRecordIsCutOff() {
+    val events = List(3) { getEvent(it) }
+    HistoryLog(file).apply {
+      appendAll(events)
+      close()
+    }
+    // flip a byte in the payload of the last record
+    RandomAccessFile(file, "rw").use {
+      it.seek(it.length() - 3)
+      val b = it.read()
+      it.seek(it.length() - 3)
+      it.write(b xor 0xff)
+    }
+    assertEquals(events.take(2), HistoryLog(file).getEvents())
+  }
+
+  @Test
+  fun testTruncateDoesNotRewriteSurvivingRecords() {
+    val events = List(10) { getEvent(it) }
+    val historyLog = HistoryLog(file).apply { appendAll(events) }
+    val bytesBefore = file.readBytes()
+
+    historyLog.truncate(4)
+    assertEquals(events.takeLast(4), historyLog.getEvents())
+    val bytesAfter = file.readBytes()
+    assertEquals(bytesBefore.size, bytesAfter.size)
+    // only the start offset in the header changed
+    val recordsBefore = bytesBefore.copyOfRange(16, bytesBefore.size)
+    assertTrue(recordsBefore.contentEquals(bytesAfter.copyOfRange(16, bytesAfter.size)))
+
+    historyLog.close()
+    assertEquals(events.takeLast(4), HistoryLog(file).getEvents())
+  }
+
+  @Test
+  fun testTruncateCompactsEventually() {
+    val historyLog = HistoryLog(file)
+    repeat(100) { i ->
+      historyLog.appendAll(List(100) { getEvent(i * 100 + it) })
+      historyLog.truncate(100)
+    }
+    val events = List(100) { getEvent(9900 + it) }
+    assertEquals(events, historyLog.getEvents())
+    // without compacting, the file would have 10k events
+    assertTrue(file.length() < 2 * 64 * 1024 + 100 * 64, "${file.length()}")
+    historyLog.close()
+    assertEquals(events, HistoryLog(file).getEvents())
+  }
+
+  @Test
+  fun testClear() {
+    val historyLog = HistoryLog(file).apply { appendAll(List(3) { getEvent(it) }) }
+    historyLog.clear()
+    assertEquals(0, historyLog.size)
+    historyLog.append(getEvent(42))
+    historyLog.close()
+    assertEquals(listOf(getEvent(42)), HistoryLog(file).getEvents())
+  }
+
+  @Test
+  fun testTenThousandEventsMatchJsonHistory() {
+    val events = List(NUM_MANY_EVENTS) { getEvent(it) }
+    val jsonFile = File(tempFolder.root, "history.json")
+    events.forEach { jsonFile.appendText(Json.encodeToString<HistoryEvent>(it) + ",") }
+    val s = jsonFile.readText().trimEnd(',')
+    val jsonPage = Json.decodeFromString<List<HistoryEvent>>("[$s]").takeLast(PAGE_SIZE).reversed()
+
+    val historyLog = HistoryLog(file)
+    events.forEach { historyLog.append(it) }
+    historyLog.close()
+    val reopenedLog = HistoryLog(file)
+    assertEquals(jsonPage, reopenedLog.getLatestEvents(0, PAGE_SIZE))
+    val packageEvents = events.filter { it.packageName == "org.example.1" }
+    assertEquals(packageEvents, reopenedLog.getEvents("org.example.1"))
+    reopenedLog.truncate(NUM_MANY_EVENTS / 2)
+    assertEquals(events.takeLast(NUM_MANY_EVENTS / 2), reopenedLog.getEvents())
+    reopenedLog.close()
+    assertTrue(file.length() < jsonFile.length())
+  }
+
+  private fun getEvent(i: Int): HistoryEvent {
+    val packageName = "org.example.${i % 3}"
+    return if (i % 2 == 0) {
+      InstallEvent(
+        time = 1_700_000_000_000L + i,
+        packageName = packageName,
+        name = "App $i",
+        versionName = "1.$i",
+        oldVersionName = if (i % 4 == 0) null else "1.${i - 1}",
+      )
+    } else {
+      UninstallEvent(time = 1_700_000_000_000L + i, packageName = packageName, name = null)
+    }
+  }
+}
@@ -1,14 +1,13 @@
 package org.fdroid.history
 
 import android.content.Context
-import android.content.Context.MODE_APPEND
-import android.content.Context.MODE_PRIVATE
 import io.mockk.every
 import io.mockk.mockk
-import io.mockk.verify
-import java.io.FileOutputStream
+import java.io.File
 import kotlin.random.Random
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlinx.serialization.json.Json
 import org.fdroid.settings.SettingsManager
 import org.junit.Rule
 import org.junit.Test
@@ -20,15 +19,12 @@ internal class HistoryManagerTest {
 
   @get:Rule val tempFolder = TemporaryFolder()
 
-  private val context: Context = mockk()
+  private val context: Context = mockk { every { filesDir } answers { tempFolder.root } }
   private val settingsManager: SettingsManager = mockk()
   private val manager = HistoryManager(context, settingsManager, MAX_EVENTS)
 
   @Test
   fun testAppendGetAndClear() {
-    val file = tempFolder.newFile()
-    every { context.openFileOutput(any(), MODE_APPEND) } answers { FileOutputStream(file, true) }
-    every { context.openFileInput(any()) } answers { file.inputStream() }
     every { settingsManager.useInstallHistory } returns true
 
     val installEvent =
@@ -50,10 +46,9 @@ internal class HistoryManagerTest {
     manager.append(uninstallEvent)
     assertEquals(listOf(installEvent, installEvent, uninstallEvent), manager.getEvents())
 
-    // delete file
-    every { context.deleteFile(any()) } returns true
+    // clear history
     manager.clearAll()
-    verify { context.deleteFile(any()) }
+    assertEquals(emptyList(), manager.getEvents())
   }
 
   @Test
@@ -70,9 +65,6 @@ internal class HistoryManagerTest {
 
   @Test
   fun testPrune() {
-    val file = tempFolder.newFile()
-    every { context.openFileOutput(any(), MODE_APPEND) } answers { FileOutputStream(file, true) }
-    every { context.openFileInput(any()) } answers { file.inputStream() }
     every { settingsManager.useInstallHistory } returns true
 
     val installEvent =
@@ -95,8 +87,29 @@ internal class HistoryManagerTest {
     }
     assertEquals(MAX_EVENTS * 2, manager.getEvents().size)
 
-    every { context.openFileOutput(any(), MODE_PRIVATE) } answers { FileOutputStream(file, false) }
     manager.pruneEvents()
     assertEquals(MAX_EVENTS, manager.getEvents().size)
+    assertEquals(uninstallEvent, manager.getLatestEvents(0, 1).single())
+  }
+
+  @Test
+  fun testMigrationFromJson() {
+    val installEvent =
+      InstallEvent(
+        time = Random.nextLong(),
+        packageName = "foo.bar",
+        name = "Foo Bar",
+        versionName = "1.0.3",
+        oldVersionName = null,
+      )
+    val uninstallEvent = UninstallEvent(time = Random.nextLong(), packageName = "org.example", null)
+    val jsonFile = File(tempFolder.root, "install_history.json")
+    // the old format were JSON objects each followed by a comma
+    val events = listOf(installEvent, uninstallEvent)
+    jsonFile.writeText(events.joinToString("") { Json.encodeToString<HistoryEvent>(it) + "," })
+
+    assertEquals(events, manager.getEvents())
+    assertFalse(jsonFile.exists())
+    assertEquals(listOf(uninstallEvent), manager.getEvents("org.example"))
   }
 }
@@ -21,6 +21,9 @@ import io.mockk.unmockkObject
 import io.mockk.unmockkStatic
 import io.mockk.verify
 import io.mockk.verifyOrder
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.OutputStream
 import kotlin.random.Random
 import kotlin.test.assertEquals
 import kotlin.test.assertIs
@@ -39,6 +42,7 @@ import org.fdroid.database.AppVersion
 import org.fdroid.database.Repository
 import org.fdroid.download.Downloader
 import org.fdroid.download.DownloaderFactory
+import org.fdroid.download.HttpDownloaderV2
 import org.fdroid.download.PackageName
 import org.fdroid.download.getUri
 import org.fdroid.fdroid.ProgressListener
@@ -68,6 +72,7 @@ internal class AppInstallManagerTest {
   private val packageInstaller: PackageInstaller = mockk()
   private val packageManager: PackageManager = mockk()
   private val downloader: Downloader = mockk(relaxed = true)
+  private val streamingDownloader: HttpDownloaderV2 = mockk(relaxed = true)
 
   private val packageName = "com.example.app"
   private val installedVersionName = "0.9"
@@ -167,6 +172,99 @@ internal class AppInstallManagerTest {
     }
   }
 
+  @Test
+  @Suppress("UNCHECKED_CAST")
+  fun `install streams APK into session when downloader supports it`() = runBlocking {
+    coEvery { sessionInstallManager.requestPreapproval(any(), any(), any(), any(), any()) } returns
+      PreApprovalResult.NotSupported
+    useStreamingDownloader()
+    coEvery { sessionInstallManager.installStreaming(any(), any(), any(), 1L, any()) } coAnswers
+      {
+        val writer = args[4] as (OutputStream) -> Unit
+        writer(ByteArrayOutputStream())
+        installedState
+      }
+
+    val result = installApp()
+    assertIs<InstallState.Installed>(result)
+    verify(exactly = 1) { streamingDownloader.downloadToStream(any()) }
+    verify(exactly = 0) { streamingDownloader.download() }
+    coVerify(exactly = 0) { sessionInstallManager.install(any(), any(), any(), any()) }
+  }
+
+  @Test
+  @Suppress("UNCHECKED_CAST")
+  fun `install falls back to resumable download when streaming fails`() = runBlocking {
+    coEvery { sessionInstallManager.requestPreapproval(any(), any(), any(), any(), any()) } returns
+      PreApprovalResult.NotSupported
+    useStreamingDownloader()
+    every { streamingDownloader.downloadToStream(any()) } throws IOException("connection reset")
+    coEvery { sessionInstallManager.installStreaming(any(), any(), any(), any(), any()) } coAnswers
+      {
+        val writer = args[4] as (OutputStream) -> Unit
+        try {
+          writer(ByteArrayOutputStream())
+          installedState
+        } catch (e: Exception) {
+          InstallState.Error(msg = e.message, s = installedState)
+        }
+      }
+    coEvery { sessionInstallManager.install(any(), any(), any(), any()) } returns installedState
+
+    val result = installApp()
+    assertIs<InstallState.Installed>(result)
+    verify(exactly = 1) { streamingDownloader.download() }
+    coVerify(exactly = 1) { sessionInstallManager.install(null, packageName, any(), any()) }
+  }
+
+  @Test
+  @Suppress("UNCHECKED_CAST")
+  fun `install falls back without abandoned session when stream breaks off`() = runBlocking {
+    coEvery { sessionInstallManager.requestPreapproval(any(), any(), any(), any(), any()) } returns
+      PreApprovalResult.Success(42)
+    useStreamingDownloader()
+    every { streamingDownloader.downloadToStream(any()) } answers
+      {
+        val outputStream = firstArg<OutputStream>()
+        outputStream.write(ByteArray(512))
+        throw IOException("connection reset")
+      }
+    // like the real thing, abandons the pre-approved session when writing to it fails
+    coEvery { sessionInstallManager.installStreaming(42, any(), any(), any(), any()) } coAnswers
+      {
+        val writer = args[4] as (OutputStream) -> Unit
+        try {
+          writer(ByteArrayOutputStream())
+          installedState
+        } catch (e: Exception) {
+          InstallState.Error(msg = e.message, s = installedState)
+        }
+      }
+    coEvery { sessionInstallManager.install(any(), any(), any(), any()) } returns installedState
+
+    val result = installApp()
+    assertIs<InstallState.Installed>(result)
+    verify(exactly = 1) { streamingDownloader.download() }
+    coVerify(exactly = 0) { sessionInstallManager.install(42, any(), any(), any()) }
+    coVerify(exactly = 1) { sessionInstallManager.install(null, packageName, any(), any()) }
+  }
+
+  @Test
+  fun `install does not stream when partial download exists`() = runBlocking {
+    coEvery { sessionInstallManager.requestPreapproval(any(), any(), any(), any(), any()) } returns
+      PreApprovalResult.NotSupported
+    useStreamingDownloader()
+    File(context.cacheDir, version.file.sha256).writeBytes(byteArrayOf(0))
+    coEvery { sessionInstallManager.install(any(), any(), any(), any()) } returns installedState
+
+    val result = installApp()
+    assertIs<InstallState.Installed>(result)
+    verify(exactly = 1) { streamingDownloader.download() }
+    coVerify(exactly = 0) {
+      sessionInstallManager.installStreaming(any(), any(), any(), any(), any())
+    }
+  }
+
   @Test
   fun `install returns UserAborted when preapproval is aborted`() = runBlocking {
     coEvery { sessionInstallManager.requestPreapproval(any(), any(), any(), any(), any()) } returns
@@ -328,6 +426,29 @@ internal class AppInstallManagerTest {
     assertTrue(state.isInstallingSomeApp)
   }
 
+  @Test
+  fun `download progress of unknown size is throttled`() = runBlocking {
+    var notificationStateDuringDownload: InstallNotificationState? = null
+    val listenerSlot = slot<ProgressListener>()
+    every { downloader.setListener(capture(listenerSlot)) } just runs
+    every { downloader.download() } answers
+      {
+        // servers may not send a content length, so progress can't ever be complete
+        listenerSlot.captured.onProgress(bytesRead = 500L, totalBytes = -1L)
+        listenerSlot.captured.onProgress(bytesRead = 600L, totalBytes = -1L)
+        notificationStateDuringDownload = appInstallManager.installNotificationState
+      }
+    coEvery { sessionInstallManager.requestPreapproval(any(), any(), any(), any(), any()) } returns
+      PreApprovalResult.NotSupported
+    coEvery { sessionInstallManager.install(any(), any(), any(), any()) } returns installedState
+
+    installApp()
+
+    // the second update came in too quickly and got dropped
+    val state = checkNotNull(notificationStateDuringDownload)
+    assertEquals(500L, state.numBytesDownloaded)
+  }
+
   @Test
   fun `AppInstallService gets started when not already running`() = runBlocking {
     // service is not running at the start of this install
@@ -639,6 +760,10 @@ internal class AppInstallManagerTest {
     assertIs<InstallState.UserAborted>(result)
   }
 
+  private fun useStreamingDownloader() {
+    every { downloaderFactory.create(any(), any(), any(), any()) } returns streamingDownloader
+  }
+
   private suspend fun installApp(
     appMetadata: AppMetadata? = this.appMetadata,
     version: AppVersion = this.version,
@@ -48,6 +48,17 @@ internal class CacheCleanerTest {
     assertTrue(oldHashDir.exists())
   }
 
+  @Test
+  fun `clean keeps old files of queued updates`() {
+    val oldHash = newFile(name = "a".repeat(64), lastModified = now - DELETE_OLDER_THAN_MILLIS)
+    val keptHash = newFile(name = "b".repeat(64), lastModified = now - DELETE_OLDER_THAN_MILLIS)
+
+    cacheCleaner.clean(now, keep = setOf(keptHash.name))
+
+    assertFalse(oldHash.exists())
+    assertTrue(keptHash.exists())
+  }
+
   @Test
   fun `clean does not throw when cacheDir listFiles returns null`() {
     val nullListingCacheDir: File = mockk()
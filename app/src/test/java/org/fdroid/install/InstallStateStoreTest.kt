@@ -0,0 +1,137 @@
+package org.fdroid.install
+
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+private const val NUM_DOWNLOADS = 100
+private const val NUM_TICKS = 200
+private const val TICK_MILLIS = 50L
+
+@OptIn(ExperimentalCoroutinesApi::class)
+internal class InstallStateStoreTest {
+
+  private val testScope = TestScope(UnconfinedTestDispatcher())
+  private var now = 0L
+  private val store = InstallStateStore(testScope.backgroundScope) { now }
+
+  @Test
+  fun testUpdateAndRemove() {
+    assertNull(store["a"])
+    store.update("a") { getDownloading(0) }
+    assertIs<InstallState.Downloading>(store["a"])
+    assertEquals(setOf("a"), store.snapshot().keys)
+
+    store.remove("a")
+    assertNull(store["a"])
+    assertEquals(InstallState.Unknown, store.getFlow("a").value)
+    assertTrue(store.snapshot().isEmpty())
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun testCheckAndUpdateNeedsStateWithInfo() {
+    store.checkAndUpdate("a") { it }
+  }
+
+  @Test
+  fun testCollectorsOfOtherAppsAreNotNotified() =
+    testScope.runTest {
+      val emissions = mutableListOf<InstallState>()
+      backgroundScope.launch { store.getFlow("a").collect { emissions.add(it) } }
+      store.update("a") { getDownloading(0) }
+      repeat(10) { i -> store.update("b") { getDownloading(i.toLong()) } }
+
+      assertEquals(listOf(InstallState.Unknown, getDownloading(0)), emissions)
+    }
+
+  @Test
+  fun testProgressIsRateLimitedPerPackage() {
+    store.update("a") { getDownloading(0) }
+    store.update("b") { getDownloading(0) }
+
+    // first progress always gets published
+    assertNotNull(store.checkAndUpdateProgress("a", false) { getDownloading(1) })
+    // too soon for the same package, but not for another one
+    now += PROGRESS_INTERVAL_MILLIS - 1
+    assertNull(store.checkAndUpdateProgress("a", false) { getDownloading(2) })
+    assertNotNull(store.checkAndUpdateProgress("b", false) { getDownloading(2) })
+    // completion always gets published
+    assertNotNull(store.checkAndUpdateProgress("a", true) { getDownloading(3) })
+    assertEquals(getDownloading(3), store["a"])
+    // later progress gets published again
+    now += PROGRESS_INTERVAL_MILLIS
+    assertNotNull(store.checkAndUpdateProgress("a", false) { getDownloading(4) })
+  }
+
+  @Test
+  fun testStatesContainAllApps() =
+    testScope.runTest {
+      val emissions = mutableListOf<Map<String, InstallState>>()
+      backgroundScope.launch { store.states.collect { emissions.add(it) } }
+      store.update("a") { getDownloading(0) }
+      store.update("b") { InstallState.Uninstalled }
+      val expected = mapOf("a" to getDownloading(0), "b" to InstallState.Uninstalled)
+      assertEquals(expected, emissions.last())
+
+      store.removeIf { _, state -> !state.showProgress }
+      assertEquals(mapOf("a" to getDownloading(0)), emissions.last())
+      assertEquals(store.snapshot(), store.states.value)
+    }
+
+  /**
+   * Simulates [NUM_DOWNLOADS] downloads reporting progress every [TICK_MILLIS] at the same time and
+   * compares emissions with copying a map of all states for each progress.
+   */
+  @Test
+  fun testConcurrentDownloadsThrottleEmissions() =
+    testScope.runTest {
+      val packageNames = List(NUM_DOWNLOADS) { "org.example.app$it" }
+      var appEmissions = 0
+      backgroundScope.launch { store.getFlow(packageNames[0]).collect { appEmissions++ } }
+      packageNames.forEach { store.update(it) { getDownloading(0) } }
+      repeat(NUM_TICKS) { tick ->
+        now += TICK_MILLIS
+        packageNames.forEach { packageName ->
+          store.checkAndUpdateProgress(packageName, false) { getDownloading(tick.toLong()) }
+        }
+      }
+
+      // what we did before: copy the map of all states for each progress
+      val mapFlow = MutableStateFlow<Map<String, InstallState>>(emptyMap())
+      var mapEmissions = 0
+      backgroundScope.launch { mapFlow.collect { mapEmissions++ } }
+      repeat(NUM_TICKS) { tick ->
+        packageNames.forEach { packageName ->
+          mapFlow.update { old ->
+            old.toMutableMap().apply { put(packageName, getDownloading(tick.toLong())) }
+          }
+        }
+      }
+
+      val maxAppEmissions = 2 + NUM_TICKS * TICK_MILLIS / PROGRESS_INTERVAL_MILLIS
+      assertTrue(appEmissions <= maxAppEmissions, "$appEmissions > $maxAppEmissions")
+      assertTrue(appEmissions < mapEmissions / NUM_DOWNLOADS)
+    }
+
+  private fun getDownloading(downloadedBytes: Long) =
+    InstallState.Downloading(
+      name = "App",
+      versionName = "1.0",
+      currentVersionName = null,
+      lastUpdated = 0L,
+      iconModel = null,
+      downloadedBytes = downloadedBytes,
+      totalBytes = 1_000_000L,
+      startMillis = 0L,
+    )
+}
@@ -16,14 +16,19 @@ import io.mockk.mockk
 import io.mockk.mockkConstructor
 import io.mockk.mockkStatic
 import io.mockk.verify
+import java.io.File
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertTrue
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
 import org.junit.Before
+import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 
 @Suppress("DEPRECATION")
 internal class InstalledAppsCacheTest {
@@ -31,6 +36,12 @@ internal class InstalledAppsCacheTest {
   private val context: Context = mockk(relaxed = true)
   private val packageManager: PackageManager = mockk()
   private val ioScope = CoroutineScope(Dispatchers.Unconfined)
+  private val bootTimeMillis = 1_000_000L
+
+  @get:Rule val tmpFolder = TemporaryFolder()
+  private val snapshot by lazy {
+    InstalledPackagesSnapshot(File(tmpFolder.root, "installed_packages.bin"))
+  }
 
   @Before
   fun setUp() {
@@ -50,7 +61,7 @@ internal class InstalledAppsCacheTest {
     val app2 = packageInfo("org.example.b")
     every { packageManager.getInstalledPackages(GET_SIGNATURES) } returns listOf(app1, app2)
 
-    val cache = InstalledAppsCache(context, ioScope)
+    val cache = createCache()
 
     assertEquals(2, cache.installedApps.value.size)
     assertTrue(cache.isInstalled("org.example.a"))
@@ -60,11 +71,57 @@ internal class InstalledAppsCacheTest {
     verify(exactly = 1) { packageManager.getInstalledPackages(GET_SIGNATURES) }
   }
 
+  @Test
+  fun `persisted snapshot is served on next start`() = runBlocking {
+    val app = packageInfo("org.example.a")
+    every { packageManager.getInstalledPackages(GET_SIGNATURES) } returns listOf(app)
+    createCache()
+
+    // the app got persisted and then uninstalled
+    assertEquals(setOf("org.example.a"), snapshot.read()?.packages?.keys)
+    every { packageManager.getInstalledPackages(GET_SIGNATURES) } returns emptyList()
+
+    // without knowing changes (before Android 8), we load all apps again
+    val cache = createCache()
+    assertFalse(cache.isInstalled("org.example.a"))
+    verify(exactly = 2) { packageManager.getInstalledPackages(GET_SIGNATURES) }
+    assertEquals(emptySet(), snapshot.read()?.packages?.keys)
+  }
+
+  @Test
+  fun `snapshot gets merged with broadcasts received before it was read`() {
+    val appA = packageInfo("org.example.a")
+    val appB = packageInfo("org.example.b")
+    snapshot.write(
+      InstalledPackagesSnapshot.Snapshot(bootTimeMillis, 0, mapOf("org.example.a" to appA))
+    )
+    val scope = TestScope(StandardTestDispatcher())
+    val cache = createCache(scope.backgroundScope)
+
+    // app b gets installed before the snapshot was read
+    every { packageManager.getPackageInfo("org.example.b", GET_SIGNATURES) } returns appB
+    cache.onReceive(context, packageChangedIntent(ACTION_PACKAGE_ADDED, "org.example.b"))
+    assertEquals(setOf("org.example.b"), cache.installedApps.value.keys)
+
+    var appsWhileLoading: Set<String>? = null
+    every { packageManager.getInstalledPackages(GET_SIGNATURES) } answers
+      {
+        appsWhileLoading = cache.installedApps.value.keys
+        listOf(appA, appB)
+      }
+    scope.advanceUntilIdle()
+
+    // the snapshot didn't get dropped because of the broadcast
+    assertEquals(setOf("org.example.a", "org.example.b"), appsWhileLoading)
+    assertEquals(setOf("org.example.a", "org.example.b"), cache.installedApps.value.keys)
+    assertEquals(setOf("org.example.a", "org.example.b"), snapshot.read()?.packages?.keys)
+  }
+
   @Test
   fun `onReceive add and remove intents update installedApps and isInstalled`() = runBlocking {
     every { packageManager.getInstalledPackages(GET_SIGNATURES) } returns emptyList()
 
-    val cache = InstalledAppsCache(context, ioScope)
+    val cache = createCache()
 
     val added = packageInfo("org.example.new")
     every { packageManager.getPackageInfo("org.example.new", GET_SIGNATURES) } returns added
@@ -85,7 +142,7 @@ internal class InstalledAppsCacheTest {
     val app = packageInfo("org.example.replace")
     every { packageManager.getInstalledPackages(GET_SIGNATURES) } returns listOf(app)
 
-    val cache = InstalledAppsCache(context, ioScope)
+    val cache = createCache()
 
     cache.onReceive(
       context,
@@ -107,7 +164,7 @@ internal class InstalledAppsCacheTest {
     every { packageManager.getPackageInfo("org.example.gone", GET_SIGNATURES) } throws
       PackageManager.NameNotFoundException("gone")
 
-    val cache = InstalledAppsCache(context, ioScope)
+    val cache = createCache()
 
     cache.onReceive(context, packageChangedIntent(ACTION_PACKAGE_ADDED, "org.example.gone"))
 
@@ -116,6 +173,9 @@ internal class InstalledAppsCacheTest {
     assertFalse(cache.isInstalled("org.example.gone"))
   }
 
+  private fun createCache(scope: CoroutineScope = ioScope) =
+    InstalledAppsCache(context, scope, snapshot, getBootTimeMillis = { bootTimeMillis })
+
   private fun packageInfo(packageName: String) =
     PackageInfo().apply { this.packageName = packageName }
 
@@ -0,0 +1,130 @@
+package org.fdroid.install
+
+import android.content.Context
+import android.content.IntentFilter
+import android.content.pm.ApplicationInfo
+import android.content.pm.ApplicationInfo.FLAG_SYSTEM
+import android.content.pm.ChangedPackages
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.GET_SIGNATURES
+import android.content.pm.Signature
+import androidx.core.content.ContextCompat.RECEIVER_NOT_EXPORTED
+import androidx.core.content.ContextCompat.registerReceiver
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkAll
+import io.mockk.verify
+import java.io.File
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@Suppress("DEPRECATION")
+@Config(sdk = [34])
+@RunWith(RobolectricTestRunner::class)
+internal class InstalledPackagesSnapshotTest {
+
+  @get:Rule val tmpFolder = TemporaryFolder()
+
+  private val context: Context = mockk(relaxed = true)
+  private val packageManager: PackageManager = mockk()
+  private val ioScope = CoroutineScope(Dispatchers.Unconfined)
+  private var bootTimeMillis = 1_000_000L
+  private val snapshot by lazy {
+    InstalledPackagesSnapshot(File(tmpFolder.root, "installed_packages.bin"))
+  }
+
+  @After
+  fun tearDown() {
+    unmockkAll()
+  }
+
+  @Test
+  fun testRoundTrip() {
+    assertNull(snapshot.read())
+    val app = packageInfo("org.example.a", 42L)
+    val packages = mapOf(app.packageName to app)
+    snapshot.write(InstalledPackagesSnapshot.Snapshot(bootTimeMillis, 23, packages))
+
+    val restored = assertNotNull(snapshot.read())
+    assertEquals(bootTimeMillis, restored.bootTimeMillis)
+    assertEquals(23, restored.sequenceNumber)
+    val restoredApp = assertNotNull(restored.packages["org.example.a"])
+    assertEquals(42L, restoredApp.longVersionCode)
+    assertEquals("1.0", restoredApp.versionName)
+    assertEquals(app.lastUpdateTime, restoredApp.lastUpdateTime)
+    assertEquals(FLAG_SYSTEM, restoredApp.applicationInfo?.flags)
+    assertEquals("/data/app/org.example.a/base.apk", restoredApp.applicationInfo?.publicSourceDir)
+    assertEquals(app.signatures?.toList(), restoredApp.signatures?.toList())
+  }
+
+  @Test
+  fun testCorruptSnapshotIsIgnored() {
+    File(tmpFolder.root, "installed_packages.bin").writeBytes(byteArrayOf(0, 0, 0, 1, 2))
+    assertNull(snapshot.read())
+  }
+
+  @Test
+  fun testOnlyChangedPackagesAreLoadedWithinSameBoot() {
+    mockkStatic("androidx.core.content.ContextCompat")
+    every { registerReceiver(any(), any(), any<IntentFilter>(), RECEIVER_NOT_EXPORTED) } returns
+      null
+    every { context.packageManager } returns packageManager
+    val a = packageInfo("org.example.a", 1L)
+    val b = packageInfo("org.example.b", 1L)
+    every { packageManager.getChangedPackages(0) } returns ChangedPackages(5, emptyList())
+    every { packageManager.getInstalledPackages(GET_SIGNATURES) } returns listOf(a, b)
+    createCache()
+    assertEquals(5, snapshot.read()?.sequenceNumber)
+
+    // a got updated, b got uninstalled
+    val changed = listOf("org.example.a", "org.example.b")
+    every { packageManager.getChangedPackages(5) } returns ChangedPackages(7, changed)
+    every { packageManager.getPackageInfo("org.example.a", GET_SIGNATURES) } returns
+      packageInfo("org.example.a", 2L)
+    every { packageManager.getPackageInfo("org.example.b", GET_SIGNATURES) } throws
+      PackageManager.NameNotFoundException()
+    val cache = createCache()
+
+    assertEquals(setOf("org.example.a"), cache.installedApps.value.keys)
+    assertEquals(2L, cache.installedApps.value["org.example.a"]?.longVersionCode)
+    verify(exactly = 1) { packageManager.getInstalledPackages(GET_SIGNATURES) }
+    assertEquals(7, snapshot.read()?.sequenceNumber)
+
+    // after a reboot, sequence numbers start again, so we load all packages
+    bootTimeMillis += 60_000
+    assertTrue(createCache().isInstalled("org.example.b"))
+    verify(exactly = 2) { packageManager.getInstalledPackages(GET_SIGNATURES) }
+  }
+
+  private fun createCache() =
+    InstalledAppsCache(context, ioScope, snapshot, getBootTimeMillis = { bootTimeMillis })
+
+  private fun packageInfo(packageName: String, versionCode: Long) =
+    PackageInfo().apply {
+      this.packageName = packageName
+      versionName = "1.0"
+      longVersionCode = versionCode
+      firstInstallTime = 1_000L
+      lastUpdateTime = 2_000L
+      applicationInfo =
+        ApplicationInfo().apply {
+          this.packageName = packageName
+          flags = FLAG_SYSTEM
+          sourceDir = "/data/app/$packageName/base.apk"
+        }
+      signatures = arrayOf(Signature(byteArrayOf(1, 2, 3, 4)))
+    }
+}
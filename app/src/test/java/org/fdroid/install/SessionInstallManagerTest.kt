@@ -27,6 +27,7 @@ import io.mockk.unmockkAll
 import io.mockk.verify
 import java.io.ByteArrayOutputStream
 import java.io.File
+import java.io.IOException
 import kotlin.test.assertContains
 import kotlin.test.assertEquals
 import kotlin.test.assertIs
@@ -360,6 +361,78 @@ internal class SessionInstallManagerTest {
     verify(atLeast = 1) { context.unregisterReceiver(any()) }
   }
 
+  @Test
+  fun `installStreaming writes into session and commits`() = runBlocking {
+    val bytes = byteArrayOf(1, 2, 3)
+    val outputStream = ByteArrayOutputStream()
+    expectInstallSession(PackageInstaller.STATUS_SUCCESS, bytes.size.toLong(), outputStream)
+
+    val result =
+      sessionInstallManager.installStreaming(
+        sessionId = sessionId,
+        packageName = packageName,
+        state = installingState,
+        size = bytes.size.toLong(),
+      ) {
+        it.write(bytes)
+      }
+
+    assertIs<InstallState.Installed>(result)
+    assertTrue(bytes.contentEquals(outputStream.toByteArray()))
+    verify(exactly = 1) {
+      session.fsync(outputStream)
+      session.commit(any())
+    }
+  }
+
+  @Test
+  fun `installStreaming abandons session when writer throws`() = runBlocking {
+    expectInstallSession(PackageInstaller.STATUS_SUCCESS, 3L, ByteArrayOutputStream())
+    every { packageInstaller.abandonSession(sessionId) } just runs
+
+    val result =
+      sessionInstallManager.installStreaming(
+        sessionId = sessionId,
+        packageName = packageName,
+        state = installingState,
+        size = 3L,
+      ) {
+        throw IOException("Hash not matching")
+      }
+
+    assertIs<InstallState.Error>(result)
+    assertContains(result.msg ?: "", "Hash not matching")
+    verify(exactly = 0) { session.commit(any()) }
+    verify(exactly = 1) {
+      packageInstaller.abandonSession(sessionId)
+      context.unregisterReceiver(receiver)
+    }
+  }
+
+  @Test
+  fun `installStreaming asks to retry with file when verification fails`() = runBlocking {
+    expectInstallSession(
+      packageInstallerResult = PackageInstaller.STATUS_FAILURE_ABORTED,
+      size = 1L,
+      outputStream = ByteArrayOutputStream(),
+      msg = "INSTALL_FAILED_VERIFICATION_FAILURE",
+    )
+
+    val result =
+      sessionInstallManager.installStreaming(
+        sessionId = sessionId,
+        packageName = packageName,
+        state = installingState,
+        size = 1L,
+      ) {
+        it.write(42)
+      }
+
+    assertIs<InstallState.PreApproved>(result)
+    assertIs<PreApprovalResult.Error>(result.result)
+    verify(exactly = 0) { context.startActivity(any()) }
+  }
+
   @Test
   fun `install ignores duplicate callbacks after completion`() = runBlocking {
     val apkFile: File =
@@ -582,6 +655,13 @@ internal class SessionInstallManagerTest {
     packageInstallerResult: Int,
     apkFile: File,
     msg: String? = null,
+  ) = expectInstallSession(packageInstallerResult, apkFile.length(), ByteArrayOutputStream(), msg)
+
+  private fun expectInstallSession(
+    packageInstallerResult: Int,
+    size: Long,
+    outputStream: ByteArrayOutputStream,
+    msg: String? = null,
   ) {
     val listenerSlot = slot<InstallBroadcastListener>()
     every { receiverFactory.create(sessionId, capture(listenerSlot)) } returns receiver
@@ -591,7 +671,7 @@ internal class SessionInstallManagerTest {
     every { pendingIntent.intentSender } returns sender
 
     every { packageInstaller.openSession(sessionId) } returns session
-    every { session.openWrite(packageName, 0, apkFile.length()) } returns ByteArrayOutputStream()
+    every { session.openWrite(packageName, 0, size) } returns outputStream
     every { session.fsync(any()) } just runs
     every { session.commit(any()) } answers
       {
@@ -10,6 +10,7 @@ import io.mockk.mockkObject
 import io.mockk.runs
 import io.mockk.spyk
 import io.mockk.verify
+import io.mockk.verifyOrder
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
 import kotlin.test.assertFalse
@@ -25,6 +26,8 @@ import org.fdroid.NotificationManager
 import org.fdroid.database.FDroidDatabase
 import org.fdroid.database.Repository
 import org.fdroid.database.RepositoryDao
+import org.fdroid.db.InvalidationBatcher
+import org.fdroid.discover.DiscoverSnapshotManager
 import org.fdroid.index.IndexUpdateResult
 import org.fdroid.index.RepoManager
 import org.fdroid.index.RepoUpdater
@@ -47,6 +50,8 @@ internal class RepoUpdateManagerTest {
   private val compatibilityChecker: CompatibilityChecker = mockk()
   private val repoUpdater: RepoUpdater = mockk()
   private val installedAppsCache: InstalledAppsCache = mockk()
+  private val invalidationBatcher: InvalidationBatcher = mockk(relaxed = true)
+  private val discoverSnapshotManager: DiscoverSnapshotManager = mockk(relaxed = true)
 
   init {
     // Mock calls into WorkManager which are used at UpdatesManager construction
@@ -89,6 +94,8 @@ internal class RepoUpdateManagerTest {
       settingsManager = settingsManager,
       downloaderFactory = mockk(relaxed = true),
       notificationManager = notificationManager,
+      invalidationBatcher = invalidationBatcher,
+      discoverSnapshotManager = discoverSnapshotManager,
       compatibilityChecker = compatibilityChecker,
       repoUpdater = repoUpdater,
     )
@@ -114,6 +121,7 @@ internal class RepoUpdateManagerTest {
     verify {
       notificationManager.showUpdateRepoNotification(any(), false, null)
       repositoryDao.walCheckpoint()
+      discoverSnapshotManager.update(any())
       updatesManager.loadUpdates()
       notificationManager.cancelUpdateRepoNotification()
     }
@@ -143,6 +151,7 @@ internal class RepoUpdateManagerTest {
       repositoryDao.walCheckpoint()
     }
     verify(exactly = 0) { updatesManager.loadUpdates() }
+    verify(exactly = 0) { discoverSnapshotManager.update(any()) }
   }
 
   @Test
@@ -216,6 +225,13 @@ internal class RepoUpdateManagerTest {
       notificationManager.cancelUpdateRepoNotification()
       repositoryDao.walCheckpoint()
     }
+    // invalidations of all repo updates get coalesced
+    verifyOrder {
+      invalidationBatcher.begin()
+      repoUpdater.update(repo1)
+      repoUpdater.update(repo3)
+      invalidationBatcher.end()
+    }
   }
 
   @Test
@@ -255,6 +271,7 @@ internal class RepoUpdateManagerTest {
 
     verify(exactly = 1) { settingsManager.lastRepoUpdate = any() }
     verify(exactly = 1) { updatesManager.loadUpdates() }
+    verify(exactly = 1) { discoverSnapshotManager.update(any()) }
   }
 
   @Test
@@ -340,6 +357,8 @@ internal class RepoUpdateManagerTest {
       settingsManager = settingsManager,
       downloaderFactory = mockk(relaxed = true),
       notificationManager = notificationManager,
+      invalidationBatcher = invalidationBatcher,
+      discoverSnapshotManager = discoverSnapshotManager,
       compatibilityChecker = compatibilityChecker,
       repoUpdater = repoUpdater,
     )
@@ -4,6 +4,7 @@ import android.database.sqlite.SQLiteException
 import androidx.arch.core.executor.testing.InstantTaskExecutorRule
 import androidx.lifecycle.MutableLiveData
 import io.mockk.coEvery
+import io.mockk.coVerify
 import io.mockk.every
 import io.mockk.mockk
 import io.mockk.slot
@@ -15,6 +16,7 @@ import kotlin.test.assertNotNull
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.awaitCancellation
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.test.StandardTestDispatcher
@@ -228,6 +230,49 @@ internal class SearchManagerTest {
       searchJob.join()
   }
 
+  @Test
+  fun searchRefinesPreviousResultsWhenWordIsExtended() = runTest {
+      val item = buildSearchItem(packageName = "com.example.fdroid")
+      every { item.refine("fdr") } returns item
+      coEvery { appDao.getAppSearchItems("fd*") } returns listOf(item)
+
+      searchManager.search("fd")
+      searchManager.search("fdr")
+
+      coVerify(exactly = 1) { appDao.getAppSearchItems(any()) }
+      val apps = searchManager.searchResults.value?.apps
+      assertEquals(listOf("com.example.fdroid"), apps?.map { it.packageName })
+
+      // a second word needs a new query
+      coEvery { appDao.getAppSearchItems(any()) } returns emptyList()
+      searchManager.search("fdr x")
+      coVerify(exactly = 2) { appDao.getAppSearchItems(any()) }
+      assertEquals(0, searchManager.searchResults.value?.apps?.size)
+  }
+
+  @Test
+  fun newSearchCancelsRunningSearch() = runTest {
+      val searchManager = SearchManager(
+          db = db,
+          repoManager = repoManager,
+          settingsManager = settingsManager,
+          installedAppsCache = installedAppsCache,
+          searchHistoryManager = searchHistoryManager,
+          ioDispatcher = StandardTestDispatcher(testScheduler),
+      )
+      coEvery { appDao.getAppSearchItems("slow*") } coAnswers { awaitCancellation() }
+      coEvery { appDao.getAppSearchItems("fast*") } returns emptyList()
+      advanceUntilIdle()
+
+      val slowSearch = launch { searchManager.search("slow") }
+      runCurrent()
+      val fastSearch = launch { searchManager.search("fast") }
+      runCurrent()
+
+      assertTrue(slowSearch.isCancelled)
+      fastSearch.cancel()
+  }
+
   @Test
   fun onClearSearchHistoryClearsAfterDelete() = runTest {
       val initial = listOf(SavedSearch(time = 123L, query = "first"))
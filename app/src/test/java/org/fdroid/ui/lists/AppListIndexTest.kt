@@ -0,0 +1,171 @@
+package org.fdroid.ui.lists
+
+import java.util.Locale
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import org.fdroid.database.AppListSortOrder
+import org.fdroid.database.AppListSortOrder.LAST_UPDATED
+import org.fdroid.database.AppListSortOrder.NAME
+import org.fdroid.search.SearchHelper.fixQuery
+import org.fdroid.search.SearchHelper.normalize
+import org.junit.Test
+
+private const val NUM_MANY_APPS = 5_000
+
+internal class AppListIndexTest {
+
+  private val random = Random(42)
+  private val categoryIds = List(20) { "Category$it" }
+  private val antiFeatureIds = List(8) { "AntiFeature$it" }
+  private val words = listOf("Privatsphäre", "Sincronização", "browser", "Map", "mail", "Zoo")
+
+  @Test
+  fun testFilters() {
+    val apps =
+      listOf(
+        getApp(0, repoId = 1, categoryIds = setOf("a", "b")),
+        getApp(1, repoId = 1, categoryIds = setOf("b"), antiFeatureIds = setOf("Ads")),
+        getApp(2, repoId = 2, antiFeatureIds = setOf("Ads", "Tracking"), isCompatible = false),
+        getApp(3, repoId = 2, categoryIds = setOf("c")),
+      )
+    val index = AppListIndex(apps, Locale.ENGLISH)
+    assertEquals(setOf("a", "b", "c"), index.categoryIds)
+    assertEquals(setOf("Ads", "Tracking"), index.antiFeatureIds)
+    assertEquals(setOf(1L, 2L), index.repoIds)
+
+    assertEquals(listOf(0, 1), index.filterWith(categoryIds = setOf("b", "x")).ids())
+    assertEquals(listOf(0, 3), index.filterWith(antiFeatureIds = setOf("Ads")).ids())
+    assertEquals(listOf(2, 3), index.filterWith(repoIds = setOf(2L)).ids())
+    assertEquals(listOf(0, 1, 3), index.filterWith(filterIncompatible = true).ids())
+    val filtered = index.filterWith(query = "app1", categoryIds = setOf("b"), repoIds = setOf(1L))
+    assertEquals(listOf(1), filtered.ids())
+    assertEquals(emptyList(), index.filterWith(repoIds = setOf(3L)))
+  }
+
+  @Test
+  fun testSortOrder() {
+    val apps =
+      listOf(
+        getApp(0, name = "beta", lastUpdated = 3),
+        getApp(1, name = "Älpha", lastUpdated = 1),
+        getApp(2, name = "Alpha", lastUpdated = 2),
+        getApp(3, name = "Gamma", lastUpdated = 4),
+      )
+    val index = AppListIndex(apps, Locale.GERMAN)
+    assertEquals(listOf(2, 1, 0, 3), index.filterWith(sortBy = NAME).ids())
+    assertEquals(listOf(3, 0, 2, 1), index.filterWith(sortBy = LAST_UPDATED).ids())
+  }
+
+  @Test
+  fun testMatchesFilteringWithoutIndex() {
+    val apps = List(500) { getRandomApp(it) }
+    val index = AppListIndex(apps, Locale.ENGLISH)
+    repeat(200) {
+      val query = fixQuery(words.random(random).take(random.nextInt(1, 6)))
+      val categoryIds = categoryIds.shuffled(random).take(random.nextInt(0, 3)).toSet()
+      val antiFeatureIds = antiFeatureIds.shuffled(random).take(random.nextInt(0, 3)).toSet()
+      val repoIds = if (random.nextBoolean()) setOf(random.nextLong(1, 4)) else emptySet()
+      val filterIncompatible = random.nextBoolean()
+      val expected =
+        filterWithoutIndex(apps, query, categoryIds, antiFeatureIds, repoIds, filterIncompatible)
+      val actual =
+        index.filter(query, categoryIds, antiFeatureIds, repoIds, filterIncompatible, LAST_UPDATED)
+      assertEquals(expected, actual)
+    }
+  }
+
+  /** Simulates typing queries into a list of [NUM_MANY_APPS] apps with and without index. */
+  @Test
+  fun testTypingMatchesFilteringWithoutIndex() {
+    val apps = List(NUM_MANY_APPS) { getRandomApp(it) }
+    val queries = words.flatMap { word -> (1..word.length).map { fixQuery(word.take(it)) } }
+    val categoryIds = setOf(categoryIds[0], categoryIds[1])
+    val antiFeatureIds = setOf(antiFeatureIds[0])
+
+    val index = AppListIndex(apps, Locale.ENGLISH)
+    queries.forEach { query ->
+      val expected = filterWithoutIndex(apps, query, categoryIds, antiFeatureIds, emptySet(), true)
+      val actual = index.filter(query, categoryIds, antiFeatureIds, emptySet(), true, NAME)
+      // the index uses a collator for sorting by name, so only compare the matching apps
+      assertEquals(expected.toSet(), actual.toSet(), query)
+    }
+  }
+
+  /** The filtering [AppListPresenter] did before using [AppListIndex]. */
+  private fun filterWithoutIndex(
+    apps: List<AppListItem>,
+    query: String,
+    categoryIds: Set<String>,
+    antiFeatureIds: Set<String>,
+    repoIds: Set<Long>,
+    filterIncompatible: Boolean,
+  ): List<AppListItem> =
+    apps
+      .filter {
+        val matchesCategories =
+          categoryIds.isEmpty() ||
+            (it.categoryIds ?: emptySet()).intersect(categoryIds).isNotEmpty()
+        val matchesAntiFeatures =
+          antiFeatureIds.isEmpty() || it.antiFeatureIds.intersect(antiFeatureIds).isEmpty()
+        val matchesRepos = repoIds.isEmpty() || it.repoId in repoIds
+        val matchesQuery =
+          query.isEmpty() ||
+            it.name.normalize().contains(query, ignoreCase = true) ||
+            it.summary.normalize().contains(query, ignoreCase = true) ||
+            it.packageName.contains(query, ignoreCase = true)
+        val matchesCompatibility = !filterIncompatible || it.isCompatible
+        matchesCategories &&
+          matchesAntiFeatures &&
+          matchesRepos &&
+          matchesQuery &&
+          matchesCompatibility
+      }
+      .sortedByDescending { it.lastUpdated }
+
+  private fun AppListIndex.filterWith(
+    query: String = "",
+    categoryIds: Set<String> = emptySet(),
+    antiFeatureIds: Set<String> = emptySet(),
+    repoIds: Set<Long> = emptySet(),
+    filterIncompatible: Boolean = false,
+    sortBy: AppListSortOrder = NAME,
+  ) = filter(query, categoryIds, antiFeatureIds, repoIds, filterIncompatible, sortBy)
+
+  private fun List<AppListItem>.ids() = map {
+    it.packageName.removePrefix("org.example.app").toInt()
+  }
+
+  private fun getRandomApp(i: Int) =
+    getApp(
+      i = i,
+      repoId = random.nextLong(1, 4),
+      name = "${words.random(random)} ${words.random(random)} $i",
+      summary = List(5) { words.random(random) }.joinToString(" "),
+      lastUpdated = random.nextLong(0, 1_000_000),
+      isCompatible = random.nextInt(10) > 0,
+      categoryIds = categoryIds.shuffled(random).take(random.nextInt(0, 3)).toSet(),
+      antiFeatureIds = antiFeatureIds.shuffled(random).take(random.nextInt(0, 2)).toSet(),
+    )
+
+  private fun getApp(
+    i: Int,
+    repoId: Long = 1L,
+    name: String = "App $i",
+    summary: String = "Summary of app $i",
+    lastUpdated: Long = 100L - i,
+    isCompatible: Boolean = true,
+    categoryIds: Set<String>? = null,
+    antiFeatureIds: Set<String> = emptySet(),
+  ) =
+    AppListItem(
+      repoId = repoId,
+      packageName = "org.example.app$i",
+      name = name,
+      summary = summary,
+      lastUpdated = lastUpdated,
+      isInstalled = false,
+      isCompatible = isCompatible,
+      categoryIds = categoryIds,
+      antiFeatureIds = antiFeatureIds,
+    )
+}
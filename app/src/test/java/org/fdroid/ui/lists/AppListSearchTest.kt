@@ -4,6 +4,7 @@ import app.cash.molecule.RecompositionMode
 import app.cash.molecule.moleculeFlow
 import app.cash.turbine.ReceiveTurbine
 import app.cash.turbine.test
+import java.util.Locale
 import kotlin.test.assertEquals
 import kotlin.test.assertNotNull
 import kotlin.test.assertNull
@@ -23,7 +24,7 @@ import org.robolectric.RobolectricTestRunner
  * [AppListPresenter] directly via [moleculeFlow], which is the exact code path that
  * [AppListViewModel.onSearch] triggers.
  *
- * This is the in-memory [String.contains]-based counterpart of AppSearchItemsTest, which covers the
+ * This is the in-memory [AppListIndex]-based counterpart of AppSearchItemsTest, which covers the
  * DB FTS4 path.
  *
  * [AppListPresenter] uses [org.fdroid.search.SearchHelper.fixQuery] on the incoming query before
@@ -36,11 +37,12 @@ import org.robolectric.RobolectricTestRunner
 internal class AppListSearchTest {
 
   private val query = MutableStateFlow("")
+  private val indexFlow by lazy { MutableStateFlow(AppListIndex(apps, Locale.ENGLISH)) }
   private val presenterFlow: Flow<AppListModel> =
     moleculeFlow(RecompositionMode.Immediate) {
       AppListPresenter(
         type = AppListType.All("All"),
-        appsFlow = MutableStateFlow(apps),
+        indexFlow = indexFlow,
         sortByFlow = MutableStateFlow(AppListSortOrder.LAST_UPDATED),
         filterIncompatibleFlow = MutableStateFlow(false),
         categoriesFlow = flowOf(emptyList()),
@@ -11,6 +11,8 @@ import io.mockk.mockk
 import io.mockk.mockkStatic
 import io.mockk.runs
 import io.mockk.verify
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.awaitCancellation
@@ -28,7 +30,9 @@ import org.fdroid.database.FDroidDatabase
 import org.fdroid.database.Repository
 import org.fdroid.download.PackageName
 import org.fdroid.index.RepoManager
+import org.fdroid.index.v2.FileV1
 import org.fdroid.install.AppInstallManager
+import org.fdroid.install.InstallState
 import org.fdroid.ui.apps.AppUpdateItem
 import org.fdroid.ui.utils.isAppInForeground
 import org.junit.Before
@@ -44,6 +48,7 @@ internal class UpdateInstallerTest {
   private val appDao: AppDao = mockk()
   private val repoManager: RepoManager = mockk()
   private val appInstallManager: AppInstallManager = mockk()
+  private val updateQueue: UpdateQueue = mockk(relaxed = true)
 
   private val testScope = TestScope()
   private val scope =
@@ -64,6 +69,7 @@ internal class UpdateInstallerTest {
       db = db,
       repoManager = repoManager,
       appInstallManager = appInstallManager,
+      updateQueue = updateQueue,
       coroutineScope = scope,
     )
   }
@@ -76,7 +82,7 @@ internal class UpdateInstallerTest {
     advanceUntilIdle()
 
     coVerify(exactly = 0) {
-      appInstallManager.install(any(), any(), any(), any(), any(), any(), any())
+      appInstallManager.install(any(), any(), any(), any(), any(), any(), any(), any())
     }
     verify(exactly = 0) { appInstallManager.setWaitingState(any(), any(), any(), any(), any()) }
   }
@@ -86,7 +92,7 @@ internal class UpdateInstallerTest {
     testScope.runTest {
       every { repoManager.getRepository(1L) } returns makeRepository()
       coEvery {
-        appInstallManager.install(any(), any(), any(), any(), any(), any(), any())
+        appInstallManager.install(any(), any(), any(), any(), any(), any(), any(), any())
       } returns mockk()
 
       // single app + canAsk=true -> canAskPreApprovalNow=true
@@ -118,6 +124,7 @@ internal class UpdateInstallerTest {
           repo = any(),
           iconModel = any(),
           canAskPreApprovalNow = true,
+          stages = any(),
         )
       }
 
@@ -139,6 +146,7 @@ internal class UpdateInstallerTest {
           repo = any(),
           iconModel = any(),
           canAskPreApprovalNow = false,
+          stages = any(),
         )
       }
     }
@@ -148,7 +156,7 @@ internal class UpdateInstallerTest {
     val otherPkg = "com.example.other"
     every { repoManager.getRepository(1L) } returns makeRepository()
     coEvery {
-      appInstallManager.install(any(), any(), any(), any(), any(), any(), any())
+      appInstallManager.install(any(), any(), any(), any(), any(), any(), any(), any())
     } returns mockk()
 
     val ownVersion =
@@ -204,6 +212,7 @@ internal class UpdateInstallerTest {
         repo = any(),
         iconModel = any(),
         canAskPreApprovalNow = any(),
+        stages = any(),
       )
       appInstallManager.install(
         packageName = OWN_PACKAGE_NAME,
@@ -213,10 +222,65 @@ internal class UpdateInstallerTest {
         repo = any(),
         iconModel = any(),
         canAskPreApprovalNow = any(),
+        stages = any(),
       )
     }
   }
 
+  @Test
+  fun `updateAll persists apps in queue and removes them when done`() = testScope.runTest {
+    every { repoManager.getRepository(1L) } returns makeRepository()
+    every { appDao.getApp(any(), any()) } returns null
+    val installer = createUpdateInstaller()
+    coEvery {
+      appInstallManager.install(any(), any(), any(), any(), any(), any(), any(), any())
+    } answers
+      {
+        assertTrue(installer.isUpdating)
+        mockk()
+      }
+    val updates = listOf(makeAppUpdateItem(packageName = "a"), makeAppUpdateItem(packageName = "b"))
+
+    assertFalse(installer.isUpdating)
+    installer.updateAll(updates, canAskPreApprovalNow = false)
+    advanceUntilIdle()
+    assertFalse(installer.isUpdating)
+
+    coVerifyOrder {
+      updateQueue.enqueue(updates, any())
+      updateQueue.scheduleResume()
+    }
+    verify(exactly = 1) {
+      updateQueue.wrap("a", "a20", 1024L, any())
+      updateQueue.wrap("b", "b20", 1024L, any())
+      updateQueue.remove("a")
+      updateQueue.remove("b")
+    }
+  }
+
+  @Test
+  fun `updateAll keeps apps with failed downloads in queue`() = testScope.runTest {
+    every { repoManager.getRepository(1L) } returns makeRepository()
+    every { appDao.getApp(any(), any()) } returns null
+    val failedStages: UpdateQueue.QueueStages = mockk { every { downloadFailed } returns true }
+    every { updateQueue.wrap("a", any(), any(), any()) } returns failedStages
+    val error: InstallState.Error = mockk()
+    coEvery {
+      appInstallManager.install("a", any(), any(), any(), any(), any(), any(), any())
+    } returns error
+    coEvery {
+      appInstallManager.install("b", any(), any(), any(), any(), any(), any(), any())
+    } returns mockk()
+    val updates = listOf(makeAppUpdateItem(packageName = "a"), makeAppUpdateItem(packageName = "b"))
+
+    createUpdateInstaller().updateAll(updates, canAskPreApprovalNow = false)
+    advanceUntilIdle()
+
+    // the partial download of a stays protected and the UpdateQueueWorker resumes it
+    verify(exactly = 0) { updateQueue.remove("a") }
+    verify(exactly = 1) { updateQueue.remove("b") }
+  }
+
   @Test
   fun `updateApp continues with null values if app missing in DB or repo missing`() =
     testScope.runTest {
@@ -230,7 +294,7 @@ internal class UpdateInstallerTest {
           )
         )
       coEvery {
-        appInstallManager.install(any(), any(), any(), any(), any(), any(), any())
+        appInstallManager.install(any(), any(), any(), any(), any(), any(), any(), any())
       } returns mockk()
 
       // repo is null
@@ -240,7 +304,7 @@ internal class UpdateInstallerTest {
       createUpdateInstaller().updateAll(updates, canAskPreApprovalNow = false)
       advanceUntilIdle()
       coVerify(exactly = 1) {
-        appInstallManager.install(any(), any(), any(), any(), null, any(), any())
+        appInstallManager.install(any(), any(), any(), any(), null, any(), any(), any())
       }
 
       // app is null
@@ -249,7 +313,7 @@ internal class UpdateInstallerTest {
       createUpdateInstaller().updateAll(updates, canAskPreApprovalNow = false)
       advanceUntilIdle()
       coVerify(exactly = 1) {
-        appInstallManager.install(any(), null, any(), any(), any(), any(), any())
+        appInstallManager.install(any(), null, any(), any(), any(), any(), any(), any())
       }
     }
 
@@ -278,6 +342,7 @@ internal class UpdateInstallerTest {
           repo = any(),
           iconModel = any(),
           canAskPreApprovalNow = any(),
+          stages = any(),
         )
       } coAnswers
         {
@@ -313,6 +378,7 @@ internal class UpdateInstallerTest {
           repo = any(),
           iconModel = any(),
           canAskPreApprovalNow = any(),
+          stages = any(),
         )
       }
 
@@ -349,6 +415,8 @@ internal class UpdateInstallerTest {
     every { this@mockk.versionName } returns versionName
     every { this@mockk.versionCode } returns versionCode
     every { this@mockk.added } returns added
+    every { this@mockk.size } returns 1024L
+    every { file } returns FileV1("/$packageName.apk", "$packageName$versionCode", 1024L)
   }
 
   private fun makeRepository(repoId: Long = 1L): Repository = mockk {
@@ -0,0 +1,169 @@
+package org.fdroid.updates
+
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+private const val MAX_DOWNLOADS = 4
+private const val MAX_DOWNLOADS_PER_HOST = 2
+
+@OptIn(ExperimentalCoroutinesApi::class)
+internal class UpdatePipelineTest {
+
+  private val pipeline = UpdatePipeline(MAX_DOWNLOADS, MAX_DOWNLOADS_PER_HOST)
+
+  private var downloads = 0
+  private val downloadsPerHost = HashMap<String, Int>()
+  private var installs = 0
+  private var maxDownloadsSeen = 0
+  private var maxInstallsSeen = 0
+  private var maxDownloadsPerHostSeen = 0
+  private var overlaps = 0
+
+  /**
+   * Simulates updating 50 apps from three hosts with fake download and install durations and checks
+   * that the limits are never exceeded.
+   */
+  @Test
+  fun testSimulationStaysWithinLimits() = runTest {
+    val random = Random(42)
+    val hosts = listOf("f-droid.org", "example.org", "example.com")
+    val jobs =
+      List(50) {
+        val host = hosts.random(random)
+        val size = random.nextLong(100_000, 100_000_000)
+        launch {
+          // apps don't all reach their download stage at the same time
+          delay(random.nextLong(0, 500))
+          updateApp(host, size, downloadMillis = size / 10_000, installMillis = 1_000)
+        }
+      }
+    jobs.joinAll()
+
+    assertEquals(MAX_DOWNLOADS, maxDownloadsSeen)
+    assertEquals(MAX_DOWNLOADS_PER_HOST, maxDownloadsPerHostSeen)
+    assertEquals(1, maxInstallsSeen)
+    assertEquals(0, downloads)
+    // later apps got downloaded while earlier ones got installed
+    assertTrue(overlaps > 0)
+  }
+
+  @Test
+  fun testShortestJobFirst() = runTest {
+    val started = mutableListOf<Long>()
+    val blocker = CompletableDeferred<Unit>()
+    // occupy all download slots, so the other apps need to wait
+    val blockingJobs = List(MAX_DOWNLOADS) { launch { download("host$it", 1) { blocker.await() } } }
+    runCurrent()
+    val sizes = listOf(500L, 100L, 300L, 200L, 400L)
+    val jobs = sizes.map { size -> launch { download("host", size) { started.add(size) } } }
+    runCurrent()
+    assertTrue(started.isEmpty())
+
+    blocker.complete(Unit)
+    (blockingJobs + jobs).joinAll()
+    assertEquals(sizes.sorted(), started)
+  }
+
+  @Test
+  fun testWaitingForBusyHostDoesNotBlockOtherHosts() = runTest {
+    val blocker = CompletableDeferred<Unit>()
+    val blockingJobs =
+      List(MAX_DOWNLOADS_PER_HOST) { launch { download("a", 1) { blocker.await() } } }
+    // a smaller download from a busy host must not keep a bigger one from another host waiting
+    var startedA = false
+    var startedB = false
+    val jobA = launch { download("a", 10) { startedA = true } }
+    val jobB = launch { download("b", 1_000) { startedB = true } }
+    runCurrent()
+    assertTrue(startedB)
+    assertFalse(startedA)
+
+    blocker.complete(Unit)
+    (blockingJobs + jobA + jobB).joinAll()
+    assertTrue(startedA)
+  }
+
+  @Test
+  fun testCancelledWaitingDownloadFreesNoSlot() = runTest {
+    val blocker = CompletableDeferred<Unit>()
+    val blockingJobs = List(MAX_DOWNLOADS) { launch { download("host$it", 1) { blocker.await() } } }
+    val cancelledJob = launch { download("host", 1) { error("must not start") } }
+    runCurrent()
+    cancelledJob.cancel()
+    runCurrent()
+
+    // all slots are still taken, so the next download needs to wait
+    var started = false
+    val job = launch { download("host", 1) { started = true } }
+    runCurrent()
+    assertFalse(started)
+
+    blocker.complete(Unit)
+    (blockingJobs + job).joinAll()
+    assertTrue(started)
+    assertEquals(0, downloads)
+  }
+
+  private suspend fun updateApp(
+    host: String,
+    size: Long,
+    downloadMillis: Long,
+    installMillis: Long,
+  ) {
+    val stages = pipeline.getStages(host, size)
+    stages.download {
+      onDownloadStarted(host)
+      try {
+        delay(downloadMillis)
+      } finally {
+        onDownloadFinished(host)
+      }
+    }
+    stages.install {
+      installs++
+      maxInstallsSeen = maxOf(maxInstallsSeen, installs)
+      if (downloads > 0) overlaps++
+      try {
+        delay(installMillis)
+      } finally {
+        installs--
+      }
+    }
+  }
+
+  private suspend fun download(host: String, size: Long, block: suspend () -> Unit) {
+    pipeline.getStages(host, size).download {
+      onDownloadStarted(host)
+      try {
+        block()
+      } finally {
+        onDownloadFinished(host)
+      }
+    }
+  }
+
+  private fun onDownloadStarted(host: String) {
+    downloads++
+    val hostDownloads = (downloadsPerHost[host] ?: 0) + 1
+    downloadsPerHost[host] = hostDownloads
+    maxDownloadsSeen = maxOf(maxDownloadsSeen, downloads)
+    maxDownloadsPerHostSeen = maxOf(maxDownloadsPerHostSeen, hostDownloads)
+    assertTrue(downloads <= MAX_DOWNLOADS, "$downloads concurrent downloads")
+    assertTrue(hostDownloads <= MAX_DOWNLOADS_PER_HOST, "$hostDownloads downloads from $host")
+  }
+
+  private fun onDownloadFinished(host: String) {
+    downloads--
+    downloadsPerHost[host] = downloadsPerHost.getValue(host) - 1
+  }
+}
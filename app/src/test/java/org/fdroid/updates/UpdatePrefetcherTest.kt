@@ -0,0 +1,121 @@
+package org.fdroid.updates
+
+import android.content.Context
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import io.mockk.verify
+import java.io.File
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+import kotlinx.coroutines.test.runTest
+import org.fdroid.database.AppVersion
+import org.fdroid.download.Downloader
+import org.fdroid.download.DownloaderFactory
+import org.fdroid.download.getUri
+import org.fdroid.index.RepoManager
+import org.fdroid.index.v2.FileV1
+import org.fdroid.ui.apps.AppUpdateItem
+import org.fdroid.utils.sha256
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+internal class UpdatePrefetcherTest {
+
+  @get:Rule val tmpFolder = TemporaryFolder()
+
+  private val context: Context = mockk()
+  private val repoManager: RepoManager = mockk()
+  private val downloaderFactory: DownloaderFactory = mockk()
+  private lateinit var cacheDir: File
+  private lateinit var prefetcher: UpdatePrefetcher
+
+  /** The content the fake downloader writes for each APK. */
+  private val contents = mutableMapOf<String, ByteArray>()
+
+  @Before
+  fun setUp() {
+    mockkStatic(::getUri)
+    every { getUri(any(), any()) } returns mockk()
+    cacheDir = tmpFolder.newFolder("cache")
+    every { context.cacheDir } returns cacheDir
+    every { repoManager.getRepository(any()) } returns mockk { every { address } returns "" }
+    every { downloaderFactory.create(any(), any(), any(), any()) } answers
+      {
+        val file = arg<FileV1>(2)
+        val destFile = arg<File>(3)
+        mockk<Downloader> {
+          every { download() } answers { destFile.writeBytes(contents.getValue(file.name)) }
+        }
+      }
+    prefetcher = UpdatePrefetcher(context, repoManager, downloaderFactory)
+  }
+
+  @After
+  fun tearDown() {
+    unmockkStatic(::getUri)
+  }
+
+  @Test
+  fun testSelectsSmallestUpdatesWithinBudget() {
+    val updates =
+      listOf(
+        makeUpdate("a", size = 300),
+        makeUpdate("b", size = 100),
+        makeUpdate("c", size = null),
+        makeUpdate("d", size = 200),
+        makeUpdate("e", size = 50),
+      )
+    val selected = prefetcher.selectUpdates(updates, budget = 400)
+    assertEquals(listOf("e", "b", "d"), selected.map { it.packageName })
+    assertEquals(emptyList(), prefetcher.selectUpdates(updates, budget = 10))
+  }
+
+  @Test
+  fun testDownloadsAndVerifiesApks() = runTest {
+    val good = makeUpdate("good", size = 3)
+    val bad = makeUpdate("bad", size = 3)
+    // the repo serves different bytes than the index promises
+    contents["/bad.apk"] = byteArrayOf(4, 5, 6)
+
+    assertEquals(1, prefetcher.prefetch(listOf(good, bad)))
+    assertTrue(File(cacheDir, good.update.file.sha256).isFile)
+    assertFalse(File(cacheDir, bad.update.file.sha256).exists())
+  }
+
+  @Test
+  fun testDoesNotDownloadCompleteApksAgain() = runTest {
+    val update = makeUpdate("app", size = 3)
+    val file = File(cacheDir, update.update.file.sha256)
+    file.writeBytes(contents.getValue("/app.apk"))
+    file.setLastModified(0)
+
+    assertEquals(1, prefetcher.prefetch(listOf(update)))
+    verify(exactly = 0) { downloaderFactory.create(any(), any(), any(), any()) }
+    // the file looks fresh now, so it doesn't get cleaned up
+    assertTrue(file.lastModified() > 0)
+  }
+
+  private fun makeUpdate(packageName: String, size: Long?): AppUpdateItem {
+    val bytes = packageName.toByteArray()
+    val content = ByteArray(size?.toInt() ?: 1) { bytes[it % bytes.size] }
+    contents["/$packageName.apk"] = content
+    val version: AppVersion = mockk {
+      every { file } returns FileV1("/$packageName.apk", sha256(content), size)
+      every { added } returns 0L
+    }
+    return AppUpdateItem(
+      repoId = 1,
+      packageName = packageName,
+      name = packageName,
+      installedVersionName = "1.0",
+      update = version,
+      whatsNew = null,
+    )
+  }
+}
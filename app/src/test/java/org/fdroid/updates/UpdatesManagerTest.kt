@@ -80,6 +80,7 @@ internal class UpdatesManagerTest {
 
     every { installedAppsCache.installedApps } returns installedAppsFlow
     every { context.packageName } returns PACKAGE_NAME
+    every { settingsManager.prefetchUpdates } returns false
   }
 
   @After
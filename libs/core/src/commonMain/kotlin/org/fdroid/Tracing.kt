@@ -0,0 +1,88 @@
+package org.fdroid
+
+import kotlin.concurrent.Volatile
+import kotlin.random.Random
+
+/**
+ * Receives the trace sections of our libraries, so they can be shown in tools like Perfetto. The
+ * libraries don't depend on a platform tracing API, so apps need to set a [Tracer] in
+ * [Tracing.tracer] that e.g. forwards to `androidx.tracing.Trace`.
+ */
+public interface Tracer {
+  /** If false, no sections get begun or ended and tracing costs next to nothing. */
+  public val isEnabled: Boolean
+
+  /** Begins a section that must be ended with [endSection] on the same thread. */
+  public fun beginSection(name: String)
+
+  public fun endSection()
+
+  /** Begins a section that may end on another thread, e.g. in coroutines that get suspended. */
+  public fun beginAsyncSection(name: String, cookie: Int)
+
+  public fun endAsyncSection(name: String, cookie: Int)
+}
+
+public object Tracing {
+  /** Longer section names get cut, because Android doesn't accept them. */
+  public const val MAX_SECTION_NAME_LENGTH: Int = 127
+
+  @Volatile public var tracer: Tracer = NoOpTracer
+
+  /** Returns the section [name] followed by the given [args] like `name key1=value1 key2=value2`. */
+  @PublishedApi
+  internal fun getSectionName(name: String, args: Array<out Pair<String, Any?>>): String {
+    val sectionName =
+      if (args.isEmpty()) name
+      else args.joinToString(" ", prefix = "$name ") { (key, value) -> "$key=$value" }
+    return sectionName.take(MAX_SECTION_NAME_LENGTH)
+  }
+
+  /** Returns a cookie that tells apart async sections of the same name running at the same time. */
+  @PublishedApi internal fun nextCookie(): Int = Random.nextInt()
+}
+
+private object NoOpTracer : Tracer {
+  override val isEnabled: Boolean = false
+
+  override fun beginSection(name: String) {}
+
+  override fun endSection() {}
+
+  override fun beginAsyncSection(name: String, cookie: Int) {}
+
+  override fun endAsyncSection(name: String, cookie: Int) {}
+}
+
+/**
+ * Runs the given [block] in a trace section with the given [name] and [args]. Don't use this for
+ * blocks that may suspend, because those can end on another thread. Use [traceAsync] instead.
+ */
+public inline fun <T> trace(name: String, vararg args: Pair<String, Any?>, block: () -> T): T {
+  val tracer = Tracing.tracer
+  if (!tracer.isEnabled) return block()
+  tracer.beginSection(Tracing.getSectionName(name, args))
+  try {
+    return block()
+  } finally {
+    tracer.endSection()
+  }
+}
+
+/** Like [trace], but for a [block] that may suspend. */
+public suspend inline fun <T> traceAsync(
+  name: String,
+  vararg args: Pair<String, Any?>,
+  crossinline block: suspend () -> T,
+): T {
+  val tracer = Tracing.tracer
+  if (!tracer.isEnabled) return block()
+  val sectionName = Tracing.getSectionName(name, args)
+  val cookie = Tracing.nextCookie()
+  tracer.beginAsyncSection(sectionName, cookie)
+  try {
+    return block()
+  } finally {
+    tracer.endAsyncSection(sectionName, cookie)
+  }
+}
@@ -148,6 +148,23 @@ internal class AppDaoTest : AppTest() {
     assertEquals(true, appDao.getApp(repoId, packageName)?.metadata?.isCompatible)
   }
 
+  @Test
+  fun testUpdateCompatibilityOfChangedPackagesOnly() {
+    val repoId = repoDao.insertOrReplace(getRandomRepo())
+    appDao.insert(repoId, packageName1, app1, locales)
+    appDao.insert(repoId, packageName2, app2, locales)
+    versionDao.insert(repoId, packageName1, "1", getRandomPackageVersionV2(), true)
+    versionDao.insert(repoId, packageName2, "2", getRandomPackageVersionV2(), true)
+
+    // only the changed package gets re-calculated
+    db.afterUpdatingRepo(repoId, setOf(packageName1))
+    assertEquals(true, appDao.getApp(repoId, packageName1)?.metadata?.isCompatible)
+    assertEquals(false, appDao.getApp(repoId, packageName2)?.metadata?.isCompatible)
+
+    db.afterUpdatingRepo(repoId, setOf(packageName2))
+    assertEquals(true, appDao.getApp(repoId, packageName2)?.metadata?.isCompatible)
+  }
+
   @Test
   fun testAfterLocalesChanged() {
     // insert app with German and French locales
@@ -175,6 +192,32 @@ internal class AppDaoTest : AppTest() {
     assertEquals("fr-FR", appAfter?.summary)
   }
 
+  @Test
+  fun testUpdateLocalizedAppMetadataInChunks() {
+    val localesBefore = LocaleListCompat.forLanguageTags("de-DE")
+    val app =
+      app1.copy(
+        name = mapOf("de-DE" to "de-DE", "fr-FR" to "fr-FR"),
+        summary = mapOf("de-DE" to "de-DE", "fr-FR" to "fr-FR"),
+      )
+    val repoId = repoDao.insertOrReplace(getRandomRepo())
+    repeat(5) { i -> appDao.insert(repoId, "$packageName$i", app, localesBefore) }
+
+    val progress = mutableListOf<Pair<Int, Int>>()
+    val localesAfter = LocaleListCompat.forLanguageTags("fr-FR")
+    db.updateLocalizedAppMetadata(localesAfter, chunkSize = 2) { done, total ->
+      progress.add(done to total)
+    }
+
+    // all apps got updated and progress was reported after each chunk
+    assertEquals(listOf(2 to 5, 4 to 5, 5 to 5), progress)
+    repeat(5) { i ->
+      val appAfter = appDao.getApp(repoId, "$packageName$i")
+      assertEquals("fr-FR", appAfter?.name)
+      assertEquals("fr-FR", appAfter?.summary)
+    }
+  }
+
   @Test
   fun testGetNumberOfAppsInCategory() {
     val repoId = repoDao.insertOrReplace(getRandomRepo())
@@ -698,6 +698,32 @@ internal class AppListItemsTest : AppTest() {
     )
   }
 
+  @Test
+  fun testGetInstalledAppListItemsSortedAboveMaxVars(): Unit = runBlocking {
+    val repoId = repoDao.insertOrReplace(getRandomRepo())
+    appDao.insert(repoId, packageName1, app1.copy(name = mapOf("en-US" to "c")), locales)
+    appDao.insert(repoId, packageName2, app2.copy(name = mapOf("en-US" to "A")), locales)
+    appDao.insert(repoId, packageName3, app3.copy(name = mapOf("en-US" to "b")), locales)
+
+    // the installed apps are spread out between many others that are not in the DB
+    val packageInfoMap =
+      mutableMapOf<String, PackageInfo>().apply {
+        set(packageName1, PackageInfo().apply { packageName = packageName1 })
+        for (i in 1..2000) set("$i", PackageInfo().apply { packageName = "$i" })
+        set(packageName2, PackageInfo().apply { packageName = packageName2 })
+        for (i in 2001..4000) set("$i", PackageInfo().apply { packageName = "$i" })
+        set(packageName3, PackageInfo().apply { packageName = packageName3 })
+      }
+    // a single query returns all apps sorted by name, ignoring case
+    appDao.getInstalledAppListItems(packageInfoMap).first().let { apps ->
+      assertEquals(listOf(packageName2, packageName3, packageName1), apps.map { it.packageName })
+    }
+    every { pm.getInstalledPackages(0) } returns packageInfoMap.values.toList()
+    appDao.getInstalledAppListItems(pm).getOrFail().let { apps ->
+      assertEquals(listOf(packageName2, packageName3, packageName1), apps.map { it.packageName })
+    }
+  }
+
   // region author tests
   @Test
   fun testAuthor_NoApp() {
@@ -10,6 +10,18 @@ import org.fdroid.test.TestRepoUtils.getRandomRepo
 import org.junit.Test
 import org.junit.runner.RunWith
 
+private const val NUM_MANY_APPS = 5_000
+
+/** What the user typed, keystroke by keystroke, starting when search as you type kicks in. */
+private val typingSessions =
+  listOf(
+    listOf("pr", "pri", "priv", "priva", "privac", "privacy"),
+    listOf("br", "bro", "brow", "brows", "browse", "browser"),
+    listOf("fd", "fdr", "fdro", "fdroi", "fdroid"),
+    listOf("sy", "syn", "sync"),
+    listOf("da", "dav"),
+  )
+
 /** The other side of SearchManagerTest, this time focusing on the DB, not query manipulation. */
 @RunWith(AndroidJUnit4::class)
 internal class AppSearchItemsTest : DbTest() {
@@ -109,6 +121,57 @@ internal class AppSearchItemsTest : DbTest() {
     assertSearchTopResult(query = "동기 클라이", packageName = "at.bitfire.davdroid")
   }
 
+  @Test
+  fun refiningFindsAllResultsOfDatabase() = runBlocking {
+    populateDbWithExtractedApps()
+    typingSessions.forEach { session ->
+      session.zipWithNext().forEach { (previousTerm, term) ->
+        assertTrue(SearchQueryRewriter.isRefinement(previousTerm, term))
+        val previousItems = appDao.getAppSearchItems(rewriteQuery(previousTerm))
+        val refined = previousItems.mapNotNull { it.refine(term) }.map { it.packageName }
+        val expected = appDao.getAppSearchItems(rewriteQuery(term)).map { it.packageName }
+        // refining may find more, because the index sees escaped JSON, e.g. \nword
+        assertTrue(refined.containsAll(expected), "$previousTerm -> $term")
+      }
+    }
+  }
+
+  /**
+   * Replays [typingSessions] on a DB with [NUM_MANY_APPS] apps and checks that narrowing down the
+   * previous results in memory finds the same apps as querying the DB for each keystroke.
+   */
+  @Test
+  fun testTypingSessionsRefineLikeQuerying() = runBlocking {
+    val words = typingSessions.map { it.last() } + listOf("music", "notes", "maps", "camera")
+    val repoId = repoDao.insertOrReplace(getRandomRepo())
+    db.runInTransaction {
+      repeat(NUM_MANY_APPS) { i ->
+        val word1 = words[i % words.size]
+        val word2 = words[(i / words.size) % words.size]
+        val metadata =
+          MetadataV2(
+            name = mapOf("en-US" to "$word1 $word2 $i"),
+            summary = mapOf("en-US" to "A $word2 app for ${words[(i / 7) % words.size]}"),
+            added = 0,
+            lastUpdated = i.toLong(),
+          )
+        appDao.insert(repoId, "org.example.$word1$i", metadata, locales)
+      }
+    }
+    typingSessions.forEach { session ->
+      var lastItems = emptyList<AppSearchItem>()
+      session.forEachIndexed { i, term ->
+        val items = appDao.getAppSearchItems(rewriteQuery(term))
+        if (i > 0) {
+          val expected = items.map { it.packageName }.toSet()
+          val refined = lastItems.mapNotNull { it.refine(term) }.map { it.packageName }.toSet()
+          assertEquals(expected, refined, term)
+        }
+        lastItems = items
+      }
+    }
+  }
+
   private suspend fun assertSearchTopResult(query: String, packageName: String) {
     val items = appDao.getAppSearchItems(rewriteQuery(query))
     assertEquals(packageName, items.firstOrNull()?.packageName)
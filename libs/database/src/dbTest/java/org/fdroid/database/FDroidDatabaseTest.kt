@@ -36,4 +36,65 @@ internal class FDroidDatabaseTest : AppTest() {
     // assert that repo timestamps got reset
     repoDao.getRepositories().forEach { repo -> assertEquals(-1, repo.timestamp) }
   }
+
+  @Test
+  fun testRepairFtsIfNeeded() {
+    val repoId = repoDao.insertOrReplace(TestRepoUtils.getRandomRepo())
+    appDao.insert(repoId, packageName1, app1.copy(name = mapOf("en-US" to "Foobar")), locales)
+    assertEquals(1, countFtsMatches("Foobar"))
+
+    // break the FTS index, so the app can't be found anymore
+    deleteFtsIndex()
+    assertEquals(0, countFtsMatches("Foobar"))
+
+    // the index gets repaired
+    db.repairFtsIfNeeded()
+    assertEquals(1, countFtsMatches("Foobar"))
+
+    // the index got checked just now, so it doesn't get checked again
+    deleteFtsIndex()
+    db.repairFtsIfNeeded()
+    assertEquals(0, countFtsMatches("Foobar"))
+  }
+
+  @Test
+  fun testRepairFtsWithCorruptShadowTableKeepsData() {
+    val repoId = repoDao.insertOrReplace(TestRepoUtils.getRandomRepo())
+    appDao.insert(repoId, packageName1, app1.copy(name = mapOf("en-US" to "Foobar")), locales)
+    appDao.insert(repoId, packageName2, app2, locales)
+
+    // corrupt the FTS index by removing a row from one of its shadow tables
+    db.openHelper.writableDatabase.execSQL(
+      "DELETE FROM ${AppMetadataFts.TABLE}_docsize WHERE docid = " +
+        "(SELECT rowid FROM ${AppMetadata.TABLE} WHERE packageName = '$packageName1')"
+    )
+    assertEquals(1, countDocSizeRows())
+
+    db.repairFtsIfNeeded()
+
+    // the index got rebuilt and the repo and its apps are still there
+    assertEquals(2, countDocSizeRows())
+    assertEquals(1, countFtsMatches("Foobar"))
+    assertEquals(listOf(repoId), repoDao.getRepositories().map { it.repoId })
+    assertEquals(2, appDao.countApps())
+  }
+
+  private fun deleteFtsIndex() {
+    db.openHelper.writableDatabase.execSQL(
+      "INSERT INTO ${AppMetadataFts.TABLE}(${AppMetadataFts.TABLE}) VALUES('delete-all')"
+    )
+  }
+
+  private fun countFtsMatches(query: String): Int {
+    val table = AppMetadataFts.TABLE
+    return db.openHelper.readableDatabase
+      .query("SELECT COUNT(*) FROM $table WHERE $table MATCH ?", arrayOf(query))
+      .use { cursor -> if (cursor.moveToFirst()) cursor.getInt(0) else 0 }
+  }
+
+  private fun countDocSizeRows(): Int {
+    return db.openHelper.readableDatabase
+      .query("SELECT COUNT(*) FROM ${AppMetadataFts.TABLE}_docsize")
+      .use { cursor -> if (cursor.moveToFirst()) cursor.getInt(0) else 0 }
+  }
 }
@@ -0,0 +1,69 @@
+package org.fdroid.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import org.fdroid.test.TestUtils.getRandomString
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+internal class UpdateQueueDaoTest : DbTest() {
+
+  private val updateQueueDao by lazy { db.getUpdateQueueDao() }
+
+  @Test
+  fun testInsertAndReplace() {
+    val item1 = getItem("org.example.a", added = 2)
+    val item2 = getItem("org.example.b", added = 1)
+    updateQueueDao.insertOrReplace(listOf(item1, item2))
+
+    // items come back in the order they were queued
+    assertEquals(listOf(item2, item1), updateQueueDao.getItems())
+
+    // queueing a newer version replaces the old item
+    val item1New = item1.copy(versionCode = 42, sha256 = getRandomString(64), added = 3)
+    updateQueueDao.insertOrReplace(listOf(item1New))
+    assertEquals(listOf(item2, item1New), updateQueueDao.getItems())
+  }
+
+  @Test
+  fun testUpdateStage() {
+    val item = getItem("org.example.a", added = 1)
+    updateQueueDao.insertOrReplace(listOf(item))
+
+    updateQueueDao.updateStage(item.packageName, UpdateStage.DOWNLOADING, 1337)
+    assertEquals(
+      item.copy(stage = UpdateStage.DOWNLOADING, bytesDone = 1337),
+      updateQueueDao.getItems().single(),
+    )
+
+    // updating an unknown package does nothing
+    updateQueueDao.updateStage("org.example.unknown", UpdateStage.INSTALLING, 0)
+    assertEquals(1, updateQueueDao.getItems().size)
+  }
+
+  @Test
+  fun testDeleteAndClear() {
+    val item1 = getItem("org.example.a", added = 1)
+    val item2 = getItem("org.example.b", added = 2)
+    val item3 = getItem("org.example.c", added = 3)
+    updateQueueDao.insertOrReplace(listOf(item1, item2, item3))
+
+    updateQueueDao.delete(item2.packageName)
+    assertEquals(listOf(item1, item3), updateQueueDao.getItems())
+
+    updateQueueDao.clear()
+    assertTrue(updateQueueDao.getItems().isEmpty())
+  }
+
+  private fun getItem(packageName: String, added: Long) =
+    UpdateQueueItem(
+      packageName = packageName,
+      repoId = 1,
+      versionCode = 23,
+      sha256 = getRandomString(64),
+      size = 1024,
+      added = added,
+    )
+}
@@ -223,6 +223,21 @@ internal class VersionTest : DbTest() {
     assertEquals(0, versionDao.countVersionedStrings())
   }
 
+  @Test
+  fun getVersionsAboveMaxVars() {
+    // insert three versions into the same repo
+    val repoId = repoDao.insertOrReplace(getRandomRepo())
+    appDao.insert(repoId, packageName, getRandomMetadataV2())
+    versionDao.insert(repoId, packageName, packageVersions, compatChecker)
+    versionDao.insert(repoId, packageName, versionId3, packageVersion3, true)
+    val versions = versionDao.getVersions(listOf(packageName))
+    assertEquals(3, versions.size)
+
+    // many package names get joined in a single query with the same result and order
+    val packageNames = List(2000) { "$it" } + packageName + List(2000) { "${it + 2000}" }
+    assertEquals(versions, versionDao.getVersions(packageNames))
+  }
+
   @Test
   fun getVersionsConsidersOnlyGivenPackages() {
     // insert two versions
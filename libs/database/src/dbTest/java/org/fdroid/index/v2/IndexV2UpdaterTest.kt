@@ -27,6 +27,7 @@ import org.fdroid.index.IndexFormatVersion.TWO
 import org.fdroid.index.IndexUpdateResult
 import org.fdroid.index.SigningException
 import org.fdroid.index.TempFileProvider
+import org.fdroid.test.FakeTracer
 import org.fdroid.test.TestDataEntry
 import org.fdroid.test.TestDataMaxV2
 import org.fdroid.test.TestDataMidV2
@@ -99,6 +100,49 @@ internal class IndexV2UpdaterTest : DbTest() {
     assertTimestampRecent(repoDao.getRepository(repoId)?.lastUpdated)
   }
 
+  @Test
+  fun testFullIndexIsTraced() {
+    val repoId = repoDao.insertEmptyRepo("http://example.org", certificate = CERTIFICATE)
+    val repo =
+      prepareUpdate(
+        repoId = repoId,
+        entryPath = "diff-empty-mid/$SIGNED_FILE_NAME",
+        jsonPath = "index-mid-v2.json",
+        indexFileV2 = TestDataEntry.emptyToMid.index,
+      )
+    val tracer = FakeTracer()
+    tracer.install()
+    try {
+      assertEquals(IndexUpdateResult.Processed, indexUpdater.update(repo).noError())
+    } finally {
+      tracer.uninstall()
+    }
+    tracer.assertAllEnded()
+
+    val expectedSections =
+      listOf("downloadEntry", "verifyEntry", "downloadIndex", "processIndex").map {
+        "IndexV2Updater.$it repoId=$repoId"
+      }
+    assertEquals(expectedSections, tracer.sections.map { it.name })
+    // all DB writes happen while processing the index
+    val processIndex = tracer.sections.last()
+    val dbSections = processIndex.children.map { it.name.substringBefore(' ') }.distinct()
+    assertEquals(
+      listOf(
+        "DbV2StreamReceiver.clearRepoData",
+        "DbV2StreamReceiver.receiveRepo",
+        "DbV2StreamReceiver.receivePackage",
+        "DbV2StreamReceiver.updateCompatibility",
+      ),
+      dbSections,
+    )
+    val packageSections = tracer.findSections("DbV2StreamReceiver.receivePackage")
+    assertEquals(
+      TestDataMidV2.index.packages.keys.map { "repoId=$repoId packageName=$it" }.sorted(),
+      packageSections.map { it.name.substringAfter(' ') }.sorted(),
+    )
+  }
+
   @Test
   fun testFullIndexEmptyToMax() {
     val repoId = repoDao.insertEmptyRepo("http://example.org", certificate = CERTIFICATE)
@@ -42,7 +42,10 @@ public interface MinimalApp {
     [
       // Supports the "More apps by ..." button in AppDetails, which links to the "Apps by ..."
       // list.
-      Index("authorName")
+      Index("authorName"),
+      // In addition to primary key, as most app queries look up a package in all repos
+      // and `repoId` comes first in the primary key.
+      Index("packageName"),
     ],
   foreignKeys =
     [
@@ -96,6 +99,20 @@ public data class AppMetadata(
   }
 }
 
+/**
+ * Only the parts of [AppMetadata] needed to re-resolve its cached localized name and summary, see
+ * [FDroidDatabaseInt.updateLocalizedAppMetadata].
+ */
+internal data class LocalizableAppMetadata(
+  val rowid: Long,
+  val repoId: Long,
+  val packageName: String,
+  val name: LocalizedTextV2?,
+  val summary: LocalizedTextV2?,
+  val localizedName: String?,
+  val localizedSummary: String?,
+)
+
 internal fun MetadataV2.toAppMetadata(
   repoId: Long,
   packageName: String,
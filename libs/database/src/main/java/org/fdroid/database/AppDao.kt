@@ -3,13 +3,11 @@ package org.fdroid.database
 import android.content.pm.PackageInfo
 import android.content.pm.PackageManager
 import android.content.res.Resources
-import android.os.Build.VERSION.SDK_INT
 import androidx.annotation.VisibleForTesting
 import androidx.core.content.pm.PackageInfoCompat
 import androidx.core.os.ConfigurationCompat.getLocales
 import androidx.core.os.LocaleListCompat
 import androidx.lifecycle.LiveData
-import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.asFlow
 import androidx.lifecycle.map
 import androidx.room.Dao
@@ -383,13 +381,38 @@ internal interface AppDaoInt : AppDao {
   )
   override fun updateCompatibility(repoId: Long)
 
-  @Deprecated("Will be removed in future version")
+  /**
+   * Like [updateCompatibility], but only for the given [packageNames], e.g. those touched by a
+   * diff. Callers need to respect SQLite's limit of bind arguments.
+   */
+  @Query(
+    """UPDATE ${AppMetadata.TABLE} 
+        SET isCompatible = (
+            SELECT TOTAL(isCompatible) > 0 FROM ${Version.TABLE}
+            WHERE repoId = :repoId AND ${AppMetadata.TABLE}.packageName = ${Version.TABLE}.packageName
+        )
+        WHERE repoId = :repoId AND packageName IN (:packageNames)"""
+  )
+  fun updateCompatibility(repoId: Long, packageNames: Collection<String>)
+
   @Query(
     """UPDATE ${AppMetadata.TABLE} SET localizedName = :name, localizedSummary = :summary
         WHERE repoId = :repoId AND packageName = :packageName"""
   )
   fun updateAppMetadata(repoId: Long, packageName: String, name: String?, summary: String?)
 
+  /**
+   * Returns up to [limit] apps with a rowid greater than [afterRowId] in rowid order, so all apps
+   * can be iterated in chunks without re-reading earlier ones.
+   */
+  @Query(
+    """SELECT rowid, repoId, packageName, name, summary, localizedName, localizedSummary
+        FROM ${AppMetadata.TABLE}
+        WHERE rowid > :afterRowId
+        ORDER BY rowid LIMIT :limit"""
+  )
+  fun getLocalizableAppMetadata(afterRowId: Long, limit: Int): List<LocalizableAppMetadata>
+
   @Update fun updateAppMetadata(appMetadata: AppMetadata): Int
 
   @Transaction
@@ -844,6 +867,23 @@ internal interface AppDaoInt : AppDao {
   )
   fun getAppListItems(packageNames: List<String>): LiveData<List<AppListItem>>
 
+  /** Like [getAppListItems], but for any number of package names, see [PackageNameList]. */
+  @Transaction
+  @SuppressWarnings(QUERY_MISMATCH) // no anti-features needed here
+  @Query(
+    """${PACKAGE_NAME_LIST_CTE}
+        SELECT repoId, packageName, localizedName, localizedSummary, app.lastUpdated,
+               categories, app.isCompatible, app.preferredSigner
+        FROM PackageNameList
+        JOIN ${AppMetadata.TABLE} AS app USING (packageName)
+        JOIN ${RepositoryPreferences.TABLE} AS pref USING (repoId)
+        JOIN PreferredRepo USING (packageName)
+        WHERE pref.enabled = 1 AND repoId = preferredRepoId
+        GROUP BY packageName HAVING MAX(pref.weight)
+        ORDER BY localizedName COLLATE NOCASE ASC"""
+  )
+  fun getAppListItemsJoined(packageNames: ByteArray, width: Int): LiveData<List<AppListItem>>
+
   @Transaction
   @Query(
     """SELECT repoId, packageName, app.localizedName, app.localizedSummary, app.lastUpdated, 
@@ -875,64 +915,26 @@ internal interface AppDaoInt : AppDao {
   ): LiveData<List<AppListItem>> {
     val installedPackages =
       packageManager.getInstalledPackages(0).associateBy { packageInfo -> packageInfo.packageName }
-    val packageNames = installedPackages.keys.toList()
-    // since sqlite 3.32.0 the max variables number was increased to 32766
-    return if (packageNames.size <= 999 || SDK_INT >= 31) {
-      getAppListItems(packageNames).map(installedPackages)
-    } else {
-      AppListLiveData()
-        .apply { packageNames.chunked(999) { addSource(getAppListItems(it)) } }
-        .map(installedPackages)
-    }
+    return getAppListItemsForPackages(installedPackages.keys).map(installedPackages)
   }
 
   override fun getInstalledAppListItems(
     packageInfoMap: Map<String, PackageInfo>
   ): Flow<List<AppListItem>> {
-    val packageNames = packageInfoMap.keys.toList()
-    // since sqlite 3.32.0 the max variables number was increased to 32766
-    return if (packageNames.size <= 999 || SDK_INT >= 31) {
-        getAppListItems(packageNames).map(packageInfoMap)
-      } else {
-        AppListLiveData()
-          .apply { packageNames.chunked(999) { addSource(getAppListItems(it)) } }
-          .map(packageInfoMap)
-      }
-      .asFlow()
+    return getAppListItemsForPackages(packageInfoMap.keys).map(packageInfoMap).asFlow()
   }
 
-  private class AppListLiveData : MediatorLiveData<List<AppListItem>>() {
-    private val list = ArrayList<LiveData<List<AppListItem>>>()
-
-    /**
-     * Adds the given [liveData] and updates [getValue] with a union of all lists once all added
-     * [liveData]s changed to a non-null list value.
-     */
-    fun addSource(liveData: LiveData<List<AppListItem>>) {
-      list.add(liveData)
-      addSource(liveData) {
-        var shouldUpdate = true
-        val result =
-          list.flatMap {
-            it.value
-              ?: run {
-                shouldUpdate = false
-                emptyList()
-              }
-          }
-        if (shouldUpdate)
-          value =
-            result
-              // the chunked query does not return distinct values since room 2.7.0
-              .distinct()
-              // we need to re-sort the result,
-              // because each liveData is only sorted in itself
-              .sortedWith { i1, i2 ->
-                val n1 = i1.name ?: ""
-                val n2 = i2.name ?: ""
-                n1.compareTo(n2, ignoreCase = true)
-              }
-      }
+  /**
+   * Uses a bind argument per package name for short lists. Longer lists would exceed the bind
+   * argument limit of older SQLite versions, so they get joined as a single argument instead.
+   */
+  private fun getAppListItemsForPackages(
+    packageNames: Collection<String>
+  ): LiveData<List<AppListItem>> {
+    return if (packageNames.size <= MAX_BIND_ARGS) {
+      getAppListItems(packageNames.toList())
+    } else {
+      PackageNameList(packageNames).let { getAppListItemsJoined(it.bytes, it.width) }
     }
   }
 
@@ -1001,7 +1003,7 @@ internal interface AppDaoInt : AppDao {
   )
   fun deleteLocalizedFileList(repoId: Long, packageName: String, type: String, locale: String)
 
-  @VisibleForTesting @Query("SELECT COUNT(*) FROM ${AppMetadata.TABLE}") fun countApps(): Int
+  @Query("SELECT COUNT(*) FROM ${AppMetadata.TABLE}") fun countApps(): Int
 
   @VisibleForTesting
   @Query("SELECT COUNT(*) FROM ${LocalizedFile.TABLE}")
@@ -6,6 +6,9 @@ import androidx.room.Ignore
 import androidx.room.Relation
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import java.text.Normalizer
+import java.text.Normalizer.Form.NFKD
+import java.util.Locale
 import kotlin.math.min
 import org.fdroid.LocaleChooser.getBestLocale
 import org.fdroid.index.v2.FileV2
@@ -38,6 +41,24 @@ internal constructor(
 
   @Ignore public val score: Double
 
+  /**
+   * Returns a copy of this item scored for the given single word prefix [term] or null, if none of
+   * the searched columns has a word starting with [term]. When the user keeps typing, this allows
+   * narrowing down the results of a shorter prefix in memory, see
+   * [SearchQueryRewriter.isRefinement].
+   */
+  public fun refine(term: String): AppSearchItem? {
+    val prefix = term.normalizeForSearch()
+    val columnsWithHits = BooleanArray(NUM_FTS_COLUMNS)
+    columnsWithHits[1] = name?.values?.any { it.hasWordStartingWith(prefix) } == true
+    columnsWithHits[2] = summary?.values?.any { it.hasWordStartingWith(prefix) } == true
+    columnsWithHits[3] = description?.values?.any { it.hasWordStartingWith(prefix) } == true
+    columnsWithHits[4] = authorName?.hasWordStartingWith(prefix) == true
+    columnsWithHits[5] = packageName.hasWordStartingWith(prefix)
+    if (columnsWithHits.none { it }) return null
+    return copy(matchInfo = getMatchInfo(columnsWithHits))
+  }
+
   init {
     val info = matchInfo.toIntArray()
     val numPhrases = info[0]
@@ -81,6 +102,44 @@ internal constructor(
   }
 }
 
+/** The number of columns in [AppMetadataFts], the first one being repoId. */
+private const val NUM_FTS_COLUMNS = 6
+
+private val diacriticsRegex = "\\p{M}".toRegex()
+
+/** Normalizes like the unicode61 tokenizer of [AppMetadataFts] with `remove_diacritics=1`. */
+private fun String.normalizeForSearch(): String {
+  val normalized =
+    if (Normalizer.isNormalized(this, NFKD)) this
+    else Normalizer.normalize(this, NFKD).replace(diacriticsRegex, "")
+  return normalized.lowercase(Locale.ROOT)
+}
+
+/** Words are separated like by the tokenizer of [AppMetadataFts] which keeps `-` in words. */
+private fun String.hasWordStartingWith(prefix: String): Boolean {
+  val s = normalizeForSearch()
+  var index = s.indexOf(prefix)
+  while (index >= 0) {
+    if (index == 0 || !s[index - 1].let { it.isLetterOrDigit() || it == '-' }) return true
+    index = s.indexOf(prefix, index + 1)
+  }
+  return false
+}
+
+/** Returns what `matchinfo(AppMetadataFts, 'pcx')` would return for a single phrase. */
+private fun getMatchInfo(columnsWithHits: BooleanArray): ByteArray {
+  val buffer = ByteBuffer.allocate(4 * (2 + 3 * columnsWithHits.size))
+  buffer.order(ByteOrder.LITTLE_ENDIAN)
+  buffer.putInt(1) // number of phrases
+  buffer.putInt(columnsWithHits.size)
+  columnsWithHits.forEach { hasHit ->
+    val hits = if (hasHit) 1 else 0
+    // hits in this row, hits in all rows and rows with hits
+    buffer.putInt(hits).putInt(hits).putInt(hits)
+  }
+  return buffer.array()
+}
+
 private val weights =
   mapOf(
     // 0 is repoId which we ignore
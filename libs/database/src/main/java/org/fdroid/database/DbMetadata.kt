@@ -20,4 +20,10 @@ internal interface DbMetadataDao {
 
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   suspend fun set(vararg entries: DbMetadata)
+
+  @Query("SELECT value FROM DbMetadata WHERE `key` = :key")
+  fun getBlocking(key: String): String?
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun setBlocking(vararg entries: DbMetadata)
 }
@@ -4,6 +4,7 @@ import androidx.core.os.LocaleListCompat
 import kotlinx.serialization.json.JsonObject
 import org.fdroid.CompatibilityChecker
 import org.fdroid.index.v2.IndexV2DiffStreamReceiver
+import org.fdroid.trace
 
 internal class DbV2DiffStreamReceiver(
   private val db: FDroidDatabaseInt,
@@ -13,12 +14,16 @@ internal class DbV2DiffStreamReceiver(
 
   private val locales: LocaleListCompat = LocaleListCompat.getDefault()
 
+  /** The packages changed by the diff, only those need their compatibility re-calculated. */
+  private val changedPackageNames = HashSet<String>()
+
   override fun receiveRepoDiff(version: Long, repoJsonObject: JsonObject) {
     db.getRepositoryDao().updateRepository(repoId, version, repoJsonObject)
   }
 
   override fun receivePackageMetadataDiff(packageName: String, packageJsonObject: JsonObject?) {
     db.getAppDao().updateApp(repoId, packageName, packageJsonObject, locales)
+    changedPackageNames.add(packageName)
   }
 
   override fun receiveVersionsDiff(
@@ -28,10 +33,13 @@ internal class DbV2DiffStreamReceiver(
     db.getVersionDao().update(repoId, packageName, versionsDiffMap) {
       compatibilityChecker.isCompatible(it)
     }
+    changedPackageNames.add(packageName)
   }
 
   @Synchronized
   override fun onStreamEnded() {
-    db.afterUpdatingRepo(repoId)
+    trace("DbV2DiffStreamReceiver.updateCompatibility", "repoId" to repoId) {
+      db.afterUpdatingRepo(repoId, changedPackageNames)
+    }
   }
 }
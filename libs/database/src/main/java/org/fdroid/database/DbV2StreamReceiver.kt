@@ -8,6 +8,7 @@ import org.fdroid.index.v2.FileV2
 import org.fdroid.index.v2.IndexV2StreamReceiver
 import org.fdroid.index.v2.PackageV2
 import org.fdroid.index.v2.RepoV2
+import org.fdroid.trace
 
 /**
  * Receives a stream of IndexV2 data and stores it in the DB.
@@ -37,22 +38,28 @@ internal class DbV2StreamReceiver(
   override fun receive(repo: RepoV2, version: Long) {
     repo.walkFiles(nonNullFileV2)
     clearRepoDataIfNeeded()
-    db.getRepositoryDao().update(repoId, repo, version, TWO)
+    trace("DbV2StreamReceiver.receiveRepo", "repoId" to repoId) {
+      db.getRepositoryDao().update(repoId, repo, version, TWO)
+    }
   }
 
   @Synchronized
   override fun receive(packageName: String, p: PackageV2) {
     p.walkFiles(nonNullFileV2)
     clearRepoDataIfNeeded()
-    db.getAppDao().insert(repoId, packageName, p.metadata, locales)
-    db.getVersionDao().insert(repoId, packageName, p.versions) {
-      compatibilityChecker.isCompatible(it.manifest)
+    trace("DbV2StreamReceiver.receivePackage", "repoId" to repoId, "packageName" to packageName) {
+      db.getAppDao().insert(repoId, packageName, p.metadata, locales)
+      db.getVersionDao().insert(repoId, packageName, p.versions) {
+        compatibilityChecker.isCompatible(it.manifest)
+      }
     }
   }
 
   @Synchronized
   override fun onStreamEnded() {
-    db.afterUpdatingRepo(repoId)
+    trace("DbV2StreamReceiver.updateCompatibility", "repoId" to repoId) {
+      db.afterUpdatingRepo(repoId)
+    }
   }
 
   /**
@@ -61,7 +68,9 @@ internal class DbV2StreamReceiver(
    */
   private fun clearRepoDataIfNeeded() {
     if (!clearedRepoData) {
-      db.getRepositoryDao().clear(repoId)
+      trace("DbV2StreamReceiver.clearRepoData", "repoId" to repoId) {
+        db.getRepositoryDao().clear(repoId)
+      }
       clearedRepoData = true
     }
   }
@@ -2,6 +2,7 @@ package org.fdroid.database
 
 import android.content.res.Resources
 import android.util.Log
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import androidx.core.os.ConfigurationCompat.getLocales
 import androidx.core.os.LocaleListCompat
@@ -9,16 +10,62 @@ import androidx.room.AutoMigration
 import androidx.room.Database
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.sqlite.db.SupportSQLiteDatabase
 import java.io.Closeable
 import java.util.Locale
 import java.util.concurrent.Callable
+import java.util.concurrent.TimeUnit
 import org.fdroid.LocaleChooser.getBestLocale
 
+/** The number of apps updated per transaction in [FDroidDatabase.updateLocalizedAppMetadata]. */
+private const val LOCALE_UPDATE_CHUNK_SIZE = 250
+
+/** The [DbMetadata] key of the time in epoch millis the FTS index was last checked. */
+private const val KEY_LAST_FTS_CHECK = "lastFtsCheck"
+
+/** Don't check the FTS index more often than this, see [FDroidDatabase.repairFtsIfNeeded]. */
+private val FTS_CHECK_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1)
+
+/** Older SQLite versions on Android allow up to 999 bind arguments per statement. */
+internal const val MAX_BIND_ARGS = 900
+
+/**
+ * A common table expression that splits the `:packageNames` bind argument into a `PackageNameList`
+ * table with one `packageName` per row. Queries can join it to use any number of package names
+ * with two bind arguments and a single `ORDER BY`, instead of chunking `IN` lists.
+ *
+ * The package names get passed as a blob of records with the same `:width`, see
+ * [PackageNameList], because `substr()` on a blob doesn't need to walk or copy the preceding
+ * bytes. So splitting takes linear time, unlike searching for separators in the remaining string.
+ * `json_each()` would do the same, but JSON1 is missing in the framework SQLite of old Android
+ * versions, and those are the ones that need this.
+ */
+internal const val PACKAGE_NAME_LIST_CTE =
+  """WITH RECURSIVE PackageNameList(packageName, position) AS (
+            SELECT NULL, 1
+            UNION ALL
+            SELECT rtrim(CAST(substr(:packageNames, position, :width) AS TEXT)), position + :width
+            FROM PackageNameList WHERE position <= length(:packageNames)
+        )"""
+
+/** Package names padded with spaces to the same [width] in bytes for [PACKAGE_NAME_LIST_CTE]. */
+internal class PackageNameList(packageNames: Collection<String>) {
+  private val encodedNames = packageNames.map { it.encodeToByteArray() }
+  val width: Int = encodedNames.maxOfOrNull { it.size }?.coerceAtLeast(1) ?: 1
+  val bytes: ByteArray =
+    ByteArray(encodedNames.size * width) { ' '.code.toByte() }.also { bytes ->
+      encodedNames.forEachIndexed { i, name -> name.copyInto(bytes, i * width) }
+    }
+}
+
+/** Above this number of changed apps, re-calculating compatibility of all apps is faster. */
+private const val MAX_INCREMENTAL_COMPATIBILITY_UPDATES = 2000
+
 @Database(
   // When bumping this version, please make sure to add one (or more) migration(s) below!
   // Consider also providing tests for that migration.
   // Don't forget to commit the new schema to the git repo as well.
-  version = 13,
+  version = 15,
   entities =
     [
       // repo
@@ -40,6 +87,8 @@ import org.fdroid.LocaleChooser.getBestLocale
       AppPrefs::class,
       // internal metadata
       DbMetadata::class,
+      // update queue
+      UpdateQueueItem::class,
     ],
   views = [LocalizedIcon::class, HighestVersion::class, PreferredRepo::class],
   exportSchema = true,
@@ -57,6 +106,8 @@ import org.fdroid.LocaleChooser.getBestLocale
       AutoMigration(10, 11),
       AutoMigration(11, 12),
       AutoMigration(12, 13, DbMetadataMigration::class),
+      AutoMigration(13, 14),
+      AutoMigration(14, 15),
       // add future migrations above!
     ],
 )
@@ -72,20 +123,51 @@ internal abstract class FDroidDatabaseInt : RoomDatabase(), FDroidDatabase, Clos
 
   abstract override fun getAppPrefsDao(): AppPrefsDaoInt
 
+  abstract override fun getUpdateQueueDao(): UpdateQueueDaoInt
+
   abstract fun getDbMetadataDao(): DbMetadataDao
 
   @Deprecated("Will be removed in future version")
   override fun afterLocalesChanged(locales: LocaleListCompat) {
+    updateLocalizedAppMetadata(locales)
+  }
+
+  @WorkerThread
+  override fun updateLocalizedAppMetadata(
+    locales: LocaleListCompat,
+    onProgress: (done: Int, total: Int) -> Unit,
+  ) {
+    updateLocalizedAppMetadata(locales, LOCALE_UPDATE_CHUNK_SIZE, onProgress)
+  }
+
+  @VisibleForTesting
+  internal fun updateLocalizedAppMetadata(
+    locales: LocaleListCompat,
+    chunkSize: Int,
+    onProgress: (done: Int, total: Int) -> Unit,
+  ) {
     val appDao = getAppDao()
-    runInTransaction {
-      appDao.getAppMetadata().forEach { appMetadata ->
-        appDao.updateAppMetadata(
-          repoId = appMetadata.repoId,
-          packageName = appMetadata.packageName,
-          name = appMetadata.name.getBestLocale(locales),
-          summary = appMetadata.summary.getBestLocale(locales),
-        )
-      }
+    val total = appDao.countApps()
+    var done = 0
+    var lastRowId = Long.MIN_VALUE
+    while (true) {
+      // resolve and write each chunk in the transaction it was read in, otherwise a repo update
+      // in between could get its new localized names overwritten with ones from old metadata
+      val apps =
+        runInTransaction<List<LocalizableAppMetadata>> {
+          appDao.getLocalizableAppMetadata(lastRowId, chunkSize).onEach { app ->
+            val name = app.name.getBestLocale(locales)
+            val summary = app.summary.getBestLocale(locales)
+            if (name != app.localizedName || summary != app.localizedSummary) {
+              appDao.updateAppMetadata(app.repoId, app.packageName, name, summary)
+            }
+          }
+        }
+      if (apps.isEmpty()) break
+      lastRowId = apps.last().rowid
+      done += apps.size
+      // apps may have been added in the meantime
+      onProgress(done, maxOf(done, total))
     }
   }
 
@@ -97,6 +179,22 @@ internal abstract class FDroidDatabaseInt : RoomDatabase(), FDroidDatabase, Clos
     getAppDao().updateCompatibility(repoId)
   }
 
+  /**
+   * Like [afterUpdatingRepo], but only recalculates [AppMetadata.isCompatible] for the given
+   * [packageNames] that were changed, e.g. by a diff.
+   */
+  fun afterUpdatingRepo(repoId: Long, packageNames: Set<String>) {
+    // updating the entire repo in one go is cheaper than many small updates
+    if (packageNames.size > MAX_INCREMENTAL_COMPATIBILITY_UPDATES) {
+      afterUpdatingRepo(repoId)
+      return
+    }
+    val appDao = getAppDao()
+    packageNames.chunked(MAX_BIND_ARGS).forEach { chunk ->
+      appDao.updateCompatibility(repoId, chunk)
+    }
+  }
+
   override fun clearAllAppData() {
     runInTransaction {
       getAppDao().clearAll()
@@ -107,28 +205,38 @@ internal abstract class FDroidDatabaseInt : RoomDatabase(), FDroidDatabase, Clos
 
   @WorkerThread
   override fun repairFtsIfNeeded() {
-    // check DB integrity
+    val metadataDao = getDbMetadataDao()
+    val lastCheck = metadataDao.getBlocking(KEY_LAST_FTS_CHECK)?.toLongOrNull() ?: 0
+    if (System.currentTimeMillis() - lastCheck < FTS_CHECK_INTERVAL_MILLIS) {
+      Log.d(TAG, "FTS index was checked recently, not checking again.")
+      return
+    }
+    // Only compares the rows of the FTS index with its content table instead of reading the
+    // entire DB. FTS4's own 'integrity-check' isn't used, because a failing check gets reported
+    // as corruption, and then the entire DB file gets deleted instead of just rebuilding the index.
     val db = openHelper.writableDatabase
-    db.query("PRAGMA integrity_check;").use { cursor ->
-      if (cursor.moveToNext()) {
-        val result = cursor.getString(0)
-        if (result == "ok") {
-          Log.d(TAG, "Database integrity check passed.")
-        } else if (result.contains("malformed inverted index for FTS4 table")) {
-          // FTS4 index somehow corrupted, need to rebuild
-          Log.w(TAG, "Database integrity check failed: $result. Attempting to rebuild FTS index...")
-          db.execSQL(
-            "INSERT INTO ${AppMetadataFts.TABLE}(${AppMetadataFts.TABLE}) VALUES('rebuild')"
-          )
-        } else {
-          Log.w(TAG, "Database integrity check failed: $result")
-        }
-      } else {
-        Log.w(TAG, "Database integrity check returned no results.")
-      }
+    val appTable = AppMetadata.TABLE
+    val docSizeTable = "${AppMetadataFts.TABLE}_docsize"
+    val numApps = db.queryLong("SELECT COUNT(*) FROM $appTable")
+    val numIndexedApps = db.queryLong("SELECT COUNT(*) FROM $docSizeTable")
+    val numMissingApps =
+      db.queryLong(
+        """SELECT COUNT(*) FROM $appTable
+           LEFT JOIN $docSizeTable ON $appTable.rowid = $docSizeTable.docid
+           WHERE $docSizeTable.docid IS NULL"""
+      )
+    if (numApps != numIndexedApps || numMissingApps > 0) {
+      Log.w(TAG, "FTS index has $numIndexedApps of $numApps apps. Rebuilding FTS index...")
+      db.execSQL("INSERT INTO ${AppMetadataFts.TABLE}(${AppMetadataFts.TABLE}) VALUES('rebuild')")
+    } else {
+      Log.d(TAG, "FTS index check passed.")
     }
+    metadataDao.setBlocking(DbMetadata(KEY_LAST_FTS_CHECK, System.currentTimeMillis().toString()))
   }
 
+  private fun SupportSQLiteDatabase.queryLong(sql: String): Long =
+    query(sql).use { cursor -> if (cursor.moveToFirst()) cursor.getLong(0) else 0 }
+
   // just here to make KSP happy
   override fun close() {
     super.close()
@@ -155,15 +263,34 @@ public interface FDroidDatabase {
 
   public fun getAppPrefsDao(): AppPrefsDao
 
+  public fun getUpdateQueueDao(): UpdateQueueDao
+
   /**
    * Call this after the system [Locale]s have changed. If this isn't called, the cached localized
    * app metadata (e.g. name, summary) will be wrong.
    */
-  @Deprecated("Will be removed in future version")
+  @Deprecated(
+    "Will be removed in future version",
+    ReplaceWith("updateLocalizedAppMetadata(locales)"),
+  )
   public fun afterLocalesChanged(
     locales: LocaleListCompat = getLocales(Resources.getSystem().configuration)
   )
 
+  /**
+   * Call this from a worker thread after the system [Locale]s have changed. If this isn't called,
+   * the cached localized app metadata (e.g. name, summary) will be wrong.
+   *
+   * The apps get updated in small chunks, each in its own short transaction, so the database can
+   * still be used while this is running. After each chunk, [onProgress] gets called with the number
+   * of apps [done] so far and the [total] number of apps.
+   */
+  @WorkerThread
+  public fun updateLocalizedAppMetadata(
+    locales: LocaleListCompat = getLocales(Resources.getSystem().configuration),
+    onProgress: (done: Int, total: Int) -> Unit = { _, _ -> },
+  )
+
   /**
    * Call this to run all the given [body] inside a database transaction. Please run as little code
    * as possible to keep the time the database is blocked minimal.
@@ -184,6 +311,8 @@ public interface FDroidDatabase {
    * This is a workaround for a bug(?) in FTS4 that can cause the FTS index to get out of sync with
    * the underlying data. Call from a worker thread, so this can run async. We don't run this when
    * the DB is opened to not block subsequent DB access and speed up cold start time.
+   *
+   * This only checks the FTS index and does nothing if it was checked within the last day.
    */
   @WorkerThread public fun repairFtsIfNeeded()
 }
@@ -2,12 +2,17 @@ package org.fdroid.database
 
 import android.content.Context
 import android.util.Log
-import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
 import androidx.room.Room
 import androidx.room.withTransaction
 import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 
 /**
@@ -25,17 +30,37 @@ public fun interface FDroidFixture {
  */
 public object FDroidDatabaseHolder {
   // Singleton prevents multiple instances of database opening at the same time.
-  @Volatile @GuardedBy("lock") private var instance: FDroidDatabaseInt? = null
-  private val lock = Any()
+  // It only gets set after the database was opened and the fixture was run.
+  @Volatile private var instance: FDroidDatabaseInt? = null
+  private val mutex = Mutex()
+  private val _readyState = MutableStateFlow(false)
 
   internal val TAG = FDroidDatabase::class.simpleName
   internal val dispatcher
     get() = Dispatchers.IO
 
+  /**
+   * Latency statistics of database queries and transactions. These only get recorded if the
+   * database was opened with a `queryMetricsSampleRate` greater than zero, see [getDb].
+   */
+  public val queryMetrics: QueryMetrics = QueryMetrics()
+
+  /**
+   * True once the database was opened, migrated and the fixture was run. From then on, [getDb]
+   * returns immediately without blocking.
+   */
+  public val readyState: StateFlow<Boolean> = _readyState.asStateFlow()
+
   /**
    * Give you an existing instance of [FDroidDatabase] or creates/opens a new one if none exists.
    * Note: The given [name] is only used when calling this for the first time. Subsequent calls with
    * a different name will return the instance created by the first call.
+   *
+   * This blocks the current thread while the database gets opened, migrated and pre-populated, so
+   * consider calling [openDb] from a background thread early on.
+   *
+   * @param queryMetricsSampleRate the fraction of queries from 0 to 1 that get recorded in
+   *   [queryMetrics]. If this is 0, no metrics get recorded and there's no overhead.
    */
   @JvmStatic
   @JvmOverloads
@@ -44,33 +69,78 @@ public object FDroidDatabaseHolder {
     name: String = "fdroid_db",
     fixture: FDroidFixture? = null,
     logSlowQueries: Boolean = false,
+    queryMetricsSampleRate: Double = 0.0,
   ): FDroidDatabase {
     // if the INSTANCE is not null, then return it,
     // if it is, then create the database
     return instance
-      ?: synchronized(lock) {
-        val builder =
-          Room.databaseBuilder(context.applicationContext, FDroidDatabaseInt::class.java, name)
-            .apply {
-              addMigrations(MIGRATION_2_3, MIGRATION_5_6, MIGRATION_8_9)
-              // We allow destructive migration (if no real migration was provided),
-              // so we have the option to nuke the DB in production (if that will ever be needed).
-              fallbackToDestructiveMigration(false)
+      ?: runBlocking { openDb(context, name, fixture, logSlowQueries, queryMetricsSampleRate) }
+  }
+
+  /**
+   * Like [getDb], but suspends instead of blocking while the database gets opened, migrated and
+   * pre-populated on a background thread. Afterwards, [readyState] becomes true.
+   */
+  public suspend fun openDb(
+    context: Context,
+    name: String = "fdroid_db",
+    fixture: FDroidFixture? = null,
+    logSlowQueries: Boolean = false,
+    queryMetricsSampleRate: Double = 0.0,
+  ): FDroidDatabase {
+    instance?.let {
+      return it
+    }
+    return withContext(dispatcher) {
+      mutex.withLock {
+        instance
+          ?: buildDb(context, name, logSlowQueries, queryMetricsSampleRate).also { db ->
+            // the first transaction opens the database and runs the migrations
+            runFixtureIfNeeded(db, fixture)
+            instance = db
+            _readyState.value = true
+          }
+      }
+    }
+  }
 
-              if (logSlowQueries) {
-                openHelperFactory(
-                  TimingOpenHelperFactory(
-                    FrameworkSQLiteOpenHelperFactory(),
-                    slowQueryThresholdMs = 500,
-                  )
-                )
-              }
-            }
-        val db = builder.build()
-        runBlocking { runFixtureIfNeeded(db, fixture) }
-        instance = db
-        db
+  /** Closes the open database and forgets it, so the next call to [getDb] opens it again. */
+  @VisibleForTesting
+  internal fun closeDb() {
+    runBlocking {
+      mutex.withLock {
+        instance?.close()
+        instance = null
+        _readyState.value = false
+      }
+    }
+  }
+
+  private fun buildDb(
+    context: Context,
+    name: String,
+    logSlowQueries: Boolean,
+    queryMetricsSampleRate: Double,
+  ): FDroidDatabaseInt {
+    return Room.databaseBuilder(context.applicationContext, FDroidDatabaseInt::class.java, name)
+      .apply {
+        addMigrations(MIGRATION_2_3, MIGRATION_5_6, MIGRATION_8_9)
+        // We allow destructive migration (if no real migration was provided),
+        // so we have the option to nuke the DB in production (if that will ever be needed).
+        fallbackToDestructiveMigration(false)
+
+        if (logSlowQueries || queryMetricsSampleRate > 0) {
+          queryMetrics.sampleRate = queryMetricsSampleRate
+          openHelperFactory(
+            TimingOpenHelperFactory(
+              FrameworkSQLiteOpenHelperFactory(),
+              slowQueryThresholdMs = if (logSlowQueries) 500 else Long.MAX_VALUE,
+              metrics = queryMetrics,
+            )
+          )
+        }
       }
+      .build()
   }
 
   /**
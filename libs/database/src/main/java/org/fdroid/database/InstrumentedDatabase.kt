@@ -1,6 +1,8 @@
 package org.fdroid.database
 
 import android.database.Cursor
+import android.database.CursorWrapper
+import android.database.sqlite.SQLiteTransactionListener
 import android.os.CancellationSignal
 import android.util.Log
 import androidx.sqlite.db.SupportSQLiteDatabase
@@ -10,7 +12,10 @@ import kotlin.time.Duration
 import kotlin.time.measureTimedValue
 
 /**
- * Only use this in debug mode or for local builds, not for release builds.
+ * Records sampled query and transaction latencies into [metrics], if given. This is cheap enough
+ * for release builds.
+ *
+ * The logging is only meant for debug mode or for local builds, not for release builds.
  *
  * If you are auditing the full app and want to investigate all queries, you can set [logAllQueries]
  * and/or [explainAllQueries] in which case [slowQueryThresholdMs] will be ignored.
@@ -25,13 +30,14 @@ internal class TimingOpenHelperFactory(
   private val slowQueryThresholdMs: Long = Long.MAX_VALUE,
   private val logAllQueries: Boolean = false,
   private val explainAllQueries: Boolean = false,
+  private val metrics: QueryMetrics? = null,
 ) : SupportSQLiteOpenHelper.Factory {
 
   override fun create(
     configuration: SupportSQLiteOpenHelper.Configuration
   ): SupportSQLiteOpenHelper {
     val helper = delegate.create(configuration)
-    return TimingOpenHelper(helper, slowQueryThresholdMs, logAllQueries, explainAllQueries)
+    return TimingOpenHelper(helper, slowQueryThresholdMs, logAllQueries, explainAllQueries, metrics)
   }
 }
 
@@ -40,13 +46,18 @@ internal class TimingOpenHelper(
   private val thresholdMs: Long,
   private val logAllQueries: Boolean = false,
   private val explainAllQueries: Boolean = false,
+  private val metrics: QueryMetrics? = null,
 ) : SupportSQLiteOpenHelper by delegate {
 
   override val writableDatabase: SupportSQLiteDatabase
-    get() = TimingDatabase(delegate.writableDatabase, thresholdMs, logAllQueries, explainAllQueries)
+    get() = wrap(delegate.writableDatabase)
 
   override val readableDatabase: SupportSQLiteDatabase
-    get() = TimingDatabase(delegate.readableDatabase, thresholdMs, logAllQueries, explainAllQueries)
+    get() = wrap(delegate.readableDatabase)
+
+  private fun wrap(db: SupportSQLiteDatabase): SupportSQLiteDatabase {
+    return TimingDatabase(db, thresholdMs, logAllQueries, explainAllQueries, metrics)
+  }
 }
 
 internal class TimingDatabase(
@@ -54,8 +65,22 @@ internal class TimingDatabase(
   private val thresholdMs: Long,
   private val logAllQueries: Boolean = false,
   private val explainAllQueries: Boolean = false,
+  private val metrics: QueryMetrics? = null,
 ) : SupportSQLiteDatabase by delegate {
 
+  private val isLogging = thresholdMs != Long.MAX_VALUE || logAllQueries || explainAllQueries
+
+  private fun timeQuery(query: String, closure: () -> Cursor): Cursor {
+    val metrics = metrics?.takeIf { it.shouldSample() }
+    val start = metrics?.now() ?: 0L
+    val cursor = if (isLogging) logQueryIfRequired(query, closure) else closure()
+    return if (metrics == null) {
+      cursor
+    } else {
+      MetricsCursor(cursor) { rows -> metrics.recordQuery(query, start, rows) }
+    }
+  }
+
   private fun logQueryIfRequired(query: String, closure: () -> Cursor): Cursor {
     val (cursor, duration) = measureTimedValue { closure() }
     if (duration.inWholeMilliseconds > thresholdMs) {
@@ -80,15 +105,42 @@ internal class TimingDatabase(
   }
 
   override fun query(query: String, bindArgs: Array<out Any?>): Cursor =
-    logQueryIfRequired(query) { delegate.query(query, bindArgs) }
+    timeQuery(query) { delegate.query(query, bindArgs) }
 
   override fun query(query: SupportSQLiteQuery): Cursor =
-    logQueryIfRequired(query.sql) { delegate.query(query) }
+    timeQuery(query.sql) { delegate.query(query) }
 
   override fun query(query: SupportSQLiteQuery, cancellationSignal: CancellationSignal?): Cursor =
-    logQueryIfRequired(query.sql) { delegate.query(query, cancellationSignal) }
+    timeQuery(query.sql) { delegate.query(query, cancellationSignal) }
 
-  override fun query(query: String): Cursor = logQueryIfRequired(query) { delegate.query(query) }
+  override fun query(query: String): Cursor = timeQuery(query) { delegate.query(query) }
+
+  override fun beginTransaction() {
+    delegate.beginTransaction()
+    metrics?.onBeginTransaction()
+  }
+
+  override fun beginTransactionNonExclusive() {
+    delegate.beginTransactionNonExclusive()
+    metrics?.onBeginTransaction()
+  }
+
+  override fun beginTransactionWithListener(transactionListener: SQLiteTransactionListener) {
+    delegate.beginTransactionWithListener(transactionListener)
+    metrics?.onBeginTransaction()
+  }
+
+  override fun beginTransactionWithListenerNonExclusive(
+    transactionListener: SQLiteTransactionListener
+  ) {
+    delegate.beginTransactionWithListenerNonExclusive(transactionListener)
+    metrics?.onBeginTransaction()
+  }
+
+  override fun endTransaction() {
+    delegate.endTransaction()
+    metrics?.onEndTransaction(isOutermost = !delegate.inTransaction())
+  }
 
   private fun logSlowQuery(sql: String, duration: Duration) {
     Log.w("TimingDatabase", "Slow query ($duration): $sql")
@@ -110,3 +162,36 @@ internal class TimingDatabase(
     }
   }
 }
+
+/**
+ * Reports the number of rows that were read from the wrapped cursor when it gets closed. Room
+ * reads all rows of a query, so this is the size of the result in practice.
+ */
+private class MetricsCursor(cursor: Cursor, private val onClose: (rows: Long) -> Unit) :
+  CursorWrapper(cursor) {
+  private var rows = 0
+  private var reported = false
+
+  private fun onMoved(moved: Boolean): Boolean {
+    if (moved) rows = maxOf(rows, position + 1)
+    return moved
+  }
+
+  override fun moveToNext(): Boolean = onMoved(super.moveToNext())
+
+  override fun moveToFirst(): Boolean = onMoved(super.moveToFirst())
+
+  override fun moveToLast(): Boolean = onMoved(super.moveToLast())
+
+  override fun moveToPosition(position: Int): Boolean = onMoved(super.moveToPosition(position))
+
+  override fun move(offset: Int): Boolean = onMoved(super.move(offset))
+
+  override fun close() {
+    super.close()
+    if (!reported) {
+      reported = true
+      onClose(rows.toLong())
+    }
+  }
+}
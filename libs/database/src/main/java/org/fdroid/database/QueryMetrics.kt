@@ -0,0 +1,254 @@
+package org.fdroid.database
+
+import java.io.OutputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit.NANOSECONDS
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.concurrent.getOrSet
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.add
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import kotlinx.serialization.json.putJsonArray
+import kotlinx.serialization.json.putJsonObject
+
+/** Values below this get their own bucket, larger ones share a bucket with close values. */
+private const val SUB_BUCKETS = 8
+private const val SUB_BUCKET_BITS = 3
+
+/** Values are capped at 2^40 µs (about 12 days), so the number of buckets is fixed. */
+private const val MAX_EXPONENT = 40
+private const val NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS
+
+/** Normalizing SQL is not free, so we remember the result for this many different statements. */
+private const val MAX_NORMALIZED_CACHE_SIZE = 1000
+
+private const val TRANSACTION = "TRANSACTION"
+
+private val WHITESPACE = Regex("\\s+")
+private val STRING_LITERAL = Regex("'(?:[^']|'')*'")
+private val NUMBER_LITERAL = Regex("\\b\\d+\\b")
+private val IN_LIST = Regex("IN \\(\\?(?:, ?\\?)*\\)", RegexOption.IGNORE_CASE)
+
+/**
+ * A histogram of latencies in microseconds with logarithmic buckets similar to HdrHistogram. Each
+ * power of two is split into [SUB_BUCKETS] linear buckets, so the relative error of a recorded
+ * value is at most 1/[SUB_BUCKETS] while only using a fixed amount of memory.
+ *
+ * This is lock-free and can be recorded to from many threads at once.
+ */
+internal class LatencyHistogram {
+  private val buckets = AtomicLongArray(NUM_BUCKETS)
+
+  fun record(micros: Long) {
+    buckets.incrementAndGet(getBucketIndex(micros))
+  }
+
+  /** Returns the non-empty buckets as a map from their upper bound in µs to their count. */
+  fun getBuckets(): Map<Long, Long> = buildMap {
+    for (i in 0 until NUM_BUCKETS) {
+      val count = buckets.get(i)
+      if (count > 0) put(getBucketUpperBound(i), count)
+    }
+  }
+
+  /**
+   * Returns the upper bound of the bucket that contains the value at the given [percentile] (from 0
+   * to 100) or 0, if nothing was recorded.
+   */
+  fun getPercentile(percentile: Double): Long {
+    val counts = LongArray(NUM_BUCKETS) { buckets.get(it) }
+    val total = counts.sum()
+    if (total == 0L) return 0
+    val threshold = (total * percentile / 100).coerceIn(1.0, total.toDouble())
+    var seen = 0L
+    counts.forEachIndexed { i, count ->
+      seen += count
+      if (seen >= threshold) return getBucketUpperBound(i)
+    }
+    return getBucketUpperBound(NUM_BUCKETS - 1)
+  }
+
+  companion object {
+    fun getBucketIndex(micros: Long): Int {
+      val value = micros.coerceIn(0, (1L shl (MAX_EXPONENT + 1)) - 1)
+      if (value < SUB_BUCKETS) return value.toInt()
+      val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+      val subBucket = (value shr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket
+    }
+
+    fun getBucketUpperBound(index: Int): Long {
+      if (index < SUB_BUCKETS) return index.toLong()
+      val exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1
+      val subBucket = index % SUB_BUCKETS
+      val lowerBound = (SUB_BUCKETS + subBucket).toLong() shl (exponent - SUB_BUCKET_BITS)
+      return lowerBound + (1L shl (exponent - SUB_BUCKET_BITS)) - 1
+    }
+  }
+}
+
+/** Statistics of all sampled executions of one normalized SQL statement. */
+public class QueryStats internal constructor(public val sql: String) {
+  private val histogram = LatencyHistogram()
+  private val countInternal = AtomicLong()
+  private val rowsInternal = AtomicLong()
+  private val totalMicrosInternal = AtomicLong()
+  private val maxMicrosInternal = AtomicLong()
+
+  /** The number of sampled executions. */
+  public val count: Long
+    get() = countInternal.get()
+
+  /** The total number of rows read from the result cursors of all sampled executions. */
+  public val rows: Long
+    get() = rowsInternal.get()
+
+  public val totalMicros: Long
+    get() = totalMicrosInternal.get()
+
+  public val maxMicros: Long
+    get() = maxMicrosInternal.get()
+
+  /**
+   * Returns an upper bound of the latency in µs that the given [percentile] (from 0 to 100) of
+   * executions stayed below. This is precise to 12.5%.
+   */
+  public fun getPercentileMicros(percentile: Double): Long = histogram.getPercentile(percentile)
+
+  internal fun record(micros: Long, rows: Long) {
+    histogram.record(micros)
+    countInternal.incrementAndGet()
+    rowsInternal.addAndGet(rows)
+    totalMicrosInternal.addAndGet(micros)
+    maxMicrosInternal.accumulateAndGet(micros) { a, b -> maxOf(a, b) }
+  }
+
+  internal fun toJson(): JsonObject = buildJsonObject {
+    put("sql", sql)
+    put("count", count)
+    put("rows", rows)
+    put("totalMicros", totalMicros)
+    put("maxMicros", maxMicros)
+    put("p50Micros", getPercentileMicros(50.0))
+    put("p90Micros", getPercentileMicros(90.0))
+    put("p99Micros", getPercentileMicros(99.0))
+    putJsonObject("histogram") {
+      histogram.getBuckets().forEach { (upperBound, count) -> put(upperBound.toString(), count) }
+    }
+  }
+}
+
+/**
+ * Keeps latency statistics of database queries and transactions, so we can find out which queries
+ * are slow on a user's device.
+ *
+ * Queries get grouped by their normalized SQL, see [normalizeSql]. The latency of a query is
+ * measured from the time it was started until its result cursor was closed, because SQLite only
+ * executes most of a query when the cursor gets read. To keep the overhead low, only a random
+ * [sampleRate] fraction of queries and transactions gets recorded.
+ *
+ * Recording only happens if the database was opened with metrics enabled, see
+ * [FDroidDatabaseHolder.getDb].
+ */
+public class QueryMetrics internal constructor(private val nanoTime: () -> Long) {
+
+  internal constructor() : this(System::nanoTime)
+
+  /** The fraction of queries and transactions to record from 0 (none) to 1 (all). */
+  @Volatile public var sampleRate: Double = 0.0
+
+  private val queries = ConcurrentHashMap<String, QueryStats>()
+  private val normalizedSql = ConcurrentHashMap<String, String>()
+  private val transactionState = ThreadLocal<TransactionState>()
+
+  @Volatile private var transactionStats = QueryStats(TRANSACTION)
+
+  /** Statistics of the time from beginning to ending a transaction, including nested ones. */
+  public val transactions: QueryStats
+    get() = transactionStats
+
+  /** Returns the statistics of all recorded queries, the slowest in total first. */
+  public fun getQueryStats(): List<QueryStats> {
+    return queries.values.sortedByDescending { it.totalMicros }
+  }
+
+  /** Forgets all statistics recorded so far. */
+  public fun reset() {
+    queries.clear()
+    transactionStats = QueryStats(TRANSACTION)
+  }
+
+  /** Writes all statistics as a JSON object to the given [outputStream], e.g. for bug reports. */
+  public fun writeJson(outputStream: OutputStream) {
+    val json = buildJsonObject {
+      put("sampleRate", sampleRate)
+      put("transactions", transactions.toJson())
+      putJsonArray("queries") { getQueryStats().forEach { add(it.toJson()) } }
+    }
+    outputStream.write(json.toString().toByteArray())
+  }
+
+  internal fun shouldSample(): Boolean {
+    val rate = sampleRate
+    return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate)
+  }
+
+  internal fun now(): Long = nanoTime()
+
+  internal fun recordQuery(sql: String, startNanos: Long, rows: Long) {
+    val micros = NANOSECONDS.toMicros(now() - startNanos)
+    val normalized = normalizedSql[sql] ?: normalizeSql(sql).also { cacheNormalizedSql(sql, it) }
+    queries.getOrPut(normalized) { QueryStats(normalized) }.record(micros, rows)
+  }
+
+  private fun cacheNormalizedSql(sql: String, normalized: String) {
+    // statements with IN lists of varying length may not fit, but get normalized all the same
+    if (normalizedSql.size < MAX_NORMALIZED_CACHE_SIZE) normalizedSql[sql] = normalized
+  }
+
+  /**
+   * Called when a transaction began. Only the outermost transaction decides whether it gets
+   * sampled, nested transactions get included in it.
+   */
+  internal fun onBeginTransaction() {
+    val state = transactionState.getOrSet { TransactionState() }
+    if (state.depth++ == 0) state.startNanos = if (shouldSample()) now() else null
+  }
+
+  /** Called after a transaction ended, [isOutermost] if no transaction is open anymore. */
+  internal fun onEndTransaction(isOutermost: Boolean) {
+    val state = transactionState.get() ?: return
+    if (!isOutermost) {
+      state.depth = (state.depth - 1).coerceAtLeast(0)
+      return
+    }
+    val start = state.startNanos
+    transactionState.remove()
+    if (start != null) transactionStats.record(NANOSECONDS.toMicros(now() - start), 0)
+  }
+
+  /** The nesting depth of the transactions of one thread and when the outermost got sampled. */
+  private class TransactionState {
+    var depth = 0
+    var startNanos: Long? = null
+  }
+
+  internal companion object {
+    /**
+     * Normalizes the given [sql], so executions of the same statement end up in the same
+     * statistics: Collapses whitespace, replaces literals with `?` and lists of bind args for `IN`
+     * with a single one, because Room expands those depending on the number of arguments.
+     */
+    fun normalizeSql(sql: String): String {
+      return sql
+        .replace(WHITESPACE, " ")
+        .replace(STRING_LITERAL, "?")
+        .replace(NUMBER_LITERAL, "?")
+        .replace(IN_LIST, "IN (?)")
+        .trim()
+    }
+  }
+}
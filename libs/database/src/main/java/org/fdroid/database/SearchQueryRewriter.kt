@@ -55,4 +55,17 @@ public object SearchQueryRewriter {
         }
       }
   }
+
+  /**
+   * Returns true, if the results for [term] can be found among the results for [previousTerm] with
+   * [AppSearchItem.refine] instead of querying the database again. This is the case when [term]
+   * extends [previousTerm] and both are a single word, so `term*` only matches a subset of what
+   * `previousTerm*` matched.
+   */
+  public fun isRefinement(previousTerm: String, term: String): Boolean {
+    if (previousTerm.isEmpty() || term.length <= previousTerm.length) return false
+    if (!term.startsWith(previousTerm, ignoreCase = true)) return false
+    // other characters are separators or get special treatment in rewriteQuery()
+    return term.all { (it.isLetterOrDigit() && !Character.isIdeographic(it.code)) || it == '-' }
+  }
 }
@@ -0,0 +1,75 @@
+package org.fdroid.database
+
+import androidx.room.Dao
+import androidx.room.Entity
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy.Companion.REPLACE
+import androidx.room.PrimaryKey
+import androidx.room.Query
+
+/** The stage an [UpdateQueueItem] was in when it got last persisted. */
+public enum class UpdateStage {
+  QUEUED,
+  DOWNLOADING,
+  DOWNLOADED,
+  INSTALLING,
+}
+
+/**
+ * An app update that is part of an "update all" run. It gets persisted, so the run can be resumed
+ * after the process died in the middle of it.
+ *
+ * @param sha256 the SHA-256 hash of the APK which is also the name of its (partial) download.
+ * @param size the size of the APK in bytes or null, if unknown.
+ * @param bytesDone the number of bytes downloaded when the download stopped last.
+ * @param added the time in epoch millis when the update was queued.
+ */
+@Entity(tableName = UpdateQueueItem.TABLE)
+public data class UpdateQueueItem(
+  @PrimaryKey val packageName: String,
+  val repoId: Long,
+  val versionCode: Long,
+  val sha256: String,
+  val size: Long?,
+  val bytesDone: Long = 0,
+  val stage: UpdateStage = UpdateStage.QUEUED,
+  val added: Long,
+) {
+  internal companion object {
+    const val TABLE = "UpdateQueueItem"
+  }
+}
+
+public interface UpdateQueueDao {
+  /** Returns all queued updates in the order they were queued. */
+  public fun getItems(): List<UpdateQueueItem>
+
+  /** Adds the given [items] to the queue, replacing existing ones for the same package. */
+  public fun insertOrReplace(items: List<UpdateQueueItem>)
+
+  public fun updateStage(packageName: String, stage: UpdateStage, bytesDone: Long)
+
+  public fun delete(packageName: String)
+
+  public fun clear()
+}
+
+@Dao
+internal interface UpdateQueueDaoInt : UpdateQueueDao {
+
+  @Query("SELECT * FROM ${UpdateQueueItem.TABLE} ORDER BY added, packageName")
+  override fun getItems(): List<UpdateQueueItem>
+
+  @Insert(onConflict = REPLACE) override fun insertOrReplace(items: List<UpdateQueueItem>)
+
+  @Query(
+    """UPDATE ${UpdateQueueItem.TABLE} SET stage = :stage, bytesDone = :bytesDone
+    WHERE packageName = :packageName"""
+  )
+  override fun updateStage(packageName: String, stage: UpdateStage, bytesDone: Long)
+
+  @Query("DELETE FROM ${UpdateQueueItem.TABLE} WHERE packageName = :packageName")
+  override fun delete(packageName: String)
+
+  @Query("DELETE FROM ${UpdateQueueItem.TABLE}") override fun clear()
+}
@@ -30,6 +30,12 @@ import org.fdroid.index.v2.UsesSdkV2
 @Entity(
   tableName = Version.TABLE,
   primaryKeys = ["repoId", "packageName", "versionId"],
+  indices =
+    [
+      // In addition to primary key, as versions are usually looked up by package in all repos
+      // and `repoId` comes first in the primary key.
+      Index("packageName")
+    ],
   foreignKeys =
     [
       ForeignKey(
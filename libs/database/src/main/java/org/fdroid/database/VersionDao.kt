@@ -1,6 +1,5 @@
 package org.fdroid.database
 
-import android.os.Build.VERSION.SDK_INT
 import androidx.lifecycle.LiveData
 import androidx.room.Dao
 import androidx.room.Insert
@@ -196,9 +195,9 @@ internal interface VersionDaoInt : VersionDao {
    * account.
    */
   fun getVersions(packageNames: List<String>): List<Version> {
-    // since sqlite 3.32.0 (in SDK 31 the max variables number was increased to 32766
-    return if (packageNames.size <= 999 || SDK_INT >= 31) getVersionsInternal(packageNames)
-    else packageNames.chunked(999).flatMap { getVersionsInternal(it) }
+    // older SQLite versions allow only 999 bind arguments, so we join long lists as one argument
+    return if (packageNames.size <= MAX_BIND_ARGS) getVersionsInternal(packageNames)
+    else PackageNameList(packageNames).let { getVersionsJoined(it.bytes, it.width) }
   }
 
   @RewriteQueriesToDropUnusedColumns
@@ -213,6 +212,19 @@ internal interface VersionDaoInt : VersionDao {
   )
   fun getVersionsInternal(packageNames: List<String>): List<Version>
 
+  /** Like [getVersionsInternal], but for a [PackageNameList], see [getVersions]. */
+  @Query(
+    """${PACKAGE_NAME_LIST_CTE}
+        SELECT ${Version.TABLE}.* FROM PackageNameList
+        JOIN ${Version.TABLE} USING (packageName)
+        JOIN ${RepositoryPreferences.TABLE} AS pref USING (repoId)
+        LEFT JOIN ${AppPrefs.TABLE} AS appPrefs USING (packageName)
+        WHERE pref.enabled = 1 AND
+              manifest_versionCode > COALESCE(appPrefs.ignoreVersionCodeUpdate, 0)
+        ORDER BY manifest_versionCode DESC, pref.weight DESC"""
+  )
+  fun getVersionsJoined(packageNames: ByteArray, width: Int): List<Version>
+
   @Query(
     """SELECT * FROM ${VersionedString.TABLE}
         WHERE repoId = :repoId AND packageName = :packageName"""
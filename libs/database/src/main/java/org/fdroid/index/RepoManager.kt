@@ -109,6 +109,16 @@ constructor(
     return repositoriesState.value?.firstOrNull { repo -> repo.repoId == repoId }
   }
 
+  /**
+   * Returns the repository with the given [repoId] from the current snapshot of [repositoriesState]
+   * without blocking. Unlike [getRepository], this is safe to call from the UiThread, but returns
+   * null while the repositories have not been loaded from the DB.
+   */
+  @AnyThread
+  public fun peekRepository(repoId: Long): Repository? {
+    return repositoriesState.value?.firstOrNull { repo -> repo.repoId == repoId }
+  }
+
   /**
    * This method will block the current thread in the rare case that the repositories have not been
    * loaded from the DB.
@@ -9,6 +9,7 @@ import org.fdroid.database.Repository
 import org.fdroid.download.DownloaderFactory
 import org.fdroid.index.v1.IndexV1Updater
 import org.fdroid.index.v2.IndexV2Updater
+import org.fdroid.trace
 
 /**
  * Updates a [Repository] with a downloaded index, detects changes and chooses the right
@@ -54,7 +55,9 @@ public class RepoUpdater(
 
   /** Updates the given [repo]. */
   public fun update(repo: Repository): IndexUpdateResult =
-    update(repo) { updater -> updater.update(repo) }
+    trace("RepoUpdater.update", "repoId" to repo.repoId) {
+      update(repo) { updater -> updater.update(repo) }
+    }
 
   private fun update(
     repo: Repository,
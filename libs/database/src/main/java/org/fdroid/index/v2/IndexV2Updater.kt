@@ -20,6 +20,7 @@ import org.fdroid.index.TempFileProvider
 import org.fdroid.index.defaultRepoUriBuilder
 import org.fdroid.index.parseEntry
 import org.fdroid.index.setIndexUpdateListener
+import org.fdroid.trace
 
 public const val SIGNED_FILE_NAME: String = "entry.jar"
 
@@ -75,9 +76,11 @@ public class IndexV2Updater(
             }
         }
     try {
-      downloader.download()
-      val verifier = EntryVerifier(file, certificate, null)
-      return verifier.getStreamAndVerify { inputStream -> IndexParser.parseEntry(inputStream) }
+      trace("IndexV2Updater.downloadEntry", "repoId" to repo.repoId) { downloader.download() }
+      return trace("IndexV2Updater.verifyEntry", "repoId" to repo.repoId) {
+        val verifier = EntryVerifier(file, certificate, null)
+        verifier.getStreamAndVerify { inputStream -> IndexParser.parseEntry(inputStream) }
+      }
     } finally {
       file.delete()
     }
@@ -100,30 +103,33 @@ public class IndexV2Updater(
         )
         .apply { setIndexUpdateListener(listener, repo) }
     try {
-      downloader.download()
-      file.inputStream().use { inputStream ->
-        db.runInTransaction {
-          // ensure somebody else hasn't updated the repo in the meantime
-          val currentTimestamp = repoDao.getRepository(repo.repoId)?.timestamp
-          if (currentTimestamp != repo.timestamp)
-            throw ConcurrentModificationException(
-              "Repo timestamp expected ${repo.timestamp}, but was $currentTimestamp"
-            )
-          // still the expected timestamp, so go on processing...
-          streamProcessor.process(repoVersion, inputStream) { i ->
-            listener?.onUpdateProgress(repo, i, entryFile.numPackages)
+      trace("IndexV2Updater.downloadIndex", "repoId" to repo.repoId) { downloader.download() }
+      // parsing is streamed, so time between the DB write sections in here is spent parsing
+      trace("IndexV2Updater.processIndex", "repoId" to repo.repoId) {
+        file.inputStream().use { inputStream ->
+          db.runInTransaction {
+            // ensure somebody else hasn't updated the repo in the meantime
+            val currentTimestamp = repoDao.getRepository(repo.repoId)?.timestamp
+            if (currentTimestamp != repo.timestamp)
+              throw ConcurrentModificationException(
+                "Repo timestamp expected ${repo.timestamp}, but was $currentTimestamp"
+              )
+            // still the expected timestamp, so go on processing...
+            streamProcessor.process(repoVersion, inputStream) { i ->
+              listener?.onUpdateProgress(repo, i, entryFile.numPackages)
+            }
+            // update RepositoryPreferences with timestamp
+            val repoPrefs =
+              repoDao.getRepositoryPreferences(repo.repoId)
+                ?: error("No repo prefs for ${repo.repoId}")
+            val updatedPrefs =
+              repoPrefs.copy(
+                lastUpdated = System.currentTimeMillis(),
+                errorCount = 0,
+                lastError = null,
+              )
+            repoDao.updateRepositoryPreferences(updatedPrefs)
           }
-          // update RepositoryPreferences with timestamp
-          val repoPrefs =
-            repoDao.getRepositoryPreferences(repo.repoId)
-              ?: error("No repo prefs for ${repo.repoId}")
-          val updatedPrefs =
-            repoPrefs.copy(
-              lastUpdated = System.currentTimeMillis(),
-              errorCount = 0,
-              lastError = null,
-            )
-          repoDao.updateRepositoryPreferences(updatedPrefs)
         }
       }
     } finally {
@@ -0,0 +1,40 @@
+package org.fdroid.repo
+
+/**
+ * A list that can only grow and hands out immutable [snapshot]s without copying its elements.
+ *
+ * Elements that were added once never change, so a snapshot only needs to remember the backing
+ * array and its size at the time it was taken. When the array needs to grow, a new one is allocated
+ * and existing snapshots keep using the old one.
+ *
+ * Not thread-safe for writing, but snapshots can be read from any thread once they got published
+ * safely, e.g. via a [kotlinx.coroutines.flow.StateFlow].
+ */
+internal class AppendOnlyList<T>(initialCapacity: Int = 16) {
+
+  private var array = arrayOfNulls<Any?>(initialCapacity.coerceAtLeast(1))
+
+  var size: Int = 0
+    private set
+
+  /** The number of elements that fit into the backing array before a bigger one gets allocated. */
+  val capacity: Int
+    get() = array.size
+
+  fun add(element: T) {
+    if (size == array.size) array = array.copyOf(array.size * 2)
+    array[size++] = element
+  }
+
+  /** Returns an immutable view of all elements added so far. */
+  fun snapshot(): List<T> = if (size == 0) emptyList() else Snapshot(array, size)
+
+  private class Snapshot<T>(private val array: Array<Any?>, override val size: Int) :
+    AbstractList<T>(), RandomAccess {
+    override fun get(index: Int): T {
+      if (index !in 0 until size) throw IndexOutOfBoundsException("$index not in 0..<$size")
+      @Suppress("UNCHECKED_CAST")
+      return array[index] as T
+    }
+  }
+}
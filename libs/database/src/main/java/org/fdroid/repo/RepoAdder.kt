@@ -15,6 +15,8 @@ import java.io.File
 import java.io.IOException
 import java.net.Proxy
 import kotlin.coroutines.CoroutineContext
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.TimeSource
 import kotlinx.coroutines.DelicateCoroutinesApi
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
@@ -54,6 +56,13 @@ import org.fdroid.repo.AddRepoError.ErrorType.UNKNOWN_SOURCES_DISALLOWED
 
 internal const val REPO_ID = 0L
 
+/**
+ * While fetching a repo, its apps get published after this many new apps or after
+ * [PREVIEW_INTERVAL], whichever comes first.
+ */
+internal const val PREVIEW_CHUNK_SIZE = 100
+internal val PREVIEW_INTERVAL = 100.milliseconds
+
 public sealed class AddRepoState
 
 public object None : AddRepoState()
@@ -115,6 +124,7 @@ internal class RepoAdder(
   private val repoUriGetter: RepoUriGetter = RepoUriGetter,
   private val repoUriBuilder: RepoUriBuilder = defaultRepoUriBuilder,
   private val coroutineContext: CoroutineContext = Dispatchers.IO,
+  private val timeSource: TimeSource = TimeSource.Monotonic,
 ) {
   private val log = KotlinLogging.logger {}
   private val repositoryDao = db.getRepositoryDao() as RepositoryDaoInt
@@ -150,9 +160,19 @@ internal class RepoAdder(
 
     // some plumping to receive the repo preview
     var receivedRepo: Repository? = null
-    val apps = ArrayList<AppOverviewItem>()
+    // snapshots of this don't copy the apps, so publishing large repos doesn't take quadratic time
+    val apps = AppendOnlyList<AppOverviewItem>()
     var fetchResult: FetchResult? = null
     val activeContext = currentCoroutineContext()
+    var numPublishedApps = 0
+    var lastPublished = timeSource.markNow()
+
+    fun publishPreview() {
+      activeContext.ensureActive() // ensure active before updating state
+      addRepoState.value = Fetching(fetchUrl, receivedRepo, apps.snapshot(), fetchResult)
+      numPublishedApps = apps.size
+      lastPublished = timeSource.markNow()
+    }
 
     val receiver =
       object : RepoPreviewReceiver {
@@ -166,19 +186,25 @@ internal class RepoAdder(
               )
           }
           fetchResult = getFetchResult(fetchUrl, repo)
-          activeContext.ensureActive() // ensure active before updating state
-          addRepoState.value = Fetching(fetchUrl, receivedRepo, apps.toList(), fetchResult)
+          publishPreview()
         }
 
         override fun onAppReceived(app: AppOverviewItem) {
           apps.add(app)
-          activeContext.ensureActive() // ensure active before updating state
-          addRepoState.value = Fetching(fetchUrl, receivedRepo, apps.toList(), fetchResult)
+          // Publish the first app right away, so the UI has something to show,
+          // but then only in chunks, so large repos don't flood the UI with new states.
+          // The final state published after fetching includes all apps.
+          if (
+            apps.size == 1 ||
+              apps.size - numPublishedApps >= PREVIEW_CHUNK_SIZE ||
+              lastPublished.elapsedNow() >= PREVIEW_INTERVAL
+          ) {
+            publishPreview()
+          }
         }
       }
     // set a state early, so the ui can show progress animation
-    activeContext.ensureActive() // ensure active before updating state
-    addRepoState.value = Fetching(fetchUrl, receivedRepo, apps, fetchResult)
+    publishPreview()
 
     // try fetching repo with v2 format first and fallback to v1
     val indexFile =
@@ -211,7 +237,7 @@ internal class RepoAdder(
     if (finalRepo == null) {
       onError(AddRepoError(INVALID_INDEX))
     } else {
-      addRepoState.value = Fetching(fetchUrl, finalRepo, apps, fetchResult, indexFile)
+      addRepoState.value = Fetching(fetchUrl, finalRepo, apps.snapshot(), fetchResult, indexFile)
     }
   }
 
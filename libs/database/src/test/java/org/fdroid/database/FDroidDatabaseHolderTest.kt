@@ -0,0 +1,78 @@
+package org.fdroid.database
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider.getApplicationContext
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit.SECONDS
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.fdroid.test.TestRepoUtils.getRandomRepo
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+private const val DB_NAME = "fdroid_db_holder_test"
+
+@RunWith(AndroidJUnit4::class)
+internal class FDroidDatabaseHolderTest {
+
+  private val context: Context = getApplicationContext()
+
+  @Before
+  fun setUp() {
+    FDroidDatabaseHolder.closeDb()
+    context.deleteDatabase(DB_NAME)
+  }
+
+  @After
+  fun tearDown() {
+    FDroidDatabaseHolder.closeDb()
+    context.deleteDatabase(DB_NAME)
+  }
+
+  /**
+   * Opens the database in the background like the app does at start and checks that it only
+   * becomes ready once the fixture was run.
+   */
+  @Test
+  fun testOpenDbInBackground() = runBlocking {
+    var fixtureRuns = 0
+    val fixtureStarted = CountDownLatch(1)
+    val fixtureMayFinish = CountDownLatch(1)
+    val fixture = FDroidFixture { db ->
+      fixtureRuns++
+      fixtureStarted.countDown()
+      assertTrue(fixtureMayFinish.await(10, SECONDS))
+      (db as FDroidDatabaseInt).getRepositoryDao().insertOrReplace(getRandomRepo())
+    }
+    assertFalse(FDroidDatabaseHolder.readyState.value)
+
+    val opening =
+      async(Dispatchers.Default) {
+        FDroidDatabaseHolder.openDb(context, name = DB_NAME, fixture = fixture)
+      }
+    // the database is open and migrated, but not ready while the fixture is still running
+    assertTrue(fixtureStarted.await(10, SECONDS))
+    assertFalse(FDroidDatabaseHolder.readyState.value)
+
+    fixtureMayFinish.countDown()
+    FDroidDatabaseHolder.readyState.first { it }
+    assertEquals(1, opening.await().getRepositoryDao().getRepositories().size)
+
+    // once ready, getDb returns the same instance without running the fixture again
+    val db = FDroidDatabaseHolder.getDb(context, name = DB_NAME, fixture = fixture)
+    assertSame(opening.await(), db)
+    assertEquals(1, fixtureRuns)
+
+    FDroidDatabaseHolder.closeDb()
+    assertFalse(FDroidDatabaseHolder.readyState.value)
+  }
+}
@@ -0,0 +1,159 @@
+package org.fdroid.database
+
+import androidx.room.Room
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import androidx.test.core.app.ApplicationProvider.getApplicationContext
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import java.io.ByteArrayOutputStream
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.long
+import org.fdroid.database.LatencyHistogram.Companion.getBucketIndex
+import org.fdroid.database.LatencyHistogram.Companion.getBucketUpperBound
+import org.fdroid.database.QueryMetrics.Companion.normalizeSql
+import org.fdroid.test.TestRepoUtils.getRandomRepo
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+internal class QueryMetricsTest {
+
+  private var now = 0L
+  private val metrics = QueryMetrics { now }.apply { sampleRate = 1.0 }
+
+  @Test
+  fun testBucketsCoverAllValues() {
+    var lastIndex = -1
+    for (value in (0L..10_000L) + listOf(1L shl 20, 1L shl 40, Long.MAX_VALUE)) {
+      val index = getBucketIndex(value)
+      assertTrue(index >= lastIndex, "Buckets must be monotonic")
+      assertTrue(value <= getBucketUpperBound(index) || value > 1L shl 40)
+      // the relative error stays below 12.5%
+      if (value in 1..(1L shl 40)) assertTrue(getBucketUpperBound(index) - value < value / 8.0 + 1)
+      lastIndex = index
+    }
+  }
+
+  @Test
+  fun testPercentiles() {
+    val histogram = LatencyHistogram()
+    assertEquals(0L, histogram.getPercentile(50.0))
+    repeat(90) { histogram.record(100) }
+    repeat(10) { histogram.record(10_000) }
+
+    assertEquals(getBucketUpperBound(getBucketIndex(100)), histogram.getPercentile(50.0))
+    assertEquals(getBucketUpperBound(getBucketIndex(100)), histogram.getPercentile(90.0))
+    assertEquals(getBucketUpperBound(getBucketIndex(10_000)), histogram.getPercentile(99.0))
+    assertEquals(100L, histogram.getBuckets().values.sum())
+  }
+
+  @Test
+  fun testNormalizeSql() {
+    assertEquals(
+      "SELECT * FROM App WHERE repoId = ? AND packageName IN (?) LIMIT ?",
+      normalizeSql(
+        """
+        SELECT * FROM App
+        WHERE repoId = 42 AND packageName IN (?, ?, ?)   LIMIT 1
+        """
+      ),
+    )
+    val sql = "SELECT * FROM App WHERE name = 'it''s'"
+    assertEquals("SELECT * FROM App WHERE name = ?", normalizeSql(sql))
+  }
+
+  @Test
+  fun testNothingRecordedWithoutSampling() {
+    metrics.sampleRate = 0.0
+    val db = createDb()
+    db.getRepositoryDao().getRepositories()
+    db.close()
+    assertTrue(metrics.getQueryStats().isEmpty())
+  }
+
+  @Test
+  fun testQueriesAndTransactionsAreRecorded() {
+    val db = createDb()
+    val repoDao = db.getRepositoryDao()
+    repeat(3) { repoDao.insertOrReplace(getRandomRepo()) }
+    repeat(2) { assertEquals(3, repoDao.getRepositories().size) }
+    db.close()
+
+    val repoStats = metrics.getQueryStats().find { it.sql.contains("FROM CoreRepository") }
+    val stats = assertNotNull(repoStats)
+    assertTrue(stats.count >= 2)
+    assertTrue(stats.rows >= 6)
+    assertTrue(metrics.transactions.count >= 3)
+
+    metrics.reset()
+    assertTrue(metrics.getQueryStats().isEmpty())
+    assertEquals(0L, metrics.transactions.count)
+  }
+
+  @Test
+  fun testNestedTransactionsCountOnce() {
+    metrics.onBeginTransaction()
+    now += 1_000_000
+    metrics.onBeginTransaction()
+    metrics.onEndTransaction(isOutermost = false)
+    now += 1_000_000
+    metrics.onEndTransaction(isOutermost = true)
+
+    assertEquals(1L, metrics.transactions.count)
+    assertEquals(2_000L, metrics.transactions.totalMicros)
+  }
+
+  @Test
+  fun testNestedTransactionsFollowOutermostSampling() {
+    // the outermost transaction isn't sampled, so the nested one isn't either
+    metrics.sampleRate = 0.0
+    metrics.onBeginTransaction()
+    metrics.sampleRate = 1.0
+    metrics.onBeginTransaction()
+    metrics.onEndTransaction(isOutermost = false)
+    metrics.onEndTransaction(isOutermost = true)
+    assertEquals(0L, metrics.transactions.count)
+
+    // the outermost transaction is sampled, so it includes the nested one
+    metrics.onBeginTransaction()
+    metrics.sampleRate = 0.0
+    now += 1_000_000
+    metrics.onBeginTransaction()
+    metrics.onEndTransaction(isOutermost = false)
+    now += 1_000_000
+    metrics.onEndTransaction(isOutermost = true)
+    assertEquals(1L, metrics.transactions.count)
+    assertEquals(2_000L, metrics.transactions.totalMicros)
+  }
+
+  @Test
+  fun testJsonExport() {
+    metrics.recordQuery("SELECT 1", startNanos = now, rows = 1)
+    now += 5_000
+    metrics.recordQuery("SELECT 2", startNanos = 0, rows = 1)
+
+    val outputStream = ByteArrayOutputStream()
+    metrics.writeJson(outputStream)
+    val json = Json.parseToJsonElement(outputStream.toString()).jsonObject
+    val queries = json["queries"]!!.jsonArray
+    // both statements are the same after normalization
+    assertEquals(1, queries.size)
+    val query = queries[0].jsonObject
+    assertEquals("SELECT ?", query["sql"]!!.jsonPrimitive.content)
+    assertEquals(2L, query["count"]!!.jsonPrimitive.long)
+    assertEquals(5L, query["maxMicros"]!!.jsonPrimitive.long)
+  }
+
+  private fun createDb(): FDroidDatabaseInt {
+    val factory = TimingOpenHelperFactory(FrameworkSQLiteOpenHelperFactory(), metrics = metrics)
+    return Room.inMemoryDatabaseBuilder(getApplicationContext(), FDroidDatabaseInt::class.java)
+      .openHelperFactory(factory)
+      .allowMainThreadQueries()
+      .build()
+  }
+}
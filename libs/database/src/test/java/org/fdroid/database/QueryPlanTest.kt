@@ -0,0 +1,172 @@
+package org.fdroid.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import java.io.File
+import kotlin.test.assertTrue
+import kotlin.test.fail
+import kotlin.text.RegexOption.DOT_MATCHES_ALL
+import kotlin.text.RegexOption.IGNORE_CASE
+import org.fdroid.test.TestAppUtils.getRandomMetadataV2
+import org.fdroid.test.TestRepoUtils.getRandomRepo
+import org.fdroid.test.TestVersionUtils.getRandomPackageVersionV2
+import org.junit.Test
+import org.junit.runner.RunWith
+
+private const val NUM_REPOS = 3
+private const val NUM_APPS = 300
+private const val NUM_VERSIONS = 3
+
+/** Tables with more rows than this in the fixture count as big tables that must not be scanned. */
+private const val BIG_TABLE_ROWS = 500
+
+private val DAO_FILES = listOf("AppDao.kt", "VersionDao.kt", "RepositoryDao.kt")
+private const val DAO_DIR = "src/main/java/org/fdroid/database"
+private const val RAW = "\"\"\""
+
+/**
+ * Queries that are expected to scan the given big tables, because they list or count (almost) all
+ * rows of them anyway. Any other scan of a big table likely indicates a missing index.
+ */
+private val ALLOWED_SCANS =
+  mapOf(
+    "AppDao.getAppMetadata()" to setOf(AppMetadata.TABLE),
+    "AppDao.getAppOverviewItems(limit)" to setOf(AppMetadata.TABLE, Version.TABLE),
+    "AppDao.getAppOverviewItems(category, limit)" to setOf(AppMetadata.TABLE, Version.TABLE),
+    "AppDao.getAppListItems(searchQuery)" to setOf(AppMetadata.TABLE, Version.TABLE),
+    "AppDao.getAppListItems(category, searchQuery)" to setOf(AppMetadata.TABLE, Version.TABLE),
+    "AppDao.getAppListItemsByName()" to setOf(AppMetadata.TABLE, Version.TABLE),
+    "AppDao.getAppListItemsByLastUpdated()" to setOf(AppMetadata.TABLE, Version.TABLE),
+    // the HighestVersion view gets materialized for all apps before filtering by author
+    "AppDao.getAppListItemsForAuthor(authorName, searchQuery)" to setOf(Version.TABLE),
+    // the PreferredRepo view gets materialized for all apps
+    "AppDao.hasAuthorMoreThanOneApp(author)" to setOf(AppMetadata.TABLE),
+    // the package names can't be pushed down into the PreferredRepo view from a joined CTE
+    "AppDao.getAppListItemsJoined(packageNames, width)" to setOf(AppMetadata.TABLE),
+    "AppDao.getAppSearchItems(searchQuery)" to setOf(AppMetadata.TABLE),
+    "AppDao.getNumberOfAppsInCategory(category)" to setOf(AppMetadata.TABLE),
+    "AppDao.countApps()" to setOf(AppMetadata.TABLE),
+    "AppDao.countLocalizedFiles()" to setOf(LocalizedFile.TABLE),
+    "AppDao.countLocalizedFileLists()" to setOf(LocalizedFileList.TABLE),
+    "VersionDao.countAppVersions()" to setOf(Version.TABLE),
+    "VersionDao.countVersionedStrings()" to setOf(VersionedString.TABLE),
+  )
+
+/**
+ * Runs `EXPLAIN QUERY PLAN` for every `@Query` in the DAOs against a DB filled with a large
+ * fixture and fails for unexpected full table scans of big tables.
+ *
+ * The queries are read from the DAO source files, so new queries get checked automatically. If
+ * this test fails for a new query, either add a suitable index (with a migration) or, if scanning
+ * the whole table is intended, add the query to [ALLOWED_SCANS].
+ */
+@RunWith(AndroidJUnit4::class)
+internal class QueryPlanTest : DbTest() {
+
+  private val queryRegex =
+    Regex("""@Query\(\s*(?:$RAW(.*?)$RAW|"((?:[^"\\]|\\.)*)")\s*\)""", DOT_MATCHES_ALL)
+  private val funRegex = Regex("""fun\s+(\w+)\s*\(([^)]*)\)""")
+  private val paramRegex = Regex("""(\w+)\s*:""")
+  private val tableRegex = Regex("\\$\\{(\\w+)\\.TABLE\\}")
+  private val aliasRegex = Regex("""(?:FROM|JOIN)\s+(\w+)(?:\s+AS\s+(\w+))?""", IGNORE_CASE)
+  private val scanRegex = Regex("""^SCAN (?:TABLE )?(\w+)""")
+
+  @Test
+  fun testNoUnexpectedTableScans() {
+    fillDb()
+    val bigTables = getBigTables()
+    assertTrue(Version.TABLE in bigTables, "Fixture too small: $bigTables")
+
+    val failures = mutableListOf<String>()
+    val queries = DAO_FILES.flatMap { getQueries(it) }
+    assertTrue(queries.size > 50, "Found only ${queries.size} queries")
+    queries.forEach { query ->
+      val aliases = getAliases(query.sql)
+      val scannedTables =
+        explain(query).mapNotNullTo(HashSet()) { detail ->
+          if (detail.contains("VIRTUAL TABLE")) return@mapNotNullTo null
+          val name = scanRegex.find(detail)?.groupValues?.get(1) ?: return@mapNotNullTo null
+          (aliases[name] ?: name).takeIf { it in bigTables }
+        }
+      val unexpected = scannedTables - ALLOWED_SCANS.getOrDefault(query.name, emptySet())
+      if (unexpected.isNotEmpty()) failures.add("${query.name} scans $unexpected")
+    }
+    if (failures.isNotEmpty()) fail(failures.joinToString("\n"))
+  }
+
+  private fun fillDb() =
+    db.runInTransaction {
+      repeat(NUM_REPOS) {
+        val repoId = repoDao.insertOrReplace(getRandomRepo())
+        // most apps are available in all repos, like in real-world setups with several repos
+        repeat(NUM_APPS) { i ->
+          val packageName = "org.example.app$i"
+          appDao.insert(repoId, packageName, getRandomMetadataV2(), locales)
+          val versions =
+            (1..NUM_VERSIONS).associate { v -> "$i.$v" to getRandomPackageVersionV2(v.toLong()) }
+          versionDao.insert(repoId, packageName, versions) { true }
+        }
+      }
+    }
+
+  private fun getBigTables(): Set<String> {
+    val tables = mutableListOf<String>()
+    db.openHelper.readableDatabase
+      .query("SELECT name FROM sqlite_master WHERE type = 'table' AND sql NOT LIKE '%VIRTUAL%'")
+      .use { cursor -> while (cursor.moveToNext()) tables.add(cursor.getString(0)) }
+    return tables.filterTo(HashSet()) { table ->
+      db.openHelper.readableDatabase.query("SELECT COUNT(*) FROM `$table`").use { cursor ->
+        cursor.moveToFirst() && cursor.getLong(0) > BIG_TABLE_ROWS
+      }
+    }
+  }
+
+  private fun getQueries(fileName: String): List<DaoQuery> {
+    val file = File(DAO_DIR, fileName)
+    assertTrue(file.isFile, "Could not find ${file.absolutePath}")
+    val source = file.readText()
+    val daoName = fileName.removeSuffix(".kt")
+    return queryRegex
+      .findAll(source)
+      .map { match ->
+        val sql = match.groupValues[1].ifEmpty { match.groupValues[2].replace("\\\"", "\"") }
+        val function =
+          funRegex.find(source, match.range.last) ?: fail("No function after ${match.value}")
+        val params = paramRegex.findAll(function.groupValues[2]).map { it.groupValues[1] }
+        val name = "$daoName.${function.groupValues[1]}(${params.joinToString(", ")})"
+        DaoQuery(name, resolveTemplates(name, sql))
+      }
+      .toList()
+  }
+
+  private fun resolveTemplates(name: String, sql: String): String {
+    val resolved = tableRegex.replace(sql) { it.groupValues[1] }
+    val result =
+      resolved
+        .replace("\${Int.MAX_VALUE}", Int.MAX_VALUE.toString())
+        .replace("\${PACKAGE_NAME_LIST_CTE}", PACKAGE_NAME_LIST_CTE)
+    // plain $NAME templates would end up as SQLite bind parameters
+    if (Regex("\\$[A-Za-z_{]").containsMatchIn(result)) fail("Unknown template in $name: $result")
+    return result
+  }
+
+  private fun getAliases(sql: String): Map<String, String> = buildMap {
+    aliasRegex.findAll(sql).forEach { match ->
+      val table = match.groupValues[1]
+      put(table, table)
+      if (match.groupValues[2].isNotEmpty()) put(match.groupValues[2], table)
+    }
+  }
+
+  private fun explain(query: DaoQuery): List<String> {
+    val sql = query.sql.replace(Regex(":\\w+"), "?")
+    val args = arrayOfNulls<Any>(sql.count { it == '?' })
+    val details = mutableListOf<String>()
+    db.openHelper.readableDatabase.query("EXPLAIN QUERY PLAN $sql", args).use { cursor ->
+      val column = cursor.getColumnIndexOrThrow("detail")
+      while (cursor.moveToNext()) details.add(cursor.getString(column))
+    }
+    return details
+  }
+
+  private data class DaoQuery(val name: String, val sql: String)
+}
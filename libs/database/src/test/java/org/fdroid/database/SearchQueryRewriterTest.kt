@@ -1,6 +1,8 @@
 package org.fdroid.database
 
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 import org.junit.Test
 
 internal class SearchQueryRewriterTest {
@@ -51,4 +53,18 @@ internal class SearchQueryRewriterTest {
       SearchQueryRewriter.rewriteQuery("foo 測試"),
     )
   }
+
+  @Test
+  fun detectsRefinementOfSingleWords() {
+    assertTrue(SearchQueryRewriter.isRefinement("fd", "fdr"))
+    assertTrue(SearchQueryRewriter.isRefinement("F-D", "f-droid"))
+    assertFalse(SearchQueryRewriter.isRefinement("fdr", "fdr"))
+    assertFalse(SearchQueryRewriter.isRefinement("fdr", "fd"))
+    assertFalse(SearchQueryRewriter.isRefinement("fd", "gdr"))
+    assertFalse(SearchQueryRewriter.isRefinement("", "fd"))
+    // multiple words, separators and CJK get rewritten to more complex queries
+    assertFalse(SearchQueryRewriter.isRefinement("foo", "foo b"))
+    assertFalse(SearchQueryRewriter.isRefinement("org", "org.fd"))
+    assertFalse(SearchQueryRewriter.isRefinement("測", "測試"))
+  }
 }
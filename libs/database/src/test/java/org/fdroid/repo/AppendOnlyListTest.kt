@@ -0,0 +1,48 @@
+package org.fdroid.repo
+
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+import org.junit.Test
+
+internal class AppendOnlyListTest {
+
+  @Test
+  fun testSnapshotsDontChange() {
+    val list = AppendOnlyList<String>(initialCapacity = 2)
+    assertEquals(emptyList(), list.snapshot())
+
+    list.add("a")
+    val snapshot1 = list.snapshot()
+    list.add("b")
+    list.add("c") // grows the backing array
+    val snapshot3 = list.snapshot()
+    list.add("d")
+
+    assertEquals(listOf("a"), snapshot1)
+    assertEquals(listOf("a", "b", "c"), snapshot3)
+    assertEquals(listOf("a", "b", "c", "d"), list.snapshot())
+    assertEquals(4, list.size)
+    assertFailsWith<IndexOutOfBoundsException> { snapshot3[3] }
+  }
+
+  @Test
+  fun testSnapshotsDontCopyElements() {
+    val numElements = 4000
+    val list = AppendOnlyList<String>()
+    // the capacity only changes when a new backing array gets allocated
+    var allocatedSlots = list.capacity
+    val snapshots =
+      List(numElements) { i ->
+        val capacity = list.capacity
+        list.add("element $i")
+        if (list.capacity != capacity) allocatedSlots += list.capacity
+        list.snapshot()
+      }
+
+    assertEquals(List(numElements) { "element $it" }, snapshots.last())
+    snapshots.forEachIndexed { i, snapshot -> assertEquals(i + 1, snapshot.size) }
+    // copying all elements for each snapshot would need numElements² / 2 = 8,000,000 slots
+    assertTrue(allocatedSlots < 2 * 4096, "Allocated $allocatedSlots slots")
+  }
+}
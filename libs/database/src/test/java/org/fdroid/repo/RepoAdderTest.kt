@@ -29,6 +29,7 @@ import kotlin.test.assertIs
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
 import kotlin.test.fail
+import kotlin.time.TestTimeSource
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
@@ -54,6 +55,8 @@ import org.fdroid.index.IndexUpdateResult
 import org.fdroid.index.SigningException
 import org.fdroid.index.TempFileProvider
 import org.fdroid.index.v2.IndexV2
+import org.fdroid.index.v2.MetadataV2
+import org.fdroid.index.v2.PackageV2
 import org.fdroid.index.v2.RepoV2
 import org.fdroid.repo.AddRepoError.ErrorType.INVALID_FINGERPRINT
 import org.fdroid.repo.AddRepoError.ErrorType.INVALID_INDEX
@@ -106,6 +109,8 @@ internal class RepoAdderTest {
         downloaderFactory = downloaderFactory,
         httpManager = httpManager,
         compatibilityChecker = compatibilityChecker,
+        // time doesn't pass, so app previews only get published in chunks
+        timeSource = TestTimeSource(),
       )
   }
 
@@ -703,6 +708,62 @@ internal class RepoAdderTest {
     }
   }
 
+  @Test
+  fun testLargeRepoPreviewGetsPublishedInChunks() = runTest {
+    val repoAddress = "https://example.org/repo"
+    val numApps = 4000
+    val jarFile = folder.newFile()
+    val repoV2 = RepoV2(address = repoAddress, timestamp = 42L)
+    val packages =
+      (1..numApps).associate { i ->
+        "org.example.app$i" to
+          PackageV2(MetadataV2(name = mapOf("en-US" to "App $i"), added = 1L, lastUpdated = 2L))
+      }
+    val indexV2 = IndexV2(repo = repoV2, packages = packages)
+    val index = json.encodeToString(IndexV2.serializer(), indexV2).toByteArray()
+    val indexStream = DigestInputStream(ByteArrayInputStream(index), digest)
+
+    every { tempFileProvider.createTempFile(any()) } returns jarFile
+    every {
+      downloaderFactory.create(
+        repo = match { it.address == repoAddress && it.formatVersion == IndexFormatVersion.TWO },
+        uri = Uri.parse("$repoAddress/entry.jar"),
+        indexFile = any(),
+        destFile = jarFile,
+      )
+    } returns downloader
+    every { downloader.download() } answers
+      {
+        jarFile.outputStream().use { outputStream ->
+          getRes("diff-empty-min/entry.jar").use { inputStream -> inputStream.copyTo(outputStream) }
+        }
+      }
+    coEvery { httpManager.getDigestInputStream(any()) } returns indexStream
+    every {
+      digest.digest() // sha256 from entry.json
+    } returns "851ecda085ed53adab25f761a9dbf4c09d59e5bff9c9d5530814d56445ae30f2".decodeHex()
+    // repo not in DB
+    every { repoDao.getRepository(any<String>()) } returns null
+
+    // collecting unconfined records every single state, not only the latest one
+    val states = mutableListOf<Fetching>()
+    backgroundScope.launch(Dispatchers.Unconfined) {
+      repoAdder.addRepoState.collect { if (it is Fetching) states.add(it) }
+    }
+    repoAdder.fetchRepositoryInt(repoAddress)
+
+    // early state, repo, first app, chunks and final state
+    val expectedSizes =
+      listOf(0, 0, 1) + (1 + PREVIEW_CHUNK_SIZE until numApps step PREVIEW_CHUNK_SIZE) + numApps
+    assertEquals(expectedSizes, states.map { it.apps.size })
+    assertTrue(states.last().done)
+    assertEquals(packages.keys.toList(), states.last().apps.map { it.packageName })
+    // earlier states don't see apps that were added after them
+    states.forEach { state ->
+      assertEquals(packages.keys.take(state.apps.size), state.apps.map { it.packageName })
+    }
+  }
+
   @Test
   fun testFallbackToV1() = runTest {
     val url = "http://testy.at.or.at/fdroid/repo/"
@@ -750,7 +811,8 @@ internal class RepoAdderTest {
       assertNull(state1.receivedRepo)
       assertTrue(state1.apps.isEmpty())
 
-      for (i in 0..64) assertIs<Fetching>(awaitItem())
+      // the repo, the first app and the final state with all apps
+      repeat(3) { assertIs<Fetching>(awaitItem()) }
     }
     val addRepoState = repoAdder.addRepoState.value
     assertIs<Fetching>(addRepoState)
@@ -981,14 +1043,7 @@ internal class RepoAdderTest {
       assertEquals(1, state.apps.size)
       assertEquals(TestDataMidV2.PACKAGE_NAME_1, state.apps[0].packageName)
       assertFalse(state.done)
-
-      // onAppReceived (second app)
-      val stateNext = awaitItem()
-      assertIs<Fetching>(stateNext)
-      assertEquals(TestDataMidV2.packages.size, stateNext.apps.size)
-      assertEquals(TestDataMidV2.PACKAGE_NAME_1, stateNext.apps[0].packageName)
-      assertEquals(TestDataMidV2.PACKAGE_NAME_2, stateNext.apps[1].packageName)
-      assertFalse(stateNext.done)
+      // the second app only gets published with the final state
     }
   }
 
@@ -11,6 +11,8 @@ import mu.KotlinLogging
 import org.fdroid.IndexFile
 import org.fdroid.fdroid.ProgressListener
 import org.fdroid.fdroid.isMatching
+import org.fdroid.trace
+import org.fdroid.traceAsync
 
 public abstract class Downloader(
   protected val indexFile: IndexFile,
@@ -101,30 +103,11 @@ public abstract class Downloader(
         else {
           MessageDigest.getInstance("SHA-256")
         }
-      var bytesCopied = outputFile.length()
+      val bytesCopied = outputFile.length()
       // read pre-downloaded bytes (if any) for hash to match
       if (bytesCopied > 0 && messageDigest != null) outputFile.initDigest(messageDigest)
       FileOutputStream(outputFile, isResume).use { outputStream ->
-        var lastTimeReported = 0L
-        val bytesTotal = totalDownloadSize()
-        getBytes(isResume) { bytes, numTotalBytes ->
-          // Getting the input stream is slow(ish) for HTTP downloads, so we'll check if
-          // we were interrupted before proceeding to the download.
-          throwExceptionIfInterrupted()
-          outputStream.write(bytes)
-          messageDigest?.update(bytes)
-          bytesCopied += bytes.size
-          val total = if (bytesTotal == -1L) numTotalBytes ?: -1L else bytesTotal
-          lastTimeReported = reportProgress(lastTimeReported, bytesCopied, total)
-        }
-        // check if expected sha256 hash matches
-        indexFile.sha256?.let { expectedHash ->
-          if (!messageDigest.isMatching(expectedHash)) {
-            throw IOException("Hash not matching")
-          }
-        }
-        // force progress reporting at the end
-        reportProgress(0L, bytesCopied, bytesTotal)
+        copyBytesToOutputStream(isResume, outputStream, bytesCopied, messageDigest)
       }
       // Even if we have completely downloaded the file, we should probably respect
       // the wishes of the user who wanted to cancel us.
@@ -135,34 +118,45 @@ public abstract class Downloader(
   }
 
   /**
-   * This copies the downloaded data from the [InputStream] to the [OutputStream], keeping track of
-   * the number of bytes that have flown through for the [progressListener].
-   *
-   * Attention: The caller is responsible for closing the streams.
+   * Like [downloadFromBytesReceiver], but writes into the given [outputStream] and never resumes.
+   * The caller is responsible for closing the [outputStream].
    */
-  @Throws(IOException::class, InterruptedException::class)
-  private fun copyInputToOutputStream(input: InputStream, output: OutputStream) {
-    val messageDigest: MessageDigest? =
-      if (indexFile.sha256 == null) null
-      else {
-        MessageDigest.getInstance("SHA-256")
-      }
+  @Throws(InterruptedException::class, IOException::class, NotFoundException::class)
+  protected suspend fun streamFromBytesReceiver(outputStream: OutputStream) {
     try {
-      var bytesCopied = outputFile.length()
-      // read pre-downloaded bytes (if any) for hash to match
-      if (bytesCopied > 0 && messageDigest != null) outputFile.initDigest(messageDigest)
+      val messageDigest: MessageDigest? =
+        if (indexFile.sha256 == null) null
+        else {
+          MessageDigest.getInstance("SHA-256")
+        }
+      copyBytesToOutputStream(false, outputStream, 0L, messageDigest)
+      outputStream.flush()
+      throwExceptionIfInterrupted()
+    } finally {
+      close()
+    }
+  }
 
+  @Suppress("BlockingMethodInNonBlockingContext")
+  private suspend fun copyBytesToOutputStream(
+    isResume: Boolean,
+    outputStream: OutputStream,
+    bytesAlreadyCopied: Long,
+    messageDigest: MessageDigest?,
+  ) {
+    traceAsync("Downloader.download", "file" to indexFile.name) {
+      var bytesCopied = bytesAlreadyCopied
       var lastTimeReported = 0L
       val bytesTotal = totalDownloadSize()
-      val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
-      var numBytes = input.read(buffer)
-      while (numBytes >= 0) {
+      getBytes(isResume) { bytes, numTotalBytes ->
+        // Getting the input stream is slow(ish) for HTTP downloads, so we'll check if
+        // we were interrupted before proceeding to the download.
         throwExceptionIfInterrupted()
-        output.write(buffer, 0, numBytes)
-        messageDigest?.update(buffer, 0, numBytes)
-        bytesCopied += numBytes
-        lastTimeReported = reportProgress(lastTimeReported, bytesCopied, bytesTotal)
-        numBytes = input.read(buffer)
+        outputStream.write(bytes)
+        messageDigest?.update(bytes)
+        bytesCopied += bytes.size
+        val total = if (bytesTotal == -1L) numTotalBytes ?: -1L else bytesTotal
+        lastTimeReported = reportProgress(lastTimeReported, bytesCopied, total)
       }
       // check if expected sha256 hash matches
       indexFile.sha256?.let { expectedHash ->
@@ -172,9 +166,52 @@ public abstract class Downloader(
       }
       // force progress reporting at the end
       reportProgress(0L, bytesCopied, bytesTotal)
-    } finally {
-      output.flush()
-      progressListener = null
+    }
+  }
+
+  /**
+   * This copies the downloaded data from the [InputStream] to the [OutputStream], keeping track of
+   * the number of bytes that have flown through for the [progressListener].
+   *
+   * Attention: The caller is responsible for closing the streams.
+   */
+  @Throws(IOException::class, InterruptedException::class)
+  private fun copyInputToOutputStream(input: InputStream, output: OutputStream) {
+    trace("Downloader.download", "file" to indexFile.name) {
+      val messageDigest: MessageDigest? =
+        if (indexFile.sha256 == null) null
+        else {
+          MessageDigest.getInstance("SHA-256")
+        }
+      try {
+        var bytesCopied = outputFile.length()
+        // read pre-downloaded bytes (if any) for hash to match
+        if (bytesCopied > 0 && messageDigest != null) outputFile.initDigest(messageDigest)
+
+        var lastTimeReported = 0L
+        val bytesTotal = totalDownloadSize()
+        val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        var numBytes = input.read(buffer)
+        while (numBytes >= 0) {
+          throwExceptionIfInterrupted()
+          output.write(buffer, 0, numBytes)
+          messageDigest?.update(buffer, 0, numBytes)
+          bytesCopied += numBytes
+          lastTimeReported = reportProgress(lastTimeReported, bytesCopied, bytesTotal)
+          numBytes = input.read(buffer)
+        }
+        // check if expected sha256 hash matches
+        indexFile.sha256?.let { expectedHash ->
+          if (!messageDigest.isMatching(expectedHash)) {
+            throw IOException("Hash not matching")
+          }
+        }
+        // force progress reporting at the end
+        reportProgress(0L, bytesCopied, bytesTotal)
+      } finally {
+        output.flush()
+        progressListener = null
+      }
     }
   }
 
@@ -217,12 +254,14 @@ public abstract class Downloader(
 
   @Throws(IOException::class)
   private fun File.initDigest(messageDigest: MessageDigest) {
-    FileInputStream(this).use { inputStream ->
-      val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
-      var bytes = inputStream.read(buffer)
-      while (bytes >= 0) {
-        messageDigest.update(buffer, 0, bytes)
-        bytes = inputStream.read(buffer)
+    trace("Downloader.hashPartialFile", "file" to indexFile.name) {
+      FileInputStream(this).use { inputStream ->
+        val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        var bytes = inputStream.read(buffer)
+        while (bytes >= 0) {
+          messageDigest.update(buffer, 0, bytes)
+          bytes = inputStream.read(buffer)
+        }
       }
     }
   }
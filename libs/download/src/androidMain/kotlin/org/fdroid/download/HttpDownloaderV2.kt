@@ -26,6 +26,7 @@ import io.ktor.http.HttpStatusCode.Companion.NotFound
 import java.io.File
 import java.io.IOException
 import java.io.InputStream
+import java.io.OutputStream
 import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
 import kotlinx.coroutines.runBlocking
@@ -37,7 +38,7 @@ public class HttpDownloaderV2(
   private val httpManager: HttpManager,
   private val request: DownloadRequest,
   destFile: File,
-) : Downloader(request.indexFile, destFile) {
+) : Downloader(request.indexFile, destFile), StreamingDownloader {
 
   private companion object {
     val log = KotlinLogging.logger {}
@@ -93,6 +94,12 @@ public class HttpDownloaderV2(
     }
   }
 
+  @Throws(IOException::class, InterruptedException::class, NotFoundException::class)
+  override fun downloadToStream(outputStream: OutputStream) {
+    log.debug { "Streaming ${request.indexFile.name}" }
+    runBlocking { streamFromBytesReceiver(outputStream) }
+  }
+
   override fun totalDownloadSize(): Long = request.indexFile.size ?: -1L
 
   @Deprecated("Only for v1 repos")
@@ -0,0 +1,19 @@
+package org.fdroid.download
+
+import java.io.IOException
+import java.io.OutputStream
+
+/** A [Downloader] that can also download straight into an [OutputStream]. */
+public interface StreamingDownloader {
+  /**
+   * Downloads the file straight into the given [outputStream] instead of the downloader's output
+   * file, so it does not need to be written to disk first. The expected hash gets checked at the
+   * end and an [IOException] thrown, if it does not match. Then, the caller must discard what was
+   * written.
+   *
+   * Nothing gets kept for resuming an interrupted download, so use [Downloader.download] for that.
+   * Never call this more than once.
+   */
+  @Throws(IOException::class, InterruptedException::class, NotFoundException::class)
+  public fun downloadToStream(outputStream: OutputStream)
+}
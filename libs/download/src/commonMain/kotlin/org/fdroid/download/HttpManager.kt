@@ -36,8 +36,10 @@ import io.ktor.utils.io.exhausted
 import io.ktor.utils.io.readRemaining
 import java.io.ByteArrayOutputStream
 import kotlin.coroutines.cancellation.CancellationException
+import kotlin.time.TimeSource
 import kotlinx.io.readByteArray
 import mu.KotlinLogging
+import org.fdroid.traceAsync
 
 internal expect fun getHttpClientEngineFactory(customDns: CustomDns?): HttpClientEngineFactory<*>
 
@@ -112,13 +114,19 @@ constructor(
         mirrorChooser.mirrorRequest(request) { mirror, url ->
           resetProxyIfNeeded(request.proxy, mirror)
           log.debug { "HEAD $url" }
-          httpClient.head(url) {
-            addQueryParameters()
-            // add authorization header from username / password if set
-            basicAuth(request)
-            // increase connect timeout if using Tor mirror
-            if (mirror.isOnion()) timeout { connectTimeoutMillis = 10_000 }
-          }
+          val timeMark = TimeSource.Monotonic.markNow()
+          httpClient
+            .head(url) {
+              addQueryParameters()
+              // add authorization header from username / password if set
+              basicAuth(request)
+              // increase connect timeout if using Tor mirror
+              if (mirror.isOnion()) timeout { connectTimeoutMillis = 10_000 }
+            }
+            .also {
+              val millis = timeMark.elapsedNow().inWholeMilliseconds
+              mirrorParameterManager?.reportMirrorLatency(mirror.baseUrl, millis)
+            }
         }
       } catch (e: ResponseException) {
         log.warn { "Error getting HEAD: ${e.response.status}" }
@@ -144,18 +152,36 @@ constructor(
     // remember what we've read already, so we can pass it to the next mirror if needed
     var skipBytes = skipFirstBytes ?: 0L
     mirrorChooser.mirrorRequest(request) { mirror, url ->
-      getHttpStatement(request, mirror, url, skipBytes).execute { response ->
-        val contentLength = response.contentLength()
-        if (skipBytes > 0L && response.status != PartialContent) {
-          throw NoResumeException()
-        }
-        val channel: ByteReadChannel = response.bodyAsChannel()
-        val readBufferSize = DEFAULT_BUFFER_SIZE.toLong() * 8
-        while (!channel.exhausted()) {
-          val packet = channel.readRemaining(readBufferSize)
-          val readBytes = packet.readByteArray()
-          receiver.receive(readBytes, contentLength)
-          skipBytes += readBytes.size
+      // one section per mirror, so failing mirrors show up as short sections before the last one
+      traceAsync("HttpManager.get", "mirror" to mirror.baseUrl) {
+        val timeMark = TimeSource.Monotonic.markNow()
+        getHttpStatement(request, mirror, url, skipBytes).execute { response ->
+          val contentLength = response.contentLength()
+          if (skipBytes > 0L && response.status != PartialContent) {
+            throw NoResumeException()
+          }
+          val timeToFirstByte = timeMark.elapsedNow()
+          mirrorParameterManager?.reportMirrorLatency(
+            mirror.baseUrl,
+            timeToFirstByte.inWholeMilliseconds,
+          )
+          val channel: ByteReadChannel = response.bodyAsChannel()
+          val readBufferSize = DEFAULT_BUFFER_SIZE.toLong() * 8
+          var bytesFromMirror = 0L
+          while (!channel.exhausted()) {
+            val packet = channel.readRemaining(readBufferSize)
+            val readBytes = packet.readByteArray()
+            receiver.receive(readBytes, contentLength)
+            skipBytes += readBytes.size
+            bytesFromMirror += readBytes.size
+          }
+          // time to first byte was already reported, so only count the body transfer here
+          val duration = timeMark.elapsedNow() - timeToFirstByte
+          mirrorParameterManager?.reportMirrorThroughput(
+            mirror.baseUrl,
+            bytesFromMirror,
+            duration.inWholeMilliseconds,
+          )
         }
       }
     }
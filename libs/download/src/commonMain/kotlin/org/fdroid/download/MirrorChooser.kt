@@ -4,6 +4,7 @@ import io.ktor.client.plugins.ResponseException
 import io.ktor.http.HttpStatusCode.Companion.Forbidden
 import io.ktor.http.HttpStatusCode.Companion.NotFound
 import io.ktor.http.Url
+import kotlin.random.Random
 import kotlinx.io.IOException
 import mu.KotlinLogging
 
@@ -114,40 +115,64 @@ internal class MirrorChooserRandom : MirrorChooserImpl() {
 }
 
 internal class MirrorChooserWithParameters(
-  private val mirrorParameterManager: MirrorParameterManager? = null
+  private val mirrorParameterManager: MirrorParameterManager? = null,
+  private val random: Random = Random.Default,
+  private val explorationRate: Double = EXPLORATION_RATE,
 ) : MirrorChooserImpl() {
 
+  companion object {
+    /**
+     * The share of requests where a random mirror of the preferred group is tried first, so that
+     * mirrors with bad statistics get a chance to recover their ranking.
+     */
+    internal const val EXPLORATION_RATE = 0.05
+  }
+
   override fun orderMirrors(downloadRequest: DownloadRequest): List<Mirror> {
-    val errorComparator = Comparator { mirror1: Mirror, mirror2: Mirror ->
+    // look up parameters only once per mirror, not for each comparison
+    val errorCounts = downloadRequest.mirrors.associateWith { mirror ->
       // if no parameter manager is available, default to 0 (should return equal)
-      val error1 = mirrorParameterManager?.getMirrorErrorCount(mirror1.baseUrl) ?: 0
-      val error2 = mirrorParameterManager?.getMirrorErrorCount(mirror2.baseUrl) ?: 0
-
+      mirrorParameterManager?.getMirrorErrorCount(mirror.baseUrl) ?: 0
+    }
+    val scores = downloadRequest.mirrors.associateWith { mirror ->
+      mirrorParameterManager?.getMirrorScore(mirror.baseUrl)
+    }
+    val mirrorComparator = Comparator { mirror1: Mirror, mirror2: Mirror ->
       // prefer mirrors with fewer errors
-      error1.compareTo(error2)
+      val errorComparison = errorCounts.getValue(mirror1).compareTo(errorCounts.getValue(mirror2))
+      if (errorComparison != 0) return@Comparator errorComparison
+      // then prefer faster mirrors, mirrors without score come first, so they get measured
+      compareValues(scores[mirror1], scores[mirror2])
     }
 
-    val mirrorList: MutableList<Mirror> = mutableListOf()
-
-    if (
-      mirrorParameterManager != null && mirrorParameterManager.getCurrentLocation().isNotEmpty()
-    ) {
-      // if we have access to mirror parameters and the current location,
-      // then use that information to sort the mirror list
-      val mirrorFilteredList: List<Mirror> =
+    val mirrorGroups: List<List<Mirror>> =
+      if (
+        mirrorParameterManager != null && mirrorParameterManager.getCurrentLocation().isNotEmpty()
+      ) {
+        // if we have access to mirror parameters and the current location,
+        // then use that information to sort the mirror list
         sortMirrorsByLocation(
           mirrorParameterManager.preferForeignMirrors(),
           downloadRequest.mirrors,
           mirrorParameterManager.getCurrentLocation(),
-          errorComparator,
+          mirrorComparator,
         )
-      mirrorList.addAll(mirrorFilteredList)
-    } else {
-      // shuffle initial list so all viable mirrors will be tried
-      // then sort list to avoid mirrors that have caused errors
-      val mirrorCompleteList: List<Mirror> =
-        downloadRequest.mirrors.toMutableList().apply { shuffle() }.sortedWith(errorComparator)
-      mirrorList.addAll(mirrorCompleteList)
+      } else {
+        // shuffle initial list so all viable mirrors will be tried
+        // then sort list to avoid mirrors that have caused errors or are slow
+        val mirrors = downloadRequest.mirrors.toMutableList().apply { shuffle(random) }
+        listOf(mirrors.sortedWith(mirrorComparator))
+      }
+
+    val mirrorList: MutableList<Mirror> = mutableListOf()
+    val firstGroupIndex = mirrorGroups.indexOfFirst { it.isNotEmpty() }
+    mirrorGroups.forEachIndexed { index, group ->
+      // only explore within the first group, so we don't override location preferences
+      if (index == firstGroupIndex) {
+        mirrorList.addAll(maybeExplore(group))
+      } else {
+        mirrorList.addAll(group)
+      }
     }
 
     // respect the mirror to try first, if set
@@ -158,17 +183,27 @@ internal class MirrorChooserWithParameters(
     return mirrorList
   }
 
+  /**
+   * With a probability of [explorationRate], moves a random mirror of the given [group] to the
+   * front. Without this, a mirror that was slow once would never get measured again.
+   */
+  private fun maybeExplore(group: List<Mirror>): List<Mirror> {
+    if (group.size < 2 || random.nextDouble() >= explorationRate) return group
+    val explored = group[random.nextInt(1, group.size)]
+    log.debug { "Exploring mirror ${explored.baseUrl}" }
+    return listOf(explored) + (group - explored)
+  }
+
   private fun sortMirrorsByLocation(
     foreignMirrorsPreferred: Boolean,
     availableMirrorList: List<Mirror>,
     currentLocation: String,
     mirrorComparator: Comparator<Mirror>,
-  ): List<Mirror> {
+  ): List<List<Mirror>> {
     // shuffle initial list so all viable mirrors will be tried
-    // then sort list to avoid mirrors that have caused errors
-    val mirrorList: MutableList<Mirror> = mutableListOf<Mirror>()
+    // then sort list to avoid mirrors that have caused errors or are slow
     val sortedList: List<Mirror> =
-      availableMirrorList.toMutableList().apply { shuffle() }.sortedWith(mirrorComparator)
+      availableMirrorList.toMutableList().apply { shuffle(random) }.sortedWith(mirrorComparator)
 
     val domesticList: List<Mirror> = sortedList.filter { mirror ->
       !mirror.countryCode.isNullOrEmpty() && currentLocation == mirror.countryCode
@@ -180,16 +215,11 @@ internal class MirrorChooserWithParameters(
       mirror.countryCode.isNullOrEmpty()
     }
 
-    if (foreignMirrorsPreferred) {
-      mirrorList.addAll(foreignList)
-      mirrorList.addAll(unknownList)
-      mirrorList.addAll(domesticList)
+    return if (foreignMirrorsPreferred) {
+      listOf(foreignList, unknownList, domesticList)
     } else {
-      mirrorList.addAll(domesticList)
-      mirrorList.addAll(foreignList)
-      mirrorList.addAll(unknownList)
+      listOf(domesticList, foreignList, unknownList)
     }
-    return mirrorList
   }
 
   override suspend fun <T> executeRequest(
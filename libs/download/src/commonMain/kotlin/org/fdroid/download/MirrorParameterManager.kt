@@ -5,7 +5,8 @@ package org.fdroid.download
  * additional dependencies. The expectation is that this will be used to store and retrieve data
  * about mirror performance to use when ordering mirror for subsequent tests.
  *
- * Currently it supports success and error count, but other parameters could be added later.
+ * Currently it supports error count, latency and throughput, but other parameters could be added
+ * later.
  */
 public interface MirrorParameterManager {
 
@@ -17,6 +18,21 @@ public interface MirrorParameterManager {
 
   public fun getMirrorErrorCount(mirrorUrl: String): Int
 
+  /**
+   * Reports that the specified mirror started answering a request after [timeToFirstByteMillis].
+   * This also means that the request to this mirror was successful.
+   */
+  public fun reportMirrorLatency(mirrorUrl: String, timeToFirstByteMillis: Long) {}
+
+  /** Reports that the specified mirror delivered [bytes] in [durationMillis]. */
+  public fun reportMirrorThroughput(mirrorUrl: String, bytes: Long, durationMillis: Long) {}
+
+  /**
+   * Returns a score for the specified mirror based on previously reported statistics, lower is
+   * better. Returns null, if nothing is known about the mirror, so it should get tried.
+   */
+  public fun getMirrorScore(mirrorUrl: String): Double? = null
+
   /**
    * Cache the ip addresses for a mirror to bypass DNS lookups. The interface assumes the mirror
    * will include the ip addresses in string format so they will need to be converted.
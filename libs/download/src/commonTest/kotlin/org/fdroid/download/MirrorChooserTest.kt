@@ -207,7 +207,7 @@ class MirrorChooserTest {
     every { mockManager.getMirrorErrorCount("local_2") } returns 3
     every { mockManager.getMirrorErrorCount("local_3") } returns 1
 
-    val mirrorChooser = MirrorChooserWithParameters(mockManager)
+    val mirrorChooser = MirrorChooserWithParameters(mockManager, explorationRate = 0.0)
 
     // test error sorting with domestic mirror preference
     val orderedList = mirrorChooser.orderMirrors(downloadRequestLocation)
@@ -271,4 +271,62 @@ class MirrorChooserTest {
     // no foreign urls should should have appeared first in the list
     assertEquals(0, countX)
   }
+
+  @Test
+  fun testMirrorChooserScoreSort() {
+    val mockManager = mockk<MirrorParameterManager>(relaxed = true)
+    every { mockManager.getCurrentLocation() } returns "HERE"
+    every { mockManager.preferForeignMirrors() } returns false
+    every { mockManager.getMirrorErrorCount(any()) } returns 0
+    every { mockManager.getMirrorScore("local_1") } returns 300.0
+    every { mockManager.getMirrorScore("local_2") } returns 100.0
+    every { mockManager.getMirrorScore("local_3") } returns null
+
+    val mirrorChooser = MirrorChooserWithParameters(mockManager, explorationRate = 0.0)
+
+    val orderedList = mirrorChooser.orderMirrors(downloadRequestLocation)
+    assertEquals(9, orderedList.size)
+    // unknown mirrors come first, so they get measured, then faster mirrors before slower ones
+    assertEquals("local_3", orderedList[0].baseUrl)
+    assertEquals("local_2", orderedList[1].baseUrl)
+    assertEquals("local_1", orderedList[2].baseUrl)
+  }
+
+  @Test
+  fun testMirrorChooserErrorsBeforeScore() {
+    val mockManager = mockk<MirrorParameterManager>(relaxed = true)
+    every { mockManager.getCurrentLocation() } returns ""
+    every { mockManager.getMirrorErrorCount(any()) } returns 0
+    every { mockManager.getMirrorErrorCount("foo") } returns 1
+    every { mockManager.getMirrorScore(any()) } returns 500.0
+    every { mockManager.getMirrorScore("foo") } returns 1.0
+
+    val mirrorChooser = MirrorChooserWithParameters(mockManager, explorationRate = 0.0)
+
+    // even though it is the fastest, the mirror with errors comes last
+    val orderedList = mirrorChooser.orderMirrors(downloadRequest)
+    assertEquals(mirrors.toSet(), orderedList.toSet())
+    assertEquals("foo", orderedList.last().baseUrl)
+  }
+
+  @Test
+  fun testMirrorChooserExploration() {
+    val mockManager = mockk<MirrorParameterManager>(relaxed = true)
+    every { mockManager.getCurrentLocation() } returns "HERE"
+    every { mockManager.preferForeignMirrors() } returns false
+    every { mockManager.getMirrorErrorCount(any()) } returns 0
+    every { mockManager.getMirrorScore(any()) } returns 1000.0
+    every { mockManager.getMirrorScore("local_1") } returns 1.0
+
+    val mirrorChooser = MirrorChooserWithParameters(mockManager, explorationRate = 1.0)
+
+    repeat(20) {
+      val orderedList = mirrorChooser.orderMirrors(downloadRequestLocation)
+      assertEquals(9, orderedList.size)
+      // another mirror gets explored, but it is still a domestic one
+      assertTrue(orderedList[0].baseUrl != "local_1")
+      assertEquals("HERE", orderedList[0].countryCode)
+      assertEquals("local_1", orderedList[1].baseUrl)
+    }
+  }
 }
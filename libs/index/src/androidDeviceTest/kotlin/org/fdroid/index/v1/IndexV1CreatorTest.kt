@@ -9,6 +9,7 @@ import kotlin.random.Random
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertTrue
+import org.fdroid.index.IndexCreatorCache
 import org.fdroid.index.IndexParser
 import org.fdroid.test.TestDataMinV1
 import org.junit.Rule
@@ -22,11 +23,8 @@ internal class IndexV1CreatorTest {
 
   private val context: Context = ApplicationProvider.getApplicationContext()
 
-  @Test
-  fun test() {
-    val repoDir = tmpFolder.newFolder()
-    val repo = TestDataMinV1.repo
-    val packageNames =
+  private val packageNames: Set<String>
+    get() =
       context.packageManager
         .getInstalledPackages(0)
         .filter {
@@ -34,6 +32,12 @@ internal class IndexV1CreatorTest {
         }
         .map { it.packageName }
         .toSet()
+
+  @Test
+  fun test() {
+    val repoDir = tmpFolder.newFolder()
+    val repo = TestDataMinV1.repo
+    val packageNames = packageNames
     val indexCreator = IndexV1Creator(context.packageManager, repoDir, packageNames, repo)
     val indexV1 = indexCreator.createRepo()
 
@@ -42,4 +46,35 @@ internal class IndexV1CreatorTest {
     val indexStr = indexFile.readBytes().decodeToString()
     assertEquals(indexV1, IndexParser.parseV1(indexStr))
   }
+
+  @Test
+  fun testCacheGetsReused() {
+    val repo = TestDataMinV1.repo
+    val packageNames = packageNames
+    val cacheDir = tmpFolder.newFolder()
+    val cache = IndexCreatorCache(cacheDir)
+
+    val repoDir1 = tmpFolder.newFolder()
+    val indexV1 =
+      IndexV1Creator(context.packageManager, repoDir1, packageNames, repo, cache).createRepo()
+    if (packageNames.isNotEmpty()) assertTrue(File(cacheDir, "entries.json").exists())
+
+    // a fresh cache instance loads the entries from disk and gives us the same index
+    val repoDir2 = tmpFolder.newFolder()
+    val cachedIndexV1 =
+      IndexV1Creator(
+          context.packageManager,
+          repoDir2,
+          packageNames,
+          repo,
+          IndexCreatorCache(cacheDir),
+          maxThreads = 1,
+        )
+        .createRepo()
+    assertEquals(indexV1, cachedIndexV1)
+    indexV1.apps.forEach { app ->
+      val iconName = app.icon ?: return@forEach
+      assertTrue(File(repoDir2, "icons/$iconName").exists())
+    }
+  }
 }
@@ -0,0 +1,67 @@
+package org.fdroid
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+private const val NUM_APPS = 4000
+
+/** The locales translated on Weblate for many apps on f-droid.org. */
+private val WEBLATE_LOCALES =
+  ("ar be bg ca cs da de el en-US eo es et eu fa fi fr gl he hr hu id it ja ko nb-NO nl pl pt " +
+      "pt-BR pt-PT ro ru sk sl sr sv ta tr uk vi zh-CN zh-TW")
+    .split(' ')
+
+/**
+ * Compares choosing locales with and without [CachingLocaleMatcher] for key sets distributed like
+ * on f-droid.org: Most apps are only in en-US, many share the same set of Weblate languages and
+ * the remaining ones have their own subsets of those.
+ */
+internal class CachingLocaleMatcherTest {
+
+  private val random = Random(42)
+  private val matcher = LocaleMatcher(::getLikelyScript)
+
+  private val keySets: List<Set<String>> =
+    List(NUM_APPS) {
+      val r = random.nextInt(100)
+      when {
+        r < 55 -> setOf("en-US")
+        r < 80 -> WEBLATE_LOCALES.toSet()
+        r < 90 -> setOf("en-US", "de", "fr")
+        else -> (WEBLATE_LOCALES.shuffled(random).take(random.nextInt(2, 20)) + "en-US").toSet()
+      }
+    }
+
+  @Test
+  fun testCachedChoicesMatch() {
+    for (tags in listOf("de-AT,en-US", "zh-HK", "pt-BR,pt", "sr-Latn-RS,en-GB")) {
+      val locales = getLocales(tags)
+      val cachingMatcher = CachingLocaleMatcher(matcher)
+      keySets.forEach { keys ->
+        assertEquals(matcher.chooseKey(keys, locales), cachingMatcher.chooseKey(keys, locales))
+      }
+    }
+  }
+
+  @Test
+  fun testMatchingOncePerKeySet() {
+    var numScriptLookups = 0
+    val countingMatcher = LocaleMatcher { locale ->
+      numScriptLookups++
+      getLikelyScript(locale)
+    }
+    val locales = getLocales("de-AT,fr-FR,en-US")
+    keySets.toSet().forEach { keys -> countingMatcher.chooseKey(keys, locales) }
+    val numLookupsPerKeySet = numScriptLookups
+
+    numScriptLookups = 0
+    val cachingMatcher = CachingLocaleMatcher(countingMatcher)
+    // three fields per app, like name, summary and icon
+    repeat(3) { keySets.forEach { keys -> cachingMatcher.chooseKey(keys, locales) } }
+    // only the first choice for each distinct key set needs to do the matching
+    assertTrue(numLookupsPerKeySet > 0)
+    assertEquals(numLookupsPerKeySet, numScriptLookups)
+  }
+}
@@ -126,6 +126,20 @@ internal class CompatibilityCheckerTest {
     assertFalse(checker3.isCompatible(manifest3))
   }
 
+  @Test
+  fun resultsAreRememberedPerSignature() {
+    // repeated checks of the same signature give the same result
+    repeat(3) {
+      assertTrue(checker.isCompatible(Manifest(minSdkVersion = sdkInt, nativecode = listOf("x86"))))
+      assertFalse(checker.isCompatible(Manifest(minSdkVersion = sdkInt + 1)))
+    }
+    // signatures differing in only one part don't share results
+    assertTrue(checker.isCompatible(Manifest(featureNames = listOf("1337"))))
+    assertFalse(checker.isCompatible(Manifest(featureNames = listOf("42"))))
+    assertTrue(checker.isCompatible(Manifest(nativecode = listOf("x86"))))
+    assertFalse(checker.isCompatible(Manifest(nativecode = listOf("arm64-v8a"))))
+  }
+
   private data class Manifest(
     override val minSdkVersion: Int? = null,
     override val maxSdkVersion: Int? = null,
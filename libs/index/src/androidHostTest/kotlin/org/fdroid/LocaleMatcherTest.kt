@@ -0,0 +1,87 @@
+package org.fdroid
+
+import java.util.Locale
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/**
+ * Tests [LocaleMatcher] on the JVM with a simplified table of likely scripts, see [BestLocaleTest]
+ * for tests on a device with the real ICU data.
+ */
+internal class LocaleMatcherTest {
+
+  private var scriptLookups = 0
+  private val matcher = LocaleMatcher { locale ->
+    scriptLookups++
+    getLikelyScript(locale)
+  }
+
+  @Test
+  fun testFallbacks() {
+    assertEquals("en-US", choose(listOf("fr-FR", "en-US", "de-DE"), ""))
+    assertEquals("en", choose(listOf("de-AT", "de-DE", "en"), "fr-FR"))
+    assertEquals("de-AT", choose(listOf("de-AT", "de-DE", "uk"), "fr-FR"))
+  }
+
+  @Test
+  fun testMatchLanguageAndScript() {
+    assertEquals("en", choose(listOf("en-Shaw", "en-Shaw-US", "en-GB", "en"), "en-NL"))
+    assertEquals("sr-Cyrl", choose(listOf("en", "sr-Cyrl", "sr-Latn"), "sr-RS"))
+    assertEquals("zh-Hant", choose(listOf("en", "zh-Hans", "zh-Hant"), "zh-TW"))
+    assertEquals("zh-TW", choose(listOf("zh", "zh-CN", "zh-TW", "en"), "zh-HK,de"))
+    assertEquals("de", choose(listOf("zh", "de", "en"), "zh-HK,de"))
+  }
+
+  @Test
+  fun testListConversion() {
+    assertEquals("en-US", choose(listOf("de-AT", "de-DE", "en-US"), "en-US,de-DE"))
+    assertEquals("en-US", choose(listOf("de-AT", "de-DE", "en-US"), "en-SE,de-DE"))
+    assertEquals("de-AT", choose(listOf("de-AT", "de-DE", "en-GB", "en-US"), "de-AT,de-DE"))
+  }
+
+  @Test
+  fun testCachingMatcherRemembersChoicePerKeySet() {
+    val cachingMatcher = CachingLocaleMatcher(matcher)
+    val locales = getLocales("zh-HK,de")
+    val keys = linkedSetOf("zh", "zh-CN", "zh-TW", "en")
+
+    assertEquals("zh-TW", cachingMatcher.chooseKey(keys, locales))
+    val lookups = scriptLookups
+    // another set with the same keys is a cache hit
+    assertEquals("zh-TW", cachingMatcher.chooseKey(keys.toMutableSet(), getLocales("zh-HK,de")))
+    assertEquals(lookups, scriptLookups)
+
+    // changing the keys or locales makes the matcher choose again
+    assertEquals("zh-TW", cachingMatcher.chooseKey(keys + "de", locales))
+    assertEquals("de", cachingMatcher.chooseKey(keys + "de", getLocales("de-DE")))
+    assertEquals("zh-CN", cachingMatcher.chooseKey(keys, getLocales("zh-CN")))
+  }
+
+  private fun choose(keys: List<String>, locales: String): String {
+    return matcher.chooseKey(LinkedHashSet(keys), getLocales(locales))
+  }
+}
+
+internal fun getLocales(tags: String): List<Locale> {
+  return tags.split(',').filter { it.isNotEmpty() }.map { Locale.forLanguageTag(it) }
+}
+
+/** A simplified version of ICU's likely subtags, good enough for the languages in these tests. */
+internal fun getLikelyScript(locale: Locale): String {
+  return locale.script.ifEmpty {
+    when (locale.language) {
+      "zh" -> if (locale.country in setOf("TW", "HK", "MO")) "Hant" else "Hans"
+      "sr",
+      "ru",
+      "uk",
+      "be",
+      "bg" -> "Cyrl"
+      "ar",
+      "fa" -> "Arab"
+      "ja" -> "Jpan"
+      "ko" -> "Kore"
+      "he" -> "Hebr"
+      else -> "Latn"
+    }
+  }
+}
@@ -3,9 +3,13 @@ package org.fdroid
 import android.content.pm.PackageManager
 import android.os.Build.SUPPORTED_ABIS
 import android.os.Build.VERSION.SDK_INT
+import java.util.concurrent.ConcurrentHashMap
 import org.fdroid.CompatibilityCheckerUtils.minInstallableTargetSdk
 import org.fdroid.index.v2.PackageManifest
 
+/** The number of different manifest signatures we remember, until the cache gets cleared. */
+private const val MAX_CACHED_SIGNATURES = 4096
+
 public fun interface CompatibilityChecker {
   public fun isCompatible(manifest: PackageManifest): Boolean
 }
@@ -29,7 +33,31 @@ constructor(
       }
     }
 
+  /**
+   * Most versions share the same few combinations of SDK versions, native code and features, so we
+   * remember the result for each combination instead of checking each version again.
+   */
+  private val cache = ConcurrentHashMap<ManifestSignature, Boolean>()
+
   public override fun isCompatible(manifest: PackageManifest): Boolean {
+    val signature =
+      ManifestSignature(
+        minSdkVersion = manifest.minSdkVersion,
+        maxSdkVersion = manifest.maxSdkVersion,
+        targetSdkVersion = manifest.targetSdkVersion,
+        nativecode = manifest.nativecode,
+        featureNames = manifest.featureNames,
+      )
+    cache[signature]?.let {
+      return it
+    }
+    val isCompatible = isCompatible(signature)
+    if (cache.size >= MAX_CACHED_SIGNATURES) cache.clear()
+    cache[signature] = isCompatible
+    return isCompatible
+  }
+
+  private fun isCompatible(manifest: ManifestSignature): Boolean {
     if (sdkInt < (manifest.minSdkVersion ?: 0)) return false
     if (sdkInt > (manifest.maxSdkVersion ?: Int.MAX_VALUE)) return false
     if ((manifest.targetSdkVersion ?: 1) < minInstallableTargetSdk(sdkInt)) return false
@@ -41,12 +69,21 @@ constructor(
     return true
   }
 
-  private fun isNativeCodeCompatible(manifest: PackageManifest): Boolean {
+  private fun isNativeCodeCompatible(manifest: ManifestSignature): Boolean {
     val nativeCode = manifest.nativecode
     if (nativeCode.isNullOrEmpty()) return true
     supportedAbis.forEach { supportedAbi -> if (nativeCode.contains(supportedAbi)) return true }
     return false
   }
+
+  /** The parts of a [PackageManifest] that decide its compatibility. */
+  private data class ManifestSignature(
+    val minSdkVersion: Int?,
+    val maxSdkVersion: Int?,
+    val targetSdkVersion: Int?,
+    val nativecode: List<String>?,
+    val featureNames: List<String>?,
+  )
 }
 
 /** Contains helper methods for checking compatibility of an APK */
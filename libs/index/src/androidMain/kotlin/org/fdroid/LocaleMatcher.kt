@@ -0,0 +1,175 @@
+package org.fdroid
+
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+
+/** The number of different key sets we remember the choice for, until the cache gets cleared. */
+private const val MAX_CACHED_KEY_SETS = 4096
+
+/**
+ * Chooses the best key of a localized map for a list of the user's [Locale]s, see [LocaleChooser].
+ *
+ * This only works with plain [Locale]s, so it runs on the JVM as well. The only thing it needs from
+ * Android is [maximizeAndGetScript] which returns the likely script of a locale (e.g. Hant for
+ * zh-TW) and is provided by ICU.
+ */
+internal class LocaleMatcher(private val maximizeAndGetScript: (Locale) -> String?) {
+
+  /** Returns the best key out of the given non-empty [keys] for the given [locales]. */
+  fun chooseKey(keys: Set<String>, locales: List<Locale>): String {
+    val firstMatch =
+      when (locales.size) {
+        0 -> null
+        1 -> locales[0]
+        else -> getFirstMatch(locales, keys)
+      }
+    return firstMatch?.let { chooseKey(keys, it) }
+      // or English and then just take the first of the list
+      ?: "en-US".takeIf { it in keys }
+      ?: "en".takeIf { it in keys }
+      ?: keys.first()
+  }
+
+  private fun chooseKey(keys: Set<String>, firstMatch: Locale): String? {
+    // try first matched tag first (usually has region tag, e.g. de-DE)
+    firstMatch.toLanguageTag().let { if (it in keys) return it }
+    // search by ranking priority if no exact match is found,
+    // determining its script if not supplied
+    val tried =
+      (if (firstMatch.script.isNullOrEmpty()) 0 else 1) +
+        (if (firstMatch.country.isNullOrEmpty()) 0 else 2)
+    val ranked =
+      if (firstMatch.script.isNullOrEmpty()) {
+        maximizeAndGetScript(firstMatch)
+          ?.takeUnless { it.isEmpty() }
+          ?.let { script -> keys.getInRankingOrder(firstMatch, tried + 1, script, tried) }
+      } else if (tried > 1) {
+        keys.getInRankingOrder(firstMatch, tried - 1, firstMatch.script, tried)
+      } else {
+        null
+      }
+    return ranked
+      // then language and other countries if script matches
+      ?: firstMatch.language.takeIf { language ->
+        tried != 0 &&
+          language in keys &&
+          matchesLanguageAndScript(getLocale(language), firstMatch)
+      }
+      ?: keys.getFirstSameScript(firstMatch)
+  }
+
+  /**
+   * Returns the first of the given [locales] that matches one of the [keys] in language and script
+   * or the first locale, if none matches. This is the same as
+   * [android.os.LocaleList.getFirstMatch].
+   */
+  private fun getFirstMatch(locales: List<Locale>, keys: Set<String>): Locale {
+    var bestIndex = Int.MAX_VALUE
+    for (key in keys) {
+      val supported = Locale.forLanguageTag(key)
+      val index = locales.indexOfFirst { matchesLanguageAndScript(supported, it) }
+      if (index == 0) return locales[0]
+      if (index > 0 && index < bestIndex) bestIndex = index
+    }
+    return if (bestIndex == Int.MAX_VALUE) locales[0] else locales[bestIndex]
+  }
+
+  private tailrec fun Set<String>.getInRankingOrder(
+    locale: Locale,
+    rank: Int,
+    script: String?,
+    tried: Int,
+  ): String? {
+    if (rank <= 0) return null
+    if (rank != tried) {
+      getRankingTag(locale, rank, script)?.let { if (it in this) return it }
+    }
+    return getInRankingOrder(locale, rank - 1, script, tried)
+  }
+
+  private fun Set<String>.getFirstSameScript(locale: Locale): String? {
+    val langLen = locale.language.length
+    return firstOrNull { key ->
+      key.length > langLen &&
+        key.startsWith(locale.language) &&
+        key[langLen] == '-' &&
+        matchesLanguageAndScript(Locale.forLanguageTag(key), locale)
+    }
+  }
+
+  private fun getRankingTag(locale: Locale, rank: Int, script: String?): String? {
+    if (rank >= 2 && locale.country.isNullOrEmpty()) return null
+    if (rank != 2 && script.isNullOrEmpty()) return null
+    return when (rank) {
+      3 -> "${locale.language}-$script-${locale.country}"
+      2 ->
+        if (
+          script.isNullOrEmpty() ||
+            script.equals(maximizeAndGetScript(getLocale(locale.language, locale.country)), true)
+        )
+          "${locale.language}-${locale.country}"
+        else null
+
+      1 -> "${locale.language}-$script"
+      else -> null
+    }
+  }
+
+  /** The same as [androidx.core.os.LocaleListCompat.matchesLanguageAndScript]. */
+  private fun matchesLanguageAndScript(supported: Locale, desired: Locale): Boolean {
+    if (supported == desired) return true
+    if (supported.language != desired.language) return false
+    if (supported.isPseudoLocale() || desired.isPseudoLocale()) return false
+    val supportedScript = getLikelyScript(supported)
+    if (supportedScript.isEmpty()) {
+      val supportedRegion = supported.country
+      return supportedRegion.isEmpty() || supportedRegion == desired.country
+    }
+    return supportedScript == getLikelyScript(desired)
+  }
+
+  private fun getLikelyScript(locale: Locale): String {
+    return locale.script.ifEmpty { maximizeAndGetScript(locale) ?: "" }
+  }
+
+  private fun Locale.isPseudoLocale(): Boolean {
+    return (language == "en" && country == "XA") || (language == "ar" && country == "XB")
+  }
+
+  private fun getLocale(language: String, country: String = ""): Locale {
+    return Locale.Builder().setLanguage(language).setRegion(country).build()
+  }
+}
+
+/**
+ * Remembers the choices of a [LocaleMatcher] per set of keys, because most apps share the same few
+ * sets of localizations, e.g. only en-US or all languages from Weblate. This turns choosing a
+ * locale into a hash lookup. The cache gets cleared when the list of locales changes.
+ *
+ * The order of keys only matters as a last resort when no key matches at all, so maps with the same
+ * keys in a different order may get the choice of the first one.
+ */
+internal class CachingLocaleMatcher(private val matcher: LocaleMatcher) {
+
+  private class Cache(val locales: List<Locale>) {
+    val choices = ConcurrentHashMap<Set<String>, String>()
+  }
+
+  @Volatile private var cache = Cache(emptyList())
+
+  fun chooseKey(keys: Set<String>, locales: List<Locale>): String {
+    var current = cache
+    if (current.locales !== locales && current.locales != locales) {
+      current = Cache(locales)
+      cache = current
+    }
+    current.choices[keys]?.let {
+      return it
+    }
+    val key = matcher.chooseKey(keys, locales)
+    if (current.choices.size >= MAX_CACHED_KEY_SETS) current.choices.clear()
+    // copy the keys, because they are usually a view of a map that may change
+    current.choices[HashSet(keys)] = key
+    return key
+  }
+}
@@ -17,10 +17,19 @@ import java.util.jar.JarFile
 import java.util.regex.Pattern
 import org.fdroid.index.IndexUtils.toHex
 
-public abstract class IndexCreator<T>(
+/**
+ * Base class for creating a repository index from installed apps.
+ *
+ * The per-APK work (hashing, native code scanning and icon rendering) is expensive. If a [cache] is
+ * given, its results get re-used for APKs that did not change since the last run.
+ */
+public abstract class IndexCreator<T>
+@JvmOverloads
+constructor(
   protected val packageManager: PackageManager,
   protected val repoDir: File,
   protected val packageNames: Set<String>,
+  protected val cache: IndexCreatorCache? = null,
 ) {
 
   private val iconDir = File(repoDir, "icons")
@@ -51,6 +60,13 @@ public abstract class IndexCreator<T>(
   protected fun copyIconToRepo(packageInfo: PackageInfo): String? {
     val packageName = packageInfo.packageName
     val versionCode = PackageInfoCompat.getLongVersionCode(packageInfo)
+    val iconName = "${packageName}_$versionCode.png"
+    val iconFile = File(iconDir, iconName)
+    val cachedIcon = cache?.getIcon(packageInfo)
+    if (cachedIcon != null) {
+      cachedIcon.copyTo(iconFile, overwrite = true)
+      return iconName
+    }
     val drawable = packageInfo.applicationInfo?.loadIcon(packageManager) ?: return null
     val bitmap: Bitmap
     if (drawable is BitmapDrawable) {
@@ -61,10 +77,8 @@ public abstract class IndexCreator<T>(
       drawable.setBounds(0, 0, canvas.width, canvas.height)
       drawable.draw(canvas)
     }
-    val iconName = "${packageName}_$versionCode.png"
-    File(iconDir, iconName).outputStream().use { outputStream ->
-      bitmap.compress(PNG, 100, outputStream)
-    }
+    iconFile.outputStream().use { outputStream -> bitmap.compress(PNG, 100, outputStream) }
+    cache?.putIcon(packageInfo, iconFile)
     return iconName
   }
 
@@ -109,19 +123,34 @@ public abstract class IndexCreator<T>(
     return messageDigest.digest().toHex()
   }
 
+  /**
+   * Returns the SHA-256 hash of the given [apk] belonging to [packageInfo], from the [cache] if
+   * possible.
+   */
+  protected fun hashApk(packageInfo: PackageInfo, apk: File): String {
+    cache?.getHash(packageInfo)?.let {
+      return it
+    }
+    return hashFile(apk).also { cache?.putHash(packageInfo, it) }
+  }
+
   protected fun parseNativeCode(packageInfo: PackageInfo): List<String> {
     val appInfo = packageInfo.applicationInfo ?: return emptyList()
-    val apkJar = JarFile(appInfo.publicSourceDir)
+    cache?.getNativeCode(packageInfo)?.let {
+      return it
+    }
     val abis = HashSet<String>()
-    val jarEntries = apkJar.entries()
-    while (jarEntries.hasMoreElements()) {
-      val jarEntry = jarEntries.nextElement()
-      val matcher = nativeCodePattern.matcher(jarEntry.name)
-      if (matcher.matches()) {
-        val group = matcher.group(1)
-        if (group != null) abis.add(group)
+    JarFile(appInfo.publicSourceDir).use { apkJar ->
+      val jarEntries = apkJar.entries()
+      while (jarEntries.hasMoreElements()) {
+        val jarEntry = jarEntries.nextElement()
+        val matcher = nativeCodePattern.matcher(jarEntry.name)
+        if (matcher.matches()) {
+          val group = matcher.group(1)
+          if (group != null) abis.add(group)
+        }
       }
     }
-    return abis.toList()
+    return abis.toList().also { cache?.putNativeCode(packageInfo, it) }
   }
 }
@@ -0,0 +1,148 @@
+package org.fdroid.index
+
+import android.content.pm.PackageInfo
+import android.util.Log
+import androidx.core.content.pm.PackageInfoCompat
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.decodeFromStream
+import kotlinx.serialization.json.encodeToStream
+
+/**
+ * An on-disk cache for the expensive per-APK work an [IndexCreator] does: hashing the APK, scanning
+ * it for native code and rendering its icon.
+ *
+ * Entries are keyed by package name and are only considered valid as long as the APK path, its
+ * size, its last modification time and the version code are unchanged. So an app update or
+ * re-install invalidates the entry automatically.
+ *
+ * All methods are safe to call from multiple threads. Call [save] once all work is done to persist
+ * the cache to [cacheDir].
+ */
+public class IndexCreatorCache(private val cacheDir: File) {
+
+  private val entriesFile = File(cacheDir, "entries.json")
+  private val iconDir = File(cacheDir, "icons")
+  private val entries: ConcurrentHashMap<String, IndexCreatorCacheEntry> by lazy { load() }
+
+  @Volatile private var dirty = false
+
+  internal fun getHash(packageInfo: PackageInfo): String? = getEntry(packageInfo)?.hash
+
+  internal fun putHash(packageInfo: PackageInfo, hash: String) {
+    update(packageInfo) { it.copy(hash = hash) }
+  }
+
+  internal fun getNativeCode(packageInfo: PackageInfo): List<String>? =
+    getEntry(packageInfo)?.nativeCode
+
+  internal fun putNativeCode(packageInfo: PackageInfo, nativeCode: List<String>) {
+    update(packageInfo) { it.copy(nativeCode = nativeCode) }
+  }
+
+  /** Returns the cached icon file for the given [packageInfo] or null if there is none. */
+  internal fun getIcon(packageInfo: PackageInfo): File? {
+    val iconName = getEntry(packageInfo)?.iconName ?: return null
+    return File(iconDir, iconName).takeIf { it.isFile }
+  }
+
+  /** Copies the given [iconFile] into the cache, replacing the icon of older versions. */
+  internal fun putIcon(packageInfo: PackageInfo, iconFile: File) {
+    try {
+      iconDir.mkdirs()
+      iconFile.copyTo(File(iconDir, iconFile.name), overwrite = true)
+    } catch (e: IOException) {
+      Log.w(TAG, "Could not cache icon for ${packageInfo.packageName}: ", e)
+      return
+    }
+    val oldIconName = entries[packageInfo.packageName]?.iconName
+    update(packageInfo) { it.copy(iconName = iconFile.name) }
+    if (oldIconName != null && oldIconName != iconFile.name) File(iconDir, oldIconName).delete()
+  }
+
+  /** Writes the cache to disk, if anything changed since it was loaded. */
+  @OptIn(ExperimentalSerializationApi::class)
+  public fun save() {
+    if (!dirty) return
+    dirty = false
+    try {
+      cacheDir.mkdirs()
+      val tmpFile = File(cacheDir, "${entriesFile.name}.tmp")
+      tmpFile.outputStream().use { outputStream ->
+        IndexParser.json.encodeToStream(HashMap(entries), outputStream)
+      }
+      if (!tmpFile.renameTo(entriesFile)) throw IOException("Could not rename $tmpFile")
+    } catch (e: Exception) {
+      Log.e(TAG, "Could not save cache: ", e)
+    }
+  }
+
+  private fun getEntry(packageInfo: PackageInfo): IndexCreatorCacheEntry? {
+    val entry = entries[packageInfo.packageName] ?: return null
+    return entry.takeIf { it.key == packageInfo.getCacheKey() }
+  }
+
+  private fun update(
+    packageInfo: PackageInfo,
+    block: (IndexCreatorCacheEntry) -> IndexCreatorCacheEntry,
+  ) {
+    val key = packageInfo.getCacheKey() ?: return
+    entries.compute(packageInfo.packageName) { _, oldEntry ->
+      val entry =
+        if (oldEntry == null || oldEntry.key != key) IndexCreatorCacheEntry(key) else oldEntry
+      block(entry)
+    }
+    dirty = true
+  }
+
+  @OptIn(ExperimentalSerializationApi::class)
+  private fun load(): ConcurrentHashMap<String, IndexCreatorCacheEntry> {
+    if (!entriesFile.isFile) return ConcurrentHashMap()
+    return try {
+      val map: Map<String, IndexCreatorCacheEntry> =
+        entriesFile.inputStream().use { IndexParser.json.decodeFromStream(it) }
+      ConcurrentHashMap(map)
+    } catch (e: SerializationException) {
+      Log.w(TAG, "Discarding invalid cache: ", e)
+      ConcurrentHashMap()
+    } catch (e: IOException) {
+      Log.w(TAG, "Could not read cache: ", e)
+      ConcurrentHashMap()
+    }
+  }
+
+  private fun PackageInfo.getCacheKey(): IndexCreatorCacheKey? {
+    val apkPath = applicationInfo?.publicSourceDir ?: return null
+    val apkFile = File(apkPath)
+    return IndexCreatorCacheKey(
+      apkPath = apkPath,
+      size = apkFile.length(),
+      lastModified = apkFile.lastModified(),
+      versionCode = PackageInfoCompat.getLongVersionCode(this),
+    )
+  }
+
+  private companion object {
+    const val TAG = "IndexCreatorCache"
+  }
+}
+
+@Serializable
+internal data class IndexCreatorCacheKey(
+  val apkPath: String,
+  val size: Long,
+  val lastModified: Long,
+  val versionCode: Long,
+)
+
+@Serializable
+internal data class IndexCreatorCacheEntry(
+  val key: IndexCreatorCacheKey,
+  val hash: String? = null,
+  val nativeCode: List<String>? = null,
+  val iconName: String? = null,
+)
@@ -9,9 +9,13 @@ import android.util.Log
 import androidx.core.content.pm.PackageInfoCompat
 import java.io.File
 import java.io.IOException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.json.encodeToStream
 import org.fdroid.index.IndexCreator
+import org.fdroid.index.IndexCreatorCache
 import org.fdroid.index.IndexParser
 import org.fdroid.index.IndexUtils.getPackageSigner
 import org.fdroid.index.IndexUtils.getsig
@@ -22,13 +26,20 @@ import org.fdroid.index.IndexUtils.getsig
  *
  * Attention: While [createRepo] creates `index-v1.json`, it does **not** create a signed
  * `index-v1.jar`. The caller needs to handle this last signing step themselves.
+ *
+ * The apps are processed in parallel by at most [maxThreads] threads. Pass an [IndexCreatorCache]
+ * to avoid re-hashing and re-rendering APKs that did not change since the last call.
  */
-public class IndexV1Creator(
+public class IndexV1Creator
+@JvmOverloads
+constructor(
   packageManager: PackageManager,
   repoDir: File,
   packageNames: Set<String>,
   private val repo: RepoV1,
-) : IndexCreator<IndexV1>(packageManager, repoDir, packageNames) {
+  cache: IndexCreatorCache? = null,
+  private val maxThreads: Int = DEFAULT_MAX_THREADS,
+) : IndexCreator<IndexV1>(packageManager, repoDir, packageNames, cache) {
 
   @Throws(IOException::class)
   @OptIn(ExperimentalSerializationApi::class)
@@ -45,31 +56,47 @@ public class IndexV1Creator(
   private fun createIndex(): IndexV1 {
     val apps = ArrayList<AppV1>(packageNames.size)
     val packages = HashMap<String, List<PackageV1>>(packageNames.size)
-    for (packageName in packageNames) {
-      addApp(packageName, apps, packages)
+    val threads = maxThreads.coerceIn(1, packageNames.size.coerceAtLeast(1))
+    val executor = Executors.newFixedThreadPool(threads)
+    try {
+      val futures: List<Future<Pair<AppV1, PackageV1?>?>> =
+        packageNames.map { packageName ->
+          executor.submit<Pair<AppV1, PackageV1?>?> { addApp(packageName) }
+        }
+      futures.forEach { future ->
+        val (app, p) = future.getOrThrow() ?: return@forEach
+        apps.add(app)
+        if (p == null) {
+          Log.w("IndexV1Creator", "Got no package for ${app.packageName}")
+        } else {
+          packages[app.packageName] = listOf(p)
+        }
+      }
+    } finally {
+      executor.shutdownNow()
+      cache?.save()
     }
     return IndexV1(repo = repo, apps = apps, packages = packages)
   }
 
-  private fun addApp(
-    packageName: String,
-    apps: ArrayList<AppV1>,
-    packages: HashMap<String, List<PackageV1>>,
-  ) {
+  private fun addApp(packageName: String): Pair<AppV1, PackageV1?>? {
     @Suppress("DEPRECATION") val flags = GET_SIGNATURES or GET_PERMISSIONS
 
-    try {
+    return try {
       @Suppress("PackageManagerGetSignatures")
       val packageInfo = packageManager.getPackageInfo(packageName, flags)
-      apps.add(getApp(packageInfo))
-      val p = getPackage(packageInfo)
-      if (p == null) {
-        Log.w("IndexV1Creator", "Got no package for $packageName")
-        return
-      }
-      packages[packageName] = listOf(p)
+      Pair(getApp(packageInfo), getPackage(packageInfo))
     } catch (e: PackageManager.NameNotFoundException) {
       Log.i("IndexV1Creator", "app disappeared during addApp: ", e)
+      null
+    }
+  }
+
+  private fun <V> Future<V>.getOrThrow(): V {
+    return try {
+      get()
+    } catch (e: ExecutionException) {
+      throw e.cause ?: e
     }
   }
 
@@ -87,7 +114,7 @@ public class IndexV1Creator(
     val apk = copyApkToRepo(packageInfo) ?: return null
     val appInfo = packageInfo.applicationInfo ?: return null
     val signatures = packageInfo.signatures ?: return null
-    val hash = hashFile(apk)
+    val hash = hashApk(packageInfo, apk)
     val apkName = apk.name
     val sig = getsig(signatures[0].toByteArray())
     val signer = getPackageSigner(signatures[0].toByteArray())
@@ -111,3 +138,9 @@ public class IndexV1Creator(
     )
   }
 }
+
+/**
+ * Creating the index is mostly I/O bound (reading APKs and writing icons), so we use a few more
+ * threads than we have cores, but not too many to not exhaust memory with rendered icons.
+ */
+private val DEFAULT_MAX_THREADS = (Runtime.getRuntime().availableProcessors() + 1).coerceAtMost(4)
@@ -0,0 +1,83 @@
+package org.fdroid.test
+
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+import kotlin.test.fail
+import org.fdroid.Tracer
+import org.fdroid.Tracing
+
+/**
+ * A [Tracer] that records sections into a tree, so tests can assert which sections got traced and
+ * how they are nested. Async sections get nested under the section that was open when they began.
+ *
+ * Call [install] before and [uninstall] after the code under test.
+ */
+class FakeTracer : Tracer {
+
+  data class Section(val name: String, val children: MutableList<Section> = mutableListOf())
+
+  private val root = Section("root")
+  private val openSections = ArrayDeque<Section>().apply { addLast(root) }
+  private val openAsyncSections = mutableMapOf<Pair<String, Int>, Section>()
+  private var previousTracer: Tracer? = null
+
+  /** The top-level sections that were recorded. */
+  val sections: List<Section>
+    get() = root.children
+
+  override val isEnabled: Boolean = true
+
+  override fun beginSection(name: String) {
+    val section = Section(name)
+    openSections.last().children.add(section)
+    openSections.addLast(section)
+  }
+
+  override fun endSection() {
+    if (openSections.size <= 1) fail("endSection() without open section")
+    val section = openSections.last()
+    assertTrue(openAsyncSections.values.none { it === section }, "${section.name} is async")
+    openSections.removeLast()
+  }
+
+  override fun beginAsyncSection(name: String, cookie: Int) {
+    beginSection(name)
+    if (openAsyncSections.put(Pair(name, cookie), openSections.last()) != null) {
+      fail("Async section $name with cookie $cookie began twice")
+    }
+  }
+
+  override fun endAsyncSection(name: String, cookie: Int) {
+    val section = openAsyncSections.remove(Pair(name, cookie)) ?: fail("$name was not begun")
+    assertSame(section, openSections.last(), "$name ended before its children")
+    openSections.removeLast()
+  }
+
+  fun install() {
+    previousTracer = Tracing.tracer
+    Tracing.tracer = this
+  }
+
+  fun uninstall() {
+    Tracing.tracer = previousTracer ?: error("Not installed")
+    previousTracer = null
+  }
+
+  /** Asserts that all sections have ended. */
+  fun assertAllEnded() {
+    assertEquals(1, openSections.size, "Sections still open: ${openSections.drop(1)}")
+    assertTrue(openAsyncSections.isEmpty(), "Async sections still open: $openAsyncSections")
+  }
+
+  /** Returns all sections with a name starting with the given [prefix] in the order they began. */
+  fun findSections(prefix: String): List<Section> {
+    val result = mutableListOf<Section>()
+    fun Section.walk() {
+      if (name.startsWith(prefix)) result.add(this)
+      children.forEach { it.walk() }
+    }
+    sections.forEach { it.walk() }
+    return result
+  }
+}